@@ -3,8 +3,10 @@ package com.ahmet.lowlatencyrtspplayer;
 import android.content.Context;
 import android.net.Uri;
 
+import com.ahmet.lowlatencyrtspplayer.rtsp.RtspSessionCache;
 import com.ahmet.lowlatencyrtspplayer.rtsp.widget.RtspSurfaceView;
 
+import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -25,6 +27,16 @@ public class RtspManager {
         this.surfaceView.setStatusListener(listener);
     }
 
+    /**
+     * Keep server profiles between connections to reconnect faster. Some servers change SDP
+     * without notice, so disabled by default.
+     */
+    public void setSessionCacheEnabled(boolean enabled) {
+        surfaceView.setSessionCache(enabled ?
+                new RtspSessionCache(new File(surfaceView.getContext().getFilesDir(), "rtsp_sessions")) :
+                null);
+    }
+
     public void initialize(String rtspUrl) {
         Uri rtspUri = Uri.parse(rtspUrl);
         surfaceView.init(rtspUri, "", "");
@@ -0,0 +1,72 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.VideoRtpParser;
+
+/**
+ * Groups video NAL units of the same RTP timestamp into access units (frames), so the decoder gets
+ * a single input buffer per frame instead of one per slice, SEI or AUD. NAL units are written once
+ * into the pooled buffer of the parser running in access unit mode. Access unit is complete on RTP
+ * marker bit or, if the marker packet was lost, on the next timestamp.
+ */
+class AccessUnitAssembler {
+
+    private static final long NO_TIMESTAMP = -1;
+
+    private final @NonNull VideoRtpParser parser;
+    private final @NonNull RtpClockSync clockSync;
+    private final @NonNull RtspClient.RtspClientListener listener;
+    private long rtpTimestamp = NO_TIMESTAMP;
+    private int flags = 0;
+
+    AccessUnitAssembler(
+            @NonNull VideoRtpParser parser,
+            @NonNull RtpClockSync clockSync,
+            @NonNull RtspClient.RtspClientListener listener) {
+        this.parser = parser;
+        this.clockSync = clockSync;
+        this.listener = listener;
+        parser.setAccessUnitMode(true);
+    }
+
+    /**
+     * @return RTP timestamp of the access unit being assembled, -1 if none
+     */
+    long getRtpTimestamp() {
+        return rtpTimestamp;
+    }
+
+    /**
+     * NAL unit returned or appended last by the parser becomes part of the access unit.
+     */
+    void addNalUnit(long rtpTimestamp, boolean keyFrame) {
+        parser.commitNalUnit();
+        this.rtpTimestamp = rtpTimestamp;
+        if (keyFrame)
+            flags |= RtspClient.VIDEO_FLAG_KEY_FRAME;
+    }
+
+    /**
+     * Pass the access unit to the listener, if any NAL units added.
+     */
+    void flush() {
+        int length = parser.getAccessUnitLength();
+        byte[] accessUnit = parser.takeAccessUnit();
+        if (accessUnit != null) {
+            long timestampUs = clockSync.getPresentationTimeUs(RtpClockSync.TRACK_VIDEO, rtpTimestamp, System.currentTimeMillis());
+            listener.onRtspVideoAccessUnitReceived(accessUnit, 0, length, timestampUs, flags);
+        }
+        rtpTimestamp = NO_TIMESTAMP;
+        flags = 0;
+    }
+
+    /**
+     * Parameter sets should be passed before the access unit of the key frame, as a separate buffer.
+     */
+    void sendCodecConfig(@NonNull byte[] data, long rtpTimestamp) {
+        long timestampUs = clockSync.getPresentationTimeUs(RtpClockSync.TRACK_VIDEO, rtpTimestamp, System.currentTimeMillis());
+        listener.onRtspVideoAccessUnitReceived(data, 0, data.length, timestampUs, RtspClient.VIDEO_FLAG_CODEC_CONFIG);
+    }
+
+}
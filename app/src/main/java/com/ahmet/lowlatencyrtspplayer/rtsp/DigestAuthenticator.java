@@ -0,0 +1,336 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+
+// https://www.ietf.org/rfc/rfc2617.txt 3.2 Digest Access Authentication
+// WWW-Authenticate: Digest realm="AXIS_00408CEF081C", nonce="00054cecY7165349339ae05f7017797d6b0aaad38f6ff45", stale=FALSE
+// WWW-Authenticate: Digest realm="testrealm@host.com", qop="auth,auth-int", nonce="dcd98b7102dd2f0e8b11d0f600bfb0c093", opaque="5ccc069c403ebaf9f0171e9517f40e41"
+//
+// Authorization: Digest username="admin", realm="Foscam IPCam Living Video", nonce="3c889dbf8371d3660aa2496789a5d130", uri="rtsp://10.0.1.145:88/videoSub", response="4f062baec1c813ae3db15e3a14111d3d"
+// Authorization: Digest username="Mufasa", realm="testrealm@host.com", nonce="dcd98b7102dd2f0e8b11d0f600bfb0c093", uri="/dir/index.html", qop=auth, nc=00000001, cnonce="0a4f113b", response="6629fae49393a05397450978507c4ef1", opaque="5ccc069c403ebaf9f0171e9517f40e41"
+/**
+ * Digest authentication state of a single RTSP session.
+ * HA1 = MD5(username:realm:password) is computed once per challenge, MD5 instances are reused per thread.
+ * Supports qop=auth with nonce count. Stale nonce is replaced by {@link #updateChallenge(ArrayList)}
+ * keeping the session alive. Thread safe, keep-alive requests may be authorized from another thread.
+ */
+class DigestAuthenticator {
+
+    private static final String TAG = DigestAuthenticator.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int CNONCE_SIZE = 8;
+
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // MD5 is mandatory for every Java platform
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final @NonNull String username;
+    private final @NonNull String password;
+    private @NonNull String realm;
+    private @NonNull String nonce;
+    private @Nullable String opaque;
+    private boolean qopAuth;
+    // Hex encoded MD5(username:realm:password)
+    private @NonNull String ha1;
+    private @NonNull String cnonce = "";
+    private boolean fixedCnonce = false;
+    private int nonceCount = 0;
+
+    DigestAuthenticator(
+            @Nullable String username,
+            @Nullable String password,
+            @NonNull String realm,
+            @NonNull String nonce) {
+        this.username = (username == null ? "" : username);
+        this.password = (password == null ? "" : password);
+        this.realm = realm;
+        this.nonce = nonce;
+        ha1 = calculateHa1();
+    }
+
+    /**
+     * @return authenticator for Digest challenge in WWW-Authenticate header, null if there is no one
+     */
+    @Nullable
+    static DigestAuthenticator fromChallenge(
+            @Nullable String username,
+            @Nullable String password,
+            @NonNull ArrayList<Pair<String, String>> headers) {
+        String challenge = getChallenge(headers);
+        return (challenge != null ? fromChallenge(username, password, challenge) : null);
+    }
+
+    /**
+     * @param challenge WWW-Authenticate header value, e.g. from {@link #getChallenge()}
+     * @return authenticator for Digest challenge, null if it is not a valid one
+     */
+    @Nullable
+    static DigestAuthenticator fromChallenge(
+            @Nullable String username,
+            @Nullable String password,
+            @NonNull String challenge) {
+        if (!isDigestChallenge(challenge))
+            return null;
+        ArrayList<Pair<String, String>> params = parseParams(challenge, 7);
+        String realm = getParam(params, "realm");
+        String nonce = getParam(params, "nonce");
+        if (realm == null || nonce == null)
+            return null;
+        DigestAuthenticator authenticator = new DigestAuthenticator(username, password, realm, nonce);
+        authenticator.setOptionalParams(params);
+        return authenticator;
+    }
+
+    /**
+     * Take new nonce from 401 response with stale=true. The credentials were accepted,
+     * only the nonce expired, so the request can be repeated without user interaction.
+     * @return true if the nonce updated and the request should be repeated
+     */
+    synchronized boolean updateChallenge(@NonNull ArrayList<Pair<String, String>> headers) {
+        ArrayList<Pair<String, String>> params = getChallengeParams(headers);
+        if (params == null || !"true".equalsIgnoreCase(getParam(params, "stale")))
+            return false;
+        String newRealm = getParam(params, "realm");
+        String newNonce = getParam(params, "nonce");
+        if (newNonce == null)
+            return false;
+        if (DEBUG)
+            Log.d(TAG, "Stale nonce replaced with " + newNonce);
+        nonce = newNonce;
+        nonceCount = 0;
+        if (newRealm != null && !newRealm.equals(realm)) {
+            realm = newRealm;
+            ha1 = calculateHa1();
+        }
+        setOptionalParams(params);
+        return true;
+    }
+
+    @NonNull
+    synchronized String getRealm() {
+        return realm;
+    }
+
+    @NonNull
+    synchronized String getNonce() {
+        return nonce;
+    }
+
+    /**
+     * @return current challenge as WWW-Authenticate header value, including qop and opaque,
+     * to be stored and passed to {@link #fromChallenge(String, String, String)} later
+     */
+    @NonNull
+    synchronized String getChallenge() {
+        StringBuilder challenge = new StringBuilder(128);
+        challenge.append("Digest realm=\"").append(realm)
+                .append("\", nonce=\"").append(nonce).append('"');
+        if (qopAuth)
+            challenge.append(", qop=\"auth\"");
+        if (opaque != null)
+            challenge.append(", opaque=\"").append(opaque).append('"');
+        return challenge.toString();
+    }
+
+    /**
+     * @return Authorization header value for the request
+     */
+    @NonNull
+    synchronized String getAuthHeader(@NonNull String method, @NonNull String digestUri) {
+        MessageDigest md = MD5.get();
+
+        // calc A2 digest
+        md.reset();
+        update(md, method);
+        md.update((byte) ':');
+        update(md, digestUri);
+        String ha2 = toHexString(md.digest());
+
+        // calc response
+        update(md, ha1);
+        md.update((byte) ':');
+        update(md, nonce);
+        md.update((byte) ':');
+        String nc = null;
+        if (qopAuth) {
+            if (nonceCount == 0 && !fixedCnonce)
+                cnonce = generateCnonce();
+            nonceCount++;
+            nc = getNonceCountString(nonceCount);
+            update(md, nc);
+            md.update((byte) ':');
+            update(md, cnonce);
+            md.update((byte) ':');
+            update(md, "auth");
+            md.update((byte) ':');
+        }
+        update(md, ha2);
+        String response = toHexString(md.digest());
+
+        StringBuilder header = new StringBuilder(256);
+        header.append("Digest username=\"").append(username)
+                .append("\", realm=\"").append(realm)
+                .append("\", nonce=\"").append(nonce)
+                .append("\", uri=\"").append(digestUri)
+                .append("\", response=\"").append(response).append('"');
+        if (nc != null)
+            header.append(", qop=auth, nc=").append(nc).append(", cnonce=\"").append(cnonce).append('"');
+        if (opaque != null)
+            header.append(", opaque=\"").append(opaque).append('"');
+        return header.toString();
+    }
+
+    // Tests only, cnonce is random otherwise
+    synchronized void setCnonce(@NonNull String cnonce) {
+        this.cnonce = cnonce;
+        fixedCnonce = true;
+    }
+
+    @NonNull
+    private String calculateHa1() {
+        MessageDigest md = MD5.get();
+        md.reset();
+        update(md, username);
+        md.update((byte) ':');
+        update(md, realm);
+        md.update((byte) ':');
+        update(md, password);
+        return toHexString(md.digest());
+    }
+
+    private void setOptionalParams(@NonNull ArrayList<Pair<String, String>> params) {
+        opaque = getParam(params, "opaque");
+        qopAuth = false;
+        String qop = getParam(params, "qop");
+        if (qop != null) {
+            // qop="auth,auth-int"
+            for (String option : qop.split(",")) {
+                if ("auth".equalsIgnoreCase(option.trim())) {
+                    qopAuth = true;
+                    break;
+                }
+            }
+            if (!qopAuth)
+                Log.w(TAG, "Unsupported digest qop \"" + qop + "\"");
+        }
+        String algorithm = getParam(params, "algorithm");
+        if (algorithm != null && !"MD5".equalsIgnoreCase(algorithm))
+            Log.w(TAG, "Unsupported digest algorithm \"" + algorithm + "\", using MD5");
+    }
+
+    @Nullable
+    private static ArrayList<Pair<String, String>> getChallengeParams(@NonNull ArrayList<Pair<String, String>> headers) {
+        String challenge = getChallenge(headers);
+        return (challenge != null ? parseParams(challenge, 7) : null);
+    }
+
+    @Nullable
+    private static String getChallenge(@NonNull ArrayList<Pair<String, String>> headers) {
+        for (Pair<String, String> header : headers) {
+            if ("www-authenticate".equalsIgnoreCase(header.first) && isDigestChallenge(header.second))
+                return header.second;
+        }
+        return null;
+    }
+
+    private static boolean isDigestChallenge(@NonNull String challenge) {
+        return challenge.regionMatches(true, 0, "digest ", 0, 7);
+    }
+
+    // realm="Login to cam", nonce="8fb58500489d60f99a40b43f3c8574ef", stale=FALSE
+    @NonNull
+    private static ArrayList<Pair<String, String>> parseParams(@NonNull String s, int offset) {
+        ArrayList<Pair<String, String>> params = new ArrayList<>();
+        int length = s.length();
+        int i = offset;
+        while (i < length) {
+            while (i < length && (s.charAt(i) == ' ' || s.charAt(i) == ','))
+                i++;
+            int eq = s.indexOf('=', i);
+            if (eq < 0)
+                break;
+            String name = s.substring(i, eq).trim();
+            i = eq + 1;
+            String value;
+            if (i < length && s.charAt(i) == '"') {
+                int end = s.indexOf('"', i + 1);
+                if (end < 0)
+                    end = length;
+                value = s.substring(i + 1, end);
+                i = end + 1;
+            } else {
+                int end = s.indexOf(',', i);
+                if (end < 0)
+                    end = length;
+                value = s.substring(i, end).trim();
+                i = end;
+            }
+            params.add(Pair.create(name, value));
+        }
+        return params;
+    }
+
+    @Nullable
+    private static String getParam(@NonNull ArrayList<Pair<String, String>> params, @NonNull String name) {
+        for (Pair<String, String> param : params) {
+            if (name.equalsIgnoreCase(param.first))
+                return param.second;
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String generateCnonce() {
+        byte[] bytes = new byte[CNONCE_SIZE];
+        random.nextBytes(bytes);
+        return toHexString(bytes);
+    }
+
+    // 8 hex digits, e.g. 00000001
+    @NonNull
+    private static String getNonceCountString(int nonceCount) {
+        char[] chars = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[nonceCount & 0x0F];
+            nonceCount >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    @NonNull
+    private static String toHexString(@NonNull byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static void update(@NonNull MessageDigest md, @NonNull String s) {
+        md.update(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtcpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpReceiverStatistics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Receiver side of RTCP (RFC 3550). Collects statistics of received RTP packets, parses
+ * SR/SDES/BYE from the server and periodically sends RR back on the RTCP channel of each track.
+ * Channels are numbered the same way as TCP interleaved ones, video RTP/RTCP - 0/1,
+ * audio RTP/RTCP - 2/3. Not thread safe, should be fed from a single thread.
+ */
+class RtcpSession implements RtcpParser.RtcpParserListener {
+
+    private static final String TAG = RtcpSession.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // RFC 3550 6.2 recommends 5 seconds minimal interval
+    private static final int REPORT_INTERVAL_MS = 5000;
+    private static final int TRACK_VIDEO = RtpClockSync.TRACK_VIDEO;
+    private static final int TRACK_AUDIO = RtpClockSync.TRACK_AUDIO;
+
+    /**
+     * Bytes reserved in front of each sent packet, enough for TCP interleaved header.
+     */
+    static final int SEND_HEADROOM = 4;
+
+    interface RtcpSender {
+        /**
+         * {@link #SEND_HEADROOM} bytes before {@code offset} can be used by the sender.
+         * @param channel RTCP channel
+         */
+        void sendRtcpPacket(int channel, @NonNull byte[] data, int offset, int length) throws IOException;
+    }
+
+    private final @Nullable RtspClient.RtspMetricsListener metricsListener;
+    private final @NonNull RtpClockSync clockSync;
+    private final @NonNull int[] clockRates = new int[2];
+    private final @NonNull RtpReceiverStatistics[] statistics = new RtpReceiverStatistics[2];
+    private final @NonNull RtpReceiverStatistics[] reportStatistics = new RtpReceiverStatistics[1];
+    private final long ssrc;
+    private final @NonNull byte[] cname;
+    private final @NonNull byte[] reportBuffer;
+    private final @NonNull Random random = new Random();
+    private @Nullable RtcpSender sender;
+    private long nextReportTime = 0;
+    // Track of the RTCP packet being parsed
+    private int parsingTrack;
+    private long parsingTimeMs;
+
+    /**
+     * @param clockSync receives sender reports for A/V synchronization
+     */
+    RtcpSession(@NonNull RtpClockSync clockSync, @Nullable RtspClient.RtspMetricsListener metricsListener) {
+        this.clockSync = clockSync;
+        this.metricsListener = metricsListener;
+        clockRates[TRACK_VIDEO] = clockSync.getClockRate(RtpClockSync.TRACK_VIDEO);
+        clockRates[TRACK_AUDIO] = clockSync.getClockRate(RtpClockSync.TRACK_AUDIO);
+        ssrc = random.nextInt() & 0xFFFFFFFFL;
+        cname = ("rtsp-client-" + Long.toHexString(ssrc)).getBytes(StandardCharsets.US_ASCII);
+        reportBuffer = new byte[SEND_HEADROOM + RtcpParser.getReceiverReportSize(cname.length, 1)];
+    }
+
+    void setSender(@Nullable RtcpSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * @param channel even RTP channel
+     * @param data buffer containing the whole RTP packet
+     */
+    void onRtpPacket(int channel, @NonNull byte[] data, int offset, int length, long nowMs) {
+        int track = channel / 2;
+        if (track >= statistics.length || length < RtpParser.RTP_HEADER_SIZE)
+            return;
+        int sequence = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        long timestamp = readUint32(data, offset + 4);
+        long packetSsrc = readUint32(data, offset + 8);
+        RtpReceiverStatistics stats = statistics[track];
+        if (stats == null || stats.getSsrc() != packetSsrc) {
+            if (DEBUG)
+                Log.i(TAG, "New RTP source " + Long.toHexString(packetSsrc) + " on channel " + channel);
+            stats = new RtpReceiverStatistics(packetSsrc, clockRates[track], sequence);
+            statistics[track] = stats;
+            if (nextReportTime == 0)
+                nextReportTime = nowMs + getReportInterval();
+        }
+        stats.onRtpPacket(sequence, timestamp, nowMs);
+    }
+
+    /**
+     * @param channel odd RTCP channel
+     */
+    void processRtcpPacket(int channel, @NonNull byte[] data, int offset, int length, long nowMs) {
+        parsingTrack = channel / 2;
+        parsingTimeMs = nowMs;
+        if (!RtcpParser.parse(data, offset, length, this) && DEBUG)
+            Log.w(TAG, "Invalid RTCP packet on channel " + channel);
+    }
+
+    /**
+     * Send receiver reports if report interval elapsed.
+     */
+    void sendReportsIfNeeded(long nowMs) {
+        if (nextReportTime == 0 || nowMs < nextReportTime)
+            return;
+        nextReportTime = nowMs + getReportInterval();
+        for (int track = 0; track < statistics.length; track++) {
+            RtpReceiverStatistics stats = statistics[track];
+            if (stats == null)
+                continue;
+            reportStatistics[0] = stats;
+            int length = RtcpParser.writeReceiverReport(
+                    reportBuffer, SEND_HEADROOM, ssrc, cname, reportStatistics, 1, nowMs);
+            if (sender != null) {
+                try {
+                    sender.sendRtcpPacket(track * 2 + 1, reportBuffer, SEND_HEADROOM, length);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to send RTCP receiver report (" + e.getMessage() + ")");
+                }
+            }
+            if (DEBUG)
+                Log.d(TAG, "RR track " + track + ": received " + stats.getPacketsReceived() +
+                        ", lost " + stats.getCumulativeLost() + ", jitter " + stats.getJitterMs() + " msec");
+            if (metricsListener != null)
+                metricsListener.onRtspRtpStatistics(track == TRACK_VIDEO, stats);
+        }
+    }
+
+    @Override
+    public void onRtcpSenderReport(long ssrc, long ntpTimestamp, long rtpTimestamp, long packetCount, long octetCount) {
+        if (DEBUG)
+            Log.d(TAG, "SR track " + parsingTrack + ", ssrc " + Long.toHexString(ssrc) + ", rtp ts " + rtpTimestamp);
+        RtpReceiverStatistics stats = getStatistics(ssrc);
+        if (stats != null)
+            stats.onSenderReport(ntpTimestamp, parsingTimeMs);
+        if (parsingTrack < statistics.length)
+            clockSync.onSenderReport(parsingTrack, ntpTimestamp, rtpTimestamp);
+    }
+
+    @Override
+    public void onRtcpSdesCname(long ssrc, @NonNull String cname) {
+        if (DEBUG)
+            Log.d(TAG, "SDES track " + parsingTrack + ", ssrc " + Long.toHexString(ssrc) + ", cname " + cname);
+    }
+
+    @Override
+    public void onRtcpBye(long ssrc) {
+        Log.i(TAG, "RTCP BYE received for source " + Long.toHexString(ssrc));
+        if (metricsListener != null && parsingTrack < statistics.length)
+            metricsListener.onRtspRtcpBye(parsingTrack == TRACK_VIDEO, ssrc);
+    }
+
+    @Nullable
+    private RtpReceiverStatistics getStatistics(long ssrc) {
+        if (parsingTrack >= statistics.length)
+            return null;
+        RtpReceiverStatistics stats = statistics[parsingTrack];
+        return (stats != null && stats.getSsrc() == ssrc ? stats : null);
+    }
+
+    // Randomized in [0.5, 1.5] of the interval to avoid synchronization (RFC 3550 6.3.1)
+    private long getReportInterval() {
+        return (long) (REPORT_INTERVAL_MS * (0.5 + random.nextDouble()));
+    }
+
+    private static long readUint32(@NonNull byte[] data, int offset) {
+        return ((long) (data[offset] & 0xFF) << 24) |
+                ((data[offset + 1] & 0xFF) << 16) |
+                ((data[offset + 2] & 0xFF) << 8) |
+                (data[offset + 3] & 0xFF);
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Maps RTP timestamps of the session tracks to a common presentation timeline in microseconds.
+ * Each track has its own RTP clock with random offset (RFC 3550 5.1), so the tracks are related
+ * via NTP wall clock of RTCP sender reports. Till SR received for all tracks, timestamps are
+ * anchored to local arrival time. Not thread safe, should be used from a single thread.
+ */
+class RtpClockSync {
+
+    private static final String TAG = RtpClockSync.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    static final int TRACK_VIDEO = 0;
+    static final int TRACK_AUDIO = 1;
+
+    private static final int VIDEO_CLOCK_RATE = 90000;
+    private static final int DEFAULT_AUDIO_CLOCK_RATE = 8000;
+
+    private final @NonNull int[] clockRates = new int[2];
+    private final @NonNull boolean[] trackEnabled = new boolean[2];
+    // Reference point of each track, RTP timestamp and corresponding time in usec
+    private final @NonNull boolean[] hasReference = new boolean[2];
+    private final @NonNull long[] referenceRtp = new long[2];
+    private final @NonNull long[] referenceUs = new long[2];
+    // The latest sender report of each track
+    private final @NonNull boolean[] hasSenderReport = new boolean[2];
+    private final @NonNull long[] senderReportRtp = new long[2];
+    private final @NonNull long[] senderReportUs = new long[2];
+    private boolean synced = false;
+    // Subtracted from output to keep timestamps small and continuous
+    private long baseUs = 0;
+    private boolean hasBase = false;
+
+    RtpClockSync(@NonNull RtspClient.SdpInfo sdpInfo) {
+        trackEnabled[TRACK_VIDEO] = sdpInfo.videoTrack != null;
+        trackEnabled[TRACK_AUDIO] = sdpInfo.audioTrack != null;
+        clockRates[TRACK_VIDEO] = VIDEO_CLOCK_RATE;
+        clockRates[TRACK_AUDIO] = (sdpInfo.audioTrack != null && sdpInfo.audioTrack.sampleRateHz > 0 ?
+                sdpInfo.audioTrack.sampleRateHz :
+                DEFAULT_AUDIO_CLOCK_RATE);
+    }
+
+    int getClockRate(int track) {
+        return clockRates[track];
+    }
+
+    /**
+     * @param ntpTimestamp 64-bit NTP timestamp of RTCP SR
+     * @param rtpTimestamp RTP timestamp of RTCP SR corresponding to the same instant
+     */
+    void onSenderReport(int track, long ntpTimestamp, long rtpTimestamp) {
+        if (track > TRACK_AUDIO)
+            return;
+        hasSenderReport[track] = true;
+        senderReportRtp[track] = rtpTimestamp;
+        senderReportUs[track] = ntpToUs(ntpTimestamp);
+
+        if (!synced) {
+            for (int i = 0; i < trackEnabled.length; i++) {
+                if (trackEnabled[i] && !hasSenderReport[i])
+                    return;
+            }
+            // Switch from arrival time to NTP timeline keeping output continuous. This track
+            // preferred, the other one if no packets of this track received yet.
+            if (hasBase) {
+                for (int i = 0; i < trackEnabled.length; i++) {
+                    int t = (track + i) % trackEnabled.length;
+                    if (hasReference[t] && hasSenderReport[t]) {
+                        long arrivalBasedUs = mapToUs(t, senderReportRtp[t]);
+                        baseUs += senderReportUs[t] - arrivalBasedUs;
+                        break;
+                    }
+                }
+            }
+            synced = true;
+            if (DEBUG)
+                Log.i(TAG, "Tracks synchronized via RTCP SR");
+        }
+
+        if (synced) {
+            // Sender reports compensate server clock drift
+            for (int i = 0; i < trackEnabled.length; i++) {
+                if (hasSenderReport[i]) {
+                    hasReference[i] = true;
+                    referenceRtp[i] = senderReportRtp[i];
+                    referenceUs[i] = senderReportUs[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param arrivalTimeMs packet arrival time, used till tracks synchronized
+     * @return presentation time in usec, common for all tracks
+     */
+    long getPresentationTimeUs(int track, long rtpTimestamp, long arrivalTimeMs) {
+        if (!hasReference[track]) {
+            hasReference[track] = true;
+            referenceRtp[track] = rtpTimestamp;
+            referenceUs[track] = arrivalTimeMs * 1000;
+        }
+        long timeUs = mapToUs(track, rtpTimestamp);
+        if (!hasBase) {
+            hasBase = true;
+            baseUs = timeUs;
+        }
+        return timeUs - baseUs;
+    }
+
+    boolean isSynced() {
+        return synced;
+    }
+
+    private long mapToUs(int track, long rtpTimestamp) {
+        // 32-bit RTP timestamp wraps around, difference is signed
+        int diff = (int) (rtpTimestamp - referenceRtp[track]);
+        return referenceUs[track] + diff * 1000000L / clockRates[track];
+    }
+
+    // NTP timestamp is seconds since 1900 in upper 32 bits and fraction in lower 32 bits
+    private static long ntpToUs(long ntpTimestamp) {
+        long seconds = ntpTimestamp >>> 32;
+        long fraction = ntpTimestamp & 0xFFFFFFFFL;
+        return seconds * 1000000L + (fraction * 1000000L >>> 32);
+    }
+
+}
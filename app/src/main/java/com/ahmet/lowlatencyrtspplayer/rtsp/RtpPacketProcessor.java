@@ -0,0 +1,324 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.AacParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.H265RtpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.OpusParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.VideoRtpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.VideoCodecUtils;
+
+import java.util.Arrays;
+
+/**
+ * Depacketizes RTP packets of the session tracks and passes NAL units and audio samples to the
+ * listener. Shared by TCP interleaved and UDP transports. Not thread safe, should be fed from
+ * a single thread.
+ */
+class RtpPacketProcessor implements RtpParser.RtpHeaderExtensionListener {
+
+    private static final String TAG = RtpPacketProcessor.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final byte[] START_CODE = { 0x00, 0x00, 0x00, 0x01 };
+
+    private final @NonNull RtspClient.SdpInfo sdpInfo;
+    private final @NonNull RtspClient.RtspClientListener listener;
+    private final @NonNull RtpClockSync clockSync;
+    // Reused for all packets
+    private final @NonNull RtpParser.RtpHeader header = new RtpParser.RtpHeader();
+    private final @NonNull ByteArrayPool bufferPool;
+    private final @NonNull VideoRtpParser videoParser;
+    private final @NonNull AccessUnitAssembler accessUnitAssembler;
+    private final @Nullable AacParser audioParser;
+    private final @Nullable OpusParser opusParser;
+    // G.711 and L16 samples passed as is, decoded by the audio renderer
+    private final boolean pcmAudio;
+    private @Nullable RtspClient.RtspRtpExtensionListener extensionListener;
+    private @Nullable RtspClient.RtspMetricsListener metricsListener;
+    // Packet which header extension is being parsed
+    private boolean extensionVideo;
+    private final boolean h265;
+    private @Nullable byte[] nalUnitVps; // H.265 only
+    private @Nullable byte[] nalUnitSps;
+    private @Nullable byte[] nalUnitPps;
+    // Video RTP packets lost, NAL units dropped till the next key frame instead of being decoded
+    private boolean videoDamaged = false;
+    private long videoDamagedStartMs;
+    private long droppedNalUnitCount = 0;
+    private long droppedNalUnitCountReported = 0;
+
+    /**
+     * @param bufferPool video access units and audio samples passed to the listener are allocated from
+     */
+    RtpPacketProcessor(
+            @NonNull RtspClient.SdpInfo sdpInfo,
+            @NonNull RtspClient.RtspClientListener listener,
+            @NonNull ByteArrayPool bufferPool) {
+        this.sdpInfo = sdpInfo;
+        this.listener = listener;
+        this.bufferPool = bufferPool;
+        clockSync = new RtpClockSync(sdpInfo);
+        h265 = (sdpInfo.videoTrack != null && sdpInfo.videoTrack.videoCodec == RtspClient.VIDEO_CODEC_H265);
+        videoParser = (h265 ? new H265RtpParser(bufferPool) : new VideoRtpParser(bufferPool));
+        accessUnitAssembler = new AccessUnitAssembler(videoParser, clockSync, listener);
+        audioParser = (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == RtspClient.AUDIO_CODEC_AAC ?
+                new AacParser(
+                        sdpInfo.audioTrack.mode != null ? sdpInfo.audioTrack.mode : "AAC-hbr",
+                        sdpInfo.audioTrack.sizeLength,
+                        sdpInfo.audioTrack.indexLength,
+                        sdpInfo.audioTrack.indexDeltaLength,
+                        sdpInfo.audioTrack.constantDuration) :
+                null);
+        opusParser = (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == RtspClient.AUDIO_CODEC_OPUS ?
+                new OpusParser() :
+                null);
+        pcmAudio = (sdpInfo.audioTrack != null && (
+                sdpInfo.audioTrack.audioCodec == RtspClient.AUDIO_CODEC_PCMA ||
+                sdpInfo.audioTrack.audioCodec == RtspClient.AUDIO_CODEC_PCMU ||
+                sdpInfo.audioTrack.audioCodec == RtspClient.AUDIO_CODEC_L16));
+        nalUnitVps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.vps : null);
+        nalUnitSps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.sps : null);
+        nalUnitPps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.pps : null);
+    }
+
+    /**
+     * Shared with RTCP session, which feeds sender reports into it.
+     */
+    @NonNull
+    RtpClockSync getClockSync() {
+        return clockSync;
+    }
+
+    void setExtensionListener(@Nullable RtspClient.RtspRtpExtensionListener extensionListener) {
+        this.extensionListener = extensionListener;
+    }
+
+    void setMetricsListener(@Nullable RtspClient.RtspMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Called when video RTP packets were lost. Partially received NAL unit is dropped.
+     */
+    void onVideoPacketsLost() {
+        videoParser.reset();
+        setVideoDamaged();
+    }
+
+    /**
+     * @return NAL units dropped since creation, incomplete ones and ones received after RTP packets loss
+     */
+    long getDroppedNalUnitCount() {
+        return droppedNalUnitCount + videoParser.getDroppedNalUnitCount();
+    }
+
+    /**
+     * @param data buffer containing the whole RTP packet (header and payload)
+     * @param offset offset of RTP packet within the buffer
+     * @param length RTP packet size
+     */
+    void processRtpPacket(@NonNull byte[] data, int offset, int length) {
+        if (!header.parse(data, offset, length))
+            return;
+//      header.dumpHeader();
+        // CSRC list and header extension skipped, padding trimmed
+        final int payloadOffset = header.payloadOffset;
+        if (header.payloadSize <= 0)
+            return;
+
+        // Video
+        if (sdpInfo.videoTrack != null && header.payloadType == sdpInfo.videoTrack.payloadType) {
+            parseExtension(true);
+            // Previous access unit complete, even if its marker packet lost
+            if (accessUnitAssembler.getRtpTimestamp() != header.timeStamp)
+                accessUnitAssembler.flush();
+            byte[] nalUnit = videoParser.processRtpPacketAndGetNalUnit(data, payloadOffset, header.payloadSize, header.sequenceNumber);
+            if (videoParser.isDataLost())
+                setVideoDamaged();
+            if (nalUnit != null) {
+                // Pooled buffer of the access unit being assembled
+                int nalUnitOffset = videoParser.getNalUnitOffset();
+                int nalUnitLength = videoParser.getNalUnitLength();
+                int type = videoParser.getNalUnitType(nalUnit, nalUnitOffset + START_CODE.length);
+//                  Log.i(TAG, "NAL u: " + VideoCodecUtils.getH264NalUnitTypeString(type));
+                if (isParameterSet(type))
+                    onVideoParameterSet(nalUnit, nalUnitOffset, nalUnitLength, type, header.timeStamp);
+                else
+                    onVideoNalUnit(type, header.timeStamp);
+            } else if (videoParser.getAggregatedNalUnitCount() > 0) {
+                processAggregatedNalUnits(data);
+            }
+            // Last packet of the access unit
+            if (header.marker != 0)
+                accessUnitAssembler.flush();
+
+            // Audio
+        } else if (sdpInfo.audioTrack != null && header.payloadType == sdpInfo.audioTrack.payloadType) {
+            parseExtension(false);
+            if (audioParser != null) {
+                int count = audioParser.processRtpPacket(data, payloadOffset, header.payloadSize, header.timeStamp, header.marker != 0);
+                for (int i = 0; i < count; i++)
+                    processAudioSample(audioParser.getAccessUnitData(i), audioParser.getAccessUnitOffset(i),
+                            audioParser.getAccessUnitLength(i), audioParser.getAccessUnitTimestamp(i));
+            } else if (opusParser != null) {
+                if (opusParser.processRtpPacket(data, payloadOffset, header.payloadSize))
+                    processAudioSample(data, payloadOffset, header.payloadSize, header.timeStamp);
+            } else if (pcmAudio) {
+                processAudioSample(data, payloadOffset, header.payloadSize, header.timeStamp);
+            }
+
+            // Unknown
+        } else {
+            // https://www.iana.org/assignments/rtp-parameters/rtp-parameters.xhtml
+            if (DEBUG && header.payloadType >= 96 && header.payloadType <= 127)
+                Log.w(TAG, "Invalid RTP payload type " + header.payloadType);
+        }
+    }
+
+    // Sample is copied once from the parser into a pooled buffer handed over to the listener
+    private void processAudioSample(@NonNull byte[] data, int offset, int length, long rtpTimestamp) {
+        byte[] sample = bufferPool.acquire(length);
+        System.arraycopy(data, offset, sample, 0, length);
+        long timestampUs = clockSync.getPresentationTimeUs(RtpClockSync.TRACK_AUDIO, rtpTimestamp, System.currentTimeMillis());
+        listener.onRtspAudioSampleReceived(sample, 0, length, timestampUs);
+    }
+
+    private void onVideoParameterSet(@NonNull byte[] nalUnit, int nalUnitOffset, int nalUnitLength, int type, long rtpTimestamp) {
+        // Kept till IDR
+        setParameterSet(type, Arrays.copyOfRange(nalUnit, nalUnitOffset, nalUnitOffset + nalUnitLength));
+        // Looks like there is NAL_IDR_SLICE as well. Send it now.
+        if (!h265 && nalUnitLength > 100)
+            accessUnitAssembler.addNalUnit(rtpTimestamp, true);
+        else
+            videoParser.discardNalUnit();
+    }
+
+    // NAL unit returned or appended last by the parser is either added to the access unit or discarded
+    private void onVideoNalUnit(int type, long rtpTimestamp) {
+        boolean keyFrame = isKeyFrame(type);
+        if (videoDamaged) {
+            // Would be decoded with errors or make the decoder fail
+            if (!keyFrame) {
+                droppedNalUnitCount++;
+                videoParser.discardNalUnit();
+                return;
+            }
+            onVideoRecovered();
+        }
+        // Send SPS/PPS before IDR
+        if (keyFrame)
+            sendParameterSets(rtpTimestamp);
+        accessUnitAssembler.addNalUnit(rtpTimestamp, keyFrame);
+    }
+
+    private void setVideoDamaged() {
+        if (videoDamaged)
+            return;
+        if (DEBUG)
+            Log.w(TAG, "Video damaged, waiting for key frame");
+        videoDamaged = true;
+        videoDamagedStartMs = System.currentTimeMillis();
+    }
+
+    private void onVideoRecovered() {
+        videoDamaged = false;
+        long dropped = getDroppedNalUnitCount();
+        long durationMs = System.currentTimeMillis() - videoDamagedStartMs;
+        if (DEBUG)
+            Log.i(TAG, "Video recovered after " + durationMs + " msec, " + (dropped - droppedNalUnitCountReported) + " NAL units dropped");
+        if (metricsListener != null)
+            metricsListener.onRtspVideoRecovered(durationMs, (int) (dropped - droppedNalUnitCountReported), dropped);
+        droppedNalUnitCountReported = dropped;
+    }
+
+    private boolean isParameterSet(int type) {
+        if (h265)
+            return type == VideoCodecUtils.H265_NAL_VPS || type == VideoCodecUtils.H265_NAL_SPS || type == VideoCodecUtils.H265_NAL_PPS;
+        else
+            return type == VideoCodecUtils.NAL_SPS || type == VideoCodecUtils.NAL_PPS;
+    }
+
+    private boolean isKeyFrame(int type) {
+        return h265 ? VideoCodecUtils.isH265IRAP(type) : type == VideoCodecUtils.NAL_IDR_SLICE;
+    }
+
+    private void setParameterSet(int type, @NonNull byte[] nalUnit) {
+        if (type == VideoCodecUtils.NAL_SPS || type == VideoCodecUtils.H265_NAL_SPS)
+            nalUnitSps = nalUnit;
+        else if (type == VideoCodecUtils.NAL_PPS || type == VideoCodecUtils.H265_NAL_PPS)
+            nalUnitPps = nalUnit;
+        else
+            nalUnitVps = nalUnit;
+    }
+
+    private void sendParameterSets(long rtpTimestamp) {
+        if (nalUnitSps == null || nalUnitPps == null || (h265 && nalUnitVps == null))
+            return;
+        int vpsLength = (h265 && nalUnitVps != null ? nalUnitVps.length : 0);
+        byte[] nalUnitVpsSpsPps = new byte[vpsLength + nalUnitSps.length + nalUnitPps.length];
+        if (vpsLength > 0)
+            System.arraycopy(nalUnitVps, 0, nalUnitVpsSpsPps, 0, vpsLength);
+        System.arraycopy(nalUnitSps, 0, nalUnitVpsSpsPps, vpsLength, nalUnitSps.length);
+        System.arraycopy(nalUnitPps, 0, nalUnitVpsSpsPps, vpsLength + nalUnitSps.length, nalUnitPps.length);
+        accessUnitAssembler.sendCodecConfig(nalUnitVpsSpsPps, rtpTimestamp);
+        // Send it only once
+        nalUnitVps = null;
+        nalUnitSps = null;
+        nalUnitPps = null;
+    }
+
+    // NAL units of STAP/MTAP/AP packet are slices of the RTP packet, written into the access unit
+    // buffer the same way as other NAL units. MTAP units of another timestamp start a new access unit.
+    private void processAggregatedNalUnits(@NonNull byte[] data) {
+        int count = videoParser.getAggregatedNalUnitCount();
+        for (int i = 0; i < count; i++) {
+            int offset = videoParser.getAggregatedNalUnitOffset(i);
+            int length = videoParser.getAggregatedNalUnitLength(i);
+            long rtpTimestamp = (header.timeStamp + videoParser.getAggregatedNalUnitTimestampOffset(i)) & 0xFFFFFFFFL;
+            if (accessUnitAssembler.getRtpTimestamp() != rtpTimestamp)
+                accessUnitAssembler.flush();
+            int type = videoParser.getNalUnitType(data, offset);
+            if (isParameterSet(type)) {
+                setParameterSet(type, copyWithStartCode(data, offset, length));
+            } else {
+                videoParser.appendNalUnit(data, offset, length);
+                onVideoNalUnit(type, rtpTimestamp);
+            }
+        }
+    }
+
+    @NonNull
+    private static byte[] copyWithStartCode(@NonNull byte[] data, int offset, int length) {
+        byte[] nalUnit = new byte[START_CODE.length + length];
+        System.arraycopy(START_CODE, 0, nalUnit, 0, START_CODE.length);
+        System.arraycopy(data, offset, nalUnit, START_CODE.length, length);
+        return nalUnit;
+    }
+
+    private void parseExtension(boolean video) {
+        if (header.extension == 0 || extensionListener == null)
+            return;
+        extensionVideo = video;
+        if (!header.parseExtension(this) && DEBUG)
+            Log.w(TAG, "Malformed RTP header extension");
+    }
+
+    @Override
+    public void onRtpHeaderExtensionElement(int id, @NonNull byte[] data, int offset, int length) {
+        if (extensionListener != null)
+            extensionListener.onRtspRtpHeaderExtension(extensionVideo, header.timeStamp, header.extensionProfile, id, data, offset, length);
+    }
+
+    @Override
+    public void onRtpHeaderExtension(int profile, @NonNull byte[] data, int offset, int length) {
+        if (extensionListener != null)
+            extensionListener.onRtspRtpHeaderExtension(extensionVideo, header.timeStamp, profile, 0, data, offset, length);
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives RTP/RTCP packets from UDP channels on a dedicated thread.
+ * Channels are numbered the same way as TCP interleaved ones, e.g. video RTP - 0, video RTCP - 1,
+ * audio RTP - 2, audio RTCP - 3. Thus the same packet processing code works for both transports.
+ */
+public class RtpUdpReceiver extends Thread {
+
+    private static final String TAG = RtpUdpReceiver.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // Max UDP datagram size
+    private static final int MAX_PACKET_SIZE = 65536;
+    // Enough to hold I-frame bursts of high bitrate streams
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int DEFAULT_POLL_INTERVAL_MS = 1000;
+
+    public interface RtpUdpReceiverListener {
+        /**
+         * Called on receiver thread. Data is valid only till the method returns.
+         * @param channel even channel - RTP, odd channel - RTCP
+         */
+        void onRtpUdpPacketReceived(int channel, @NonNull byte[] data, int offset, int length);
+
+        /**
+         * Called on receiver thread after each receive cycle, at least every poll interval.
+         */
+        default void onRtpUdpReceiveCycle() {
+        }
+    }
+
+    private final @NonNull Selector selector;
+    private final @NonNull HashMap<Integer, DatagramChannel> channels = new HashMap<>();
+    private final @NonNull HashMap<Integer, SocketAddress> destinations = new HashMap<>();
+    private final @NonNull CountDownLatch firstPacketLatch = new CountDownLatch(1);
+    private final @NonNull byte[] data = new byte[MAX_PACKET_SIZE];
+    private final @NonNull ByteBuffer buffer = ByteBuffer.wrap(data);
+    private final @NonNull RtpUdpReceiverListener listener;
+    private volatile boolean isRunning = true;
+    private volatile long lastPacketTime = 0;
+    private int pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
+
+    public RtpUdpReceiver(@NonNull RtpUdpReceiverListener listener) throws IOException {
+        this.listener = listener;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Should be called before {@link #start()}. Channel is closed when receiver stopped.
+     */
+    public void addChannel(int channel, @NonNull DatagramChannel datagramChannel) throws IOException {
+        if (DEBUG) Log.v(TAG, "addChannel(channel=" + channel + ")");
+        datagramChannel.socket().setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        datagramChannel.configureBlocking(false);
+        datagramChannel.register(selector, SelectionKey.OP_READ, channel);
+        channels.put(channel, datagramChannel);
+    }
+
+    /**
+     * Set remote address packets sent via {@link #send} on the channel go to.
+     */
+    public void setDestination(int channel, @NonNull SocketAddress address) {
+        destinations.put(channel, address);
+    }
+
+    /**
+     * Send packet from the channel local port, e.g. RTCP report. Should be called on receiver thread.
+     */
+    public void send(int channel, @NonNull byte[] data, int offset, int length) throws IOException {
+        DatagramChannel datagramChannel = channels.get(channel);
+        SocketAddress address = destinations.get(channel);
+        if (datagramChannel == null || address == null)
+            return;
+        datagramChannel.send(ByteBuffer.wrap(data, offset, length), address);
+    }
+
+    /**
+     * Max time between {@link RtpUdpReceiverListener#onRtpUdpReceiveCycle()} calls.
+     * Should be called before {@link #start()}.
+     */
+    public void setPollInterval(int pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    /**
+     * Block until the first packet received.
+     * @return false if nothing received within timeout
+     */
+    public boolean waitForFirstPacket(long timeoutMs) throws InterruptedException {
+        return firstPacketLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return System.currentTimeMillis() of the last received packet, 0 if nothing received
+     */
+    public long getLastPacketTime() {
+        return lastPacketTime;
+    }
+
+    public void stopAsync() {
+        if (DEBUG) Log.v(TAG, "stopAsync()");
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Stop receiving and close all channels. Can be called if the thread was never started.
+     */
+    public void release() {
+        stopAsync();
+        if (!isAlive())
+            close();
+    }
+
+    @Override
+    public void run() {
+        if (DEBUG) Log.d(TAG, getName() + " started");
+        try {
+            while (isRunning) {
+                if (selector.select(pollIntervalMs) > 0) {
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable())
+                            readPackets((DatagramChannel) key.channel(), (Integer) key.attachment());
+                    }
+                }
+                listener.onRtpUdpReceiveCycle();
+            }
+        } catch (IOException e) {
+            if (isRunning)
+                Log.e(TAG, "UDP receive failed", e);
+        } finally {
+            close();
+        }
+        if (DEBUG) Log.d(TAG, getName() + " stopped");
+    }
+
+    // Drain all datagrams available on the channel
+    private void readPackets(@NonNull DatagramChannel datagramChannel, int channel) throws IOException {
+        while (isRunning) {
+            buffer.clear();
+            SocketAddress address = datagramChannel.receive(buffer);
+            if (address == null)
+                return;
+            lastPacketTime = System.currentTimeMillis();
+            firstPacketLatch.countDown();
+            listener.onRtpUdpPacketReceived(channel, data, 0, buffer.position());
+        }
+    }
+
+    private synchronized void close() {
+        for (DatagramChannel channel : channels.values()) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        channels.clear();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+}
@@ -8,21 +8,36 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.ahmet.lowlatencyrtspplayer.rtsp.parser.AacParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.InterleavedFrameReader;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpJitterBuffer;
 import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpParser;
-import com.ahmet.lowlatencyrtspplayer.rtsp.parser.VideoRtpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpReceiverStatistics;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtspResponseReader;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.AudioCodecUtils;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ChannelOutputStream;
 import com.ahmet.lowlatencyrtspplayer.rtsp.utils.NetUtils;
-import com.ahmet.lowlatencyrtspplayer.rtsp.utils.VideoCodecUtils;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReadAheadBuffer;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReceiveBufferSizer;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.SocketProfile;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -139,6 +154,17 @@ public class RtspClient {
     public final static int RTSP_CAPABILITY_GET_PARAMETER = 1 << 10;
     public final static int RTSP_CAPABILITY_REDIRECT      = 1 << 11;
 
+    // Methods required by RFC 2326 11, assumed when OPTIONS response not available
+    private final static int RTSP_CAPABILITIES_REQUIRED =
+            RTSP_CAPABILITY_OPTIONS | RTSP_CAPABILITY_SETUP | RTSP_CAPABILITY_PLAY | RTSP_CAPABILITY_TEARDOWN;
+
+    // Connection phases reported via RtspMetricsListener.onRtspConnectPhase()
+    public final static int CONNECT_PHASE_OPTIONS          = 0;
+    public final static int CONNECT_PHASE_DESCRIBE         = 1;
+    public final static int CONNECT_PHASE_SETUP            = 2;
+    public final static int CONNECT_PHASE_PLAY             = 3;
+    public final static int CONNECT_PHASE_FIRST_RTP_PACKET = 4;
+
     public static boolean hasCapability(int capability, int capabilitiesMask) {
         return (capabilitiesMask & capability) != 0;
     }
@@ -146,7 +172,14 @@ public class RtspClient {
     public interface RtspClientListener {
         void onRtspConnecting();
         void onRtspConnected(@NonNull SdpInfo sdpInfo);
+        // Timestamps are presentation time in usec, common for video and audio tracks
+        // Video and audio data buffers are handed over to the listener, see Builder.withBufferPool()
         void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp);
+        // Whole frame (all NAL units of the same timestamp) or parameter sets.
+        // Flags are VIDEO_FLAG_KEY_FRAME and VIDEO_FLAG_CODEC_CONFIG.
+        default void onRtspVideoAccessUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp, int flags) {
+            onRtspVideoNalUnitReceived(data, offset, length, timestamp);
+        }
         void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestamp);
         void onRtspDisconnecting();
         void onRtspDisconnected();
@@ -154,8 +187,75 @@ public class RtspClient {
         void onRtspFailed(@Nullable String message);
     }
 
-    private interface RtspClientKeepAliveListener {
-        void onRtspKeepAliveRequested();
+    /**
+     * Link quality and timing metrics. Called on RTSP or UDP receiver thread.
+     */
+    public interface RtspMetricsListener {
+        /**
+         * Called each time RTCP receiver report is sent for the track.
+         * Statistics object is valid only till the method returns.
+         */
+        default void onRtspRtpStatistics(boolean video, @NonNull RtpReceiverStatistics statistics) {
+        }
+
+        /**
+         * Server stopped sending RTP stream of the track.
+         */
+        default void onRtspRtcpBye(boolean video, long ssrc) {
+        }
+
+        /**
+         * Connection phase completed. Durations of consecutive phases sum up to the time
+         * from {@link #execute()} start till the first RTP packet. Phases skipped are not reported.
+         * @param phase {@link #CONNECT_PHASE_OPTIONS}, {@link #CONNECT_PHASE_DESCRIBE},
+         *              {@link #CONNECT_PHASE_SETUP}, {@link #CONNECT_PHASE_PLAY} or
+         *              {@link #CONNECT_PHASE_FIRST_RTP_PACKET}
+         * @param durationMs time since the previous phase completed
+         */
+        default void onRtspConnectPhase(int phase, long durationMs) {
+        }
+
+        /**
+         * TLS handshake of "rtsps://" connection completed.
+         * @param resumed true if the previous session to the server was resumed
+         */
+        default void onRtspTlsHandshake(long durationMs, boolean resumed) {
+        }
+
+        /**
+         * Effective socket options on connect and each time receive buffer is grown.
+         * @param peakBitrate peak bitrate in bits per second the receive buffer sized for, 0 if not measured yet
+         */
+        default void onRtspSocketOptions(int receiveBufferSize, boolean tcpNoDelay, int trafficClass, long peakBitrate) {
+        }
+
+        /**
+         * Video key frame received after RTP packets loss. Incomplete NAL units and the ones
+         * referring to lost data were dropped instead of being decoded.
+         * @param damagedDurationMs time since the loss was detected
+         * @param droppedNalUnits NAL units dropped since the loss
+         * @param totalDroppedNalUnits NAL units dropped since the stream started
+         */
+        default void onRtspVideoRecovered(long damagedDurationMs, int droppedNalUnits, long totalDroppedNalUnits) {
+        }
+    }
+
+    public interface RtspRtpExtensionListener {
+        /**
+         * RTP header extension of video or audio packet, e.g. abs-capture-time or ONVIF extension.
+         * Called on RTSP or UDP receiver thread. Data is not copied and valid only till the method returns.
+         * @param profile {@link RtpParser#EXTENSION_PROFILE_ONE_BYTE}, {@link RtpParser#EXTENSION_PROFILE_TWO_BYTE}
+         *                or any other profile, which extension data is passed as a whole
+         * @param id RFC 8285 element ID mapped to URI via {@link Track#extmap}, 0 for other profiles
+         */
+        void onRtspRtpHeaderExtension(boolean video, long rtpTimestamp, int profile, int id, @NonNull byte[] data, int offset, int length);
+    }
+
+    interface RtspClientKeepAliveListener {
+        /**
+         * @throws IOException RTSP session is dead
+         */
+        void onRtspKeepAliveRequested() throws IOException;
     }
 
     public static class SdpInfo {
@@ -176,8 +276,17 @@ public class RtspClient {
     public abstract static class Track {
         public String request;
         public int payloadType;
+        /**
+         * RTP header extension element IDs mapped to extension URIs (RFC 8285),
+         * e.g. 1 - "http://www.webrtc.org/experiments/rtp-hdrext/abs-capture-time"
+         */
+        public @NonNull HashMap<Integer, String> extmap = new HashMap<>();
     }
 
+    // Same values as MediaCodec.BUFFER_FLAG_KEY_FRAME and MediaCodec.BUFFER_FLAG_CODEC_CONFIG
+    public static final int VIDEO_FLAG_KEY_FRAME = 1;
+    public static final int VIDEO_FLAG_CODEC_CONFIG = 2;
+
     public static final int VIDEO_CODEC_H264 = 0;
     public static final int VIDEO_CODEC_H265 = 1;
 
@@ -185,13 +294,16 @@ public class RtspClient {
         public int videoCodec = VIDEO_CODEC_H264;
         public @Nullable byte[] sps; // Both H.264 and H.265
         public @Nullable byte[] pps; // Both H.264 and H.265
-//      public @Nullable byte[] vps; // H.265 only
+        public @Nullable byte[] vps; // H.265 only
 //      public @Nullable byte[] sei; // H.265 only
     }
 
     public static final int AUDIO_CODEC_UNKNOWN = -1;
     public static final int AUDIO_CODEC_AAC = 0;
     public static final int AUDIO_CODEC_OPUS = 1;
+    public static final int AUDIO_CODEC_PCMA = 2; // G.711 A-law
+    public static final int AUDIO_CODEC_PCMU = 3; // G.711 mu-law
+    public static final int AUDIO_CODEC_L16 = 4; // 16-bit linear PCM
 
     @NonNull
     private static String getAudioCodecName(int codec) {
@@ -200,6 +312,12 @@ public class RtspClient {
                 return "AAC";
             case AUDIO_CODEC_OPUS:
                 return "Opus";
+            case AUDIO_CODEC_PCMA:
+                return "G.711 A-law";
+            case AUDIO_CODEC_PCMU:
+                return "G.711 mu-law";
+            case AUDIO_CODEC_L16:
+                return "L16";
             default:
                 return "Unknown";
         }
@@ -211,12 +329,53 @@ public class RtspClient {
         public int channels; // 1 - mono, 2 - stereo
         public String mode; // AAC-lbr, AAC-hbr
         public @Nullable byte[] config; // config=1210fff15081ffdffc
+        // RFC 3640 AU header fields, -1 if not set in SDP
+        public int sizeLength = -1; // sizelength=13
+        public int indexLength = -1; // indexlength=3
+        public int indexDeltaLength = -1; // indexdeltalength=3
+        public int constantDuration = -1; // constantDuration=1024
+        // RFC 7587 Opus parameters, -1 if not set in SDP
+        public int spropStereo = -1; // sprop-stereo=1
+        public int maxCaptureRateHz = -1; // sprop-maxcapturerate=16000
+        public int maxPlaybackRateHz = -1; // maxplaybackrate=16000
     }
 
-    private static final String CRLF = "\r\n";
+    /**
+     * RTP/AVP/TCP interleaved within RTSP connection.
+     */
+    public static final int TRANSPORT_TCP = 0;
+    /**
+     * RTP/AVP unicast over UDP. Falls back to {@link #TRANSPORT_TCP} if rejected by the server
+     * or no data received.
+     */
+    public static final int TRANSPORT_UDP = 1;
+    /**
+     * RTP/AVP multicast. Group and ports are announced by the server in SETUP response,
+     * so many clients can share the same stream. Falls back to {@link #TRANSPORT_TCP} as well.
+     */
+    public static final int TRANSPORT_UDP_MULTICAST = 2;
+
+    private static final int UDP_FIRST_PACKET_TIMEOUT_MS = 3000;
+    private static final int UDP_NO_DATA_TIMEOUT_MS = 5000;
+    private static final int UDP_CONTROL_POLL_INTERVAL_MS = 100;
+    private static final int UDP_CONTROL_POLL_TIMEOUT_MS = 1;
+    // Keep-alive requests in a row without response before the session is considered dead
+    private static final int MAX_MISSED_KEEP_ALIVES = 3;
+    private static final int DEFAULT_JITTER_BUFFER_DELAY_MS = 50;
+    private static final int JITTER_BUFFER_MIN_POLL_INTERVAL_MS = 5;
+
+    private static class SessionInfo {
+        @Nullable String session;
+        int sessionTimeout;
+        int transport = TRANSPORT_TCP;
+        // Not null for UDP transport
+        @Nullable RtpUdpReceiver udpReceiver;
+        @Nullable RtcpSession rtcpSession;
+        // PLAY already sent behind the last SETUP
+        boolean playSent;
+    }
 
-    // Size of buffer for reading from the connection
-    private final static int MAX_LINE_SIZE = 4098;
+    private static final String CRLF = "\r\n";
 
     private static class UnauthorizedException extends IOException {
         UnauthorizedException() {
@@ -224,11 +383,15 @@ public class RtspClient {
         }
     }
 
-    private final static class NoResponseHeadersException extends IOException {
-        private static final long serialVersionUID = 1L;
+    private static class UnexpectedCSeqException extends IOException {
+        UnexpectedCSeqException(int cSeq, int expectedCSeq) {
+            super("Unexpected response CSeq " + cSeq + ", expected " + expectedCSeq);
+        }
     }
 
     private final @NonNull Socket rtspSocket;
+    // Not null if NIO transport used
+    private final @Nullable SocketChannel rtspChannel;
     private final @NonNull String uriRtsp;
     private final @NonNull AtomicBoolean exitFlag;
     private final @NonNull RtspClientListener listener;
@@ -236,6 +399,18 @@ public class RtspClient {
     //  private boolean sendOptionsCommand;
     private final boolean requestVideo;
     private final boolean requestAudio;
+    private final int transport;
+    private final int jitterBufferDelay;
+    private final @Nullable RtspMetricsListener metricsListener;
+    private final @Nullable RtspRtpExtensionListener extensionListener;
+    private final boolean fastConnect;
+    private final int knownCapabilities;
+    private final @Nullable RtspSessionCache sessionCache;
+    private volatile int serverCapabilities = RTSP_CAPABILITY_NONE;
+    // Fast connect unless the server is known to fail with it
+    private boolean pipelining;
+    private final @Nullable SocketProfile socketProfile;
+    private final @NonNull ByteArrayPool bufferPool;
     private final boolean debug;
     private final @Nullable String username;
     private final @Nullable String password;
@@ -243,26 +418,60 @@ public class RtspClient {
 
     private RtspClient(@NonNull Builder builder) {
         rtspSocket = builder.rtspSocket;
+        rtspChannel = builder.rtspChannel;
         uriRtsp = builder.uriRtsp;
         exitFlag = builder.exitFlag;
         listener = builder.listener;
 //      sendOptionsCommand = builder.sendOptionsCommand;
         requestVideo = builder.requestVideo;
         requestAudio = builder.requestAudio;
+        transport = builder.transport;
+        jitterBufferDelay = builder.jitterBufferDelay;
+        metricsListener = builder.metricsListener;
+        extensionListener = builder.extensionListener;
+        fastConnect = builder.fastConnect;
+        knownCapabilities = builder.knownCapabilities;
+        sessionCache = builder.sessionCache;
+        socketProfile = builder.socketProfile;
+        bufferPool = (builder.bufferPool != null ? builder.bufferPool : new ByteArrayPool());
         username = builder.username;
         password = builder.password;
         debug = builder.debug;
         userAgent = builder.userAgent;
     }
 
+    /**
+     * Capabilities of the server from OPTIONS response, {@link #RTSP_CAPABILITY_NONE} if not known yet.
+     * Can be passed to {@link Builder#withKnownCapabilities(int)} for the next connection to the same server.
+     */
+    public int getServerCapabilities() {
+        return serverCapabilities;
+    }
+
     public void execute() {
         if (DEBUG) Log.v(TAG, "execute()");
         listener.onRtspConnecting();
+        long phaseStartNs = System.nanoTime();
+        ReadAheadBuffer readBuffer = null;
         try {
             final InputStream inputStream = rtspSocket.getInputStream();
+            // Shared by RTSP response and RTP interleaved frame parsers, no bytes lost between them.
+            // Makes the channel non-blocking, so channel reads time out as socket stream reads do.
+            readBuffer = rtspChannel != null ? new ReadAheadBuffer(rtspChannel) : new ReadAheadBuffer(inputStream);
+            final RtspResponseReader responseReader = new RtspResponseReader(readBuffer);
+            final OutputStream socketOutputStream = rtspChannel != null ?
+                    new ChannelOutputStream(rtspChannel) :
+                    rtspSocket.getOutputStream();
             final OutputStream outputStream = debug ?
-                    new LoggerOutputStream(rtspSocket.getOutputStream()) :
-                    new BufferedOutputStream(rtspSocket.getOutputStream());
+                    new LoggerOutputStream(socketOutputStream) :
+                    new BufferedOutputStream(socketOutputStream);
+            ReceiveBufferSizer receiveBufferSizer = null;
+            if (socketProfile != null) {
+                NetUtils.applySocketProfile(rtspSocket, socketProfile);
+                if (socketProfile.isAutoReceiveBufferSize())
+                    receiveBufferSizer = new ReceiveBufferSizer(rtspSocket, socketProfile.maxReceiveBufferSize);
+            }
+            reportSocketOptions(metricsListener, rtspSocket, 0);
 
             SdpInfo sdpInfo = new SdpInfo();
             final AtomicInteger cSeq = new AtomicInteger(0);
@@ -270,8 +479,32 @@ public class RtspClient {
             int status;
 
             String authToken = null;
-            Pair<String, String> digestRealmNonce = null;
-
+            DigestAuthenticator digestAuth = null;
+
+            // Server profile from the previous connections
+            RtspSessionCache.Entry cacheEntry = (sessionCache != null ? sessionCache.get(uriRtsp) : null);
+            pipelining = fastConnect && (cacheEntry == null || !cacheEntry.hasQuirk(RtspSessionCache.QUIRK_NO_PIPELINING));
+            int requestedTransport = (cacheEntry != null && cacheEntry.hasQuirk(RtspSessionCache.QUIRK_UDP_UNAVAILABLE) ?
+                    TRANSPORT_TCP :
+                    transport);
+            // OPTIONS and DESCRIBE are skipped if SDP and capabilities cached
+            boolean useCache = (cacheEntry != null && cacheEntry.sdp != null && cacheEntry.capabilities != RTSP_CAPABILITY_NONE);
+            int capabilitiesMask = RTSP_CAPABILITY_NONE;
+            String sdp = null;
+            RtpPacketProcessor packetProcessor = null;
+            SessionInfo sessionInfo = null;
+            while (sessionInfo == null) {
+                if (useCache) {
+                    if (DEBUG)
+                        Log.i(TAG, "Using cached session profile, OPTIONS and DESCRIBE skipped");
+                    capabilitiesMask = cacheEntry.capabilities;
+                    sdp = cacheEntry.sdp;
+                    // Authorize preemptively with the cached challenge saving 401 round trip
+                    if (cacheEntry.authScheme == RtspSessionCache.AUTH_DIGEST && cacheEntry.authChallenge != null)
+                        digestAuth = DigestAuthenticator.fromChallenge(username, password, cacheEntry.authChallenge);
+                    else if (cacheEntry.authScheme == RtspSessionCache.AUTH_BASIC)
+                        authToken = getBasicAuthHeader(username, password);
+                } else {
 // OPTIONS rtsp://10.0.1.78:8080/video/h264 RTSP/1.0
 // CSeq: 1
 // User-Agent: Lavf58.29.100
@@ -280,35 +513,58 @@ public class RtspClient {
 // CSeq: 1
 // Public: OPTIONS, DESCRIBE, SETUP, PLAY, GET_PARAMETER, SET_PARAMETER, TEARDOWN
 //          if (sendOptionsCommand) {
-            checkExitFlag(exitFlag);
-            sendOptionsCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, null);
-            status = readResponseStatusCode(inputStream);
-            headers = readResponseHeaders(inputStream);
-            dumpHeaders(headers);
-            // Try once again with credentials
-            if (status == 401) {
-                digestRealmNonce = getHeaderWwwAuthenticateDigestRealmAndNonce(headers);
-                if (digestRealmNonce == null) {
-                    String basicRealm = getHeaderWwwAuthenticateBasicRealm(headers);
-                    if (TextUtils.isEmpty(basicRealm)) {
-                        throw new IOException("Unknown authentication type");
+                    checkExitFlag(exitFlag);
+                    // Not 0 if DESCRIBE sent right behind OPTIONS without waiting for its response
+                    int describeCSeq = 0;
+                    if (pipelining && knownCapabilities != RTSP_CAPABILITY_NONE) {
+                        if (DEBUG)
+                            Log.i(TAG, "OPTIONS skipped, server capabilities known");
+                        capabilitiesMask = knownCapabilities;
+                    } else {
+                        int optionsCSeq = cSeq.addAndGet(1);
+                        sendOptionsCommand(outputStream, uriRtsp, optionsCSeq, userAgent, null);
+                        if (pipelining) {
+                            describeCSeq = cSeq.addAndGet(1);
+                            sendDescribeCommand(outputStream, uriRtsp, describeCSeq, userAgent, null);
+                        }
+                        status = readResponseStatusCode(responseReader);
+                        headers = readResponseHeaders(responseReader);
+                        dumpHeaders(headers);
+                        if (pipelining) {
+                            checkResponseCSeq(headers, optionsCSeq);
+                            // Skip unused body, pipelined DESCRIBE response follows
+                            responseReader.readContent(RtspResponseReader.getContentLength(headers));
+                        }
+                        // Try once again with credentials. Pipelined DESCRIBE is repeated with them instead.
+                        if (status == 401 && !pipelining) {
+                            digestAuth = DigestAuthenticator.fromChallenge(username, password, headers);
+                            if (digestAuth == null) {
+                                String basicRealm = getHeaderWwwAuthenticateBasicRealm(headers);
+                                if (TextUtils.isEmpty(basicRealm)) {
+                                    throw new IOException("Unknown authentication type");
+                                }
+                                // Basic auth
+                                authToken = getBasicAuthHeader(username, password);
+                            } else {
+                                // Digest auth
+                                authToken = digestAuth.getAuthHeader("OPTIONS", uriRtsp);
+                            }
+                            checkExitFlag(exitFlag);
+                            sendOptionsCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken);
+                            status = readResponseStatusCode(responseReader);
+                            headers = readResponseHeaders(responseReader);
+                            dumpHeaders(headers);
+                        }
+                        if (DEBUG)
+                            Log.i(TAG, "OPTIONS status: " + status);
+                        if (pipelining && status != 200) {
+                            capabilitiesMask = RTSP_CAPABILITIES_REQUIRED;
+                        } else {
+                            checkStatusCode(status);
+                            capabilitiesMask = getSupportedCapabilities(headers);
+                        }
+                        phaseStartNs = reportConnectPhase(metricsListener, CONNECT_PHASE_OPTIONS, phaseStartNs);
                     }
-                    // Basic auth
-                    authToken = getBasicAuthHeader(username, password);
-                } else {
-                    // Digest auth
-                    authToken = getDigestAuthHeader(username, password, "OPTIONS", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
-                }
-                checkExitFlag(exitFlag);
-                sendOptionsCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken);
-                status = readResponseStatusCode(inputStream);
-                headers = readResponseHeaders(inputStream);
-                dumpHeaders(headers);
-            }
-            if (DEBUG)
-                Log.i(TAG, "OPTIONS status: " + status);
-            checkStatusCode(status);
-            final int capabilities = getSupportedCapabilities(headers);
 
 
 // DESCRIBE rtsp://10.0.1.78:8080/video/h264 RTSP/1.0
@@ -332,57 +588,240 @@ public class RtspClient {
 // a=rtpmap:96 mpeg4-generic/48000/1
 // a=fmtp:96 profile-level-id=1;mode=AAC-hbr;sizelength=13;indexlength=3;indexdeltalength=3;config=1188
 // a=control:trackID=2
-            checkExitFlag(exitFlag);
+                    checkExitFlag(exitFlag);
 
-            sendDescribeCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken);
-            status = readResponseStatusCode(inputStream);
-            headers = readResponseHeaders(inputStream);
-            dumpHeaders(headers);
-            // Try once again with credentials. OPTIONS command can be accepted without authentication.
-            if (status == 401) {
-                digestRealmNonce = getHeaderWwwAuthenticateDigestRealmAndNonce(headers);
-                if (digestRealmNonce == null) {
-                    String basicRealm = getHeaderWwwAuthenticateBasicRealm(headers);
-                    if (TextUtils.isEmpty(basicRealm)) {
-                        throw new IOException("Unknown authentication type");
+                    if (describeCSeq == 0)
+                        sendDescribeCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken);
+                    status = readResponseStatusCode(responseReader);
+                    headers = readResponseHeaders(responseReader);
+                    dumpHeaders(headers);
+                    if (describeCSeq != 0)
+                        checkResponseCSeq(headers, describeCSeq);
+                    // Try once again with credentials. OPTIONS command can be accepted without authentication.
+                    if (status == 401) {
+                        responseReader.readContent(RtspResponseReader.getContentLength(headers));
+                        digestAuth = DigestAuthenticator.fromChallenge(username, password, headers);
+                        if (digestAuth == null) {
+                            String basicRealm = getHeaderWwwAuthenticateBasicRealm(headers);
+                            if (TextUtils.isEmpty(basicRealm)) {
+                                throw new IOException("Unknown authentication type");
+                            }
+                            // Basic auth
+                            authToken = getBasicAuthHeader(username, password);
+                        } else {
+                            // Digest auth
+                            authToken = digestAuth.getAuthHeader("DESCRIBE", uriRtsp);
+                        }
+                        checkExitFlag(exitFlag);
+                        sendDescribeCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken);
+                        status = readResponseStatusCode(responseReader);
+                        headers = readResponseHeaders(responseReader);
+                        dumpHeaders(headers);
                     }
-                    // Basic auth
-                    authToken = getBasicAuthHeader(username, password);
-                } else {
-                    // Digest auth
-                    authToken = getDigestAuthHeader(username, password, "DESCRIBE", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
+                    if (DEBUG)
+                        Log.i(TAG, "DESCRIBE status: " + status);
+                    checkStatusCode(status);
+                    int contentLength = RtspResponseReader.getContentLength(headers);
+                    if (contentLength > 0) {
+                        sdp = responseReader.readContent(contentLength);
+                        if (debug)
+                            Log.i(TAG_DEBUG, "" + sdp);
+                    }
+                    phaseStartNs = reportConnectPhase(metricsListener, CONNECT_PHASE_DESCRIBE, phaseStartNs);
                 }
-                checkExitFlag(exitFlag);
-                sendDescribeCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken);
-                status = readResponseStatusCode(inputStream);
-                headers = readResponseHeaders(inputStream);
-                dumpHeaders(headers);
-            }
-            if (DEBUG)
-                Log.i(TAG, "DESCRIBE status: " + status);
-            checkStatusCode(status);
-            int contentLength = getHeaderContentLength(headers);
-            if (contentLength > 0) {
-                String content = readContentAsText(inputStream, contentLength);
-                if (debug)
-                    Log.i(TAG_DEBUG, "" + content);
+                sdpInfo = getSdpInfo(sdp);
+
+
+// SETUP rtsp://10.0.1.78:8080/video/h264/trackID=1 RTSP/1.0
+// Transport: RTP/AVP/TCP;unicast;interleaved=0-1
+// CSeq: 3
+// User-Agent: Lavf58.29.100
+
+// RTSP/1.0 200 OK
+// CSeq: 3
+// Transport: RTP/AVP/TCP;unicast;interleaved=0-1
+// Session: Mzk5MzY2MzUwMTg3NTc2Mzc5NQ;timeout=30
+                packetProcessor = new RtpPacketProcessor(sdpInfo, listener, bufferPool);
+                packetProcessor.setExtensionListener(extensionListener);
+                packetProcessor.setMetricsListener(metricsListener);
                 try {
-                    List<Pair<String, String>> params = getDescribeParams(content);
-                    sdpInfo = getSdpInfoFromDescribeParams(params);
-                    if (!requestVideo)
-                        sdpInfo.videoTrack = null;
-                    if (!requestAudio)
-                        sdpInfo.audioTrack = null;
-                    // Only AAC supported
-                    if (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_UNKNOWN) {
-                        Log.e(TAG_DEBUG, "Unknown RTSP audio codec (" + sdpInfo.audioTrack.audioCodec + ") specified in SDP");
-                        sdpInfo.audioTrack = null;
+                    sessionInfo = setupTracks(
+                            outputStream, responseReader, sdpInfo, cSeq, authToken, digestAuth, requestedTransport, packetProcessor);
+                } catch (IOException e) {
+                    if (!useCache)
+                        throw e;
+                    // Cached profile is stale, e.g. stream reconfigured or nonce expired. Repeat full handshake.
+                    Log.w(TAG, "SETUP with cached session profile failed (" + e.getMessage() + "), repeating DESCRIBE");
+                    sessionCache.remove(uriRtsp);
+                    useCache = false;
+                    authToken = null;
+                    digestAuth = null;
+                }
+            }
+            serverCapabilities = capabilitiesMask;
+            final int capabilities = capabilitiesMask;
+            phaseStartNs = reportConnectPhase(metricsListener, CONNECT_PHASE_SETUP, phaseStartNs);
+            try {
+
+// PLAY rtsp://10.0.1.78:8080/video/h264 RTSP/1.0
+// Range: npt=0.000-
+// CSeq: 5
+// User-Agent: Lavf58.29.100
+// Session: Mzk5MzY2MzUwMTg3NTc2Mzc5NQ
+
+// RTSP/1.0 200 OK
+// CSeq: 5
+// RTP-Info: url=/video/h264;seq=56
+// Session: Mzk5MzY2MzUwMTg3NTc2Mzc5NQ;timeout=30
+                checkExitFlag(exitFlag);
+                playSession(outputStream, responseReader, cSeq, authToken, digestAuth, sessionInfo);
+                phaseStartNs = reportConnectPhase(metricsListener, CONNECT_PHASE_PLAY, phaseStartNs);
+
+                listener.onRtspConnected(sdpInfo);
+
+                // Some firewalls and servers silently drop UDP. Switch to TCP interleaved then.
+                if (sessionInfo.udpReceiver != null && !sessionInfo.udpReceiver.waitForFirstPacket(UDP_FIRST_PACKET_TIMEOUT_MS)) {
+                    Log.w(TAG, "No RTP data received via UDP within " + UDP_FIRST_PACKET_TIMEOUT_MS + " msec. Switching to TCP.");
+                    sessionInfo.udpReceiver.release();
+                    sessionInfo.udpReceiver.join();
+                    teardownSession(outputStream, responseReader, cSeq, authToken, digestAuth, sessionInfo.session);
+                    sessionInfo = setupTracks(
+                            outputStream, responseReader, sdpInfo, cSeq, authToken, digestAuth, TRANSPORT_TCP, packetProcessor);
+                    checkExitFlag(exitFlag);
+                    playSession(outputStream, responseReader, cSeq, authToken, digestAuth, sessionInfo);
+                    // First RTP packet reported by the TCP read loop. The phase includes the UDP wait
+                    // and the repeated SETUP and PLAY.
+                } else if (sessionInfo.udpReceiver != null) {
+                    phaseStartNs = reportConnectPhase(metricsListener, CONNECT_PHASE_FIRST_RTP_PACKET, phaseStartNs);
+                }
+                if (sessionCache != null)
+                    updateSessionCache(cacheEntry, sdp, capabilities, authToken, digestAuth, sessionInfo.transport != requestedTransport);
+
+                if (sdpInfo.videoTrack != null ||  sdpInfo.audioTrack != null) {
+                    final String authTokenFinal = authToken;
+                    final DigestAuthenticator digestAuthFinal = digestAuth;
+                    final String sessionFinal = sessionInfo.session;
+                    // Responses to requests sent during playback are routed by CSeq
+                    // Keep-alive not answered till the next one is sent counts as missed
+                    final RtspPendingRequests pendingRequests = new RtspPendingRequests(sessionInfo.sessionTimeout / 2 * 1000);
+                    // Nonce expired during playback. Next keep-alive uses the new one.
+                    final RtspPendingRequests.RtspResponseCallback keepAliveCallback = (statusCode, responseHeaders, content) -> {
+                        if (statusCode == 401 && digestAuthFinal != null && digestAuthFinal.updateChallenge(responseHeaders))
+                            Log.i(TAG, "Digest nonce renewed on keep-alive");
+                    };
+                    final InterleavedFrameReader frameReader = new InterleavedFrameReader(readBuffer, pendingRequests);
+                    RtspClientKeepAliveListener keepAliveListener = () -> {
+                        // Server may stop answering while the connection or UDP data flow is still alive
+                        int missedKeepAlives = pendingRequests.removeExpired(System.currentTimeMillis());
+                        if (missedKeepAlives >= MAX_MISSED_KEEP_ALIVES)
+                            throw new IOException("No response to " + missedKeepAlives + " keep-alive requests. RTSP session is dead.");
+                        try {
+                            //GET_PARAMETER rtsp://10.0.1.155:554/cam/realmonitor?channel=1&subtype=1/ RTSP/1.0
+                            //CSeq: 6
+                            //User-Agent: Lavf58.45.100
+                            //Session: 4066342621205
+                            //Authorization: Digest username="admin", realm="Login to cam", nonce="8fb58500489d60f99a40b43f3c8574ef", uri="rtsp://10.0.1.155:554/cam/realmonitor?channel=1&subtype=1/", response="692a26124a1ee9562135785ace33a23b"
+
+                            //RTSP/1.0 200 OK
+                            //CSeq: 6
+                            //Session: 4066342621205
+                            if (debug)
+                                Log.d(TAG_DEBUG, "Sending keep-alive");
+                            int keepAliveCSeq = cSeq.addAndGet(1);
+                            String method = (hasCapability(RTSP_CAPABILITY_GET_PARAMETER, capabilities) ? "GET_PARAMETER" : "OPTIONS");
+                            // Digest nonce count changes with each request
+                            String keepAliveAuthToken = (digestAuthFinal != null ?
+                                    digestAuthFinal.getAuthHeader(method, uriRtsp) :
+                                    authTokenFinal);
+                            pendingRequests.add(keepAliveCSeq, method, keepAliveCallback);
+                            if (hasCapability(RTSP_CAPABILITY_GET_PARAMETER, capabilities))
+                                sendGetParameterCommand(outputStream, uriRtsp, keepAliveCSeq, userAgent, sessionFinal, keepAliveAuthToken);
+                            else
+                                sendOptionsCommand(outputStream, uriRtsp, keepAliveCSeq, userAgent, keepAliveAuthToken);
+
+                            // Do not read response right now, since it may come after unread RTP frames.
+                            // InterleavedFrameReader passes it to pending requests.
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    };
+
+                    // Blocking call unless exitFlag set to true, thread.interrupt() called or connection closed.
+                    try {
+                        if (sessionInfo.udpReceiver != null) {
+                            waitUdpRtpData(
+                                    readBuffer,
+                                    frameReader,
+                                    sessionInfo.udpReceiver,
+                                    sessionInfo.sessionTimeout / 2 * 1000,
+                                    keepAliveListener);
+                        } else {
+                            // RTCP receiver reports are sent interleaved on the same connection
+                            RtcpSession rtcpSession = new RtcpSession(packetProcessor.getClockSync(), metricsListener);
+                            rtcpSession.setSender((channel, data, offset, length) -> {
+                                data[offset - 4] = '$';
+                                data[offset - 3] = (byte) channel;
+                                data[offset - 2] = (byte) (length >> 8);
+                                data[offset - 1] = (byte) length;
+                                outputStream.write(data, offset - 4, length + 4);
+                                outputStream.flush();
+                            });
+                            readRtpData(
+                                    frameReader,
+                                    packetProcessor,
+                                    rtcpSession,
+                                    exitFlag,
+                                    sessionInfo.sessionTimeout / 2 * 1000,
+                                    keepAliveListener,
+                                    rtspSocket,
+                                    receiveBufferSizer,
+                                    metricsListener,
+                                    phaseStartNs);
+                        }
+                    } finally {
+                        // Cleanup resources on server side
+                        if (hasCapability(RTSP_CAPABILITY_TEARDOWN, capabilities)) {
+                            if (digestAuth != null)
+                                authToken = digestAuth.getAuthHeader("TEARDOWN", uriRtsp);
+                            sendTeardownCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken, sessionFinal);
+                        }
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+
+                } else {
+                    listener.onRtspFailed("No tracks found. RTSP server issue.");
                 }
+            } finally {
+                if (sessionInfo.udpReceiver != null)
+                    sessionInfo.udpReceiver.release();
             }
 
+            listener.onRtspDisconnecting();
+            listener.onRtspDisconnected();
+        } catch (UnauthorizedException e) {
+            e.printStackTrace();
+            listener.onRtspFailedUnauthorized();
+        } catch (InterruptedException e) {
+            // Thread interrupted. Expected behavior.
+            listener.onRtspDisconnecting();
+            listener.onRtspDisconnected();
+        } catch (ClosedChannelException e) {
+            // NIO transport. Channel closed by thread.interrupt(). Expected behavior.
+            listener.onRtspDisconnecting();
+            listener.onRtspDisconnected();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (e instanceof UnexpectedCSeqException)
+                addSessionCacheQuirk(RtspSessionCache.QUIRK_NO_PIPELINING);
+            listener.onRtspFailed(e.getMessage());
+        }
+        if (readBuffer != null)
+            readBuffer.release();
+        try {
+            rtspSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
 // SETUP rtsp://10.0.1.78:8080/video/h264/trackID=1 RTSP/1.0
 // Transport: RTP/AVP/TCP;unicast;interleaved=0-1
@@ -393,162 +832,430 @@ public class RtspClient {
 // CSeq: 3
 // Transport: RTP/AVP/TCP;unicast;interleaved=0-1
 // Session: Mzk5MzY2MzUwMTg3NTc2Mzc5NQ;timeout=30
-            String session = null;
-            int sessionTimeout = 0;
+    /**
+     * Send SETUP for video and audio tracks.
+     * If UDP transport is rejected by the server, TCP interleaved transport is used instead.
+     */
+    @NonNull
+    private SessionInfo setupTracks(
+            @NonNull OutputStream outputStream,
+            @NonNull RtspResponseReader responseReader,
+            @NonNull SdpInfo sdpInfo,
+            @NonNull AtomicInteger cSeq,
+            @Nullable String authToken,
+            @Nullable DigestAuthenticator digestAuth,
+            int transport,
+            @NonNull RtpPacketProcessor packetProcessor)
+            throws IOException, InterruptedException {
+        SessionInfo sessionInfo = new SessionInfo();
+        sessionInfo.transport = transport;
+        try {
             for (int i = 0; i < 2; i++) {
                 // i=0 - video track, i=1 - audio track
                 checkExitFlag(exitFlag);
                 Track track = (i == 0 ?
                         (requestVideo ? sdpInfo.videoTrack : null) :
                         (requestAudio ? sdpInfo.audioTrack : null));
-                if (track != null) {
-                    String uriRtspSetup = getUriForSetup(uriRtsp, track);
-                    if (uriRtspSetup == null) {
-                        Log.e(TAG, "Failed to get RTSP URI for SETUP");
-                        continue;
-                    }
-                    if (digestRealmNonce != null)
-                        authToken = getDigestAuthHeader(
-                                username,
-                                password,
-                                "SETUP",
-                                uriRtspSetup,
-                                digestRealmNonce.first,
-                                digestRealmNonce.second);
+                if (track == null)
+                    continue;
+
+                String uriRtspSetup = getUriForSetup(uriRtsp, track);
+                if (uriRtspSetup == null) {
+                    Log.e(TAG, "Failed to get RTSP URI for SETUP");
+                    continue;
+                }
+                // Even channel for RTP, odd channel for RTCP
+                final int channel = i * 2;
+                DatagramChannel[] udpChannels = null;
+                String transportHeader;
+                if (sessionInfo.transport == TRANSPORT_UDP) {
+                    udpChannels = NetUtils.createUdpChannelPair();
+                    int port = udpChannels[0].socket().getLocalPort();
+                    transportHeader = "RTP/AVP;unicast;client_port=" + port + "-" + (port + 1);
+                } else if (sessionInfo.transport == TRANSPORT_UDP_MULTICAST) {
+                    // Channels created after SETUP response, when group and ports known
+                    udpChannels = new DatagramChannel[2];
+                    transportHeader = "RTP/AVP;multicast";
+                } else {
+                    transportHeader = "RTP/AVP/TCP;unicast;interleaved=" + channel + "-" + (channel + 1);
+                }
+                int status;
+                ArrayList<Pair<String, String>> headers;
+                boolean staleNonceRetried = false;
+                while (true) {
+                    if (digestAuth != null)
+                        authToken = digestAuth.getAuthHeader("SETUP", uriRtspSetup);
+                    int setupCSeq = cSeq.addAndGet(1);
                     sendSetupCommand(
                             outputStream,
                             uriRtspSetup,
-                            cSeq.addAndGet(1),
+                            setupCSeq,
                             userAgent,
                             authToken,
-                            session,
-                            (i == 0 ? "0-1" /*video*/ : "2-3" /*audio*/));
-                    status = readResponseStatusCode(inputStream);
+                            sessionInfo.session,
+                            transportHeader);
+                    // Fast connect. Session is already known from the previous SETUP,
+                    // send PLAY right behind the last one. UDP may need SETUP retry, so TCP only.
+                    boolean lastTrack = (i == 1 || !requestAudio || sdpInfo.audioTrack == null);
+                    if (pipelining && lastTrack && sessionInfo.session != null && sessionInfo.transport == TRANSPORT_TCP) {
+                        sendPlay(outputStream, cSeq.addAndGet(1), authToken, digestAuth, sessionInfo.session);
+                        sessionInfo.playSent = true;
+                    }
+                    status = readResponseStatusCode(responseReader);
                     if (DEBUG)
                         Log.i(TAG, "SETUP status: " + status);
-                    checkStatusCode(status);
-                    headers = readResponseHeaders(inputStream);
+                    headers = readResponseHeaders(responseReader);
                     dumpHeaders(headers);
-                    session = getHeader(headers, "Session");
-                    if (!TextUtils.isEmpty(session)) {
-                        // ODgyODg3MjQ1MDczODk3NDk4Nw;timeout=30
-                        String[] params = TextUtils.split(session, ";");
-                        session = params[0];
-                        // Getting session timeout
+                    if (pipelining)
+                        checkResponseCSeq(headers, setupCSeq);
+                    if (status != 200)
+                        responseReader.readContent(RtspResponseReader.getContentLength(headers));
+                    if (sessionInfo.playSent && status != 200) {
+                        // Skip response of pipelined PLAY, SETUP failed
+                        readResponseStatusCode(responseReader);
+                        ArrayList<Pair<String, String>> playHeaders = readResponseHeaders(responseReader);
+                        dumpHeaders(playHeaders);
+                        responseReader.readContent(RtspResponseReader.getContentLength(playHeaders));
+                        sessionInfo.playSent = false;
+                    }
+                    // Nonce expired, credentials accepted. Repeat once with the new nonce.
+                    if (status == 401 && !staleNonceRetried && digestAuth != null && digestAuth.updateChallenge(headers)) {
+                        staleNonceRetried = true;
+                        continue;
+                    }
+                    break;
+                }
+
+                if (udpChannels != null) {
+                    String responseTransport = getHeader(headers, "Transport");
+                    if (status == 200 && sessionInfo.transport == TRANSPORT_UDP_MULTICAST && !joinMulticastGroup(responseTransport, udpChannels))
+                        status = 461; // Unsupported Transport
+                    boolean rejected = status != 200 && status != 401;
+                    // Server may answer with interleaved transport instead of requested one
+                    boolean interleaved = status == 200 && getTransportParam(responseTransport, "interleaved") != null;
+                    if (rejected || interleaved) {
+                        NetUtils.closeUdpChannels(udpChannels);
+                        if (sessionInfo.session == null) {
+                            Log.w(TAG, "UDP transport not supported (status " + status + "). Switching to TCP.");
+                            sessionInfo.transport = TRANSPORT_TCP;
+                            if (rejected) {
+                                // Repeat SETUP for the same track
+                                i--;
+                                continue;
+                            }
+                        } else {
+                            // Previous track already set up via UDP. Transport cannot be mixed within
+                            // the session, tear it down and repeat SETUP for all tracks via TCP.
+                            Log.w(TAG, "UDP transport not supported for track " + i + " (status " + status + "). Switching to TCP.");
+                            if (sessionInfo.udpReceiver != null)
+                                sessionInfo.udpReceiver.release();
+                            teardownSession(outputStream, responseReader, cSeq, authToken, digestAuth, sessionInfo.session);
+                            sessionInfo = new SessionInfo();
+                            sessionInfo.transport = TRANSPORT_TCP;
+                            i = -1;
+                            continue;
+                        }
+                    } else if (status == 200) {
+                        if (sessionInfo.udpReceiver == null) {
+                            sessionInfo.rtcpSession = new RtcpSession(packetProcessor.getClockSync(), metricsListener);
+                            sessionInfo.udpReceiver = createUdpReceiver(packetProcessor, sessionInfo.rtcpSession);
+                        }
+                        sessionInfo.udpReceiver.addChannel(channel, udpChannels[0]);
+                        sessionInfo.udpReceiver.addChannel(channel + 1, udpChannels[1]);
+                        SocketAddress rtcpDestination = getRtcpDestination(
+                                responseTransport,
+                                sessionInfo.transport == TRANSPORT_UDP_MULTICAST,
+                                udpChannels[1].socket().getLocalPort());
+                        if (rtcpDestination != null)
+                            sessionInfo.udpReceiver.setDestination(channel + 1, rtcpDestination);
+                        if (DEBUG)
+                            Log.d(TAG, "UDP server ports: " + getTransportParam(responseTransport, "server_port"));
+                    } else {
+                        NetUtils.closeUdpChannels(udpChannels);
+                    }
+                }
+                checkStatusCode(status);
+
+                String session = getHeader(headers, "Session");
+                if (!TextUtils.isEmpty(session)) {
+                    // ODgyODg3MjQ1MDczODk3NDk4Nw;timeout=30
+                    String[] params = TextUtils.split(session, ";");
+                    session = params[0];
+                    // Getting session timeout
+                    if (params.length > 1) {
+                        params = TextUtils.split(params[1], "=");
                         if (params.length > 1) {
-                            params = TextUtils.split(params[1], "=");
-                            if (params.length > 1) {
-                                try {
-                                    sessionTimeout = Integer.parseInt(params[1]);
-                                } catch (NumberFormatException e) {
-                                    Log.e(TAG, "Failed to parse RTSP session timeout");
-                                }
+                            try {
+                                sessionInfo.sessionTimeout = Integer.parseInt(params[1]);
+                            } catch (NumberFormatException e) {
+                                Log.e(TAG, "Failed to parse RTSP session timeout");
                             }
                         }
                     }
-                    if (DEBUG)
-                        Log.d(TAG, "SETUP session: " + session + ", timeout: " + sessionTimeout);
-                    if (TextUtils.isEmpty(session))
-                        throw new IOException("Failed to get RTSP session");
                 }
+                sessionInfo.session = session;
+                if (DEBUG)
+                    Log.d(TAG, "SETUP session: " + session + ", timeout: " + sessionInfo.sessionTimeout);
+                if (TextUtils.isEmpty(session))
+                    throw new IOException("Failed to get RTSP session");
             }
 
-            if (TextUtils.isEmpty(session))
+            if (TextUtils.isEmpty(sessionInfo.session))
                 throw new IOException("Failed to get any media track");
+        } catch (IOException | InterruptedException e) {
+            if (sessionInfo.udpReceiver != null)
+                sessionInfo.udpReceiver.release();
+            throw e;
+        }
 
-// PLAY rtsp://10.0.1.78:8080/video/h264 RTSP/1.0
-// Range: npt=0.000-
-// CSeq: 5
-// User-Agent: Lavf58.29.100
-// Session: Mzk5MzY2MzUwMTg3NTc2Mzc5NQ
+        if (sessionInfo.udpReceiver != null)
+            sessionInfo.udpReceiver.start();
+        return sessionInfo;
+    }
 
-// RTSP/1.0 200 OK
-// CSeq: 5
-// RTP-Info: url=/video/h264;seq=56
-// Session: Mzk5MzY2MzUwMTg3NTc2Mzc5NQ;timeout=30
-            checkExitFlag(exitFlag);
-            if (digestRealmNonce != null)
-                authToken = getDigestAuthHeader(username, password, "PLAY", uriRtsp /*?*/, digestRealmNonce.first, digestRealmNonce.second);
-            sendPlayCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken, session);
-            status = readResponseStatusCode(inputStream);
+    // UDP packets may be lost or reordered. Pass them through jitter buffers, one per RTP channel.
+    @NonNull
+    private RtpUdpReceiver createUdpReceiver(
+            @NonNull RtpPacketProcessor packetProcessor,
+            @NonNull RtcpSession rtcpSession)
+            throws IOException {
+        RtpJitterBuffer.RtpJitterBufferListener videoListener = new RtpJitterBuffer.RtpJitterBufferListener() {
+            @Override
+            public void onRtpPacketReady(@NonNull byte[] data, int offset, int length) {
+                packetProcessor.processRtpPacket(data, offset, length);
+            }
+
+            @Override
+            public void onRtpPacketsLost(int sequenceNumber, int count) {
+                if (DEBUG)
+                    Log.w(TAG, "Lost " + count + " video RTP packets starting from " + sequenceNumber);
+                packetProcessor.onVideoPacketsLost();
+            }
+        };
+        RtpJitterBuffer.RtpJitterBufferListener audioListener = new RtpJitterBuffer.RtpJitterBufferListener() {
+            @Override
+            public void onRtpPacketReady(@NonNull byte[] data, int offset, int length) {
+                packetProcessor.processRtpPacket(data, offset, length);
+            }
+
+            @Override
+            public void onRtpPacketsLost(int sequenceNumber, int count) {
+                if (DEBUG)
+                    Log.w(TAG, "Lost " + count + " audio RTP packets starting from " + sequenceNumber);
+            }
+        };
+        // Channel 0 - video RTP, channel 2 - audio RTP
+        final RtpJitterBuffer[] jitterBuffers = {
+                new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, jitterBufferDelay, videoListener),
+                new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, jitterBufferDelay, audioListener)
+        };
+        RtpUdpReceiver udpReceiver = new RtpUdpReceiver(new RtpUdpReceiver.RtpUdpReceiverListener() {
+            @Override
+            public void onRtpUdpPacketReceived(int channel, @NonNull byte[] data, int offset, int length) {
+                long now = System.currentTimeMillis();
+                if ((channel & 1) != 0) {
+                    rtcpSession.processRtcpPacket(channel, data, offset, length, now);
+                } else if (channel / 2 < jitterBuffers.length) {
+                    rtcpSession.onRtpPacket(channel, data, offset, length, now);
+                    jitterBuffers[channel / 2].push(data, offset, length, now);
+                }
+            }
+
+            @Override
+            public void onRtpUdpReceiveCycle() {
+                // Release packets held behind lost ones
+                long now = System.currentTimeMillis();
+                for (RtpJitterBuffer jitterBuffer : jitterBuffers)
+                    jitterBuffer.drain(now);
+                rtcpSession.sendReportsIfNeeded(now);
+            }
+        });
+        rtcpSession.setSender(udpReceiver::send);
+        udpReceiver.setPollInterval(Math.max(JITTER_BUFFER_MIN_POLL_INTERVAL_MS, jitterBufferDelay / 2));
+        udpReceiver.setName("RTSP UDP thread");
+        return udpReceiver;
+    }
+
+    // RTCP reports are sent to server RTCP port for unicast and to the group for multicast
+    @Nullable
+    private SocketAddress getRtcpDestination(@Nullable String transport, boolean multicast, int localRtcpPort) {
+        try {
+            if (multicast) {
+                String destination = getTransportParam(transport, "destination");
+                if (TextUtils.isEmpty(destination))
+                    return null;
+                return new InetSocketAddress(InetAddress.getByName(destination), localRtcpPort);
+            }
+            String ports = getTransportParam(transport, "server_port");
+            if (TextUtils.isEmpty(ports))
+                return null;
+            String[] params = TextUtils.split(ports, "-");
+            int rtcpPort = params.length > 1 ? Integer.parseInt(params[1]) : Integer.parseInt(params[0]) + 1;
+            String source = getTransportParam(transport, "source");
+            InetAddress address = TextUtils.isEmpty(source) ? rtspSocket.getInetAddress() : InetAddress.getByName(source);
+            return new InetSocketAddress(address, rtcpPort);
+        } catch (NumberFormatException | IOException e) {
+            Log.e(TAG, "Failed to get RTCP destination (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+
+// Transport: RTP/AVP;multicast;destination=232.0.0.10;port=5000-5001;ttl=16
+    private boolean joinMulticastGroup(@Nullable String transport, @NonNull DatagramChannel[] udpChannels) {
+        String destination = getTransportParam(transport, "destination");
+        String ports = getTransportParam(transport, "port");
+        if (DEBUG)
+            Log.d(TAG, "Multicast destination: " + destination + ", port: " + ports + ", ttl: " + getTransportParam(transport, "ttl"));
+        if (TextUtils.isEmpty(destination) || TextUtils.isEmpty(ports)) {
+            Log.e(TAG, "No multicast destination in response");
+            return false;
+        }
+        try {
+            String[] params = TextUtils.split(ports, "-");
+            int rtpPort = Integer.parseInt(params[0]);
+            int rtcpPort = params.length > 1 ? Integer.parseInt(params[1]) : rtpPort + 1;
+            InetAddress group = InetAddress.getByName(destination);
+            NetworkInterface networkInterface = NetUtils.getMulticastInterface(rtspSocket.getLocalAddress());
+            udpChannels[0] = NetUtils.createMulticastChannel(group, rtpPort, networkInterface);
+            udpChannels[1] = NetUtils.createMulticastChannel(group, rtcpPort, networkInterface);
+            return true;
+        } catch (NumberFormatException | IOException e) {
+            Log.e(TAG, "Failed to join multicast group " + destination + " (" + e.getMessage() + ")");
+            NetUtils.closeUdpChannels(udpChannels);
+            return false;
+        }
+    }
+
+    private void playSession(
+            @NonNull OutputStream outputStream,
+            @NonNull RtspResponseReader responseReader,
+            @NonNull AtomicInteger cSeq,
+            @Nullable String authToken,
+            @Nullable DigestAuthenticator digestAuth,
+            @NonNull SessionInfo sessionInfo)
+            throws IOException {
+        // PLAY may be already sent behind the last SETUP in fast connect mode
+        if (!sessionInfo.playSent)
+            sendPlay(outputStream, cSeq.addAndGet(1), authToken, digestAuth, sessionInfo.session);
+        int status = readResponseStatusCode(responseReader);
+        if (DEBUG)
+            Log.i(TAG, "PLAY status: " + status);
+        ArrayList<Pair<String, String>> headers = readResponseHeaders(responseReader);
+        dumpHeaders(headers);
+        // Nonce expired, credentials accepted. Repeat once with the new nonce.
+        if (status == 401 && digestAuth != null && digestAuth.updateChallenge(headers)) {
+            responseReader.readContent(RtspResponseReader.getContentLength(headers));
+            sendPlay(outputStream, cSeq.addAndGet(1), authToken, digestAuth, sessionInfo.session);
+            status = readResponseStatusCode(responseReader);
             if (DEBUG)
                 Log.i(TAG, "PLAY status: " + status);
-            checkStatusCode(status);
-            headers = readResponseHeaders(inputStream);
+            headers = readResponseHeaders(responseReader);
             dumpHeaders(headers);
+        }
+        checkStatusCode(status);
+    }
 
-            listener.onRtspConnected(sdpInfo);
+    private void teardownSession(
+            @NonNull OutputStream outputStream,
+            @NonNull RtspResponseReader responseReader,
+            @NonNull AtomicInteger cSeq,
+            @Nullable String authToken,
+            @Nullable DigestAuthenticator digestAuth,
+            @Nullable String session)
+            throws IOException {
+        if (digestAuth != null)
+            authToken = digestAuth.getAuthHeader("TEARDOWN", uriRtsp);
+        sendTeardownCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken, session);
+        int status = readResponseStatusCode(responseReader);
+        ArrayList<Pair<String, String>> headers = readResponseHeaders(responseReader);
+        dumpHeaders(headers);
+        responseReader.readContent(RtspResponseReader.getContentLength(headers));
+        if (DEBUG)
+            Log.i(TAG, "TEARDOWN status: " + status);
+    }
 
-            if (sdpInfo.videoTrack != null ||  sdpInfo.audioTrack != null) {
-                if (digestRealmNonce != null)
-                    authToken = getDigestAuthHeader(username, password, hasCapability(RTSP_CAPABILITY_GET_PARAMETER, capabilities) ? "GET_PARAMETER" : "OPTIONS", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
-                final String authTokenFinal = authToken;
-                final String sessionFinal = session;
-                RtspClientKeepAliveListener keepAliveListener = () -> {
-                    try {
-                        //GET_PARAMETER rtsp://10.0.1.155:554/cam/realmonitor?channel=1&subtype=1/ RTSP/1.0
-                        //CSeq: 6
-                        //User-Agent: Lavf58.45.100
-                        //Session: 4066342621205
-                        //Authorization: Digest username="admin", realm="Login to cam", nonce="8fb58500489d60f99a40b43f3c8574ef", uri="rtsp://10.0.1.155:554/cam/realmonitor?channel=1&subtype=1/", response="692a26124a1ee9562135785ace33a23b"
-
-                        //RTSP/1.0 200 OK
-                        //CSeq: 6
-                        //Session: 4066342621205
-                        if (debug)
-                            Log.d(TAG_DEBUG, "Sending keep-alive");
-                        if (hasCapability(RTSP_CAPABILITY_GET_PARAMETER, capabilities))
-                            sendGetParameterCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, sessionFinal, authTokenFinal);
-                        else
-                            sendOptionsCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authTokenFinal);
-
-                        // Do not read response right now, since it may contain unread RTP frames.
-                        // RtpHeader.searchForNextRtpHeader will handle that.
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                };
+    private static void reportSocketOptions(@Nullable RtspMetricsListener metricsListener, @NonNull Socket socket, long peakBitrate) {
+        if (metricsListener == null)
+            return;
+        try {
+            metricsListener.onRtspSocketOptions(
+                    socket.getReceiveBufferSize(),
+                    socket.getTcpNoDelay(),
+                    socket.getTrafficClass(),
+                    peakBitrate);
+        } catch (SocketException e) {
+            Log.w(TAG, "Failed to get socket options (" + e.getMessage() + ")");
+        }
+    }
 
-                // Blocking call unless exitFlag set to true, thread.interrupt() called or connection closed.
-                try {
-                    readRtpData(
-                            inputStream,
-                            sdpInfo,
-                            exitFlag,
-                            listener,
-                            sessionTimeout / 2 * 1000,
-                            keepAliveListener);
-                } finally {
-                    // Cleanup resources on server side
-                    if (hasCapability(RTSP_CAPABILITY_TEARDOWN, capabilities)) {
-                        if (digestRealmNonce != null)
-                            authToken = getDigestAuthHeader(username, password, "TEARDOWN", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
-                        sendTeardownCommand(outputStream, uriRtsp, cSeq.addAndGet(1), userAgent, authToken, sessionFinal);
-                    }
-                }
+    private void sendPlay(
+            @NonNull OutputStream outputStream,
+            int cSeq,
+            @Nullable String authToken,
+            @Nullable DigestAuthenticator digestAuth,
+            @NonNull String session)
+            throws IOException {
+        if (digestAuth != null)
+            authToken = digestAuth.getAuthHeader("PLAY", uriRtsp /*?*/);
+        sendPlayCommand(outputStream, uriRtsp, cSeq, userAgent, authToken, session);
+    }
 
-            } else {
-                listener.onRtspFailed("No tracks found. RTSP server issue.");
+    @NonNull
+    private SdpInfo getSdpInfo(@Nullable String sdp) {
+        SdpInfo sdpInfo = new SdpInfo();
+        if (TextUtils.isEmpty(sdp))
+            return sdpInfo;
+        try {
+            List<Pair<String, String>> params = getDescribeParams(sdp);
+            sdpInfo = getSdpInfoFromDescribeParams(params);
+            if (!requestVideo)
+                sdpInfo.videoTrack = null;
+            if (!requestAudio)
+                sdpInfo.audioTrack = null;
+            // AAC, Opus, G.711 and L16 supported
+            if (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_UNKNOWN) {
+                Log.e(TAG_DEBUG, "Unknown RTSP audio codec (" + sdpInfo.audioTrack.audioCodec + ") specified in SDP");
+                sdpInfo.audioTrack = null;
             }
-
-            listener.onRtspDisconnecting();
-            listener.onRtspDisconnected();
-        } catch (UnauthorizedException e) {
-            e.printStackTrace();
-            listener.onRtspFailedUnauthorized();
-        } catch (InterruptedException e) {
-            // Thread interrupted. Expected behavior.
-            listener.onRtspDisconnecting();
-            listener.onRtspDisconnected();
         } catch (Exception e) {
             e.printStackTrace();
-            listener.onRtspFailed(e.getMessage());
         }
-        try {
-            rtspSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        return sdpInfo;
+    }
+
+    private void updateSessionCache(
+            @Nullable RtspSessionCache.Entry entry,
+            @Nullable String sdp,
+            int capabilities,
+            @Nullable String authToken,
+            @Nullable DigestAuthenticator digestAuth,
+            boolean udpUnavailable) {
+        if (sessionCache == null)
+            return;
+        if (entry == null)
+            entry = new RtspSessionCache.Entry(uriRtsp);
+        entry.sdp = sdp;
+        entry.capabilities = capabilities;
+        if (digestAuth != null) {
+            entry.authScheme = RtspSessionCache.AUTH_DIGEST;
+            entry.authChallenge = digestAuth.getChallenge();
+        } else {
+            entry.authScheme = (authToken != null ? RtspSessionCache.AUTH_BASIC : RtspSessionCache.AUTH_NONE);
+            entry.authChallenge = null;
         }
+        if (udpUnavailable)
+            entry.quirks |= RtspSessionCache.QUIRK_UDP_UNAVAILABLE;
+        sessionCache.put(entry);
+    }
+
+    private void addSessionCacheQuirk(int quirk) {
+        if (sessionCache == null)
+            return;
+        RtspSessionCache.Entry entry = sessionCache.get(uriRtsp);
+        if (entry == null)
+            entry = new RtspSessionCache.Entry(uriRtsp);
+        entry.quirks |= quirk;
+        sessionCache.put(entry);
     }
 
     @Nullable
@@ -575,6 +1282,22 @@ public class RtspClient {
             throw new InterruptedException();
     }
 
+    // Pipelined responses come in order of requests
+    private static void checkResponseCSeq(@NonNull ArrayList<Pair<String, String>> headers, int cSeq) throws IOException {
+        int responseCSeq = RtspResponseReader.getCSeq(headers);
+        if (responseCSeq >= 0 && responseCSeq != cSeq)
+            throw new UnexpectedCSeqException(responseCSeq, cSeq);
+    }
+
+    private static long reportConnectPhase(@Nullable RtspMetricsListener metricsListener, int phase, long phaseStartNs) {
+        long now = System.nanoTime();
+        if (DEBUG)
+            Log.d(TAG, "Connect phase " + phase + " took " + (now - phaseStartNs) / 1000000 + " msec");
+        if (metricsListener != null)
+            metricsListener.onRtspConnectPhase(phase, (now - phaseStartNs) / 1000000);
+        return now;
+    }
+
     private static void checkStatusCode(int code) throws IOException {
         switch (code) {
             case 200:
@@ -586,37 +1309,26 @@ public class RtspClient {
         }
     }
 
-    private static void readRtpData(
-            @NonNull InputStream inputStream,
-            @NonNull SdpInfo sdpInfo,
+    // Package-private for allocation tests
+    static void readRtpData(
+            @NonNull InterleavedFrameReader frameReader,
+            @NonNull RtpPacketProcessor packetProcessor,
+            @NonNull RtcpSession rtcpSession,
             @NonNull AtomicBoolean exitFlag,
-            @NonNull RtspClientListener listener,
             int keepAliveTimeout,
-            @NonNull RtspClientKeepAliveListener keepAliveListener)
+            @NonNull RtspClientKeepAliveListener keepAliveListener,
+            @NonNull Socket socket,
+            @Nullable ReceiveBufferSizer receiveBufferSizer,
+            @Nullable RtspMetricsListener metricsListener,
+            long phaseStartNs)
             throws IOException {
-        byte[] data = new byte[0]; // Usually not bigger than MTU = 15KB
-
-        final VideoRtpParser videoParser = new VideoRtpParser();
-        final AacParser audioParser = (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_AAC ?
-                new AacParser(sdpInfo.audioTrack.mode) :
-                null);
-
-        byte[] nalUnitSps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.sps : null);
-        byte[] nalUnitPps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.pps : null);
-
         long keepAliveSent = System.currentTimeMillis();
+        boolean firstPacketReceived = false;
 
         while (!exitFlag.get()) {
-            RtpParser.RtpHeader header = RtpParser.readHeader(inputStream);
-            if (header == null) {
+            // RTSP message read instead of a frame
+            if (!frameReader.readFrame())
                 continue;
-//                throw new IOException("No RTP frames found");
-            }
-//          header.dumpHeader();
-            if (header.payloadSize > data.length)
-                data = new byte[header.payloadSize];
-
-            NetUtils.readData(inputStream, data, 0, header.payloadSize);
 
             // Check if keep-alive should be sent
             long l = System.currentTimeMillis();
@@ -625,66 +1337,68 @@ public class RtspClient {
                 keepAliveListener.onRtspKeepAliveRequested();
             }
 
-            // Video
-            if (sdpInfo.videoTrack != null && header.payloadType == sdpInfo.videoTrack.payloadType) {
-                byte[] nalUnit = videoParser.processRtpPacketAndGetNalUnit(data, header.payloadSize);
-                if (nalUnit != null) {
-                    byte type = VideoCodecUtils.getH264NalUnitType(nalUnit, 0, nalUnit.length);
-//                  Log.i(TAG, "NAL u: " + VideoCodecUtils.getH264NalUnitTypeString(type));
-                    switch (type) {
-                        case VideoCodecUtils.NAL_SPS:
-                            nalUnitSps = nalUnit;
-                            // Looks like there is NAL_IDR_SLICE as well. Send it now.
-                            if (nalUnit.length > 100)
-                                listener.onRtspVideoNalUnitReceived(nalUnit, 0, nalUnit.length, (long)(header.timeStamp * 11.111111));
-                            break;
-                        case VideoCodecUtils.NAL_PPS:
-                            nalUnitPps = nalUnit;
-                            // Looks like there is NAL_IDR_SLICE as well. Send it now.
-                            if (nalUnit.length > 100)
-                                listener.onRtspVideoNalUnitReceived(nalUnit, 0, nalUnit.length, (long)(header.timeStamp * 11.111111));
-                            break;
-                        case VideoCodecUtils.NAL_IDR_SLICE:
-                            // Combine IDR with SPS/PPS
-                            if (nalUnitSps != null && nalUnitPps != null) {
-//                                byte[] nalUnitSppPpsIdr = new byte[nalUnitSps.length + nalUnitPps.length + nalUnit.length];
-//                                System.arraycopy(nalUnitSps, 0, nalUnitSppPpsIdr, 0, nalUnitSps.length);
-//                                System.arraycopy(nalUnitPps, 0, nalUnitSppPpsIdr, nalUnitSps.length, nalUnitPps.length);
-//                                System.arraycopy(nalUnit, 0, nalUnitSppPpsIdr, nalUnitSps.length + nalUnitPps.length, nalUnit.length);
-//                                listener.onRtspNalUnitReceived(nalUnitSppPpsIdr, 0, nalUnitSppPpsIdr.length, System.currentTimeMillis());
-                                byte[] nalUnitSppPps = new byte[nalUnitSps.length + nalUnitPps.length];
-                                System.arraycopy(nalUnitSps, 0, nalUnitSppPps, 0, nalUnitSps.length);
-                                System.arraycopy(nalUnitPps, 0, nalUnitSppPps, nalUnitSps.length, nalUnitPps.length);
-                                listener.onRtspVideoNalUnitReceived(nalUnitSppPps, 0, nalUnitSppPps.length, (long)(header.timeStamp * 11.111111));
-//                                listener.onRtspNalUnitReceived(nalUnitSppPps, 0, nalUnitSppPps.length, System.currentTimeMillis() / 10);
-                                // Send it only once
-                                nalUnitSps = null;
-                                nalUnitPps = null;
-                            }
-//                            listener.onRtspNalUnitReceived(nalUnitSps, 0, nalUnitSps.length, System.currentTimeMillis());
-//                            listener.onRtspNalUnitReceived(nalUnitPps, 0, nalUnitPps.length, System.currentTimeMillis());
-//                            listener.onRtspNalUnitReceived(nalUnit, 0, nalUnit.length, System.currentTimeMillis());
-//                            break;
-                        default:
-                            listener.onRtspVideoNalUnitReceived(nalUnit, 0, nalUnit.length, (long)(header.timeStamp * 11.111111));
-//                            listener.onRtspNalUnitReceived(nalUnit, 0, nalUnit.length, System.currentTimeMillis() / 10);
-                    }
-                }
+            // Frame with 4 bytes interleaved header
+            if (receiveBufferSizer != null && receiveBufferSizer.onDataReceived(frameReader.getLength() + 4, l))
+                reportSocketOptions(metricsListener, socket, receiveBufferSizer.getPeakBitrate());
 
-                // Audio
-            } else if (sdpInfo.audioTrack != null && header.payloadType == sdpInfo.audioTrack.payloadType) {
-                if (audioParser != null) {
-                    byte[] sample = audioParser.processRtpPacketAndGetSample(data, header.payloadSize);
-                    if (sample != null)
-                        listener.onRtspAudioSampleReceived(sample, 0, sample.length, (long) (header.timeStamp * 11.111111));
+            // RTP and RTCP packets are processed in place from the frame reader buffer
+            int channel = frameReader.getChannel();
+            if ((channel & 1) != 0) {
+                rtcpSession.processRtcpPacket(channel, frameReader.getData(), frameReader.getOffset(), frameReader.getLength(), l);
+            } else {
+                if (!firstPacketReceived) {
+                    firstPacketReceived = true;
+                    reportConnectPhase(metricsListener, CONNECT_PHASE_FIRST_RTP_PACKET, phaseStartNs);
                 }
+                rtcpSession.onRtpPacket(channel, frameReader.getData(), frameReader.getOffset(), frameReader.getLength(), l);
+                packetProcessor.processRtpPacket(frameReader.getData(), frameReader.getOffset(), frameReader.getLength());
+            }
+            rtcpSession.sendReportsIfNeeded(l);
+        }
+    }
 
-                // Unknown
-            } else {
-                // https://www.iana.org/assignments/rtp-parameters/rtp-parameters.xhtml
-                if (DEBUG && header.payloadType >= 96 && header.payloadType <= 127)
-                    Log.w(TAG, "Invalid RTP payload type " + header.payloadType);
+    private void waitUdpRtpData(
+            @NonNull ReadAheadBuffer readBuffer,
+            @NonNull InterleavedFrameReader frameReader,
+            @NonNull RtpUdpReceiver udpReceiver,
+            int keepAliveTimeout,
+            @NonNull RtspClientKeepAliveListener keepAliveListener)
+            throws IOException, InterruptedException {
+        long keepAliveSent = System.currentTimeMillis();
+        // InputStream.available() is always 0 for channel and TLS socket streams, so the connection
+        // is polled instead. Stream polls wait for data up to the socket read timeout.
+        int soTimeout = rtspSocket.getSoTimeout();
+        rtspSocket.setSoTimeout(UDP_CONTROL_POLL_TIMEOUT_MS);
+        try {
+            // RTP data is processed on UDP receiver thread. Only keep the RTSP session alive here.
+            while (!exitFlag.get()) {
+                // Check if keep-alive should be sent
+                long l = System.currentTimeMillis();
+                if (keepAliveTimeout > 0 && l - keepAliveSent > keepAliveTimeout) {
+                    keepAliveSent = l;
+                    keepAliveListener.onRtspKeepAliveRequested();
+                }
+                if (!udpReceiver.isAlive())
+                    throw new IOException("UDP receiver stopped");
+                if (l - udpReceiver.getLastPacketTime() > UDP_NO_DATA_TIMEOUT_MS)
+                    throw new IOException("No RTP data received via UDP");
+
+                // Keep-alive responses. No interleaved frames expected on the connection.
+                if (readBuffer.poll() > 0) {
+                    // Rest of a partially received response read with the regular timeout.
+                    // Channel reads are bounded by SO_TIMEOUT as well (ReadAheadBuffer selector),
+                    // so a stalled response fails with SocketTimeoutException instead of blocking.
+                    rtspSocket.setSoTimeout(soTimeout);
+                    while (readBuffer.available() > 0) {
+                        if (frameReader.readFrame())
+                            Log.w(TAG, "Unexpected interleaved frame on channel " + frameReader.getChannel());
+                    }
+                    rtspSocket.setSoTimeout(UDP_CONTROL_POLL_TIMEOUT_MS);
+                }
+                Thread.sleep(UDP_CONTROL_POLL_INTERVAL_MS);
             }
+        } finally {
+            rtspSocket.setSoTimeout(soTimeout);
         }
     }
 
@@ -779,11 +1493,11 @@ public class RtspClient {
             @Nullable String userAgent,
             @Nullable String authToken,
             @Nullable String session,
-            @NonNull String interleaved)
+            @NonNull String transport)
             throws IOException {
-        if (DEBUG) Log.v(TAG, "sendSetupCommand(request=\"" + request + "\", cSeq=" + cSeq + ")");
+        if (DEBUG) Log.v(TAG, "sendSetupCommand(request=\"" + request + "\", cSeq=" + cSeq + ", transport=\"" + transport + "\")");
         outputStream.write(("SETUP " + request + " RTSP/1.0" + CRLF).getBytes());
-        outputStream.write(("Transport: RTP/AVP/TCP;unicast;interleaved=" + interleaved + CRLF).getBytes());
+        outputStream.write(("Transport: " + transport + CRLF).getBytes());
         if (authToken != null)
             outputStream.write(("Authorization: " + authToken + CRLF).getBytes());
         outputStream.write(("CSeq: " + cSeq + CRLF).getBytes());
@@ -816,20 +1530,15 @@ public class RtspClient {
         outputStream.flush();
     }
 
-    private int readResponseStatusCode(@NonNull InputStream inputStream) throws IOException {
-//        String line = readLine(inputStream);
-//        if (debug)
-//            Log.d(TAG_DEBUG, "" + line);
+    private int readResponseStatusCode(@NonNull RtspResponseReader responseReader) throws IOException {
         String line;
-        byte[] rtspHeader = "RTSP/1.0 ".getBytes();
-        // Search fpr "RTSP/1.0 "
-        while (!exitFlag.get() && readUntilBytesFound(inputStream, rtspHeader) && (line = readLine(inputStream)) != null) {
+        // Search for "RTSP/1.0 "
+        while (!exitFlag.get() && responseReader.skipToStatusLine()) {
+            line = responseReader.readLine();
             if (debug)
                 Log.d(TAG_DEBUG, "" + line);
-//            int indexRtsp = line.indexOf("TSP/1.0 "); // 8 characters, 'R' already found
-//            if (indexRtsp >= 0) {
             int indexCode = line.indexOf(' ');
-            String code = line.substring(0, indexCode);
+            String code = indexCode >= 0 ? line.substring(0, indexCode) : line;
             try {
                 int statusCode = Integer.parseInt(code);
                 if (debug)
@@ -839,7 +1548,6 @@ public class RtspClient {
                 // Does not fulfill standard "RTSP/1.1 200 OK" token
                 // Continue search for
             }
-//            }
         }
         if (debug)
             Log.w(TAG_DEBUG, "Could not obtain status code");
@@ -847,20 +1555,11 @@ public class RtspClient {
     }
 
     @NonNull
-    private ArrayList<Pair<String, String>> readResponseHeaders(@NonNull InputStream inputStream) throws IOException {
-        ArrayList<Pair<String, String>> headers = new ArrayList<>();
-        String line;
-        while (!exitFlag.get() && !TextUtils.isEmpty(line = readLine(inputStream))) {
-            if (debug)
-                Log.d(TAG_DEBUG, "" + line);
-            if (CRLF.equals(line)) {
-                return headers;
-            } else {
-                String[] pairs = TextUtils.split(line, ":");
-                if (pairs.length == 2) {
-                    headers.add(Pair.create(pairs[0].trim(), pairs[1].trim()));
-                }
-            }
+    private ArrayList<Pair<String, String>> readResponseHeaders(@NonNull RtspResponseReader responseReader) throws IOException {
+        ArrayList<Pair<String, String>> headers = responseReader.readHeaders();
+        if (debug) {
+            for (Pair<String, String> header: headers)
+                Log.d(TAG_DEBUG, header.first + ": " + header.second);
         }
         return headers;
     }
@@ -910,6 +1609,19 @@ public class RtspClient {
                             // a=fmtp:96 streamtype=5; profile-level-id=14; mode=AAC-lbr; config=1388; sizeLength=6; indexLength=2; indexDeltaLength=2; constantDuration=1024; maxDisplacement=5
                             // a=fmtp:96 profile-level-id=1;mode=AAC-hbr;sizelength=13;indexlength=3;indexdeltalength=3;config=1210fff15081ffdffc
                             // a=fmtp:96
+                            // a=extmap:1 http://www.webrtc.org/experiments/rtp-hdrext/abs-capture-time
+                            // a=extmap:2/recvonly urn:ietf:params:rtp-hdrext:toffset
+                        } else if (param.second.startsWith("extmap:")) {
+                            String[] values = TextUtils.split(param.second.substring(7), " ");
+                            if (values.length > 1) {
+                                try {
+                                    int id = Integer.parseInt(TextUtils.split(values[0], "/")[0]);
+                                    currentTrack.extmap.put(id, values[1]);
+                                } catch (NumberFormatException e) {
+                                    Log.w(TAG, "Failed to parse \"a=" + param.second + "\"");
+                                }
+                            }
+
                         } else if (param.second.startsWith("fmtp:")) {
                             // Video
                             if (currentTrack instanceof VideoTrack) {
@@ -924,6 +1636,8 @@ public class RtspClient {
                             // a=rtpmap:97 MPEG4-GENERIC/16000
                             // a=rtpmap:97 G726-32/8000
                             // a=rtpmap:96 mpeg4-generic/44100/2
+                            // a=rtpmap:8 PCMA/8000
+                            // a=rtpmap:97 L16/16000/2
                         } else if (param.second.startsWith("rtpmap:")) {
                             // Video
                             if (currentTrack instanceof VideoTrack) {
@@ -959,6 +1673,15 @@ public class RtspClient {
                                             case "opus":
                                                 track.audioCodec = AUDIO_CODEC_OPUS;
                                                 break;
+                                            case "pcma":
+                                                track.audioCodec = AUDIO_CODEC_PCMA;
+                                                break;
+                                            case "pcmu":
+                                                track.audioCodec = AUDIO_CODEC_PCMU;
+                                                break;
+                                            case "l16":
+                                                track.audioCodec = AUDIO_CODEC_L16;
+                                                break;
                                             default:
                                                 Log.w(TAG, "Unknown audio codec \"" + values[0] + "\"");
                                                 track.audioCodec = AUDIO_CODEC_UNKNOWN;
@@ -1040,6 +1763,10 @@ public class RtspClient {
         Track[] tracks = getTracksFromDescribeParams(params);
         sdpInfo.videoTrack = ((VideoTrack)tracks[0]);
         sdpInfo.audioTrack = ((AudioTrack)tracks[1]);
+        if (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_UNKNOWN)
+            updateStaticAudioTrack(sdpInfo.audioTrack);
+        if (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_OPUS)
+            updateOpusAudioTrack(sdpInfo.audioTrack);
 
         for (Pair<String, String> param : params) {
             switch (param.first) {
@@ -1111,11 +1838,32 @@ public class RtspClient {
                             videoTrack.pps = nalPps;
                         }
                         break;
+                    // a=fmtp:96 sprop-vps=QAEMAf//AWAAAAMAgAAAAwAAAwB4rAk=; sprop-sps=QgEBAWAAAAMAgAAAAwAAAwB4oAPAgBDlja5JMi5/8AAQABBQEBAQgA==; sprop-pps=RAHA8vA8kAA=
+                    case "sprop-vps":
+                        videoTrack.vps = getNalUnitFromSpropParameter(pair.second);
+                        break;
+                    case "sprop-sps":
+                        videoTrack.sps = getNalUnitFromSpropParameter(pair.second);
+                        break;
+                    case "sprop-pps":
+                        videoTrack.pps = getNalUnitFromSpropParameter(pair.second);
+                        break;
                 }
             }
         }
     }
 
+    // Base64 NAL unit with 00 00 00 01 start code added. Only the first one used if several listed.
+    @NonNull
+    private static byte[] getNalUnitFromSpropParameter(@NonNull String value) {
+        int i = value.indexOf(',');
+        byte[] data = Base64.decode(i != -1 ? value.substring(0, i) : value, Base64.NO_WRAP);
+        byte[] nalUnit = new byte[data.length + 4];
+        nalUnit[3] = 1;
+        System.arraycopy(data, 0, nalUnit, 4, data.length);
+        return nalUnit;
+    }
+
     @NonNull
     private static byte[] getBytesFromHexString(@NonNull String config) {
         // "1210fff1" -> [12, 10, ff, f1]
@@ -1126,6 +1874,7 @@ public class RtspClient {
         // a=fmtp:96 streamtype=5; profile-level-id=14; mode=AAC-lbr; config=1388; sizeLength=6; indexLength=2; indexDeltaLength=2; constantDuration=1024; maxDisplacement=5
         // a=fmtp:97 streamtype=5;profile-level-id=1;mode=AAC-hbr;sizelength=13;indexlength=3;indexdeltalength=3;config=1408
         // a=fmtp:96 profile-level-id=1;mode=AAC-hbr;sizelength=13;indexlength=3;indexdeltalength=3;config=1210fff15081ffdffc
+        // a=fmtp:101 sprop-stereo=0; maxplaybackrate=16000; sprop-maxcapturerate=16000; useinbandfec=1
         List<Pair<String, String>> params = getSdpAParams(param);
         if (params != null) {
             for (Pair<String, String> pair: params) {
@@ -1136,20 +1885,77 @@ public class RtspClient {
                     case "config":
                         audioTrack.config = getBytesFromHexString(pair.second);
                         break;
+                    case "sizelength":
+                        audioTrack.sizeLength = getSdpIntParam(pair.second);
+                        break;
+                    case "indexlength":
+                        audioTrack.indexLength = getSdpIntParam(pair.second);
+                        break;
+                    case "indexdeltalength":
+                        audioTrack.indexDeltaLength = getSdpIntParam(pair.second);
+                        break;
+                    case "constantduration":
+                        audioTrack.constantDuration = getSdpIntParam(pair.second);
+                        break;
+                    case "sprop-stereo":
+                        audioTrack.spropStereo = getSdpIntParam(pair.second);
+                        break;
+                    case "sprop-maxcapturerate":
+                        audioTrack.maxCaptureRateHz = getSdpIntParam(pair.second);
+                        break;
+                    case "maxplaybackrate":
+                        audioTrack.maxPlaybackRateHz = getSdpIntParam(pair.second);
+                        break;
                 }
             }
         }
     }
 
-    private static int getHeaderContentLength(@NonNull ArrayList<Pair<String, String>> headers) {
-        String length = getHeader(headers, "content-length");
-        if (!TextUtils.isEmpty(length)) {
-            try {
-                return Integer.parseInt(length);
-            } catch (NumberFormatException ignored) {
-            }
+    // Static payload types may come without rtpmap, e.g. "m=audio 0 RTP/AVP 0" (RFC 3551 Table 4)
+    private static void updateStaticAudioTrack(@NonNull AudioTrack audioTrack) {
+        switch (audioTrack.payloadType) {
+            case 0:
+                audioTrack.audioCodec = AUDIO_CODEC_PCMU;
+                audioTrack.sampleRateHz = 8000;
+                audioTrack.channels = 1;
+                break;
+            case 8:
+                audioTrack.audioCodec = AUDIO_CODEC_PCMA;
+                audioTrack.sampleRateHz = 8000;
+                audioTrack.channels = 1;
+                break;
+            case 10:
+            case 11:
+                audioTrack.audioCodec = AUDIO_CODEC_L16;
+                audioTrack.sampleRateHz = 44100;
+                audioTrack.channels = (audioTrack.payloadType == 10 ? 2 : 1);
+                break;
+            default:
+                return;
+        }
+        Log.i(TAG, "Audio: " + getAudioCodecName(audioTrack.audioCodec) + " (static payload type " + audioTrack.payloadType + ")");
+    }
+
+    // rtpmap is always "opus/48000/2" (RFC 7587 7), real channel count is in sprop-stereo.
+    // OpusHead is built as codec config, there is nothing like AAC config in SDP.
+    private static void updateOpusAudioTrack(@NonNull AudioTrack audioTrack) {
+        audioTrack.sampleRateHz = AudioCodecUtils.OPUS_SAMPLE_RATE;
+        audioTrack.channels = (audioTrack.spropStereo == 1 ? 2 : 1);
+        int inputSampleRate = audioTrack.maxCaptureRateHz > 0 ? audioTrack.maxCaptureRateHz :
+                (audioTrack.maxPlaybackRateHz > 0 ? audioTrack.maxPlaybackRateHz : AudioCodecUtils.OPUS_SAMPLE_RATE);
+        // Live stream is joined in the middle, there are no encoder priming samples to skip
+        audioTrack.config = AudioCodecUtils.getOpusHead(audioTrack.channels, inputSampleRate, 0);
+        Log.i(TAG, "Opus channels: " + audioTrack.channels + ", input sample rate: " + inputSampleRate + " Hz");
+    }
+
+    // -1 if not a number
+    private static int getSdpIntParam(@NonNull String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid SDP value \"" + value + "\"");
+            return -1;
         }
-        return -1;
     }
 
     private static int getSupportedCapabilities(@NonNull ArrayList<Pair<String, String>> headers) {
@@ -1202,33 +2008,6 @@ public class RtspClient {
         return RTSP_CAPABILITY_NONE;
     }
 
-    @Nullable
-    private static Pair<String, String> getHeaderWwwAuthenticateDigestRealmAndNonce(@NonNull ArrayList<Pair<String, String>> headers) {
-        for (Pair<String, String> head: headers) {
-            String h = head.first.toLowerCase();
-            // WWW-Authenticate: Digest realm="AXIS_00408CEF081C", nonce="00054cecY7165349339ae05f7017797d6b0aaad38f6ff45", stale=FALSE
-            // WWW-Authenticate: Basic realm="AXIS_00408CEF081C"
-            // WWW-Authenticate: Digest realm="Login to 4K049EBPAG1D7E7", nonce="de4ccb15804565dc8a4fa5b115695f4f"
-            if ("www-authenticate".equals(h) && head.second.toLowerCase().startsWith("digest")) {
-                String v = head.second.substring(7).trim();
-                int begin, end;
-
-                begin = v.indexOf("realm=");
-                begin = v.indexOf('"', begin) + 1;
-                end = v.indexOf('"', begin);
-                String digestRealm = v.substring(begin, end);
-
-                begin = v.indexOf("nonce=");
-                begin = v.indexOf('"', begin)+1;
-                end = v.indexOf('"', begin);
-                String digestNonce = v.substring(begin, end);
-
-                return Pair.create(digestRealm, digestNonce);
-            }
-        }
-        return null;
-    }
-
     @Nullable
     private static String getHeaderWwwAuthenticateBasicRealm(@NonNull ArrayList<Pair<String, String>> headers) {
         for (Pair<String, String> head: headers) {
@@ -1256,81 +2035,6 @@ public class RtspClient {
         return "Basic " + new String(Base64.encode(auth.getBytes(StandardCharsets.ISO_8859_1), Base64.NO_WRAP));
     }
 
-    // Digest authentication
-    @Nullable
-    private static String getDigestAuthHeader(
-            @Nullable String username,
-            @Nullable String password,
-            @NonNull String method,
-            @NonNull String digestUri,
-            @NonNull String realm,
-            @NonNull String nonce) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] ha1;
-
-            if (username == null)
-                username = "";
-            if (password == null)
-                password = "";
-
-            // calc A1 digest
-            md.update(username.getBytes(StandardCharsets.ISO_8859_1));
-            md.update((byte) ':');
-            md.update(realm.getBytes(StandardCharsets.ISO_8859_1));
-            md.update((byte) ':');
-            md.update(password.getBytes(StandardCharsets.ISO_8859_1));
-            ha1 = md.digest();
-
-            // calc A2 digest
-            md.reset();
-            md.update(method.getBytes(StandardCharsets.ISO_8859_1));
-            md.update((byte) ':');
-            md.update(digestUri.getBytes(StandardCharsets.ISO_8859_1));
-            byte[] ha2 = md.digest();
-
-            // calc response
-            md.update(getHexStringFromBytes(ha1).getBytes(StandardCharsets.ISO_8859_1));
-            md.update((byte) ':');
-            md.update(nonce.getBytes(StandardCharsets.ISO_8859_1));
-            md.update((byte) ':');
-            // TODO add support for more secure version of digest auth
-            //md.update(nc.getBytes(StandardCharsets.ISO_8859_1));
-            //md.update((byte) ':');
-            //md.update(cnonce.getBytes(StandardCharsets.ISO_8859_1));
-            //md.update((byte) ':');
-            //md.update(qop.getBytes(StandardCharsets.ISO_8859_1));
-            //md.update((byte) ':');
-            md.update(getHexStringFromBytes(ha2).getBytes(StandardCharsets.ISO_8859_1));
-            String response = getHexStringFromBytes(md.digest());
-
-//            log.trace("username=\"{}\", realm=\"{}\", nonce=\"{}\", uri=\"{}\", response=\"{}\"",
-//                    userName, digestRealm, digestNonce, digestUri, response);
-
-            return "Digest username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\"" + digestUri + "\", response=\"" + response + "\"";
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
-    @NonNull
-    private static String getHexStringFromBytes(@NonNull byte[] bytes) {
-        StringBuilder buf = new StringBuilder();
-        for (byte b : bytes)
-            buf.append(String.format("%02x", b));
-        return buf.toString();
-    }
-
-    @NonNull
-    private static String readContentAsText(@NonNull InputStream inputStream, int length) throws IOException {
-        if (length <= 0)
-            return "";
-        byte[] b = new byte[length];
-        int read = readData(inputStream, b, 0, length);
-        return new String(b, 0, read);
-    }
-
     // int memcmp ( const void * ptr1, const void * ptr2, size_t num );
     public static boolean memcmp(
             @NonNull byte[] source1,
@@ -1350,91 +2054,6 @@ public class RtspClient {
         return true;
     }
 
-    private static void shiftLeftArray(@NonNull byte[] array, int num) {
-        // ABCDEF -> BCDEF
-        if (num - 1 >= 0)
-            System.arraycopy(array, 1, array, 0, num - 1);
-    }
-
-    private boolean readUntilBytesFound(@NonNull InputStream inputStream, @NonNull byte[] array) throws IOException {
-        byte[] buffer = new byte[array.length];
-
-        // Fill in buffer
-        if (NetUtils.readData(inputStream, buffer, 0, buffer.length) != buffer.length)
-            return false; // EOF
-
-        while (!exitFlag.get()) {
-            // Check if buffer is the same one
-            if (memcmp(buffer, 0, array, 0, buffer.length)) {
-                return true;
-            }
-            // ABCDEF -> BCDEFF
-            shiftLeftArray(buffer, buffer.length);
-            // Read 1 byte into last buffer item
-            if (NetUtils.readData(inputStream, buffer, buffer.length - 1, 1) != 1) {
-                return false; // EOF
-            }
-        }
-        return false;
-    }
-
-//    private boolean readUntilByteFound(@NonNull InputStream inputStream, byte bt) throws IOException {
-//        byte[] buffer = new byte[1];
-//        int readBytes;
-//        while (!exitFlag.get()) {
-//            readBytes = inputStream.read(buffer, 0, 1);
-//            if (readBytes == -1) // EOF
-//                return false;
-//            if (readBytes == 1 && buffer[0] == bt) {
-//                return true;
-//            }
-//        }
-//        return false;
-//    }
-
-    @Nullable
-    private String readLine(@NonNull InputStream inputStream) throws IOException {
-        byte[] bufferLine = new byte[MAX_LINE_SIZE];
-        int offset = 0;
-        int readBytes;
-        do {
-            // Didn't find "\r\n" within 4K bytes
-            if (offset >= MAX_LINE_SIZE) {
-                throw new NoResponseHeadersException();
-            }
-
-            // Read 1 byte
-            readBytes = inputStream.read(bufferLine, offset, 1);
-            if (readBytes == 1) {
-                // Check for EOL
-                // Some cameras like Linksys WVC200 do not send \n instead of \r\n
-                if (offset > 0 && /*bufferLine[offset-1] == '\r' &&*/ bufferLine[offset] == '\n') {
-                    // Found empty EOL. End of header section
-                    if (offset == 1)
-                        return "";//break;
-
-                    // Found EOL. Add to array.
-                    return new String(bufferLine, 0, offset-1);
-                } else {
-                    offset++;
-                }
-            }
-        } while (readBytes > 0 && !exitFlag.get());
-        return null;
-    }
-
-    private static int readData(@NonNull InputStream inputStream, @NonNull byte[] buffer, int offset, int length) throws IOException {
-        if (DEBUG) Log.v(TAG, "readData(offset=" + offset + ", length=" + length + ")");
-        int readBytes;
-        int totalReadBytes = 0;
-        do {
-            readBytes = inputStream.read(buffer, offset + totalReadBytes, length - totalReadBytes);
-            if (readBytes > 0)
-                totalReadBytes += readBytes;
-        } while (readBytes >= 0 && totalReadBytes < length);
-        return totalReadBytes;
-    }
-
     private static void dumpHeaders(@NonNull ArrayList<Pair<String, String>> headers) {
         if (DEBUG) {
             for (Pair<String, String> head : headers) {
@@ -1456,17 +2075,43 @@ public class RtspClient {
         return null;
     }
 
+    // Transport: RTP/AVP;unicast;destination=10.0.1.53;source=10.0.1.145;client_port=27452-27453;server_port=6972-6973
+    @Nullable
+    private static String getTransportParam(@Nullable String transport, @NonNull String param) {
+        if (transport == null)
+            return null;
+        for (String token: TextUtils.split(transport, ";")) {
+            token = token.trim();
+            if (token.equalsIgnoreCase(param))
+                return "";
+            int i = token.indexOf('=');
+            if (i > 0 && token.substring(0, i).equalsIgnoreCase(param))
+                return token.substring(i + 1);
+        }
+        return null;
+    }
+
     public static class Builder {
 
         private static final String DEFAULT_USER_AGENT = "Lavf58.29.100";
 
         private final @NonNull Socket rtspSocket;
+        private final @Nullable SocketChannel rtspChannel;
         private final @NonNull String uriRtsp;
         private final @NonNull AtomicBoolean exitFlag;
         private final @NonNull RtspClientListener listener;
         //      private boolean sendOptionsCommand = true;
         private boolean requestVideo = true;
         private boolean requestAudio = true;
+        private int transport = TRANSPORT_TCP;
+        private int jitterBufferDelay = DEFAULT_JITTER_BUFFER_DELAY_MS;
+        private @Nullable RtspMetricsListener metricsListener = null;
+        private @Nullable RtspRtpExtensionListener extensionListener = null;
+        private boolean fastConnect = false;
+        private int knownCapabilities = RTSP_CAPABILITY_NONE;
+        private @Nullable RtspSessionCache sessionCache = null;
+        private @Nullable SocketProfile socketProfile = null;
+        private @Nullable ByteArrayPool bufferPool = null;
         private boolean debug = false;
         private @Nullable String username = null;
         private @Nullable String password = null;
@@ -1478,6 +2123,24 @@ public class RtspClient {
                 @NonNull AtomicBoolean exitFlag,
                 @NonNull RtspClientListener listener) {
             this.rtspSocket = rtspSocket;
+            this.rtspChannel = null;
+            this.uriRtsp = uriRtsp;
+            this.exitFlag = exitFlag;
+            this.listener = listener;
+        }
+
+        /**
+         * NIO transport. RTP data is read from the channel in bulk straight into the receive
+         * buffer. Reads time out after SO_TIMEOUT of the channel socket. Playback is stopped via
+         * thread.interrupt() which closes the channel.
+         */
+        public Builder(
+                @NonNull SocketChannel rtspChannel,
+                @NonNull String uriRtsp,
+                @NonNull AtomicBoolean exitFlag,
+                @NonNull RtspClientListener listener) {
+            this.rtspSocket = rtspChannel.socket();
+            this.rtspChannel = rtspChannel;
             this.uriRtsp = uriRtsp;
             this.exitFlag = exitFlag;
             this.listener = listener;
@@ -1520,6 +2183,91 @@ public class RtspClient {
             return this;
         }
 
+        /**
+         * @param transport {@link #TRANSPORT_TCP} (default), {@link #TRANSPORT_UDP} or
+         *                  {@link #TRANSPORT_UDP_MULTICAST}
+         */
+        @NonNull
+        public Builder withTransport(int transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Max time in msec to wait for lost or reordered UDP packets. Packets arriving in order
+         * are not delayed. Not used for TCP transport.
+         */
+        @NonNull
+        public Builder withJitterBufferDelay(int delayMs) {
+            this.jitterBufferDelay = delayMs;
+            return this;
+        }
+
+        @NonNull
+        public Builder withMetricsListener(@Nullable RtspMetricsListener metricsListener) {
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        @NonNull
+        public Builder withRtpExtensionListener(@Nullable RtspRtpExtensionListener extensionListener) {
+            this.extensionListener = extensionListener;
+            return this;
+        }
+
+        /**
+         * Pipeline RTSP requests to save round trips while connecting. DESCRIBE is sent right
+         * behind OPTIONS (or without OPTIONS if capabilities known) and PLAY behind the last SETUP.
+         * Some servers do not handle pipelined requests, so disabled by default.
+         */
+        @NonNull
+        public Builder withFastConnect(boolean fastConnect) {
+            this.fastConnect = fastConnect;
+            return this;
+        }
+
+        /**
+         * Server capabilities from a previous connection, see {@link RtspClient#getServerCapabilities()}.
+         * OPTIONS request is skipped in fast connect mode if set.
+         */
+        @NonNull
+        public Builder withKnownCapabilities(int capabilities) {
+            this.knownCapabilities = capabilities;
+            return this;
+        }
+
+        /**
+         * Server profiles kept between connections. Reconnects to a cached URI skip OPTIONS and
+         * DESCRIBE, use the cached authentication challenge and avoid transports failed before.
+         */
+        @NonNull
+        public Builder withSessionCache(@Nullable RtspSessionCache sessionCache) {
+            this.sessionCache = sessionCache;
+            return this;
+        }
+
+        /**
+         * Socket options applied to the connection. Receive buffer size should be set before connect as well,
+         * e.g. via {@link NetUtils#createSocketAndConnect(String, int, int, SocketProfile)}.
+         */
+        @NonNull
+        public Builder withSocketProfile(@Nullable SocketProfile socketProfile) {
+            this.socketProfile = socketProfile;
+            return this;
+        }
+
+        /**
+         * Pool video NAL units and audio samples are allocated from. Buffers passed to
+         * {@link RtspClientListener#onRtspVideoNalUnitReceived} and
+         * {@link RtspClientListener#onRtspAudioSampleReceived} can be released into it once consumed,
+         * so no buffers are allocated in steady state.
+         */
+        @NonNull
+        public Builder withBufferPool(@Nullable ByteArrayPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
         @NonNull
         public RtspClient build() {
             return new RtspClient(this);
@@ -0,0 +1,111 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.InterleavedFrameReader;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtspResponseReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Requests sent during playback and waiting for response, indexed by CSeq.
+ * Responses are read by the connection thread via {@link InterleavedFrameReader},
+ * requests may be added from any thread.
+ */
+class RtspPendingRequests implements InterleavedFrameReader.RtspMessageListener {
+
+    private static final String TAG = RtspPendingRequests.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    interface RtspResponseCallback {
+        void onRtspResponse(int statusCode, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content);
+    }
+
+    private static class PendingRequest {
+        final @NonNull String method;
+        final long sentTime;
+        final @Nullable RtspResponseCallback callback;
+
+        PendingRequest(@NonNull String method, long sentTime, @Nullable RtspResponseCallback callback) {
+            this.method = method;
+            this.sentTime = sentTime;
+            this.callback = callback;
+        }
+    }
+
+    private final @NonNull HashMap<Integer, PendingRequest> requests = new HashMap<>();
+    private final int requestTimeoutMs;
+    // Requests expired since the last response
+    private int missedResponses = 0;
+
+    /**
+     * @param requestTimeoutMs requests not answered within this time are dropped, e.g. keep-alive interval
+     */
+    RtspPendingRequests(int requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * Should be called before the request is sent.
+     * @param callback receives the response on the connection thread
+     */
+    synchronized void add(int cSeq, @NonNull String method, @Nullable RtspResponseCallback callback) {
+        requests.put(cSeq, new PendingRequest(method, System.currentTimeMillis(), callback));
+    }
+
+    synchronized int size() {
+        return requests.size();
+    }
+
+    @Override
+    public void onRtspResponse(int statusCode, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content) {
+        int cSeq = RtspResponseReader.getCSeq(headers);
+        PendingRequest request;
+        synchronized (this) {
+            request = requests.remove(cSeq);
+            if (request != null)
+                missedResponses = 0;
+            removeExpired(System.currentTimeMillis());
+        }
+        if (request == null) {
+            Log.w(TAG, "Response " + statusCode + " for unknown CSeq " + cSeq);
+            return;
+        }
+        if (statusCode != 200)
+            Log.w(TAG, request.method + " failed with status " + statusCode);
+        else if (DEBUG)
+            Log.d(TAG, request.method + " succeeded, CSeq " + cSeq);
+        if (request.callback != null)
+            request.callback.onRtspResponse(statusCode, headers, content);
+    }
+
+    @Override
+    public void onRtspRequest(@NonNull String requestLine, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content) {
+        Log.i(TAG, "Ignoring server request \"" + requestLine + "\"");
+    }
+
+    /**
+     * Drop requests not answered in time. Should be called periodically, e.g. on each keep-alive,
+     * since responses may never come.
+     * @return number of requests expired since the last response received
+     */
+    synchronized int removeExpired(long now) {
+        Iterator<PendingRequest> iterator = requests.values().iterator();
+        while (iterator.hasNext()) {
+            PendingRequest request = iterator.next();
+            if (now - request.sentTime > requestTimeoutMs) {
+                Log.w(TAG, "No response for " + request.method + " within " + requestTimeoutMs + " msec");
+                iterator.remove();
+                missedResponses++;
+            }
+        }
+        return missedResponses;
+    }
+
+}
@@ -3,7 +3,9 @@ package com.ahmet.lowlatencyrtspplayer.rtsp.codec
 import android.media.*
 import android.util.Log
 import com.ahmet.lowlatencyrtspplayer.rtsp.codec.FrameQueue
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.AudioCodecUtils
 import java.nio.ByteBuffer
+import java.nio.ByteOrder
 
 
 class AudioDecodeThread (
@@ -11,7 +13,8 @@ class AudioDecodeThread (
         private val sampleRate: Int,
         private val channelCount: Int,
         private val codecConfig: ByteArray?,
-        private val audioFrameQueue: FrameQueue
+        private val audioFrameQueue: FrameQueue,
+        private val presentationClock: PresentationClock? = null
 ) : Thread() {
 
     private var isRunning = true
@@ -35,60 +38,11 @@ class AudioDecodeThread (
             format.setByteBuffer("csd-0", ByteBuffer.wrap(csd0))
             format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC)
         } else if (mimeType == MediaFormat.MIMETYPE_AUDIO_OPUS) {
-            // TODO: Add Opus support
-
-//            val OPUS_IDENTIFICATION_HEADER = "OpusHead".toByteArray()
-//            val OPUS_PRE_SKIP_NSEC = ByteBuffer.allocate(8).putLong(11971).array()
-//            val OPUS_SEEK_PRE_ROLL_NSEC = ByteBuffer.allocate(8).putLong(80000000).array()
-
-//            val csd0 = ByteBuffer.allocate(8+1+1+2+4+2+1)
-//            csd0.put("OpusHead".toByteArray())
-//            // Version
-//            csd0.put(1)
-//            // Number of channels
-//            csd0.put(2)
-//            // Pre-skip
-//            csd0.putShort(0)
-//            csd0.putInt(sampleRate)
-//            // Output Gain
-//            csd0.putShort(0)
-//            // Channel Mapping Family
-//            csd0.put(0)
-            // Buffer buf = new Buffer();
-//                // Magic Signature：固定头，占8个字节，为字符串OpusHead
-//                buf.write("OpusHead".getBytes(StandardCharsets.UTF_8));
-//                // Version：版本号，占1字节，固定为0x01
-//                buf.writeByte(1);
-//                // Channel Count：通道数，占1字节，根据音频流通道自行设置，如0x02
-//                buf.writeByte(1);
-//                // Pre-skip：回放的时候从解码器中丢弃的samples数量，占2字节，为小端模式，默认设置0x00,
-//                buf.writeShortLe(0);
-//                // Input Sample Rate (Hz)：音频流的Sample Rate，占4字节，为小端模式，根据实际情况自行设置
-//                buf.writeIntLe(currentFormat.HZ);
-//                //Output Gain：输出增益，占2字节，为小端模式，没有用到默认设置0x00, 0x00就好
-//                buf.writeShortLe(0);
-//                // Channel Mapping Family：通道映射系列，占1字节，默认设置0x00就好
-//                buf.writeByte(0);
-//                //Channel Mapping Table：可选参数，上面的Family默认设置0x00的时候可忽略
-//            format.setByteBuffer("csd-0", ByteBuffer.wrap(OPUS_IDENTIFICATION_HEADER).order(ByteOrder.BIG_ENDIAN))
-//            format.setByteBuffer("csd-1", ByteBuffer.wrap(OPUS_PRE_SKIP_NSEC).order(ByteOrder.BIG_ENDIAN))
-//            format.setByteBuffer("csd-2", ByteBuffer.wrap(OPUS_SEEK_PRE_ROLL_NSEC).order(ByteOrder.LITTLE_ENDIAN))
-
-            val csd0 = byteArrayOf(
-                0x4f, 0x70, 0x75, 0x73, // "Opus"
-                0x48, 0x65, 0x61, 0x64, // "Head"
-                0x01,  // Version
-                0x02,  // Channel Count
-                0x00, 0x00,  // Pre skip
-                0x80.toByte(), 0xbb.toByte(), 0x00, 0x00, // Sample rate 48000
-                0x00, 0x00,  // Output Gain (Q7.8 in dB)
-                0x00,  // Mapping Family
-            )
-            val csd1 = byteArrayOf(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00)
-            val csd2 = byteArrayOf(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00)
+            // OpusHead built from SDP, pre-skip and seek pre-roll are passed separately in nanoseconds
+            val csd0 = codecConfig ?: AudioCodecUtils.getOpusHead(channelCount, sampleRate, 0)
             format.setByteBuffer("csd-0", ByteBuffer.wrap(csd0))
-            format.setByteBuffer("csd-1", ByteBuffer.wrap(csd1))
-            format.setByteBuffer("csd-2", ByteBuffer.wrap(csd2))
+            format.setByteBuffer("csd-1", getNanosecondsConfigData(AudioCodecUtils.getOpusPreSkipNs(csd0)))
+            format.setByteBuffer("csd-2", getNanosecondsConfigData(AudioCodecUtils.OPUS_SEEK_PRE_ROLL_NS))
         }
 
         decoder.configure(format, null, null, 0)
@@ -114,6 +68,9 @@ class AudioDecodeThread (
                 0)
         audioTrack.play()
 
+        val frameSize = 2 * (if (channelCount > 1) 2 else 1)
+        var framesWritten = 0L
+        val audioTimestamp = AudioTimestamp()
         val bufferInfo = MediaCodec.BufferInfo()
         while (isRunning) {
             val inIndex: Int = decoder.dequeueInputBuffer(10000L)
@@ -140,7 +97,8 @@ class AudioDecodeThread (
                         decoder.queueInputBuffer(inIndex, 0, 0, 0L, 0)
                     } else {
                         byteBuffer?.put(audioFrame.data, audioFrame.offset, audioFrame.length)
-                        decoder.queueInputBuffer(inIndex, audioFrame.offset, audioFrame.length, audioFrame.timestamp, 0)
+                        decoder.queueInputBuffer(inIndex, 0, audioFrame.length, audioFrame.timestamp, 0)
+                        audioFrameQueue.recycle(audioFrame)
                     }
                 } catch (e: Exception) {
                     e.printStackTrace()
@@ -164,6 +122,10 @@ class AudioDecodeThread (
 
                             if (chunk.isNotEmpty()) {
                                 audioTrack.write(chunk, 0, chunk.size)
+                                val frames = chunk.size / frameSize
+                                framesWritten += frames
+                                val endTimeUs = bufferInfo.presentationTimeUs + frames * 1000000L / sampleRate
+                                presentationClock?.updateAudioPosition(audioTrack, audioTimestamp, framesWritten, sampleRate, endTimeUs)
                             }
                             decoder.releaseOutputBuffer(outIndex, false)
                         }
@@ -179,6 +141,7 @@ class AudioDecodeThread (
                 break
             }
         }
+        presentationClock?.reset()
         audioTrack.flush()
         audioTrack.release()
 
@@ -197,6 +160,14 @@ class AudioDecodeThread (
         private val TAG: String = AudioDecodeThread::class.java.simpleName
         private const val DEBUG = false
 
+        // MediaCodec expects Opus csd-1 and csd-2 as 64-bit values in native byte order
+        private fun getNanosecondsConfigData(valueNs: Long): ByteBuffer {
+            val buffer = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder())
+            buffer.putLong(valueNs)
+            buffer.rewind()
+            return buffer
+        }
+
         fun getAacDecoderConfigData(audioProfile: Int, sampleRate: Int, channels: Int): ByteArray {
             // AOT_LC = 2
             // 0001 0000 0000 0000
@@ -1,17 +1,22 @@
 package com.ahmet.lowlatencyrtspplayer.rtsp.codec
 
 import android.util.Log
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool
 import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.BlockingQueue
 import java.util.concurrent.TimeUnit
 
-class FrameQueue(frameQueueSize: Int) {
+/**
+ * @param bufferPool frame data is released into after being consumed, see [recycle]
+ */
+class FrameQueue(frameQueueSize: Int, private val bufferPool: ByteArrayPool? = null) {
 
     data class Frame (
         val data: ByteArray,
         val offset: Int,
         val length: Int,
-        val timestamp: Long
+        val timestamp: Long,
+        val flags: Int = 0 // MediaCodec.BUFFER_FLAG_KEY_FRAME, MediaCodec.BUFFER_FLAG_CODEC_CONFIG
     )
 
     private val queue: BlockingQueue<Frame> = ArrayBlockingQueue(frameQueueSize)
@@ -22,6 +27,7 @@ class FrameQueue(frameQueueSize: Int) {
             return true
         }
         Log.w(TAG, "Cannot add frame, queue is full")
+        recycle(frame)
         return false
     }
 
@@ -39,8 +45,21 @@ class FrameQueue(frameQueueSize: Int) {
         return null
     }
 
+    /**
+     * Frame data should not be used afterwards.
+     */
+    fun recycle(frame: Frame) {
+        bufferPool?.release(frame.data)
+    }
+
     fun clear() {
-        queue.clear()
+        if (bufferPool == null) {
+            queue.clear()
+            return
+        }
+        while (true) {
+            recycle(queue.poll() ?: break)
+        }
     }
 
     companion object {
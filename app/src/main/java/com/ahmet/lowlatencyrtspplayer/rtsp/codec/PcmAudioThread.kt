@@ -0,0 +1,93 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.codec
+
+import android.media.*
+import android.os.Build
+import android.util.Log
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.AudioCodecUtils
+
+/**
+ * Plays G.711 (A-law, mu-law) and L16 audio without MediaCodec. Samples are decoded by lookup
+ * tables straight into a reused buffer and written into low latency AudioTrack.
+ * @param mimeType [MediaFormat.MIMETYPE_AUDIO_G711_ALAW], [MediaFormat.MIMETYPE_AUDIO_G711_MLAW]
+ * or [MediaFormat.MIMETYPE_AUDIO_RAW] for L16
+ */
+class PcmAudioThread (
+        private val mimeType: String,
+        private val sampleRate: Int,
+        private val channelCount: Int,
+        private val audioFrameQueue: FrameQueue,
+        private val presentationClock: PresentationClock? = null
+) : Thread() {
+
+    private var isRunning = true
+
+    fun stopAsync() {
+        if (DEBUG) Log.v(TAG, "stopAsync()")
+        isRunning = false
+        // Wake up sleep() code
+        interrupt()
+    }
+
+    override fun run() {
+        if (DEBUG) Log.d(TAG, "$name started")
+
+        val outChannel = if (channelCount > 1) AudioFormat.CHANNEL_OUT_STEREO else AudioFormat.CHANNEL_OUT_MONO
+        val outAudio = AudioFormat.ENCODING_PCM_16BIT
+        val bufferSize = AudioTrack.getMinBufferSize(sampleRate, outChannel, outAudio)
+        val builder = AudioTrack.Builder()
+                .setAudioAttributes(AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build())
+                .setAudioFormat(AudioFormat.Builder()
+                        .setEncoding(outAudio)
+                        .setChannelMask(outChannel)
+                        .setSampleRate(sampleRate)
+                        .build())
+                .setBufferSizeInBytes(bufferSize)
+                .setTransferMode(AudioTrack.MODE_STREAM)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+        val audioTrack = builder.build()
+        audioTrack.play()
+
+        val audioTimestamp = AudioTimestamp()
+        var framesWritten = 0L
+        // Reused for all packets, grows to the largest one
+        var pcm = ShortArray(DEFAULT_PCM_BUFFER_SIZE)
+        while (isRunning) {
+            val audioFrame = audioFrameQueue.pop() ?: continue
+            if (pcm.size < audioFrame.length)
+                pcm = ShortArray(audioFrame.length)
+            val samples = when (mimeType) {
+                MediaFormat.MIMETYPE_AUDIO_G711_ALAW -> AudioCodecUtils.decodeAlaw(audioFrame.data, audioFrame.offset, audioFrame.length, pcm)
+                MediaFormat.MIMETYPE_AUDIO_G711_MLAW -> AudioCodecUtils.decodeUlaw(audioFrame.data, audioFrame.offset, audioFrame.length, pcm)
+                else -> AudioCodecUtils.decodeL16(audioFrame.data, audioFrame.offset, audioFrame.length, pcm)
+            }
+            val timestamp = audioFrame.timestamp
+            audioFrameQueue.recycle(audioFrame)
+
+            val written = audioTrack.write(pcm, 0, samples)
+            if (written > 0) {
+                val frames = written / channelCount
+                framesWritten += frames
+                val endTimeUs = timestamp + frames * 1000000L / sampleRate
+                presentationClock?.updateAudioPosition(audioTrack, audioTimestamp, framesWritten, sampleRate, endTimeUs)
+            }
+        }
+        presentationClock?.reset()
+        audioTrack.flush()
+        audioTrack.release()
+        audioFrameQueue.clear()
+        if (DEBUG) Log.d(TAG, "$name stopped")
+    }
+
+    companion object {
+        private val TAG: String = PcmAudioThread::class.java.simpleName
+        private const val DEBUG = false
+
+        // 20 ms of 16 kHz stereo, the usual packet is 20 ms of 8 kHz mono
+        private const val DEFAULT_PCM_BUFFER_SIZE = 640
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.codec
+
+import android.media.AudioTimestamp
+import android.media.AudioTrack
+import android.util.Log
+
+/**
+ * Presentation clock shared by audio and video decoders. Audio is the master,
+ * the clock follows the presentation time of the audio sample being played right now.
+ * Video frames are released against it. Till audio playback starts or if it stalls,
+ * the clock is not valid and video frames should be rendered as soon as decoded.
+ */
+class PresentationClock {
+
+    private val lock = Any()
+    private var anchorMediaTimeUs = 0L
+    private var anchorSystemTimeNs = 0L
+    private var hasAnchor = false
+
+    /**
+     * Called by audio renderer.
+     * @param mediaTimeUs presentation time of the sample played at [systemTimeNs]
+     */
+    fun updateAudioPosition(mediaTimeUs: Long, systemTimeNs: Long) {
+        synchronized(lock) {
+            if (DEBUG && hasAnchor) {
+                val drift = mediaTimeUs - getTimeUsLocked(systemTimeNs)
+                Log.v(TAG, "Audio clock drift $drift usec")
+            }
+            anchorMediaTimeUs = mediaTimeUs
+            anchorSystemTimeNs = systemTimeNs
+            hasAnchor = true
+        }
+    }
+
+    /**
+     * Called by audio renderer after each write. Presentation time of the sample being played right
+     * now is the end time of written data minus the data still pending in AudioTrack.
+     * @param framesWritten frames written into [audioTrack] since playback start
+     * @param endTimeUs presentation time of the end of written data
+     */
+    fun updateAudioPosition(audioTrack: AudioTrack, audioTimestamp: AudioTimestamp, framesWritten: Long, sampleRate: Int, endTimeUs: Long) {
+        val playedFrames: Long
+        val systemTimeNs: Long
+        if (audioTrack.getTimestamp(audioTimestamp)) {
+            // Includes audio output latency
+            playedFrames = audioTimestamp.framePosition
+            systemTimeNs = audioTimestamp.nanoTime
+        } else {
+            playedFrames = audioTrack.playbackHeadPosition.toLong() and 0xFFFFFFFFL
+            systemTimeNs = System.nanoTime()
+        }
+        val pendingFrames = framesWritten - playedFrames
+        if (pendingFrames >= 0)
+            updateAudioPosition(endTimeUs - pendingFrames * 1000000L / sampleRate, systemTimeNs)
+    }
+
+    /**
+     * Audio stopped or restarted, e.g. underrun or stream discontinuity.
+     */
+    fun reset() {
+        synchronized(lock) {
+            hasAnchor = false
+        }
+    }
+
+    /**
+     * @return current presentation time in usec or null if audio is not playing
+     */
+    fun getTimeUs(systemTimeNs: Long = System.nanoTime()): Long? {
+        synchronized(lock) {
+            if (!hasAnchor || systemTimeNs - anchorSystemTimeNs > MAX_ANCHOR_AGE_NS)
+                return null
+            return getTimeUsLocked(systemTimeNs)
+        }
+    }
+
+    private fun getTimeUsLocked(systemTimeNs: Long): Long {
+        return anchorMediaTimeUs + (systemTimeNs - anchorSystemTimeNs) / 1000
+    }
+
+    companion object {
+        private val TAG: String = PresentationClock::class.java.simpleName
+        private const val DEBUG = false
+
+        // Audio position updated on each written buffer. Older one means audio stalled.
+        private const val MAX_ANCHOR_AGE_NS = 500_000_000L
+    }
+
+}
@@ -15,6 +15,7 @@ import com.google.android.exoplayer2.util.Util
 import java.nio.ByteBuffer
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.absoluteValue
 
 class VideoDecodeThread (
     private val surface: Surface,
@@ -23,12 +24,15 @@ class VideoDecodeThread (
     private val height: Int,
     private val rotation: Int, // 0, 90, 180, 270
     private val videoFrameQueue: FrameQueue,
-    private val videoDecoderListener: VideoDecoderListener
+    private val videoDecoderListener: VideoDecoderListener,
+    private val presentationClock: PresentationClock? = null
 ) : Thread() {
 
     private val uiHandler = Handler(Looper.getMainLooper())
     private var exitFlag = AtomicBoolean(false)
     private var firstFrameRendered = false
+    // Frame dropped, decoding continues from the next key frame
+    private var waitKeyFrame = false
 
     interface VideoDecoderListener {
         /** Video decoder successfully started */
@@ -101,9 +105,18 @@ class VideoDecodeThread (
         else
             Log.i(TAG, "Configuring surface ${safeWidthHeight.first}x${safeWidthHeight.second} w/ '$mimeType'")
         format.setInteger(MediaFormat.KEY_ROTATION, rotation)
+        // Default input buffer can be smaller than an IDR access unit of a high resolution stream
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, getMaxInputSize(safeWidthHeight.first, safeWidthHeight.second))
         return format
     }
 
+    // Largest expected access unit. Compressed frame assumed at least 2 times smaller than
+    // YUV 4:2:0 one, same as ExoPlayer does for H.264.
+    private fun getMaxInputSize(width: Int, height: Int): Int {
+        val alignedPixels = Util.ceilDivide(width, 16) * Util.ceilDivide(height, 16) * 16 * 16
+        return maxOf(alignedPixels * 3 / 4, MIN_INPUT_SIZE)
+    }
+
     private enum class DecoderType {
         HARDWARE,
         SOFTWARE // fallback
@@ -170,6 +183,20 @@ class VideoDecodeThread (
     }
 
 
+    // Early frames are scheduled for rendering at their presentation time on the audio clock.
+    // Late frames and frames without running clock are rendered immediately.
+    private fun releaseOutputBufferSynced(decoder: MediaCodec, index: Int, presentationTimeUs: Long) {
+        val nowNs = System.nanoTime()
+        val clockUs = presentationClock?.getTimeUs(nowNs)
+        val earlyUs = if (clockUs != null) presentationTimeUs - clockUs else 0L
+        if (earlyUs in 1..MAX_EARLY_US) {
+            decoder.releaseOutputBuffer(index, nowNs + earlyUs * 1000)
+        } else {
+            if (DEBUG && clockUs != null) Log.d(TAG, "Video frame ${if (earlyUs > 0) "too early" else "late"} by ${earlyUs.absoluteValue} usec")
+            decoder.releaseOutputBuffer(index, true)
+        }
+    }
+
     override fun run() {
         if (DEBUG) Log.d(TAG, "$name started")
 
@@ -206,17 +233,26 @@ class VideoDecodeThread (
                             val byteBuffer: ByteBuffer? = decoder.getInputBuffer(inIndex)
                             byteBuffer?.rewind()
 
-                            // Preventing BufferOverflowException
-                            // if (length > byteBuffer.limit()) throw DecoderFatalException("Error")
-
                             val frame = videoFrameQueue.pop()
                             if (frame == null) {
                                 Log.d(TAG, "Empty video frame")
                                 // Release input buffer
                                 decoder.queueInputBuffer(inIndex, 0, 0, 0L, 0)
+                            } else if (byteBuffer == null || frame.length > byteBuffer.remaining() ||
+                                       (waitKeyFrame && frame.flags and (MediaCodec.BUFFER_FLAG_KEY_FRAME or MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0)) {
+                                if (!waitKeyFrame)
+                                    Log.w(TAG, "Video frame of ${frame.length} bytes does not fit input buffer of ${byteBuffer?.remaining()} bytes. Dropping frames till the next key frame.")
+                                waitKeyFrame = true
+                                videoFrameQueue.recycle(frame)
+                                // Release input buffer
+                                decoder.queueInputBuffer(inIndex, 0, 0, 0L, 0)
                             } else {
-                                byteBuffer?.put(frame.data, frame.offset, frame.length)
-                                decoder.queueInputBuffer(inIndex, frame.offset, frame.length, frame.timestamp, 0)
+                                if (frame.flags and MediaCodec.BUFFER_FLAG_KEY_FRAME != 0)
+                                    waitKeyFrame = false
+                                byteBuffer.put(frame.data, frame.offset, frame.length)
+                                // Data copied, buffer can be reused for the next frames
+                                videoFrameQueue.recycle(frame)
+                                decoder.queueInputBuffer(inIndex, 0, frame.length, frame.timestamp, frame.flags)
                             }
                         }
 
@@ -262,7 +298,10 @@ class VideoDecodeThread (
                                     if (outIndex >= 0) {
                                         val render = bufferInfo.size != 0 && !exitFlag.get() && surface.isValid
                                         if (DEBUG) Log.i(TAG, "\tFrame decoded [outIndex=$outIndex, length=${bufferInfo.size}, render=$render]")
-                                        decoder.releaseOutputBuffer(outIndex, render)
+                                        if (render)
+                                            releaseOutputBufferSynced(decoder, outIndex, bufferInfo.presentationTimeUs)
+                                        else
+                                            decoder.releaseOutputBuffer(outIndex, false)
                                     } else {
                                         Log.e(TAG, "Obtaining frame failed w/ error code $outIndex (length: ${bufferInfo.size})")
                                     }
@@ -347,6 +386,9 @@ class VideoDecodeThread (
 
         private val DEQUEUE_INPUT_TIMEOUT_US = TimeUnit.MILLISECONDS.toMicros(500)
         private val DEQUEUE_OUTPUT_BUFFER_TIMEOUT_US = TimeUnit.MILLISECONDS.toMicros(100)
+        // Frames earlier than that mean tracks are not synchronized yet
+        private val MAX_EARLY_US = TimeUnit.SECONDS.toMicros(1)
+        private const val MIN_INPUT_SIZE = 1024 * 1024
     }
 
 }
@@ -3,10 +3,10 @@ package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2.util.ParsableBitArray;
-import com.google.android.exoplayer2.util.ParsableByteArray;
+
+import java.util.Arrays;
 
 // https://tools.ietf.org/html/rfc3640
 //          +---------+-----------+-----------+---------------+
@@ -15,14 +15,16 @@ import com.google.android.exoplayer2.util.ParsableByteArray;
 //         +---------+-----------+-----------+---------------+
 //
 //                   <----------RTP Packet Payload----------->
+/**
+ * AAC-hbr and AAC-lbr depacketizer. Packet may carry several AUs, a fragment of a single AU or
+ * interleaved AUs. AUs are returned as slices of the packet itself, only fragmented and
+ * interleaved ones are copied into buffers reused for the whole session.
+ */
 public class AacParser {
 
     private static final String TAG = AacParser.class.getSimpleName();
     private static final boolean DEBUG = false;
 
-    private final ParsableBitArray headerScratchBits;
-    private final ParsableByteArray headerScratchBytes;
-
     private static final int MODE_LBR = 0;
     private static final int MODE_HBR = 1;
 
@@ -32,155 +34,290 @@ public class AacParser {
     // Number of bits for AAC AU index(-delta), indexed by mode (LBR and HBR)
     private static final int[] NUM_BITS_AU_INDEX = {2, 3};
 
-    // Frame Sizes for AAC AU fragments, indexed by mode (LBR and HBR)
-    private static final int[] FRAME_SIZES = {63, 8191};
+    // Samples per AAC frame, RTP timestamp increment between consecutive AUs
+    private static final int DEFAULT_CONSTANT_DURATION = 1024;
+
+    // AUs kept till the missing interleaved ones arrive
+    private static final int MAX_PENDING_ACCESS_UNITS = 32;
+
+    // Reused for all packets, reads AU headers in place
+    private final ParsableBitArray _headerBits = new ParsableBitArray();
 
-    private final int _aacMode;
-    private boolean completeFrameIndicator = true;
+    private final int _sizeLength;
+    private final int _indexLength;
+    private final int _indexDeltaLength;
+    private final int _constantDuration;
+
+    // AUs of the last packet
+    private int _auCount = 0;
+    private byte[][] _auData = new byte[16][];
+    private int[] _auOffsets = new int[16];
+    private int[] _auLengths = new int[16];
+    private long[] _auTimestamps = new long[16];
+
+    // Fragmented AU being reassembled
+    private byte[] _fragment = new byte[2048];
+    private int _fragmentLength = 0;
+    private int _fragmentSize = 0;
+    private long _fragmentTimestamp;
+
+    // De-interleaving, pending AUs sorted by timestamp
+    private boolean _interleaved = false;
+    private final byte[][] _pendingData = new byte[MAX_PENDING_ACCESS_UNITS][];
+    private final int[] _pendingLengths = new int[MAX_PENDING_ACCESS_UNITS];
+    private final long[] _pendingTimestamps = new long[MAX_PENDING_ACCESS_UNITS];
+    private int _pendingCount = 0;
+    private boolean _nextTimestampKnown = false;
+    private long _nextTimestamp;
+    // De-interleaved AUs of the last packet
+    private byte[] _output = new byte[4096];
+    private int _outputLength = 0;
 
     public AacParser(@NonNull String aacMode) {
-        _aacMode = aacMode.equalsIgnoreCase("AAC-lbr") ? MODE_LBR : MODE_HBR;
+        this(aacMode, -1, -1, -1, -1);
+    }
 
-        headerScratchBits = new ParsableBitArray();
-        headerScratchBytes = new ParsableByteArray();
+    /**
+     * Values from SDP fmtp line, -1 if not present there (mode defaults used).
+     */
+    public AacParser(@NonNull String aacMode, int sizeLength, int indexLength, int indexDeltaLength, int constantDuration) {
+        int mode = aacMode.equalsIgnoreCase("AAC-lbr") ? MODE_LBR : MODE_HBR;
+        _sizeLength = sizeLength >= 0 ? sizeLength : NUM_BITS_AU_SIZES[mode];
+        _indexLength = indexLength >= 0 ? indexLength : NUM_BITS_AU_INDEX[mode];
+        _indexDeltaLength = indexDeltaLength >= 0 ? indexDeltaLength : NUM_BITS_AU_INDEX[mode];
+        _constantDuration = constantDuration > 0 ? constantDuration : DEFAULT_CONSTANT_DURATION;
     }
 
-    @Nullable
-    public byte[] processRtpPacketAndGetSample(@NonNull byte[] data, int length) {
-        if (DEBUG)
-            Log.v(TAG, "processRtpPacketAndGetSample(length=" + length + ")");
-        int auHeadersCount = 1;
-        int numBitsAuSize = NUM_BITS_AU_SIZES[_aacMode];
-        int numBitsAuIndex = NUM_BITS_AU_INDEX[_aacMode];
+    /**
+     * Drop partially received AU and AUs waiting for de-interleaving.
+     */
+    public void reset() {
+        _auCount = 0;
+        _fragmentSize = 0;
+        _fragmentLength = 0;
+        _pendingCount = 0;
+        _nextTimestampKnown = false;
+    }
 
-        ParsableByteArray packet = new ParsableByteArray(data, length);
+    /**
+     * @param data buffer containing RTP payload
+     * @param offset offset of RTP payload within the buffer
+     * @param length RTP payload size
+     * @param rtpTimestamp RTP timestamp of the packet
+     * @param marker RTP marker bit, set on the last fragment of AU
+     * @return number of complete AUs, see {@link #getAccessUnitData(int)}. Valid till the next call.
+     */
+    public int processRtpPacket(@NonNull byte[] data, int offset, int length, long rtpTimestamp, boolean marker) {
+        if (DEBUG)
+            Log.v(TAG, "processRtpPacket(offset=" + offset + ", length=" + length + ", marker=" + marker + ")");
+        _auCount = 0;
+        _outputLength = 0;
+        if (length < 2)
+            return 0;
 
 //      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+- .. -+-+-+-+-+-+-+-+-+-+
 //      |AU-headers-length|AU-header|AU-header|      |AU-header|padding|
 //      |                 |   (1)   |   (2)   |      |   (n)   | bits  |
 //      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+- .. -+-+-+-+-+-+-+-+-+-+
-        int auHeadersLength = packet.readShort();//((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        int auHeadersLength = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
         int auHeadersLengthBytes = (auHeadersLength + 7) / 8;
+        int dataOffset = offset + 2 + auHeadersLengthBytes;
+        int end = offset + length;
+        if (dataOffset > end || _sizeLength + _indexLength == 0)
+            return 0;
 
-        headerScratchBytes.reset(auHeadersLengthBytes);
-        packet.readBytes(headerScratchBytes.getData(), 0, auHeadersLengthBytes);
-        headerScratchBits.reset(headerScratchBytes.getData());
+        _headerBits.reset(data, dataOffset);
+        _headerBits.setPosition((offset + 2) * 8);
+        int headersEnd = (offset + 2) * 8 + auHeadersLength;
 
-        int bitsAvailable = auHeadersLength - (numBitsAuSize + numBitsAuIndex);
+//      +---------------------------------------+
+//      |     AU-size                           |
+//      +---------------------------------------+
+//      |     AU-Index / AU-Index-delta         |
+//      +---------------------------------------+
+        long timestamp = rtpTimestamp;
+        int auHeaderIndex = 0;
+        while (_headerBits.getPosition() + _sizeLength + (auHeaderIndex == 0 ? _indexLength : _indexDeltaLength) <= headersEnd) {
+            int auSize = _headerBits.readBits(_sizeLength);
+            if (auHeaderIndex == 0) {
+                _headerBits.readBits(_indexLength);
+            } else {
+                int indexDelta = _headerBits.readBits(_indexDeltaLength);
+                if (indexDelta != 0 && !_interleaved) {
+                    if (DEBUG)
+                        Log.d(TAG, "Interleaved AUs");
+                    _interleaved = true;
+                    // AUs of this packet returned so far are in order
+                    if (_auCount > 0) {
+                        _nextTimestamp = (_auTimestamps[_auCount - 1] + _constantDuration) & 0xFFFFFFFFL;
+                        _nextTimestampKnown = true;
+                    }
+                }
+                timestamp = (timestamp + (long) (indexDelta + 1) * _constantDuration) & 0xFFFFFFFFL;
+            }
 
-        if (bitsAvailable > 0) {// && (numBitsAuSize + numBitsAuSize) > 0) {
-            auHeadersCount +=  bitsAvailable / (numBitsAuSize + numBitsAuIndex);
+            // Single AU header and not enough data, AU is fragmented
+            if (auHeaderIndex == 0 && dataOffset + auSize > end && _headerBits.getPosition() + _sizeLength + _indexDeltaLength > headersEnd) {
+                processFragment(data, dataOffset, end - dataOffset, auSize, timestamp, marker);
+                return _auCount;
+            }
+            if (dataOffset + auSize > end) {
+                Log.w(TAG, "AU size " + auSize + " exceeds RTP payload");
+                break;
+            }
+            addAccessUnit(data, dataOffset, auSize, timestamp);
+            dataOffset += auSize;
+            auHeaderIndex++;
         }
+        // Not completed fragment followed by whole AUs
+        _fragmentSize = 0;
+        if (_interleaved)
+            emitPendingAccessUnits(rtpTimestamp);
+        return _auCount;
+    }
 
-        if (auHeadersCount == 1) {
-            int auSize = headerScratchBits.readBits(numBitsAuSize);
-            int auIndex = headerScratchBits.readBits(numBitsAuIndex);
+    public int getAccessUnitCount() {
+        return _auCount;
+    }
 
-            if (completeFrameIndicator) {
-                if (auIndex == 0) {
-                    if (packet.bytesLeft() == auSize) {
-                        return handleSingleAacFrame(packet);
+    /**
+     * @return buffer containing AU, either the RTP packet or an internal buffer
+     */
+    @NonNull
+    public byte[] getAccessUnitData(int index) {
+        return _auData[index];
+    }
 
-                    } else {
-//                        handleFragmentationAacFrame(packet, auSize);
-                    }
-                }
-            } else {
-//                handleFragmentationAacFrame(packet, auSize);
-            }
+    public int getAccessUnitOffset(int index) {
+        return _auOffsets[index];
+    }
 
-        } else {
-            if (completeFrameIndicator) {
-//                handleMultipleAacFrames(packet, auHeadersLength);
-            }
+    public int getAccessUnitLength(int index) {
+        return _auLengths[index];
+    }
+
+    /**
+     * @return RTP timestamp of AU
+     */
+    public long getAccessUnitTimestamp(int index) {
+        return _auTimestamps[index];
+    }
+
+    private void processFragment(@NonNull byte[] data, int offset, int length, int auSize, long timestamp, boolean marker) {
+        // Fragments of the same AU have the same RTP timestamp and AU size
+        if (_fragmentSize > 0 && (_fragmentSize != auSize || _fragmentTimestamp != timestamp)) {
+            if (DEBUG)
+                Log.d(TAG, "Incomplete AU of " + _fragmentLength + "/" + _fragmentSize + " bytes dropped");
+            _fragmentSize = 0;
+        }
+        if (_fragmentSize == 0) {
+            // First fragment lost
+            if (_fragmentTimestamp == timestamp && _fragmentLength > 0)
+                return;
+            _fragmentSize = auSize;
+            _fragmentLength = 0;
+            _fragmentTimestamp = timestamp;
+            if (_fragment.length < auSize)
+                _fragment = new byte[auSize];
+        }
+        if (_fragmentLength + length > _fragmentSize) {
+            _fragmentSize = 0;
+            return;
+        }
+        System.arraycopy(data, offset, _fragment, _fragmentLength, length);
+        _fragmentLength += length;
+        if (marker || _fragmentLength == _fragmentSize) {
+            if (_fragmentLength == _fragmentSize)
+                addAccessUnit(_fragment, 0, _fragmentLength, timestamp);
+            else if (DEBUG)
+                Log.d(TAG, "Incomplete AU of " + _fragmentLength + "/" + _fragmentSize + " bytes dropped");
+            _fragmentSize = 0;
+            if (_interleaved)
+                emitPendingAccessUnits(timestamp);
         }
-//        byte[] auHeader = new byte[length-2-auHeadersLengthBytes];
-//        System.arraycopy(data,2-auHeadersLengthBytes, auHeader,0, auHeader.length);
-//        if (DEBUG)
-//            Log.d(TAG, "AU headers size: " + auHeadersLengthBytes + ", AU headers: " + auHeadersCount + ", sample length: " + auHeader.length);
-//        return auHeader;
-        return new byte[0];
     }
 
-    private byte[] handleSingleAacFrame(ParsableByteArray packet) {
-        int length = packet.bytesLeft();
-        byte[] data = new byte[length];
-        System.arraycopy(packet.getData(), packet.getPosition(), data,0, data.length);
-        return data;
+    private void addAccessUnit(@NonNull byte[] data, int offset, int length, long timestamp) {
+        if (_interleaved)
+            addPendingAccessUnit(data, offset, length, timestamp);
+        else
+            addOutputAccessUnit(data, offset, length, timestamp);
     }
 
-//    private static final class AUHeader {
-//        private int size;
-//        private int index;
-//
-//        public AUHeader(int size, int index) {
-//            this.size = size;
-//            this.index = index;
-//        }
-//
-//        public int size() { return size; }
-//
-//        public int index() { return index; }
-//    }
-
-//    /**
-//     * Stores the consecutive fragment AU to reconstruct an AAC-Frame
-//     */
-//    private static final class FragmentedAacFrame {
-//        public byte[] auData;
-//        public int auLength;
-//        public int auSize;
-//
-//        private int sequence;
-//
-//        public FragmentedAacFrame(int frameSize) {
-//            // Initialize data
-//            auData = new byte[frameSize];
-//            sequence = -1;
-//        }
-//
-//        /**
-//         * Resets the buffer, clearing any data that it holds.
-//         */
-//        public void reset() {
-//            auLength = 0;
-//            auSize = 0;
-//            sequence = -1;
-//        }
-//
-//        public void sequence(int sequence) {
-//            this.sequence = sequence;
-//        }
-//
-//        public int sequence() {
-//            return sequence;
-//        }
-//
-//        /**
-//         * Called to add a fragment unit to fragmented AU.
-//         *
-//         * @param fragment Holds the data of fragment unit being passed.
-//         * @param offset The offset of the data in {@code fragment}.
-//         * @param limit The limit (exclusive) of the data in {@code fragment}.
-//         */
-//        public void appendFragment(byte[] fragment, int offset, int limit) {
-//            if (auSize == 0) {
-//                auSize = limit;
-//            } else if (auSize != limit) {
-//                reset();
-//            }
-//
-//            if (auData.length < auLength + limit) {
-//                auData = Arrays.copyOf(auData, (auLength + limit) * 2);
-//            }
-//
-//            System.arraycopy(fragment, offset, auData, auLength, limit);
-//            auLength += limit;
-//        }
-//
-//        public boolean isCompleted() {
-//            return auSize == auLength;
-//        }
-//    }
+    private void addOutputAccessUnit(@NonNull byte[] data, int offset, int length, long timestamp) {
+        if (_auCount == _auOffsets.length) {
+            int capacity = _auCount * 2;
+            _auData = Arrays.copyOf(_auData, capacity);
+            _auOffsets = Arrays.copyOf(_auOffsets, capacity);
+            _auLengths = Arrays.copyOf(_auLengths, capacity);
+            _auTimestamps = Arrays.copyOf(_auTimestamps, capacity);
+        }
+        _auData[_auCount] = data;
+        _auOffsets[_auCount] = offset;
+        _auLengths[_auCount] = length;
+        _auTimestamps[_auCount] = timestamp;
+        _auCount++;
+    }
+
+    // Pending AUs are sorted by timestamp, taking RTP timestamp wraparound into account
+    private void addPendingAccessUnit(@NonNull byte[] data, int offset, int length, long timestamp) {
+        if (_nextTimestampKnown && (int) (timestamp - _nextTimestamp) < 0) {
+            if (DEBUG)
+                Log.d(TAG, "Late AU dropped, timestamp " + timestamp);
+            return;
+        }
+        if (_pendingCount == MAX_PENDING_ACCESS_UNITS)
+            emitPendingAccessUnit();
+
+        int index = _pendingCount;
+        while (index > 0 && (int) (timestamp - _pendingTimestamps[index - 1]) < 0)
+            index--;
+        if (index > 0 && _pendingTimestamps[index - 1] == timestamp)
+            return; // Duplicate
+
+        // Free buffer of the last slot moves to the inserted position
+        byte[] buffer = _pendingData[_pendingCount];
+        System.arraycopy(_pendingData, index, _pendingData, index + 1, _pendingCount - index);
+        System.arraycopy(_pendingLengths, index, _pendingLengths, index + 1, _pendingCount - index);
+        System.arraycopy(_pendingTimestamps, index, _pendingTimestamps, index + 1, _pendingCount - index);
+        if (buffer == null || buffer.length < length)
+            buffer = new byte[Math.max(length, 1024)];
+        System.arraycopy(data, offset, buffer, 0, length);
+        _pendingData[index] = buffer;
+        _pendingLengths[index] = length;
+        _pendingTimestamps[index] = timestamp;
+        _pendingCount++;
+    }
+
+    // AUs following each other are passed on. AUs older than the first AU of the current packet
+    // should have been received already, the missing ones are considered lost.
+    private void emitPendingAccessUnits(long packetTimestamp) {
+        while (_pendingCount > 0) {
+            if (_nextTimestampKnown
+                    && _pendingTimestamps[0] != _nextTimestamp
+                    && (int) (packetTimestamp - _pendingTimestamps[0]) <= 0)
+                break;
+            emitPendingAccessUnit();
+        }
+    }
+
+    private void emitPendingAccessUnit() {
+        byte[] buffer = _pendingData[0];
+        int length = _pendingLengths[0];
+        long timestamp = _pendingTimestamps[0];
+        if (_outputLength + length > _output.length)
+            _output = Arrays.copyOf(_output, Math.max(_output.length * 2, _outputLength + length));
+        System.arraycopy(buffer, 0, _output, _outputLength, length);
+        addOutputAccessUnit(_output, _outputLength, length, timestamp);
+        _outputLength += length;
+
+        _pendingCount--;
+        System.arraycopy(_pendingData, 1, _pendingData, 0, _pendingCount);
+        System.arraycopy(_pendingLengths, 1, _pendingLengths, 0, _pendingCount);
+        System.arraycopy(_pendingTimestamps, 1, _pendingTimestamps, 0, _pendingCount);
+        _pendingData[_pendingCount] = buffer;
+        _nextTimestamp = (timestamp + _constantDuration) & 0xFFFFFFFFL;
+        _nextTimestampKnown = true;
+    }
 
 }
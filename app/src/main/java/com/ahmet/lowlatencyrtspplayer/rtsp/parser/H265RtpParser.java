@@ -0,0 +1,91 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool;
+
+/**
+ * H.265 RTP depacketizer (RFC 7798). Streams with sprop-max-don-diff > 0 (DONL/DOND fields)
+ * are not supported, cameras do not use them.
+ */
+public class H265RtpParser extends VideoRtpParser {
+
+    private static final String TAG = H265RtpParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private final static int NAL_UNIT_TYPE_AP = 48;
+    private final static int NAL_UNIT_TYPE_FU = 49;
+    private final static int NAL_UNIT_TYPE_PACI = 50;
+
+    public H265RtpParser() {
+        super();
+    }
+
+    public H265RtpParser(@NonNull ByteArrayPool pool) {
+        super(pool);
+    }
+
+    //  NAL unit header (RFC 7798 1.1.4)
+    // +---------------+---------------+
+    // |0|1|2|3|4|5|6|7|0|1|2|3|4|5|6|7|
+    // +-------------+-----------------+
+    // |F|   Type    |  LayerId  | TID |
+    // +-------------+-----------------+
+    @Override
+    public int getNalUnitType(@NonNull byte[] data, int offset) {
+        return (data[offset] >> 1) & 0x3F;
+    }
+
+    @Override
+    protected int getNalUnitHeaderSize() {
+        return 2;
+    }
+
+    @Override
+    protected void processPayload(@NonNull byte[] data, int offset, int length) {
+        int nalType = getNalUnitType(data, offset);
+
+        if (DEBUG)
+            Log.d(TAG, "NAL type: " + nalType);
+        switch (nalType) {
+
+            // Aggregation packet (4.4.2), same layout as STAP-A after 2 bytes PayloadHdr
+            case NAL_UNIT_TYPE_AP:
+                parseAggregationPacket(data, offset + 2, length - 2, 0);
+                break;
+
+            //  Fragmentation unit (4.4.3)
+            // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // |    PayloadHdr (Type=49)       |   FU header   |
+            // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // FU header
+            // +-+-+-+-+-+-+-+-+
+            // |S|E|  FuType   |
+            // +---------------+
+            case NAL_UNIT_TYPE_FU:
+                if (length < 3)
+                    break;
+                int fuHeader = data[offset + 2];
+                if ((fuHeader & 0x80) != 0) {
+                    startFragmentedNalUnit();
+                    // Reconstructed NAL unit header, F, LayerId and TID from PayloadHdr
+                    appendByte((byte) ((data[offset] & 0x81) | ((fuHeader & 0x3F) << 1)));
+                    appendByte(data[offset + 1]);
+                }
+                appendFragment(data, offset + 3, length - 3, (fuHeader & 0x40) != 0);
+                break;
+
+            // PACI packets carry temporal scalability info only
+            case NAL_UNIT_TYPE_PACI:
+                break;
+
+            // Single NAL unit packet (4.4.1)
+            default:
+                setSingleNalUnit(data, offset, length);
+                break;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Log;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReadAheadBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+// https://www.ietf.org/rfc/rfc2326.txt 10.12 Embedded (Interleaved) Binary Data
+//  0                   1                   2                   3
+//  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |      '$'      |    channel    |            length             |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                   RTP/RTCP packet (length bytes)              |
+/**
+ * Demultiplexer of the RTSP connection during playback. The first byte tells an interleaved
+ * frame ('$') from an RTSP message (response or server request), which is parsed as a whole
+ * and passed to {@link RtspMessageListener}. Data is never skipped searching for a frame start.
+ */
+public class InterleavedFrameReader {
+
+    private static final String TAG = InterleavedFrameReader.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int INTERLEAVED_HEADER_SIZE = 4;
+    private static final String RTSP_VERSION_PREFIX = "RTSP/";
+
+    public interface RtspMessageListener {
+        /**
+         * @param content message body, empty if no Content-Length
+         */
+        void onRtspResponse(int statusCode, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content);
+
+        /**
+         * Request sent by the server, e.g. ANNOUNCE or SET_PARAMETER.
+         * @param requestLine e.g. "SET_PARAMETER rtsp://10.0.1.78/video RTSP/1.0"
+         */
+        default void onRtspRequest(@NonNull String requestLine, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content) {
+        }
+    }
+
+    private final @NonNull ReadAheadBuffer buffer;
+    private final @NonNull RtspResponseReader responseReader;
+    private final @Nullable RtspMessageListener messageListener;
+
+    private int channel;
+    private int offset;
+    private int length;
+
+    public InterleavedFrameReader(@NonNull ReadAheadBuffer buffer) {
+        this(buffer, null);
+    }
+
+    /**
+     * @param messageListener receives RTSP messages found between frames
+     */
+    public InterleavedFrameReader(@NonNull ReadAheadBuffer buffer, @Nullable RtspMessageListener messageListener) {
+        this.buffer = buffer;
+        this.responseReader = new RtspResponseReader(buffer);
+        this.messageListener = messageListener;
+    }
+
+    /**
+     * Read the next interleaved frame or RTSP message. On success the RTP/RTCP packet is available
+     * via {@link #getData()}, {@link #getOffset()} and {@link #getLength()} until the next call.
+     * @return false if RTSP message was read instead of a frame
+     * @throws IOException if data is neither an interleaved frame nor an RTSP message
+     */
+    public boolean readFrame() throws IOException {
+        buffer.ensure(1);
+        if (buffer.peek(0) != '$') {
+            readRtspMessage();
+            return false;
+        }
+
+        buffer.ensure(INTERLEAVED_HEADER_SIZE);
+        channel = buffer.peek(1) & 0xFF;
+        length = ((buffer.peek(2) & 0xFF) << 8) | (buffer.peek(3) & 0xFF);
+        buffer.skip(INTERLEAVED_HEADER_SIZE);
+        buffer.ensure(length);
+        offset = buffer.getPosition();
+        buffer.skip(length);
+        if (DEBUG)
+            Log.d(TAG, "Channel: " + channel + ", packet size: " + length);
+        return true;
+    }
+
+    /**
+     * Interleaved channel. Usually even channel - RTP, odd channel - RTCP.
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    @NonNull
+    public byte[] getData() {
+        return buffer.getData();
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // Status line or request line, headers and optional body
+    private void readRtspMessage() throws IOException {
+        byte first = buffer.peek(0);
+        // Both "RTSP/1.0 200 OK" and request methods start with an upper case letter
+        if (first < 'A' || first > 'Z')
+            throw new IOException("Unexpected data on RTSP connection (0x" + Integer.toHexString(first & 0xFF) + ")");
+        String startLine = responseReader.readLine();
+        ArrayList<Pair<String, String>> headers = responseReader.readHeaders();
+        String content = responseReader.readContent(RtspResponseReader.getContentLength(headers));
+        if (startLine.startsWith(RTSP_VERSION_PREFIX)) {
+            int statusCode = getStatusCode(startLine);
+            if (statusCode < 0)
+                throw new IOException("Invalid RTSP status line \"" + startLine + "\"");
+            if (DEBUG)
+                Log.d(TAG, "Response " + statusCode + ", CSeq " + RtspResponseReader.getCSeq(headers));
+            if (messageListener != null)
+                messageListener.onRtspResponse(statusCode, headers, content);
+        } else if (startLine.endsWith(" RTSP/1.0")) {
+            if (DEBUG)
+                Log.d(TAG, "Server request \"" + startLine + "\"");
+            if (messageListener != null)
+                messageListener.onRtspRequest(startLine, headers, content);
+        } else {
+            throw new IOException("Invalid RTSP message \"" + startLine + "\"");
+        }
+    }
+
+    // RTSP/1.0 200 OK
+    private static int getStatusCode(@NonNull String statusLine) {
+        int start = statusLine.indexOf(' ');
+        if (start < 0)
+            return -1;
+        int end = statusLine.indexOf(' ', start + 1);
+        try {
+            return Integer.parseInt(statusLine.substring(start + 1, end < 0 ? statusLine.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+// https://tools.ietf.org/html/rfc7587
+/**
+ * Opus depacketizer. RTP payload is a single Opus packet (RFC 6716), passed to the decoder as is.
+ * Packets failing TOC checks (RFC 6716 3.4) are dropped, decoders may fail on them.
+ */
+public class OpusParser {
+
+    private static final String TAG = OpusParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // Max duration of Opus packet, 120 ms at 48 kHz
+    private static final int MAX_PACKET_SAMPLES = 5760;
+
+    // SILK-only frame durations, 10, 20, 40, 60 ms at 48 kHz
+    private static final int[] SILK_FRAME_SAMPLES = { 480, 960, 1920, 2880 };
+
+    private int _sampleCount = 0;
+    private long _droppedPacketCount = 0;
+
+    /**
+     * @param data buffer containing RTP payload
+     * @param offset offset of RTP payload within the buffer
+     * @param length RTP payload size
+     * @return true if payload is a valid Opus packet
+     */
+    public boolean processRtpPacket(@NonNull byte[] data, int offset, int length) {
+        _sampleCount = getSampleCount(data, offset, length);
+        if (_sampleCount > 0)
+            return true;
+        if (DEBUG)
+            Log.w(TAG, "Invalid Opus packet of " + length + " bytes dropped");
+        _droppedPacketCount++;
+        return false;
+    }
+
+    /**
+     * @return duration of the last valid packet in 48 kHz samples
+     */
+    public int getSampleCount() {
+        return _sampleCount;
+    }
+
+    public long getDroppedPacketCount() {
+        return _droppedPacketCount;
+    }
+
+    //  TOC byte (RFC 6716 3.1)
+    // +-+-+-+-+-+-+-+-+
+    // | config  |s| c |
+    // +-+-+-+-+-+-+-+-+
+    // @return -1 if packet is malformed
+    private static int getSampleCount(@NonNull byte[] data, int offset, int length) {
+        if (length < 1)
+            return -1;
+        int toc = data[offset] & 0xFF;
+        int frameSamples = getFrameSamples(toc >> 3);
+        switch (toc & 0x03) {
+            // 1 frame
+            case 0:
+                return frameSamples;
+
+            // 2 frames of equal size
+            case 1:
+                return (length - 1) % 2 == 0 ? frameSamples * 2 : -1;
+
+            // 2 frames of different size, first frame length coded in 1 or 2 bytes
+            case 2:
+                if (length < 2)
+                    return -1;
+                int frameLength = data[offset + 1] & 0xFF;
+                int headerLength = 2;
+                if (frameLength >= 252) {
+                    if (length < 3)
+                        return -1;
+                    frameLength += (data[offset + 2] & 0xFF) * 4;
+                    headerLength = 3;
+                }
+                return frameLength <= length - headerLength ? frameSamples * 2 : -1;
+
+            // Arbitrary number of frames
+            // +-+-+-+-+-+-+-+-+
+            // |v|p|     M     |
+            // +-+-+-+-+-+-+-+-+
+            default:
+                if (length < 2)
+                    return -1;
+                int frames = data[offset + 1] & 0x3F;
+                int samples = frames * frameSamples;
+                return frames > 0 && samples <= MAX_PACKET_SAMPLES ? samples : -1;
+        }
+    }
+
+    // Frame duration in 48 kHz samples by TOC config (RFC 6716 Table 2)
+    private static int getFrameSamples(int config) {
+        if (config < 12)
+            return SILK_FRAME_SAMPLES[config & 0x03];
+        if (config < 16)
+            // Hybrid, 10, 20 ms
+            return (config & 0x01) == 0 ? 480 : 960;
+        // CELT-only, 2.5, 5, 10, 20 ms
+        return 120 << (config & 0x03);
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+
+// https://www.ietf.org/rfc/rfc3550.txt 6.4 Sender and Receiver Reports
+//  0                   1                   2                   3
+//  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |V=2|P|    RC   |   PT=SR=200   |             length            |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                         SSRC of sender                        |
+// +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+// |              NTP timestamp, most significant word             |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |             NTP timestamp, least significant word             |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                         RTP timestamp                         |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                     sender's packet count                     |
+// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+// |                      sender's octet count                     |
+// +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+public class RtcpParser {
+
+    private static final String TAG = RtcpParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public final static int RTCP_PACKET_TYPE_SR = 200;
+    public final static int RTCP_PACKET_TYPE_RR = 201;
+    public final static int RTCP_PACKET_TYPE_SDES = 202;
+    public final static int RTCP_PACKET_TYPE_BYE = 203;
+    public final static int RTCP_PACKET_TYPE_APP = 204;
+
+    private final static int RTCP_HEADER_SIZE = 4;
+    private final static int RTCP_SR_SIZE = 28;
+    private final static int RTCP_REPORT_BLOCK_SIZE = 24;
+    private final static int SDES_ITEM_END = 0;
+    private final static int SDES_ITEM_CNAME = 1;
+
+    public interface RtcpParserListener {
+        /**
+         * @param ntpTimestamp 64-bit NTP timestamp, seconds since 1900 in upper 32 bits
+         */
+        void onRtcpSenderReport(long ssrc, long ntpTimestamp, long rtpTimestamp, long packetCount, long octetCount);
+
+        void onRtcpSdesCname(long ssrc, @NonNull String cname);
+
+        void onRtcpBye(long ssrc);
+    }
+
+    /**
+     * Parse compound RTCP packet.
+     * @return false if not a valid RTCP packet
+     */
+    public static boolean parse(@NonNull byte[] data, int offset, int length, @NonNull RtcpParserListener listener) {
+        int end = offset + length;
+        while (offset + RTCP_HEADER_SIZE <= end) {
+            if (((data[offset] & 0xFF) >> 6) != 2) {
+                if (DEBUG)
+                    Log.e(TAG, "Not a RTCP packet");
+                return false;
+            }
+            int count = data[offset] & 0x1F;
+            int packetType = data[offset + 1] & 0xFF;
+            int packetSize = (readUint16(data, offset + 2) + 1) * 4;
+            if (offset + packetSize > end) {
+                if (DEBUG)
+                    Log.e(TAG, "Invalid RTCP packet size " + packetSize);
+                return false;
+            }
+            switch (packetType) {
+                case RTCP_PACKET_TYPE_SR:
+                    if (packetSize >= RTCP_SR_SIZE) {
+                        long ssrc = readUint32(data, offset + 4);
+                        long ntpTimestamp = (readUint32(data, offset + 8) << 32) | readUint32(data, offset + 12);
+                        listener.onRtcpSenderReport(
+                                ssrc,
+                                ntpTimestamp,
+                                readUint32(data, offset + 16),
+                                readUint32(data, offset + 20),
+                                readUint32(data, offset + 24));
+                    }
+                    break;
+                case RTCP_PACKET_TYPE_SDES:
+                    parseSdes(data, offset + RTCP_HEADER_SIZE, offset + packetSize, count, listener);
+                    break;
+                case RTCP_PACKET_TYPE_BYE:
+                    for (int i = 0; i < count && offset + RTCP_HEADER_SIZE + (i + 1) * 4 <= offset + packetSize; i++)
+                        listener.onRtcpBye(readUint32(data, offset + RTCP_HEADER_SIZE + i * 4));
+                    break;
+                default:
+                    if (DEBUG)
+                        Log.d(TAG, "Skipping RTCP packet type " + packetType);
+                    break;
+            }
+            offset += packetSize;
+        }
+        return true;
+    }
+
+    // Only CNAME item is used
+    private static void parseSdes(@NonNull byte[] data, int offset, int end, int chunks, @NonNull RtcpParserListener listener) {
+        for (int i = 0; i < chunks && offset + 4 <= end; i++) {
+            long ssrc = readUint32(data, offset);
+            offset += 4;
+            while (offset < end) {
+                int itemType = data[offset] & 0xFF;
+                if (itemType == SDES_ITEM_END) {
+                    // Chunk is padded to 32-bit boundary
+                    offset = (offset + 4) & ~3;
+                    break;
+                }
+                if (offset + 2 > end)
+                    return;
+                int itemLength = data[offset + 1] & 0xFF;
+                if (offset + 2 + itemLength > end)
+                    return;
+                if (itemType == SDES_ITEM_CNAME)
+                    listener.onRtcpSdesCname(ssrc, new String(data, offset + 2, itemLength, StandardCharsets.UTF_8));
+                offset += 2 + itemLength;
+            }
+        }
+    }
+
+    /**
+     * Write compound RTCP packet consisting of receiver report and SDES with CNAME (RFC 3550 6.1).
+     * @param statistics statistics of the received sources, one report block each
+     * @return packet size
+     */
+    public static int writeReceiverReport(
+            @NonNull byte[] data,
+            int offset,
+            long ssrc,
+            @NonNull byte[] cname,
+            @NonNull RtpReceiverStatistics[] statistics,
+            int statisticsCount,
+            long nowMs) {
+        int start = offset;
+        // RR
+        int rrSize = RTCP_HEADER_SIZE + 4 + statisticsCount * RTCP_REPORT_BLOCK_SIZE;
+        data[offset] = (byte) (0x80 | statisticsCount);
+        data[offset + 1] = (byte) RTCP_PACKET_TYPE_RR;
+        writeUint16(data, offset + 2, rrSize / 4 - 1);
+        writeUint32(data, offset + 4, ssrc);
+        offset += 8;
+        for (int i = 0; i < statisticsCount; i++) {
+            statistics[i].writeReportBlock(data, offset, nowMs);
+            offset += RTCP_REPORT_BLOCK_SIZE;
+        }
+
+        // SDES
+        int sdesSize = (RTCP_HEADER_SIZE + 4 + 2 + cname.length + 1 + 3) & ~3;
+        data[offset] = (byte) 0x81;
+        data[offset + 1] = (byte) RTCP_PACKET_TYPE_SDES;
+        writeUint16(data, offset + 2, sdesSize / 4 - 1);
+        writeUint32(data, offset + 4, ssrc);
+        data[offset + 8] = SDES_ITEM_CNAME;
+        data[offset + 9] = (byte) cname.length;
+        System.arraycopy(cname, 0, data, offset + 10, cname.length);
+        // END item and padding
+        for (int i = offset + 10 + cname.length; i < offset + sdesSize; i++)
+            data[i] = 0;
+        offset += sdesSize;
+        return offset - start;
+    }
+
+    /**
+     * @return max size of {@link #writeReceiverReport} packet
+     */
+    public static int getReceiverReportSize(int cnameLength, int statisticsCount) {
+        return RTCP_HEADER_SIZE + 4 + statisticsCount * RTCP_REPORT_BLOCK_SIZE +
+                ((RTCP_HEADER_SIZE + 4 + 2 + cnameLength + 1 + 3) & ~3);
+    }
+
+    private static int readUint16(@NonNull byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    static long readUint32(@NonNull byte[] data, int offset) {
+        return ((long) (data[offset] & 0xFF) << 24) |
+                ((data[offset + 1] & 0xFF) << 16) |
+                ((data[offset + 2] & 0xFF) << 8) |
+                (data[offset + 3] & 0xFF);
+    }
+
+    private static void writeUint16(@NonNull byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    static void writeUint32(@NonNull byte[] data, int offset, long value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+}
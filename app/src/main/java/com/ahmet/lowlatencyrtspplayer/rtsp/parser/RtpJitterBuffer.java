@@ -0,0 +1,231 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fixed capacity jitter buffer reordering RTP packets of a single stream by 16-bit sequence number.
+ * Packets arriving in order are passed to the listener immediately. When a packet is missing,
+ * the following ones are held up to the playout delay waiting for it, then the gap is reported
+ * and skipped. Thus latency is added only on lossy or reordering links.
+ * Packet data is copied into preallocated slots. Not thread safe.
+ */
+public class RtpJitterBuffer {
+
+    private static final String TAG = RtpJitterBuffer.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public static final int DEFAULT_CAPACITY = 256;
+    // RFC 3550 A.1. Packets that far behind mean the sender restarted the sequence.
+    private static final int MAX_MISORDER = 100;
+    // Enough for usual MTU, slots grow for bigger packets
+    private static final int INITIAL_SLOT_SIZE = 1500;
+
+    public interface RtpJitterBufferListener {
+        /**
+         * Packet in sequence order. Data is valid only till the method returns.
+         * @param data buffer containing the whole RTP packet
+         */
+        void onRtpPacketReady(@NonNull byte[] data, int offset, int length);
+
+        /**
+         * Packets which did not arrive within playout delay and were skipped.
+         * @param sequenceNumber sequence number of the first lost packet
+         */
+        void onRtpPacketsLost(int sequenceNumber, int count);
+    }
+
+    private final @NonNull RtpJitterBufferListener listener;
+    private final int playoutDelayMs;
+    private final int mask;
+    private final @NonNull byte[][] slotData;
+    private final @NonNull int[] slotLength;
+    private final @NonNull int[] slotSequence;
+    private final @NonNull long[] slotTime;
+    private final @NonNull boolean[] slotUsed;
+    private boolean initialized = false;
+    // Next sequence number to be passed to the listener
+    private int expectedSequence;
+    private int count = 0;
+    private int consecutiveLate = 0;
+    private long lostPackets = 0;
+    private long latePackets = 0;
+    private long duplicatePackets = 0;
+
+    /**
+     * @param capacity max number of packets held, rounded up to power of 2
+     * @param playoutDelayMs max time to wait for missing packets
+     */
+    public RtpJitterBuffer(int capacity, int playoutDelayMs, @NonNull RtpJitterBufferListener listener) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.playoutDelayMs = playoutDelayMs;
+        this.listener = listener;
+        slotData = new byte[size][];
+        slotLength = new int[size];
+        slotSequence = new int[size];
+        slotTime = new long[size];
+        slotUsed = new boolean[size];
+    }
+
+    /**
+     * Store the packet and pass all packets ready for playout to the listener.
+     * @param data buffer containing the whole RTP packet (header and payload)
+     * @param nowMs current time, e.g. System.currentTimeMillis()
+     * @return false if the packet was dropped as late, duplicate or invalid
+     */
+    public boolean push(@NonNull byte[] data, int offset, int length, long nowMs) {
+        if (length < RtpParser.RTP_HEADER_SIZE)
+            return false;
+        int sequence = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        if (!initialized) {
+            initialized = true;
+            expectedSequence = sequence;
+        }
+
+        int diff = (short) (sequence - expectedSequence);
+        if (diff < 0) {
+            if (++consecutiveLate <= MAX_MISORDER) {
+                latePackets++;
+                if (DEBUG)
+                    Log.w(TAG, "Late packet " + sequence + ", expected " + expectedSequence);
+                return false;
+            }
+            // Sequence restarted
+            if (DEBUG)
+                Log.i(TAG, "Sequence restarted at " + sequence);
+            flush();
+            expectedSequence = sequence;
+            diff = 0;
+        }
+        consecutiveLate = 0;
+
+        if (diff > mask) {
+            // Too far ahead. Release everything buffered and jump.
+            advance(sequence);
+        }
+
+        int slot = sequence & mask;
+        if (slotUsed[slot]) {
+            duplicatePackets++;
+            return false;
+        }
+        byte[] buffer = slotData[slot];
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[Math.max(length, INITIAL_SLOT_SIZE)];
+            slotData[slot] = buffer;
+        }
+        System.arraycopy(data, offset, buffer, 0, length);
+        slotLength[slot] = length;
+        slotSequence[slot] = sequence;
+        slotTime[slot] = nowMs;
+        slotUsed[slot] = true;
+        count++;
+
+        drain(nowMs);
+        return true;
+    }
+
+    /**
+     * Pass packets ready for playout to the listener. Should be called periodically
+     * to release packets held behind a gap if no new packets arrive.
+     */
+    public void drain(long nowMs) {
+        while (count > 0) {
+            int slot = expectedSequence & mask;
+            if (slotUsed[slot]) {
+                release(slot);
+                continue;
+            }
+            // Missing packet. Wait for it up to playout delay of the next buffered one.
+            int next = findNextBuffered();
+            if (nowMs - slotTime[next & mask] < playoutDelayMs)
+                break;
+            advance(next);
+        }
+    }
+
+    /**
+     * Pass all buffered packets to the listener reporting gaps between them.
+     */
+    public void flush() {
+        if (count > 0)
+            advance((findLastBuffered() + 1) & 0xFFFF);
+    }
+
+    public long getLostPackets() {
+        return lostPackets;
+    }
+
+    public long getLatePackets() {
+        return latePackets;
+    }
+
+    public long getDuplicatePackets() {
+        return duplicatePackets;
+    }
+
+    // Release buffered packets and skip missing ones till the sequence number (excluding)
+    private void advance(int sequence) {
+        int lostStart = 0;
+        int lost = 0;
+        while (count > 0 && expectedSequence != sequence) {
+            int slot = expectedSequence & mask;
+            if (slotUsed[slot]) {
+                if (lost > 0) {
+                    reportLost(lostStart, lost);
+                    lost = 0;
+                }
+                release(slot);
+            } else {
+                if (lost == 0)
+                    lostStart = expectedSequence;
+                lost++;
+                expectedSequence = (expectedSequence + 1) & 0xFFFF;
+            }
+        }
+        if (lost > 0)
+            reportLost(lostStart, lost);
+        // Buffer empty, jump to the sequence
+        if (expectedSequence != sequence) {
+            reportLost(expectedSequence, (sequence - expectedSequence) & 0xFFFF);
+            expectedSequence = sequence;
+        }
+    }
+
+    private void release(int slot) {
+        slotUsed[slot] = false;
+        count--;
+        expectedSequence = (slotSequence[slot] + 1) & 0xFFFF;
+        listener.onRtpPacketReady(slotData[slot], 0, slotLength[slot]);
+    }
+
+    private void reportLost(int sequence, int lost) {
+        if (lost == 0)
+            return;
+        lostPackets += lost;
+        if (DEBUG)
+            Log.w(TAG, "Lost " + lost + " packets starting from " + sequence);
+        listener.onRtpPacketsLost(sequence, lost);
+    }
+
+    private int findNextBuffered() {
+        for (int i = 1; i <= mask; i++) {
+            int sequence = (expectedSequence + i) & 0xFFFF;
+            if (slotUsed[sequence & mask])
+                return sequence;
+        }
+        return expectedSequence;
+    }
+
+    private int findLastBuffered() {
+        for (int i = mask; i >= 0; i--) {
+            int sequence = (expectedSequence + i) & 0xFFFF;
+            if (slotUsed[sequence & mask])
+                return sequence;
+        }
+        return expectedSequence;
+    }
+
+}
@@ -5,19 +5,39 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-
-import com.ahmet.lowlatencyrtspplayer.rtsp.utils.NetUtils;
-
-import java.io.IOException;
-import java.io.InputStream;
-
 public class RtpParser {
 
     private static final String TAG = RtpParser.class.getSimpleName();
     private static final boolean DEBUG = false;
 
-    private final static int RTP_HEADER_SIZE = 12;
+    public final static int RTP_HEADER_SIZE = 12;
+
+    // RFC 8285 4.2 One-Byte Header
+    public final static int EXTENSION_PROFILE_ONE_BYTE = 0xBEDE;
+    // RFC 8285 4.3 Two-Byte Header, lower 4 bits are application bits
+    public final static int EXTENSION_PROFILE_TWO_BYTE = 0x1000;
+    private final static int EXTENSION_PROFILE_TWO_BYTE_MASK = 0xFFF0;
+
+    public interface RtpHeaderExtensionListener {
+        /**
+         * Header extension element of RFC 8285 one-byte or two-byte header extension.
+         * Data is not copied and valid only till the method returns.
+         * @param id element ID, mapped to extension URI via "a=extmap" in SDP
+         */
+        void onRtpHeaderExtensionElement(int id, @NonNull byte[] data, int offset, int length);
+
+        /**
+         * Header extension with other profile, e.g. ONVIF replay extension 0xABAC.
+         * Data is not copied and valid only till the method returns.
+         */
+        default void onRtpHeaderExtension(int profile, @NonNull byte[] data, int offset, int length) {
+        }
+    }
 
+    /**
+     * Mutable header view. Single instance can be reused for all packets via {@link #parse},
+     * so no objects are allocated per packet.
+     */
     public static class RtpHeader {
         public int version;
         public int padding;
@@ -28,70 +48,170 @@ public class RtpParser {
         public int sequenceNumber;
         public long timeStamp;
         public long ssrc;
+        /**
+         * Offset of the payload within the parsed buffer, after CSRC list and header extension.
+         */
+        public int payloadOffset;
+        /**
+         * Payload size without padding.
+         */
         public int payloadSize;
+        /**
+         * Header extension profile, valid if {@link #extension} is 1.
+         */
+        public int extensionProfile;
+        /**
+         * Offset and size of header extension data (without profile and length fields)
+         * within the parsed buffer.
+         */
+        public int extensionOffset;
+        public int extensionLength;
+
+        // Buffer the header was parsed from. The view does not copy data.
+        private @Nullable byte[] data;
+        private int offset;
+
+        /**
+         * Parse RTP header of the packet stored in {@code data} starting at {@code offset}
+         * in place, overwriting all fields.
+         * @param packetSize size of the whole RTP packet (header and payload)
+         * @return false if not a valid RTP packet
+         */
+        public boolean parse(@NonNull byte[] data, int offset, int packetSize) {
+            if (packetSize < RTP_HEADER_SIZE)
+                return false;
+            version = (data[offset] & 0xFF) >> 6;
+            if (version != 2) {
+                if (DEBUG)
+                    Log.e(TAG,"Not a RTP packet (" + version + ")");
+                return false;
+            }
 
-        // If RTP header found, return 4 bytes of the header
-        private static boolean searchForNextRtpHeader(@NonNull InputStream inputStream, @NonNull byte[] header /*out*/) throws IOException {
-            if (header.length < 4)
-                throw new IOException("Invalid allocated buffer size");
-
-            int bytesRemaining = 100000; // 100 KB max to check
-            boolean foundFirstByte = false;
-            boolean foundSecondByte = false;
-            byte[] oneByte = new byte[1];
-            // Search for {0x24, 0x00}
-            do {
-                if (bytesRemaining-- < 0)
+            // 80 60 40 91 fd ab d4 2a
+            // 80 c8 00 06
+            padding = (data[offset] & 0x20) >> 5; // 0b00100100
+            extension = (data[offset] & 0x10) >> 4;
+            cc = data[offset] & 0x0F;
+            marker = (data[offset + 1] & 0x80) >> 7;
+            payloadType = data[offset + 1] & 0x7F;
+            sequenceNumber = (data[offset + 3] & 0xFF) + ((data[offset + 2] & 0xFF) << 8);
+            timeStamp = (data[offset + 7] & 0xFF) + ((data[offset + 6] & 0xFF) << 8) + ((data[offset + 5] & 0xFF) << 16) + ((data[offset + 4] & 0xFF) << 24) & 0xffffffffL;
+            ssrc = (data[offset + 11] & 0xFF) + ((data[offset + 10] & 0xFF) << 8) + ((data[offset + 9] & 0xFF) << 16) + ((data[offset + 8] & 0xFF) << 24) & 0xffffffffL;
+            this.data = data;
+            this.offset = offset;
+
+            // CSRC list
+            int headerSize = RTP_HEADER_SIZE + cc * 4;
+
+            //  0                   1                   2                   3
+            //  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+            // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // |      defined by profile       |           length              |
+            // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // |                        header extension                       |
+            extensionProfile = 0;
+            extensionOffset = 0;
+            extensionLength = 0;
+            if (extension == 1) {
+                if (headerSize + 4 > packetSize) {
+                    if (DEBUG)
+                        Log.e(TAG, "RTP header extension out of packet");
                     return false;
-                // Read 1 byte
-                NetUtils.readData(inputStream, oneByte, 0, 1);
-                if (foundFirstByte) {
-                    // Found 0x24. Checking for 0x00-0x02.
-                    if (oneByte[0] == 0x00)
-                        foundSecondByte = true;
-                    else
-                        foundFirstByte = false;
                 }
-                if (!foundFirstByte && oneByte[0] == 0x24) {
-                    // Found 0x24
-                    foundFirstByte = true;
+                extensionProfile = ((data[offset + headerSize] & 0xFF) << 8) | (data[offset + headerSize + 1] & 0xFF);
+                extensionLength = (((data[offset + headerSize + 2] & 0xFF) << 8) | (data[offset + headerSize + 3] & 0xFF)) * 4;
+                extensionOffset = offset + headerSize + 4;
+                headerSize += 4 + extensionLength;
+            }
+            if (headerSize > packetSize) {
+                if (DEBUG)
+                    Log.e(TAG, "RTP header size " + headerSize + " exceeds packet size " + packetSize);
+                return false;
+            }
+
+            // The last octet of padding contains a count of padding octets
+            int paddingSize = 0;
+            if (padding == 1) {
+                paddingSize = data[offset + packetSize - 1] & 0xFF;
+                if (paddingSize == 0 || headerSize + paddingSize > packetSize) {
+                    if (DEBUG)
+                        Log.e(TAG, "Invalid RTP padding size " + paddingSize);
+                    return false;
                 }
-            } while (!foundSecondByte);
-            header[0] = 0x24;
-            header[1] = oneByte[0];
-            // Read 2 bytes more (packet size)
-            NetUtils.readData(inputStream, header, 2, 2);
+            }
+            payloadOffset = offset + headerSize;
+            payloadSize = packetSize - headerSize - paddingSize;
             return true;
         }
 
-        @Nullable
-        private static RtpHeader parseData(@NonNull byte[] header, int packetSize) {
-            RtpHeader rtpHeader = new RtpHeader();
-            rtpHeader.version = (header[0] & 0xFF) >> 6;
-            if (rtpHeader.version != 2) {
-                if (DEBUG)
-                    Log.e(TAG,"Not a RTP packet (" + rtpHeader.version + ")");
-                return null;
-            }
-
-            // 80 60 40 91 fd ab d4 2a
-            // 80 c8 00 06
-            rtpHeader.padding = (header[0] & 0x20) >> 5; // 0b00100100
-            rtpHeader.extension = (header[0] & 0x10) >> 4;
-            rtpHeader.marker = (header[1] & 0x80) >> 7;
-            rtpHeader.payloadType = header[1] & 0x7F;
-            rtpHeader.sequenceNumber = (header[3] & 0xFF) + ((header[2] & 0xFF) << 8);
-            rtpHeader.timeStamp = (header[7] & 0xFF) + ((header[6] & 0xFF) << 8) + ((header[5] & 0xFF) << 16) + ((header[4] & 0xFF) << 24) & 0xffffffffL;
-            rtpHeader.ssrc = (header[7] & 0xFF) + ((header[6] & 0xFF) << 8) + ((header[5] & 0xFF) << 16) + ((header[4] & 0xFF) << 24) & 0xffffffffL;
-            rtpHeader.payloadSize = packetSize - RTP_HEADER_SIZE;
-            return rtpHeader;
+        /**
+         * @param index 0..cc-1
+         * @return contributing source identifier
+         */
+        public long getCsrc(int index) {
+            if (data == null || index < 0 || index >= cc)
+                return 0;
+            int i = offset + RTP_HEADER_SIZE + index * 4;
+            return ((long) (data[i] & 0xFF) << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
         }
 
-        private static int getPacketSize(@NonNull byte[] header) {
-            int packetSize = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
-            if (DEBUG)
-                Log.d(TAG, "Packet size: " + packetSize);
-            return packetSize;
+        /**
+         * Pass header extension elements to the listener without copying.
+         * Should be called before the buffer the header was parsed from is reused.
+         * @return false if extension data is malformed
+         */
+        public boolean parseExtension(@NonNull RtpHeaderExtensionListener listener) {
+            if (extension == 0 || data == null)
+                return true;
+            int end = extensionOffset + extensionLength;
+            if (extensionProfile == EXTENSION_PROFILE_ONE_BYTE) {
+                //  0 1 2 3 4 5 6 7
+                // +-+-+-+-+-+-+-+-+
+                // |  ID   |  len  |
+                // +-+-+-+-+-+-+-+-+
+                int i = extensionOffset;
+                while (i < end) {
+                    int id = (data[i] & 0xFF) >> 4;
+                    // Padding
+                    if (id == 0) {
+                        i++;
+                        continue;
+                    }
+                    // Reserved, stop parsing
+                    if (id == 15)
+                        return true;
+                    int length = (data[i] & 0x0F) + 1;
+                    if (i + 1 + length > end)
+                        return false;
+                    listener.onRtpHeaderExtensionElement(id, data, i + 1, length);
+                    i += 1 + length;
+                }
+            } else if ((extensionProfile & EXTENSION_PROFILE_TWO_BYTE_MASK) == EXTENSION_PROFILE_TWO_BYTE) {
+                //  0                   1
+                //  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5
+                // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+                // |       ID      |     length    |
+                // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+                int i = extensionOffset;
+                while (i < end) {
+                    int id = data[i] & 0xFF;
+                    // Padding
+                    if (id == 0) {
+                        i++;
+                        continue;
+                    }
+                    if (i + 2 > end)
+                        return false;
+                    int length = data[i + 1] & 0xFF;
+                    if (i + 2 + length > end)
+                        return false;
+                    listener.onRtpHeaderExtensionElement(id, data, i + 2, length);
+                    i += 2 + length;
+                }
+            } else {
+                listener.onRtpHeaderExtension(extensionProfile, data, extensionOffset, extensionLength);
+            }
+            return true;
         }
 
         public void dumpHeader() {
@@ -104,39 +224,23 @@ public class RtpParser {
                     + ", seq num: " + sequenceNumber
                     + ", ts: " + timeStamp
                     + ", ssrc: " + ssrc
+                    + ", ext profile: " + extensionProfile
+                    + ", ext size: " + extensionLength
                     + ", payload size: " + payloadSize);
         }
     }
 
+    /**
+     * Parse RTP header of the packet stored in {@code data} starting at {@code offset}.
+     * Allocates new header, use {@link RtpHeader#parse} on the hot path.
+     * @param packetSize size of the whole RTP packet (header and payload)
+     * @return null if not a valid RTP packet
+     */
     @Nullable
-    public static RtpHeader readHeader(@NonNull InputStream inputStream) throws IOException {
-        // 24 01 00 1c 80 c8 00 06  7f 1d d2 c4
-        // 24 01 00 1c 80 c8 00 06  13 9b cf 60
-        // 24 02 01 12 80 e1 01 d2  00 07 43 f0
-        byte[] header = new byte[RTP_HEADER_SIZE];
-        // Skip 4 bytes (TCP only). No those bytes in UDP.
-        NetUtils.readData(inputStream, header, 0, 4);
-        if (DEBUG && header[0] == 0x24)
-            Log.d(TAG, header[1] == 0 ? "RTP packet" : "RTCP packet");
-
-        int packetSize = RtpHeader.getPacketSize(header);
-        if (DEBUG)
-            Log.d(TAG, "Packet size: " + packetSize);
-
-        if (NetUtils.readData(inputStream, header, 0, header.length) == header.length) {
-            RtpHeader rtpHeader = RtpHeader.parseData(header, packetSize);
-            if (rtpHeader == null) {
-                // Header not found. Possible keep-alive response. Search for another RTP header.
-                boolean foundHeader = RtpHeader.searchForNextRtpHeader(inputStream, header);
-                if (foundHeader) {
-                    packetSize = RtpHeader.getPacketSize(header);
-                    if (NetUtils.readData(inputStream, header, 0, header.length) == header.length)
-                        return RtpHeader.parseData(header, packetSize);
-                }
-            } else {
-                return rtpHeader;
-            }
-        }
-        return null;
+    public static RtpHeader parseHeader(@NonNull byte[] data, int offset, int packetSize) {
+        // 80 60 40 91 fd ab d4 2a
+        // 80 e1 01 d2 00 07 43 f0
+        RtpHeader rtpHeader = new RtpHeader();
+        return rtpHeader.parse(data, offset, packetSize) ? rtpHeader : null;
     }
 }
@@ -0,0 +1,164 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reception statistics of a single RTP source (SSRC) as defined by RFC 3550 6.4.1 and
+ * computed as in appendices A.1, A.3 and A.8.
+ */
+public class RtpReceiverStatistics {
+
+    private static final int RTP_SEQ_MOD = 1 << 16;
+    private static final int MAX_DROPOUT = 3000;
+    private static final int MAX_MISORDER = 100;
+
+    private final long ssrc;
+    private final int clockRate;
+
+    private int maxSequence;
+    // Shifted count of sequence number cycles
+    private long cycles;
+    private int baseSequence;
+    // Last 'bad' sequence number + 1
+    private int badSequence;
+    private long received;
+    private long expectedPrior;
+    private long receivedPrior;
+    private long lastTransit;
+    private boolean hasTransit;
+    // Estimated jitter in timestamp units
+    private double jitter;
+    private int fractionLost;
+    private long cumulativeLost;
+
+    // Middle 32 bits of NTP timestamp of the last SR
+    private long lastSenderReport;
+    private long lastSenderReportTimeMs;
+
+    /**
+     * @param clockRate RTP timestamp clock rate, e.g. 90000 for video
+     */
+    public RtpReceiverStatistics(long ssrc, int clockRate, int sequence) {
+        this.ssrc = ssrc;
+        this.clockRate = clockRate;
+        baseSequence = sequence;
+        maxSequence = sequence;
+        badSequence = RTP_SEQ_MOD + 1;
+    }
+
+    /**
+     * Update statistics with received RTP packet.
+     * @param arrivalTimeMs packet arrival time, e.g. System.currentTimeMillis()
+     */
+    public void onRtpPacket(int sequence, long rtpTimestamp, long arrivalTimeMs) {
+        int delta = (sequence - maxSequence) & 0xFFFF;
+        if (delta < MAX_DROPOUT) {
+            // In order, with permissible gap
+            if (sequence < maxSequence)
+                cycles += RTP_SEQ_MOD;
+            maxSequence = sequence;
+        } else if (delta <= RTP_SEQ_MOD - MAX_MISORDER) {
+            // The sequence number made a very large jump
+            if (sequence == badSequence) {
+                // Two sequential packets. Assume the other side restarted without telling us.
+                restart(sequence);
+            } else {
+                badSequence = (sequence + 1) & (RTP_SEQ_MOD - 1);
+                return;
+            }
+        }
+        // Otherwise duplicate or reordered packet
+        received++;
+
+        // Interarrival jitter (A.8)
+        long arrival = arrivalTimeMs * clockRate / 1000;
+        long transit = arrival - rtpTimestamp;
+        if (hasTransit) {
+            // RTP timestamp wraps around at 32 bits
+            long d = Math.abs((int) (transit - lastTransit));
+            jitter += (d - jitter) / 16.0;
+        }
+        lastTransit = transit;
+        hasTransit = true;
+    }
+
+    public void onSenderReport(long ntpTimestamp, long nowMs) {
+        lastSenderReport = (ntpTimestamp >>> 16) & 0xFFFFFFFFL;
+        lastSenderReportTimeMs = nowMs;
+    }
+
+    private void restart(int sequence) {
+        baseSequence = sequence;
+        maxSequence = sequence;
+        badSequence = RTP_SEQ_MOD + 1;
+        cycles = 0;
+        received = 0;
+        expectedPrior = 0;
+        receivedPrior = 0;
+    }
+
+    // Loss since the previous report (A.3)
+    private void updateLoss() {
+        long extendedMax = cycles + maxSequence;
+        long expected = extendedMax - baseSequence + 1;
+        cumulativeLost = expected - received;
+        long expectedInterval = expected - expectedPrior;
+        expectedPrior = expected;
+        long receivedInterval = received - receivedPrior;
+        receivedPrior = received;
+        long lostInterval = expectedInterval - receivedInterval;
+        if (expectedInterval == 0 || lostInterval <= 0)
+            fractionLost = 0;
+        else
+            fractionLost = (int) Math.min(255, (lostInterval << 8) / expectedInterval);
+    }
+
+    // 6.4.1 Report block, 24 bytes
+    void writeReportBlock(@NonNull byte[] data, int offset, long nowMs) {
+        updateLoss();
+        RtcpParser.writeUint32(data, offset, ssrc);
+        // Cumulative number of packets lost is 24-bit signed
+        long lost = Math.max(-0x800000, Math.min(0x7FFFFF, cumulativeLost));
+        RtcpParser.writeUint32(data, offset + 4, ((long) fractionLost << 24) | (lost & 0xFFFFFF));
+        RtcpParser.writeUint32(data, offset + 8, cycles + maxSequence);
+        RtcpParser.writeUint32(data, offset + 12, (long) jitter);
+        RtcpParser.writeUint32(data, offset + 16, lastSenderReport);
+        // Delay since last SR in units of 1/65536 seconds
+        long delay = lastSenderReportTimeMs == 0 ? 0 : (nowMs - lastSenderReportTimeMs) * 65536 / 1000;
+        RtcpParser.writeUint32(data, offset + 20, delay);
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public long getPacketsReceived() {
+        return received;
+    }
+
+    /**
+     * @return packets lost since the beginning of reception, updated on each receiver report
+     */
+    public long getCumulativeLost() {
+        return cumulativeLost;
+    }
+
+    /**
+     * @return fraction of packets lost since the previous receiver report, 0.0 - 1.0
+     */
+    public float getFractionLost() {
+        return fractionLost / 256f;
+    }
+
+    /**
+     * @return interarrival jitter in msec
+     */
+    public float getJitterMs() {
+        return (float) (jitter * 1000 / clockRate);
+    }
+
+    public long getExtendedHighestSequence() {
+        return cycles + maxSequence;
+    }
+
+}
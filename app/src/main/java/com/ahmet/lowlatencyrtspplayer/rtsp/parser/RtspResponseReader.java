@@ -0,0 +1,167 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReadAheadBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// https://www.ietf.org/rfc/rfc2326.txt 7 Response
+// RTSP/1.0 200 OK\r\n
+// CSeq: 2\r\n
+// Content-Type: application/sdp\r\n
+// Content-Length: 364\r\n
+// \r\n
+// v=0...
+/**
+ * Incremental RTSP response reader working on bulk reads of {@link ReadAheadBuffer}.
+ * The buffer is shared with {@link InterleavedFrameReader}, so bytes read ahead of the response
+ * (e.g. the first RTP frames after PLAY) stay buffered for the frame reader.
+ */
+public class RtspResponseReader {
+
+    private static final String TAG = RtspResponseReader.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // Max size of a status or header line
+    private static final int MAX_LINE_SIZE = 4098;
+    private static final int MAX_RESYNC_BYTES = 100000; // 100 KB max to check
+    private static final byte[] RTSP_VERSION = "RTSP/1.0 ".getBytes(StandardCharsets.US_ASCII);
+
+    private final @NonNull ReadAheadBuffer buffer;
+
+    public RtspResponseReader(@NonNull ReadAheadBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Skip data till "RTSP/1.0 " and the version itself.
+     * The rest of the status line can be read via {@link #readLine()}.
+     * @return false if no status line found within {@link #MAX_RESYNC_BYTES}
+     */
+    public boolean skipToStatusLine() throws IOException {
+        int bytesRemaining = MAX_RESYNC_BYTES;
+        while (bytesRemaining > 0) {
+            buffer.ensure(RTSP_VERSION.length);
+            byte[] data = buffer.getData();
+            int start = buffer.getPosition();
+            int end = start + buffer.available() - RTSP_VERSION.length;
+            for (int i = start; i <= end; i++) {
+                if (data[i] == 'R' && isVersionAt(data, i)) {
+                    buffer.skip(i - start + RTSP_VERSION.length);
+                    return true;
+                }
+            }
+            int skipped = end - start + 1;
+            buffer.skip(skipped);
+            bytesRemaining -= skipped;
+        }
+        if (DEBUG)
+            Log.w(TAG, "No RTSP status line found");
+        return false;
+    }
+
+    /**
+     * Read line terminated by "\r\n". Some cameras like Linksys WVC200 send "\n" only.
+     * @return line without terminator, empty string for the end of header section
+     */
+    @NonNull
+    public String readLine() throws IOException {
+        // Bytes already checked for EOL, not rescanned after each read
+        int scanned = 0;
+        while (true) {
+            byte[] data = buffer.getData();
+            int start = buffer.getPosition();
+            // Line end may be already buffered beyond the limit after a bulk read
+            int available = Math.min(buffer.available(), MAX_LINE_SIZE);
+            for (int i = scanned; i < available; i++) {
+                if (data[start + i] == '\n') {
+                    int length = (i > 0 && data[start + i - 1] == '\r') ? i - 1 : i;
+                    String line = new String(data, start, length, StandardCharsets.UTF_8);
+                    buffer.skip(i + 1);
+                    return line;
+                }
+            }
+            scanned = available;
+            if (scanned >= MAX_LINE_SIZE)
+                throw new IOException("No end of line found within " + MAX_LINE_SIZE + " bytes");
+            buffer.ensure(scanned + 1);
+        }
+    }
+
+    /**
+     * Read header lines till the empty line ending the header section.
+     */
+    @NonNull
+    public ArrayList<Pair<String, String>> readHeaders() throws IOException {
+        ArrayList<Pair<String, String>> headers = new ArrayList<>();
+        String line;
+        while (!TextUtils.isEmpty(line = readLine())) {
+            // Value may contain ':' as well, e.g. RTP-Info: url=rtsp://...
+            int index = line.indexOf(':');
+            if (index > 0)
+                headers.add(Pair.create(line.substring(0, index).trim(), line.substring(index + 1).trim()));
+        }
+        return headers;
+    }
+
+    /**
+     * Read message body of Content-Length size.
+     */
+    @NonNull
+    public String readContent(int length) throws IOException {
+        if (length <= 0)
+            return "";
+        buffer.ensure(length);
+        String content = new String(buffer.getData(), buffer.getPosition(), length, StandardCharsets.UTF_8);
+        buffer.skip(length);
+        return content;
+    }
+
+    /**
+     * @return Content-Length header value or -1 if not present
+     */
+    public static int getContentLength(@NonNull ArrayList<Pair<String, String>> headers) {
+        for (Pair<String, String> header: headers) {
+            if ("content-length".equalsIgnoreCase(header.first)) {
+                try {
+                    return Integer.parseInt(header.second);
+                } catch (NumberFormatException ignored) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return CSeq header value or -1 if not present
+     */
+    public static int getCSeq(@NonNull ArrayList<Pair<String, String>> headers) {
+        for (Pair<String, String> header: headers) {
+            if ("cseq".equalsIgnoreCase(header.first)) {
+                try {
+                    return Integer.parseInt(header.second);
+                } catch (NumberFormatException ignored) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isVersionAt(@NonNull byte[] data, int offset) {
+        for (int i = 0; i < RTSP_VERSION.length; i++) {
+            if (data[offset + i] != RTSP_VERSION[i])
+                return false;
+        }
+        return true;
+    }
+
+}
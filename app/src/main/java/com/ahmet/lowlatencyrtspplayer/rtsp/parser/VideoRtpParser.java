@@ -5,6 +5,10 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool;
+
+import java.util.Arrays;
+
 public class VideoRtpParser {
 
     private static final String TAG = VideoRtpParser.class.getSimpleName();
@@ -17,77 +21,286 @@ public class VideoRtpParser {
     private final static int NAL_UNIT_TYPE_FU_A = 28;
     private final static int NAL_UNIT_TYPE_FU_B = 29;
 
-    private final byte[][] _buffer = new byte[1024][];
-    private byte[] _nalUnit;
+    // Enough for most P-frames, grown for larger I-frames
+    private static final int INITIAL_NAL_UNIT_SIZE = 64 * 1024;
+    private static final byte[] START_CODE = { 0x00, 0x00, 0x00, 0x01 };
+    // Enough for any aggregation packet seen in practice, grown if needed
+    private static final int INITIAL_AGGREGATED_NAL_UNITS = 16;
+
+    private final @NonNull ByteArrayPool _pool;
+    // Annex-B NAL unit being reassembled, handed over to the caller once complete.
+    // In access unit mode NAL units committed are kept before _nalUnitOffset.
+    private @Nullable byte[] _nalUnit;
+    private int _nalUnitOffset = 0;
+    private int _nalUnitLength;
+    private boolean _accessUnitMode = false;
     private boolean _nalEndFlag;
-    private int _bufferLength;
-    private int _packetNum = 0;
+    private boolean _fragmentStarted = false;
+    // Fragments of NAL unit which start was lost are being skipped
+    private boolean _fragmentDiscarded = false;
+    // Any NAL unit started, fragments received before are not a loss
+    private boolean _started = false;
+    private int _lastSequenceNumber = -1;
+    private boolean _dataLost;
+    private long _droppedNalUnitCount = 0;
+    // NAL units of the last aggregation packet, slices of the RTP packet without start code
+    private int _aggregatedNalUnitCount = 0;
+    private int[] _aggregatedNalUnitOffsets = new int[INITIAL_AGGREGATED_NAL_UNITS];
+    private int[] _aggregatedNalUnitLengths = new int[INITIAL_AGGREGATED_NAL_UNITS];
+    private int[] _aggregatedNalUnitTimestampOffsets = new int[INITIAL_AGGREGATED_NAL_UNITS];
+
+    public VideoRtpParser() {
+        this(new ByteArrayPool());
+    }
+
+    /**
+     * @param pool NAL units are allocated from, should be released into it by the consumer
+     */
+    public VideoRtpParser(@NonNull ByteArrayPool pool) {
+        _pool = pool;
+    }
+
+    /**
+     * Drop partially received fragmented NAL unit, e.g. when RTP packets lost.
+     */
+    public void reset() {
+        _nalEndFlag = false;
+        // Following fragments belong to the NAL unit dropped. Kept if already set, reset() may be
+        // called twice for the same loss (jitter buffer and sequence number gap).
+        _fragmentDiscarded |= _fragmentStarted;
+        if (_fragmentStarted)
+            dropNalUnit();
+        _fragmentStarted = false;
+        _nalUnitLength = _nalUnitOffset;
+    }
+
+    /**
+     * In access unit mode complete NAL units are not handed over but kept in the same buffer,
+     * each one either {@link #commitNalUnit() committed} or {@link #discardNalUnit() discarded}
+     * by the caller. Committed ones are handed over at once by {@link #takeAccessUnit()}.
+     */
+    public void setAccessUnitMode(boolean accessUnitMode) {
+        _accessUnitMode = accessUnitMode;
+    }
+
+    /**
+     * @return offset of the NAL unit returned last within the buffer, always 0 if not in access unit mode
+     */
+    public int getNalUnitOffset() {
+        return _nalUnitOffset;
+    }
+
+    public void commitNalUnit() {
+        _nalUnitOffset = _nalUnitLength;
+    }
+
+    public void discardNalUnit() {
+        _nalUnitLength = _nalUnitOffset;
+    }
+
+    /**
+     * Write aggregated NAL unit, e.g. from {@link #getAggregatedNalUnitOffset(int)}, into the access unit buffer
+     * with start code. It should be committed or discarded afterwards as the one returned by the parser.
+     */
+    public void appendNalUnit(@NonNull byte[] data, int offset, int length) {
+        _nalUnitLength = _nalUnitOffset;
+        if (_nalUnit == null)
+            _nalUnit = _pool.acquire(Math.max(START_CODE.length + length, INITIAL_NAL_UNIT_SIZE));
+        append(START_CODE, 0, START_CODE.length);
+        append(data, offset, length);
+    }
+
+    /**
+     * @return size of NAL units committed
+     */
+    public int getAccessUnitLength() {
+        return _nalUnitOffset;
+    }
+
+    /**
+     * @return buffer with NAL units committed starting at 0 of {@link #getAccessUnitLength()} size,
+     *         null if none. The buffer is owned by the caller as the one returned by {@link #processRtpPacketAndGetNalUnit}.
+     */
+    @Nullable
+    public byte[] takeAccessUnit() {
+        if (_nalUnitOffset == 0)
+            return null;
+        byte[] accessUnit = _nalUnit;
+        int accessUnitLength = _nalUnitOffset;
+        int partialLength = _nalUnitLength - accessUnitLength;
+        _nalUnit = null;
+        _nalUnitOffset = 0;
+        _nalUnitLength = 0;
+        // Fragmented NAL unit being received goes to the next access unit
+        if (partialLength > 0) {
+            //noinspection ConstantConditions
+            append(accessUnit, accessUnitLength, partialLength);
+        }
+        return accessUnit;
+    }
+
+    /**
+     * @return true if RTP packets were lost or NAL unit dropped while processing the last packet.
+     *         NAL units returned afterwards may refer to the lost data till the next key frame.
+     */
+    public boolean isDataLost() {
+        return _dataLost;
+    }
+
+    /**
+     * @return number of incomplete NAL units dropped since creation
+     */
+    public long getDroppedNalUnitCount() {
+        return _droppedNalUnitCount;
+    }
+
+    /**
+     * @return size of the NAL unit returned last, including 4 bytes start code
+     */
+    public int getNalUnitLength() {
+        return _nalUnitLength - _nalUnitOffset;
+    }
+
+    /**
+     * @return number of NAL units in the aggregation packet (STAP-A, STAP-B, MTAP16, MTAP24) processed last,
+     *         0 for other packets. The NAL units are not copied and valid only till the packet buffer is reused.
+     */
+    public int getAggregatedNalUnitCount() {
+        return _aggregatedNalUnitCount;
+    }
+
+    /**
+     * @return offset of the aggregated NAL unit (starting with NAL unit header) within the packet buffer
+     */
+    public int getAggregatedNalUnitOffset(int index) {
+        return _aggregatedNalUnitOffsets[index];
+    }
+
+    public int getAggregatedNalUnitLength(int index) {
+        return _aggregatedNalUnitLengths[index];
+    }
+
+    /**
+     * @return offset to add to RTP timestamp of the packet, always 0 for STAP-A and STAP-B
+     */
+    public int getAggregatedNalUnitTimestampOffset(int index) {
+        return _aggregatedNalUnitTimestampOffsets[index];
+    }
 
     @Nullable
     public byte[] processRtpPacketAndGetNalUnit(@NonNull byte[] data, int length) {
+        return processRtpPacketAndGetNalUnit(data, 0, length);
+    }
+
+    /**
+     * Same as {@link #processRtpPacketAndGetNalUnit(byte[], int, int)}, in addition fragmented
+     * NAL unit is dropped if RTP sequence number is not continuous.
+     * @param sequenceNumber RTP sequence number of the packet
+     */
+    @Nullable
+    public byte[] processRtpPacketAndGetNalUnit(@NonNull byte[] data, int offset, int length, int sequenceNumber) {
+        boolean lost = (_lastSequenceNumber != -1 && sequenceNumber != ((_lastSequenceNumber + 1) & 0xFFFF));
+        _lastSequenceNumber = sequenceNumber;
+        if (lost) {
+            if (DEBUG)
+                Log.w(TAG, "RTP sequence number " + sequenceNumber + " is not continuous");
+            reset();
+        }
+        byte[] nalUnit = processRtpPacketAndGetNalUnit(data, offset, length);
+        _dataLost |= lost;
+        return nalUnit;
+    }
+
+    /**
+     * @param data buffer containing RTP payload
+     * @param offset offset of RTP payload within the buffer
+     * @param length RTP payload size
+     * @return buffer with NAL unit starting at 0 of {@link #getNalUnitLength()} size or null if not complete yet.
+     *         The buffer is owned by the caller and can be released into the pool when consumed.
+     *         Null for aggregation packets, see {@link #getAggregatedNalUnitCount()}.
+     */
+    @Nullable
+    public byte[] processRtpPacketAndGetNalUnit(@NonNull byte[] data, int offset, int length) {
         if (DEBUG)
-            Log.v(TAG, "processRtpPacketAndGetNalUnit(length=" + length + ")");
+            Log.v(TAG, "processRtpPacketAndGetNalUnit(offset=" + offset + ", length=" + length + ")");
+
+        _nalEndFlag = false;
+        _dataLost = false;
+        _aggregatedNalUnitCount = 0;
+        if (length < getNalUnitHeaderSize())
+            return null;
+        processPayload(data, offset, length);
+        if (_nalEndFlag) {
+            byte[] nalUnit = _nalUnit;
+            // Next NAL unit goes to a new buffer
+            if (!_accessUnitMode)
+                _nalUnit = null;
+            return nalUnit;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return NAL unit type from NAL unit header at offset, e.g. {@link com.ahmet.lowlatencyrtspplayer.rtsp.utils.VideoCodecUtils#NAL_SPS}
+     */
+    public int getNalUnitType(@NonNull byte[] data, int offset) {
+        return data[offset] & 0x1F;
+    }
+
+    protected int getNalUnitHeaderSize() {
+        return 1;
+    }
 
-        int tmpLen;
-        int nalType = data[0] & 0x1F;
-        int packFlag = data[1] & 0xC0;
+    protected void processPayload(@NonNull byte[] data, int offset, int length) {
+        int nalType = getNalUnitType(data, offset);
 
         if (DEBUG)
-            Log.d(TAG, "NAL type: " + nalType + ", pack flag: " + packFlag);
+            Log.d(TAG, "NAL type: " + nalType);
         switch (nalType) {
 
             //Single-timeaggregation packet
             case NAL_UNIT_TYPE_STAP_A:
+                parseAggregationPacket(data, offset + 1, length - 1, 0);
                 break;
 
             //Single-timeaggregation packet
             case NAL_UNIT_TYPE_STAP_B:
+                // DON
+                parseAggregationPacket(data, offset + 3, length - 3, 0);
                 break;
 
             //Multi-time aggregationpacket
             case NAL_UNIT_TYPE_MTAP16:
+                // DONB
+                parseAggregationPacket(data, offset + 3, length - 3, 2);
                 break;
 
             //Multi-time aggregationpacket
             case NAL_UNIT_TYPE_MTAP24:
+                parseAggregationPacket(data, offset + 3, length - 3, 3);
                 break;
 
             //Fragmentationunit
             case NAL_UNIT_TYPE_FU_A:
+                if (length < 2)
+                    break;
+                int packFlag = data[offset + 1] & 0xC0;
                 switch (packFlag) {
                     //NAL Unit start packet
                     case 0x80:
-                        _nalEndFlag = false;
-                        _packetNum = 1;
-                        _bufferLength = length - 1 ;
-                        _buffer[1] = new byte[_bufferLength];
-                        _buffer[1][0] = (byte)((data[0] & 0xE0) | (data[1] & 0x1F));
-                        System.arraycopy(data,2, _buffer[1],1,length - 2);
+                        startFragmentedNalUnit();
+                        // Reconstructed NAL unit header
+                        appendByte((byte)((data[offset] & 0xE0) | (data[offset + 1] & 0x1F)));
+                        appendFragment(data, offset + 2, length - 2, false);
                         break;
                     //NAL Unit middle packet
                     case 0x00:
-                        _nalEndFlag = false;
-                        _packetNum++;
-                        _bufferLength += length - 2;
-                        _buffer[_packetNum] = new byte[length - 2];
-                        System.arraycopy(data,2, _buffer[_packetNum],0,length - 2);
+                        appendFragment(data, offset + 2, length - 2, false);
                         break;
                     //NAL Unit end packet
                     case 0x40:
-                        _nalEndFlag = true;
-                        _nalUnit = new byte[_bufferLength + length + 2];
-                        _nalUnit[0] = 0x00;
-                        _nalUnit[1] = 0x00;
-                        _nalUnit[2] = 0x00;
-                        _nalUnit[3] = 0x01;
-                        tmpLen = 4;
-                        System.arraycopy(_buffer[1], 0, _nalUnit, tmpLen, _buffer[1].length);
-                        tmpLen += _buffer[1].length;
-                        for(int i = 2; i < _packetNum +1; ++i) {
-                            System.arraycopy(_buffer[i],0, _nalUnit, tmpLen, _buffer[i].length);
-                            tmpLen += _buffer[i].length;
-                        }
-                        System.arraycopy(data,2, _nalUnit, tmpLen,length-2);
+                        appendFragment(data, offset + 2, length - 2, true);
                         break;
                 }
                 break;
@@ -100,29 +313,148 @@ public class VideoRtpParser {
             default:
                 if (DEBUG)
                     Log.d(TAG,"Single NAL");
-                _nalUnit = new byte[4 + length];
-                _nalUnit[0] = 0x00;
-                _nalUnit[1] = 0x00;
-                _nalUnit[2] = 0x00;
-                _nalUnit[3] = 0x01;
-                System.arraycopy(data,0, _nalUnit,4, length);
-                _nalEndFlag = true;
+                setSingleNalUnit(data, offset, length);
                 break;
         }
-        if (_nalEndFlag) {
-//            int type = VideoCodecUtils.getH264NalUnitType(_nalUnit, 0, _nalUnit.length);
-//            switch (type) {
-//                case VideoCodecUtils.NAL_SPS
-//            }
-//            if (DEBUG)
-//                Log.i(TAG, "NAL unit: " + VideoCodecUtils.getH264NalUnitTypeString(type) + " (" + _nalUnit.length + " bytes)");
-//            ArrayList<VideoCodecUtils.NalUnit> nals = new ArrayList<>();
-//            int numNals = VideoCodecUtils.getH264NalUnits(_nalUnit, 0, _nalUnit.length - 1, nals);
-//            Log.i(TAG, "numNals: " + numNals);
-            return _nalUnit;
-        } else {
-            return null;
+    }
+
+    protected void setSingleNalUnit(@NonNull byte[] data, int offset, int length) {
+        // Single NAL unit interrupts fragmented one, its end packet lost
+        interruptFragmentedNalUnit();
+        _nalUnitLength = _nalUnitOffset;
+        // Exact size for a standalone NAL unit, e.g. small SPS and PPS. Room for the following
+        // NAL units of the frame in access unit mode.
+        if (_nalUnit == null)
+            _nalUnit = _pool.acquire(_accessUnitMode ? Math.max(START_CODE.length + length, INITIAL_NAL_UNIT_SIZE) : START_CODE.length + length);
+        append(START_CODE, 0, START_CODE.length);
+        append(data, offset, length);
+        _nalEndFlag = true;
+    }
+
+    /**
+     * Start code written, followed by reconstructed NAL unit header.
+     */
+    protected void startFragmentedNalUnit() {
+        // End packet of the previous one lost
+        interruptFragmentedNalUnit();
+        _fragmentStarted = true;
+        _nalUnitLength = _nalUnitOffset;
+        append(START_CODE, 0, START_CODE.length);
+    }
+
+    protected void appendByte(byte value) {
+        ensureCapacity(1);
+        //noinspection ConstantConditions
+        _nalUnit[_nalUnitLength++] = value;
+    }
+
+    /**
+     * @param end last fragment of NAL unit, the NAL unit gets returned
+     */
+    protected void appendFragment(@NonNull byte[] data, int offset, int length, boolean end) {
+        // Start packet lost, NAL unit counted once
+        if (!_fragmentStarted) {
+            if (_started && !_fragmentDiscarded)
+                dropNalUnit();
+            _fragmentDiscarded = !end;
+            return;
+        }
+        append(data, offset, length);
+        if (end) {
+            _fragmentStarted = false;
+            _nalEndFlag = true;
+        }
+    }
+
+    //  STAP-A, STAP-B (RFC 6184 5.7.1)
+    //  0                   1                   2                   3
+    //  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |STAP-A NAL HDR |         NALU 1 Size           | NALU 1 HDR    |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |                         NALU 1 Data                           |
+    // :                                                               :
+    // +               +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |               | NALU 2 Size                   | NALU 2 HDR    |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    //
+    //  MTAP16, MTAP24 (RFC 6184 5.7.2), 16 bit DONB after NAL HDR
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |          NALU Size            |  DOND         |  TS offset    |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |  TS offset    |  NAL HDR      |  NAL data                     |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    //
+    // @param timestampOffsetSize 0 for STAP, 2 for MTAP16, 3 for MTAP24
+    protected void parseAggregationPacket(@NonNull byte[] data, int offset, int length, int timestampOffsetSize) {
+        // Aggregation packet cannot be sent in the middle of fragmented NAL unit
+        interruptFragmentedNalUnit();
+        int unitHeaderSize = timestampOffsetSize > 0 ? 2 + 1 + timestampOffsetSize : 2;
+        int end = offset + length;
+        while (offset + unitHeaderSize < end) {
+            int nalUnitSize = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+            int timestampOffset = 0;
+            for (int i = 0; i < timestampOffsetSize; i++)
+                timestampOffset = (timestampOffset << 8) | (data[offset + 3 + i] & 0xFF);
+            offset += unitHeaderSize;
+            if (nalUnitSize == 0 || offset + nalUnitSize > end) {
+                // Keep NAL units parsed so far
+                if (DEBUG)
+                    Log.w(TAG, "Invalid aggregated NAL unit size " + nalUnitSize + ", " + (end - offset) + " bytes left");
+                break;
+            }
+            addAggregatedNalUnit(offset, nalUnitSize, timestampOffset);
+            offset += nalUnitSize;
+        }
+    }
+
+    private void interruptFragmentedNalUnit() {
+        if (_fragmentStarted)
+            dropNalUnit();
+        _fragmentStarted = false;
+        _fragmentDiscarded = false;
+        _started = true;
+    }
+
+    private void dropNalUnit() {
+        _droppedNalUnitCount++;
+        _dataLost = true;
+        if (DEBUG)
+            Log.w(TAG, "Incomplete NAL unit dropped (" + _droppedNalUnitCount + " total)");
+    }
+
+    private void addAggregatedNalUnit(int offset, int length, int timestampOffset) {
+        if (_aggregatedNalUnitCount == _aggregatedNalUnitOffsets.length) {
+            int size = _aggregatedNalUnitCount * 2;
+            _aggregatedNalUnitOffsets = Arrays.copyOf(_aggregatedNalUnitOffsets, size);
+            _aggregatedNalUnitLengths = Arrays.copyOf(_aggregatedNalUnitLengths, size);
+            _aggregatedNalUnitTimestampOffsets = Arrays.copyOf(_aggregatedNalUnitTimestampOffsets, size);
         }
+        _aggregatedNalUnitOffsets[_aggregatedNalUnitCount] = offset;
+        _aggregatedNalUnitLengths[_aggregatedNalUnitCount] = length;
+        _aggregatedNalUnitTimestampOffsets[_aggregatedNalUnitCount] = timestampOffset;
+        _aggregatedNalUnitCount++;
+    }
+
+    private void ensureCapacity(int size) {
+        int required = _nalUnitLength + size;
+        if (_nalUnit == null) {
+            _nalUnit = _pool.acquire(Math.max(required, INITIAL_NAL_UNIT_SIZE));
+        } else if (required > _nalUnit.length) {
+            byte[] buffer = _pool.acquire(Math.max(required, _nalUnit.length * 2));
+            System.arraycopy(_nalUnit, 0, buffer, 0, _nalUnitLength);
+            _pool.release(_nalUnit);
+            _nalUnit = buffer;
+        }
+    }
+
+    private void append(@NonNull byte[] data, int offset, int length) {
+        if (length <= 0)
+            return;
+        ensureCapacity(length);
+        //noinspection ConstantConditions
+        System.arraycopy(data, offset, _nalUnit, _nalUnitLength, length);
+        _nalUnitLength += length;
     }
 
 }
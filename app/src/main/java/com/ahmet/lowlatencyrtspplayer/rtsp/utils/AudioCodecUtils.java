@@ -0,0 +1,129 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+
+public final class AudioCodecUtils {
+
+    // Opus always decodes at 48 kHz, RTP clock rate is 48000 as well (RFC 7587 4.1)
+    public static final int OPUS_SAMPLE_RATE = 48000;
+
+    // RFC 7845 5.1.1.3 recommends decoding at least 80 ms before the playback position
+    public static final long OPUS_SEEK_PRE_ROLL_NS = 80000000L;
+
+    private static final int OPUS_HEAD_SIZE = 19;
+
+    // G.711 code to 16-bit linear PCM, indexed by unsigned code
+    private static final short[] ALAW_TO_PCM = new short[256];
+    private static final short[] ULAW_TO_PCM = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ALAW_TO_PCM[i] = (short) getPcmFromAlaw(i);
+            ULAW_TO_PCM[i] = (short) getPcmFromUlaw(i);
+        }
+    }
+
+    private AudioCodecUtils() {
+    }
+
+    /**
+     * Decode G.711 A-law (PCMA) samples.
+     * @return number of decoded samples, equals to length
+     */
+    public static int decodeAlaw(@NonNull byte[] src, int offset, int length, @NonNull short[] dst) {
+        for (int i = 0; i < length; i++)
+            dst[i] = ALAW_TO_PCM[src[offset + i] & 0xFF];
+        return length;
+    }
+
+    /**
+     * Decode G.711 mu-law (PCMU) samples.
+     * @return number of decoded samples, equals to length
+     */
+    public static int decodeUlaw(@NonNull byte[] src, int offset, int length, @NonNull short[] dst) {
+        for (int i = 0; i < length; i++)
+            dst[i] = ULAW_TO_PCM[src[offset + i] & 0xFF];
+        return length;
+    }
+
+    /**
+     * L16 samples are 16-bit big endian (RFC 3551 4.5.11).
+     * @return number of decoded samples
+     */
+    public static int decodeL16(@NonNull byte[] src, int offset, int length, @NonNull short[] dst) {
+        int samples = length / 2;
+        for (int i = 0; i < samples; i++)
+            dst[i] = (short) (((src[offset + i * 2] & 0xFF) << 8) | (src[offset + i * 2 + 1] & 0xFF));
+        return samples;
+    }
+
+    // ITU-T G.711, 13-bit magnitude scaled to 16 bits
+    private static int getPcmFromAlaw(int code) {
+        code ^= 0x55;
+        int magnitude = (code & 0x0F) << 4;
+        int segment = (code & 0x70) >> 4;
+        if (segment == 0)
+            magnitude += 8;
+        else
+            magnitude = (magnitude + 0x108) << (segment - 1);
+        return (code & 0x80) != 0 ? magnitude : -magnitude;
+    }
+
+    // ITU-T G.711, 14-bit magnitude with bias of 0x84 scaled to 16 bits
+    private static int getPcmFromUlaw(int code) {
+        code = ~code;
+        int magnitude = (((code & 0x0F) << 3) + 0x84) << ((code & 0x70) >> 4);
+        return (code & 0x80) != 0 ? 0x84 - magnitude : magnitude - 0x84;
+    }
+
+    //  Identification header (RFC 7845 5.1), multi-byte fields are little endian
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |      'O'      |      'p'      |      'u'      |      's'      |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |      'H'      |      'e'      |      'a'      |      'd'      |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |  Version = 1  | Channel Count |           Pre-skip            |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |                     Input Sample Rate (Hz)                    |
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    // |   Output Gain (Q7.8 in dB)    | Mapping Family|
+    // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+    /**
+     * @param channels 1 or 2, mapping family 0 is used
+     * @param inputSampleRate original sample rate, informational only
+     * @param preSkip 48 kHz samples to discard from the decoder output at start
+     */
+    @NonNull
+    public static byte[] getOpusHead(int channels, int inputSampleRate, int preSkip) {
+        byte[] head = new byte[OPUS_HEAD_SIZE];
+        head[0] = 'O';
+        head[1] = 'p';
+        head[2] = 'u';
+        head[3] = 's';
+        head[4] = 'H';
+        head[5] = 'e';
+        head[6] = 'a';
+        head[7] = 'd';
+        head[8] = 1;
+        head[9] = (byte) channels;
+        head[10] = (byte) preSkip;
+        head[11] = (byte) (preSkip >> 8);
+        head[12] = (byte) inputSampleRate;
+        head[13] = (byte) (inputSampleRate >> 8);
+        head[14] = (byte) (inputSampleRate >> 16);
+        head[15] = (byte) (inputSampleRate >> 24);
+        // Output gain and mapping family are 0
+        return head;
+    }
+
+    /**
+     * @return pre-skip of OpusHead in nanoseconds, as MediaCodec expects it in csd-1
+     */
+    public static long getOpusPreSkipNs(@NonNull byte[] opusHead) {
+        if (opusHead.length < OPUS_HEAD_SIZE)
+            return 0;
+        int preSkip = (opusHead[10] & 0xFF) | ((opusHead[11] & 0xFF) << 8);
+        return preSkip * 1000000000L / OPUS_SAMPLE_RATE;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of byte arrays with power of two sizes from 4 KB to 8 MB. Frames are acquired by the RTSP thread
+ * and released by the decoder thread after being copied into codec input buffer, so in steady state
+ * no arrays are allocated. Arrays not released are simply garbage collected. Thread safe.
+ */
+public class ByteArrayPool {
+
+    private static final int MIN_SIZE_SHIFT = 12; // 4 KB
+    private static final int NUM_BUCKETS = 12; // up to 8 MB
+    public static final int DEFAULT_MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    // Bucket i holds arrays of 4 KB << i size and larger
+    private final ArrayDeque<byte[]>[] buckets;
+    private final int maxPooledBytes;
+    private int pooledBytes = 0;
+    private long allocations = 0;
+
+    public ByteArrayPool() {
+        this(DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * @param maxPooledBytes released arrays are dropped when the pool holds that many bytes
+     */
+    @SuppressWarnings("unchecked")
+    public ByteArrayPool(int maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        buckets = new ArrayDeque[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * @return array of at least minSize bytes, not zeroed
+     */
+    @NonNull
+    public byte[] acquire(int minSize) {
+        int bucket = getBucketToAcquire(minSize);
+        synchronized (this) {
+            if (bucket < NUM_BUCKETS) {
+                byte[] buffer = buckets[bucket].pollFirst();
+                if (buffer != null) {
+                    pooledBytes -= buffer.length;
+                    return buffer;
+                }
+            }
+            allocations++;
+        }
+        return new byte[bucket < NUM_BUCKETS ? 1 << (bucket + MIN_SIZE_SHIFT) : minSize];
+    }
+
+    /**
+     * Return array to the pool. Should not be used by the caller afterwards.
+     */
+    public void release(@Nullable byte[] buffer) {
+        if (buffer == null || buffer.length < 1 << MIN_SIZE_SHIFT)
+            return;
+        int bucket = Math.min(31 - Integer.numberOfLeadingZeros(buffer.length) - MIN_SIZE_SHIFT, NUM_BUCKETS - 1);
+        synchronized (this) {
+            if (pooledBytes + buffer.length > maxPooledBytes)
+                return;
+            buckets[bucket].addFirst(buffer);
+            pooledBytes += buffer.length;
+        }
+    }
+
+    /**
+     * @return number of arrays allocated since creation, stops growing in steady state
+     */
+    public synchronized long getAllocationCount() {
+        return allocations;
+    }
+
+    public synchronized void clear() {
+        for (ArrayDeque<byte[]> bucket : buckets)
+            bucket.clear();
+        pooledBytes = 0;
+    }
+
+    private static int getBucketToAcquire(int minSize) {
+        if (minSize <= 1 << MIN_SIZE_SHIFT)
+            return 0;
+        // Smallest power of two not less than minSize
+        return 32 - Integer.numberOfLeadingZeros(minSize - 1) - MIN_SIZE_SHIFT;
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Output stream of a socket channel which may be in non-blocking mode, e.g. read via
+ * {@link ReadAheadBuffer}. {@link SocketChannel#socket()} streams throw
+ * {@link java.nio.channels.IllegalBlockingModeException} then.
+ * Closing the stream closes the channel.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    private final @NonNull SocketChannel channel;
+    private final @NonNull byte[] singleByte = new byte[1];
+
+    public ChannelOutputStream(@NonNull SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(b, off, len);
+        while (byteBuffer.hasRemaining()) {
+            if (channel.write(byteBuffer) == 0)
+                waitWritable();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Send buffer full. Rare for RTSP requests and RTCP reports, so no selector kept open.
+    // No timeout, same as a blocking socket write.
+    private void waitWritable() throws IOException {
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_WRITE);
+            selector.select();
+        }
+    }
+
+}
@@ -5,19 +5,35 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 public class NetUtils {
@@ -25,6 +41,36 @@ public class NetUtils {
     private static final String TAG = NetUtils.class.getSimpleName();
     private static final boolean DEBUG = false;
     private final static int MAX_LINE_SIZE = 4098;
+    // RFC 8305 recommended delay between connection attempts
+    private static final int CONNECTION_ATTEMPT_DELAY_MS = 250;
+    private static final int MAX_PREFERRED_ADDRESSES = 64;
+    // Connect attempts of all connections share the threads. Attempts over the limit are queued.
+    private static final int MAX_CONNECT_THREADS = 8;
+    private static final int CONNECT_THREAD_KEEP_ALIVE_SEC = 10;
+
+    // Host name to address connected last time
+    private static final LinkedHashMap<String, InetAddress> preferredAddresses =
+            new LinkedHashMap<String, InetAddress>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, InetAddress> eldest) {
+                    return size() > MAX_PREFERRED_ADDRESSES;
+                }
+            };
+
+    private static final ThreadPoolExecutor connectExecutor = new ThreadPoolExecutor(
+            MAX_CONNECT_THREADS,
+            MAX_CONNECT_THREADS,
+            CONNECT_THREAD_KEEP_ALIVE_SEC,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "Connect");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        connectExecutor.allowCoreThreadTimeOut(true);
+    }
 
     public static final class FakeX509TrustManager implements X509TrustManager {
 
@@ -68,37 +114,388 @@ public class NetUtils {
         }
     }
 
+    /**
+     * Connect via the shared {@link TlsContextCache}, resuming the previous TLS session to the server if any.
+     */
     @NonNull
     public static SSLSocket createSslSocketAndConnect(@NonNull String dstName, int dstPort, int timeout) throws Exception {
+        return createSslSocketAndConnect(dstName, dstPort, timeout, SocketProfile.DEFAULT, null);
+    }
+
+    @NonNull
+    public static SSLSocket createSslSocketAndConnect(
+            @NonNull String dstName,
+            int dstPort,
+            int timeout,
+            @NonNull SocketProfile profile,
+            @Nullable TlsContextCache.TlsHandshakeListener listener)
+            throws Exception {
         if (DEBUG)
             Log.v(TAG, "createSslSocketAndConnect(dstName=" + dstName + ", dstPort=" + dstPort + ", timeout=" + timeout + ")");
+        return TlsContextCache.createSocketAndConnect(dstName, dstPort, timeout, profile, listener);
+    }
 
-//        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-//        trustManagerFactory.init((KeyStore) null);
-//        TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
-//        if (trustManagers.length != 1 || !(trustManagers[0] instanceof X509TrustManager)) {
-//           throw new IllegalStateException("Unexpected default trust managers:" + Arrays.toString(trustManagers));
-//        }
-//        X509TrustManager trustManager = (X509TrustManager) trustManagers[0];
+    @NonNull
+    public static Socket createSocketAndConnect(@NonNull String dstName, int dstPort, int timeout) throws IOException {
+        return createSocketAndConnect(dstName, dstPort, timeout, SocketProfile.DEFAULT);
+    }
 
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(null, new TrustManager[] { new FakeX509TrustManager() }, null);
-        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket();
-        sslSocket.connect(new InetSocketAddress(dstName, dstPort), timeout);
-        sslSocket.setSoLinger(false, 1);
-        sslSocket.setSoTimeout(timeout);
-        return sslSocket;
+    @NonNull
+    public static Socket createSocketAndConnect(
+            @NonNull String dstName,
+            int dstPort,
+            int timeout,
+            @NonNull SocketProfile profile)
+            throws IOException {
+        if (DEBUG)
+            Log.v(TAG, "createSocketAndConnect(dstName=" + dstName + ", dstPort=" + dstPort + ", timeout=" + timeout + ", profile=" + profile + ")");
+        return connectHappyEyeballs(dstName, dstPort, timeout, new Connector<Socket>() {
+            @NonNull
+            @Override
+            public Socket open() throws IOException {
+                Socket socket = new Socket();
+                applySocketProfile(socket, profile);
+                return socket;
+            }
+
+            @Override
+            public void connect(@NonNull Socket socket, @NonNull InetSocketAddress address, int timeout) throws IOException {
+                socket.connect(address, timeout);
+                socket.setSoLinger(false, 1);
+                socket.setSoTimeout(timeout);
+            }
+        });
     }
 
+    /**
+     * Create connected socket channel. Read timeout is set as SO_TIMEOUT of
+     * {@link SocketChannel#socket()}, {@link ReadAheadBuffer} applies it to channel reads as well.
+     */
     @NonNull
-    public static Socket createSocketAndConnect(@NonNull String dstName, int dstPort, int timeout) throws IOException {
+    public static SocketChannel createSocketChannelAndConnect(@NonNull String dstName, int dstPort, int timeout) throws IOException {
+        return createSocketChannelAndConnect(dstName, dstPort, timeout, SocketProfile.DEFAULT);
+    }
+
+    @NonNull
+    public static SocketChannel createSocketChannelAndConnect(
+            @NonNull String dstName,
+            int dstPort,
+            int timeout,
+            @NonNull SocketProfile profile)
+            throws IOException {
         if (DEBUG)
-            Log.v(TAG, "createSocketAndConnect(dstName=" + dstName + ", dstPort=" + dstPort + ", timeout=" + timeout + ")");
-        Socket socket = new Socket();
-        socket.connect(new InetSocketAddress(dstName, dstPort), timeout);
-        socket.setSoLinger(false, 1);
-        socket.setSoTimeout(timeout);
-        return socket;
+            Log.v(TAG, "createSocketChannelAndConnect(dstName=" + dstName + ", dstPort=" + dstPort + ", timeout=" + timeout + ", profile=" + profile + ")");
+        return connectHappyEyeballs(dstName, dstPort, timeout, new Connector<SocketChannel>() {
+            @NonNull
+            @Override
+            public SocketChannel open() throws IOException {
+                SocketChannel channel = SocketChannel.open();
+                try {
+                    applySocketProfile(channel.socket(), profile);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                return channel;
+            }
+
+            @Override
+            public void connect(@NonNull SocketChannel channel, @NonNull InetSocketAddress address, int timeout) throws IOException {
+                Socket socket = channel.socket();
+                socket.connect(address, timeout);
+                socket.setSoLinger(false, 1);
+                socket.setSoTimeout(timeout);
+            }
+        });
+    }
+
+    // Package-private for tests
+    interface Connector<T extends Closeable> {
+        @NonNull
+        T open() throws IOException;
+
+        void connect(@NonNull T connection, @NonNull InetSocketAddress address, int timeout) throws IOException;
+    }
+
+    private static class ConnectAttempt<T extends Closeable> {
+        final @NonNull InetAddress address;
+        @Nullable T connection;
+        @Nullable IOException error;
+
+        ConnectAttempt(@NonNull InetAddress address) {
+            this.address = address;
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc8305 Happy Eyeballs Version 2
+    /**
+     * Resolve all addresses of the host and race connection attempts started
+     * {@link #CONNECTION_ATTEMPT_DELAY_MS} apart, or right after the previous one failed.
+     * The first connected attempt wins, others are closed. The winning address is tried first next time.
+     * Attempts run on a shared pool of {@link #MAX_CONNECT_THREADS} threads.
+     * @param timeout connect timeout for all attempts together
+     */
+    @NonNull
+    private static <T extends Closeable> T connectHappyEyeballs(
+            @NonNull String dstName,
+            int dstPort,
+            int timeout,
+            @NonNull Connector<T> connector)
+            throws IOException {
+        return connectHappyEyeballs(dstName, InetAddress.getAllByName(dstName), dstPort, timeout, connector);
+    }
+
+    // Package-private for tests, addresses resolved by the caller
+    @NonNull
+    static <T extends Closeable> T connectHappyEyeballs(
+            @NonNull String dstName,
+            @NonNull InetAddress[] resolved,
+            int dstPort,
+            int timeout,
+            @NonNull Connector<T> connector)
+            throws IOException {
+        List<InetAddress> addresses = getConnectAddresses(dstName, resolved);
+        if (addresses.size() == 1) {
+            T connection = connector.open();
+            try {
+                connector.connect(connection, new InetSocketAddress(addresses.get(0), dstPort), timeout);
+            } catch (IOException e) {
+                closeQuietly(connection);
+                throw e;
+            }
+            return connection;
+        }
+
+        final LinkedBlockingQueue<ConnectAttempt<T>> results = new LinkedBlockingQueue<>();
+        final ArrayList<ConnectAttempt<T>> attempts = new ArrayList<>();
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        long deadline = System.currentTimeMillis() + timeout;
+        int attemptsFailed = 0;
+        IOException lastError = null;
+        try {
+            while (true) {
+                if (attempts.size() < addresses.size()) {
+                    ConnectAttempt<T> attempt = new ConnectAttempt<>(addresses.get(attempts.size()));
+                    attempt.connection = connector.open();
+                    attempts.add(attempt);
+                    startConnectAttempt(attempt, dstPort, (int) Math.max(deadline - System.currentTimeMillis(), 1), connector, results, finished);
+                }
+                long waitMs = attempts.size() < addresses.size() ?
+                        CONNECTION_ATTEMPT_DELAY_MS :
+                        deadline - System.currentTimeMillis();
+                ConnectAttempt<T> result = waitMs > 0 ? results.poll(waitMs, TimeUnit.MILLISECONDS) : null;
+                if (result == null) {
+                    if (attempts.size() >= addresses.size())
+                        throw new SocketTimeoutException("Failed to connect to " + dstName + ":" + dstPort + " within " + timeout + " msec");
+                    continue;
+                }
+                if (result.error == null) {
+                    synchronized (preferredAddresses) {
+                        preferredAddresses.put(dstName, result.address);
+                    }
+                    if (DEBUG)
+                        Log.d(TAG, "Connected to " + result.address.getHostAddress() + " (" + attempts.size() + " of " + addresses.size() + " attempts started)");
+                    // Not closed below
+                    attempts.remove(result);
+                    return result.connection;
+                }
+                Log.w(TAG, "Failed to connect to " + result.address.getHostAddress() + " (" + result.error.getMessage() + ")");
+                lastError = result.error;
+                if (++attemptsFailed >= addresses.size())
+                    throw lastError;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Connect interrupted");
+        } finally {
+            // Cancel attempts in progress, blocked connect() fails on close
+            finished.set(true);
+            for (ConnectAttempt<T> attempt : attempts)
+                closeQuietly(attempt.connection);
+        }
+    }
+
+    private static <T extends Closeable> void startConnectAttempt(
+            @NonNull final ConnectAttempt<T> attempt,
+            final int port,
+            final int timeout,
+            @NonNull final Connector<T> connector,
+            @NonNull final LinkedBlockingQueue<ConnectAttempt<T>> results,
+            @NonNull final AtomicBoolean finished) {
+        connectExecutor.execute(() -> {
+            // Queued till another attempt won or the connect timed out, connection already closed
+            if (finished.get())
+                return;
+            try {
+                //noinspection ConstantConditions
+                connector.connect(attempt.connection, new InetSocketAddress(attempt.address, port), timeout);
+            } catch (IOException e) {
+                attempt.error = e;
+            }
+            results.add(attempt);
+            // Connected after another attempt won
+            if (finished.get() && attempt.error == null)
+                closeQuietly(attempt.connection);
+        });
+    }
+
+    /**
+     * Addresses in order of connection attempts. The address connected last time goes first,
+     * then address families alternate starting with the family of the first address (RFC 8305 4).
+     */
+    @NonNull
+    private static List<InetAddress> getConnectAddresses(@NonNull String dstName, @NonNull InetAddress[] resolved) {
+        InetAddress preferred;
+        synchronized (preferredAddresses) {
+            preferred = preferredAddresses.get(dstName);
+        }
+        ArrayList<InetAddress> first = new ArrayList<>();
+        ArrayList<InetAddress> second = new ArrayList<>();
+        InetAddress head = null;
+        for (InetAddress address : resolved) {
+            if (address.equals(preferred))
+                head = address;
+        }
+        if (head == null)
+            head = resolved[0];
+        boolean firstIpv6 = head instanceof Inet6Address;
+        for (InetAddress address : resolved) {
+            if (address == head)
+                continue;
+            if ((address instanceof Inet6Address) == firstIpv6)
+                first.add(address);
+            else
+                second.add(address);
+        }
+        ArrayList<InetAddress> addresses = new ArrayList<>(resolved.length);
+        addresses.add(head);
+        // Other family goes right after the head
+        int i = 0, j = 0;
+        while (i < first.size() || j < second.size()) {
+            if (j < second.size())
+                addresses.add(second.get(j++));
+            if (i < first.size())
+                addresses.add(first.get(i++));
+        }
+        return addresses;
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Apply socket options of the profile. Receive buffer size affects TCP window scaling
+     * only if set before connect, other options can be changed at any time.
+     */
+    public static void applySocketProfile(@NonNull Socket socket, @NonNull SocketProfile profile) throws SocketException {
+        if (profile.receiveBufferSize > 0)
+            socket.setReceiveBufferSize(profile.receiveBufferSize);
+        if (profile.tcpNoDelay)
+            socket.setTcpNoDelay(true);
+        if (profile.trafficClass != SocketProfile.TRAFFIC_CLASS_DEFAULT) {
+            try {
+                socket.setTrafficClass(profile.trafficClass);
+            } catch (SocketException e) {
+                // Not supported by some networks, e.g. IPv6 on old Android versions
+                Log.w(TAG, "Failed to set traffic class (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * Bind UDP channels to a pair of consecutive ports, even one for RTP and odd one for RTCP
+     * (RFC 3550 11).
+     * @return array of 2 channels. First is RTP channel, second RTCP channel.
+     */
+    @NonNull
+    public static DatagramChannel[] createUdpChannelPair() throws IOException {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            DatagramChannel rtpChannel = DatagramChannel.open();
+            DatagramChannel rtcpChannel = null;
+            try {
+                rtpChannel.socket().bind(new InetSocketAddress(0));
+                int port = rtpChannel.socket().getLocalPort();
+                if (port % 2 == 0 && port < 65535) {
+                    rtcpChannel = DatagramChannel.open();
+                    rtcpChannel.socket().bind(new InetSocketAddress(port + 1));
+                    return new DatagramChannel[] { rtpChannel, rtcpChannel };
+                }
+            } catch (IOException e) {
+                if (DEBUG)
+                    Log.w(TAG, "Failed to bind UDP port pair (" + e.getMessage() + ")");
+            }
+            closeUdpChannels(rtpChannel, rtcpChannel);
+        }
+        throw new IOException("Failed to bind UDP ports for RTP/RTCP");
+    }
+
+    /**
+     * Bind UDP channel to the port and join the multicast group on the network interface.
+     * Several channels (and apps) can listen to the same group and port.
+     * On Android WifiManager.MulticastLock should be held to receive multicast via Wi-Fi.
+     */
+    @NonNull
+    public static DatagramChannel createMulticastChannel(
+            @NonNull InetAddress group,
+            int port,
+            @NonNull NetworkInterface networkInterface)
+            throws IOException {
+        if (!group.isMulticastAddress())
+            throw new IOException("Not a multicast address " + group.getHostAddress());
+        DatagramChannel channel = DatagramChannel.open(
+                group instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+            channel.join(group, networkInterface);
+        } catch (IOException e) {
+            closeUdpChannels(channel);
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Find network interface to join multicast groups on.
+     * @param localAddress local address of RTSP connection, interface with it is preferred
+     */
+    @NonNull
+    public static NetworkInterface getMulticastInterface(@Nullable InetAddress localAddress) throws IOException {
+        NetworkInterface networkInterface = null;
+        if (localAddress != null && !localAddress.isAnyLocalAddress())
+            networkInterface = NetworkInterface.getByInetAddress(localAddress);
+        if (networkInterface != null)
+            return networkInterface;
+
+        // Any active non-loopback interface supporting multicast
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            NetworkInterface ni = interfaces.nextElement();
+            try {
+                if (ni.isUp() && ni.supportsMulticast() && !ni.isLoopback())
+                    return ni;
+            } catch (SocketException ignored) {
+            }
+        }
+        throw new IOException("No network interface for multicast found");
+    }
+
+    public static void closeUdpChannels(@Nullable DatagramChannel... channels) {
+        if (channels == null)
+            return;
+        for (DatagramChannel channel: channels) {
+            if (channel == null)
+                continue;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
     @NonNull
@@ -0,0 +1,250 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Growable read-ahead buffer on top of a connection input stream or channel.
+ * Data is fetched from the stream in bulk reads and parsers work directly on {@link #getData()}.
+ * Any offsets obtained from the buffer stay valid only until the next {@link #ensure(int)} call,
+ * which may compact or grow the underlying array.
+ */
+public class ReadAheadBuffer {
+
+    private static final String TAG = ReadAheadBuffer.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // Enough for a few RTP packets and any RTSP response headers
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final @Nullable InputStream inputStream;
+    private final @Nullable ReadableByteChannel channel;
+    // Waits for data on a non-blocking channel, so reads can time out
+    private final @Nullable Selector selector;
+    private @NonNull byte[] buffer;
+    // Channel reads go straight into the backing array via this view
+    private @Nullable ByteBuffer channelBuffer;
+    // Offset of the first unread byte
+    private int position = 0;
+    // Offset right after the last valid byte
+    private int limit = 0;
+
+    public ReadAheadBuffer(@NonNull InputStream inputStream) {
+        this(inputStream, DEFAULT_CAPACITY);
+    }
+
+    public ReadAheadBuffer(@NonNull InputStream inputStream, int capacity) {
+        this.inputStream = inputStream;
+        this.channel = null;
+        this.selector = null;
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Selectable channel is switched to non-blocking mode. Reads from a socket channel time out
+     * after SO_TIMEOUT of {@link SocketChannel#socket()} like socket stream reads, other selectable
+     * channels wait for data without a timeout. Call {@link #release()} when done.
+     */
+    public ReadAheadBuffer(@NonNull ReadableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_CAPACITY);
+    }
+
+    public ReadAheadBuffer(@NonNull ReadableByteChannel channel, int capacity) throws IOException {
+        this.inputStream = null;
+        this.channel = channel;
+        this.buffer = new byte[capacity];
+        this.channelBuffer = ByteBuffer.wrap(buffer);
+        if (channel instanceof SelectableChannel) {
+            SelectableChannel selectableChannel = (SelectableChannel) channel;
+            selectableChannel.configureBlocking(false);
+            selector = Selector.open();
+            try {
+                selectableChannel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                selector.close();
+                throw e;
+            }
+        } else {
+            selector = null;
+        }
+    }
+
+    /**
+     * Close the selector used for channel reads. The channel itself stays open.
+     */
+    public void release() {
+        if (selector == null)
+            return;
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @NonNull
+    public byte[] getData() {
+        return buffer;
+    }
+
+    /**
+     * @return offset of the first unread byte in {@link #getData()}
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return number of bytes already buffered and not consumed yet
+     */
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * @return unread byte at the specified index relative to {@link #getPosition()}
+     */
+    public byte peek(int index) {
+        return buffer[position + index];
+    }
+
+    /**
+     * Mark bytes as consumed. Consumed bytes remain readable until the next {@link #ensure(int)}.
+     */
+    public void skip(int length) {
+        position += Math.min(length, limit - position);
+    }
+
+    /**
+     * Make sure at least {@code length} unread bytes are buffered, reading from the stream as much
+     * as the buffer can hold.
+     * @throws EOFException if connection closed before enough data received
+     * @throws SocketTimeoutException if no data received within socket read timeout
+     */
+    public void ensure(int length) throws IOException {
+        if (limit - position >= length)
+            return;
+
+        if (position + length > buffer.length) {
+            if (length > buffer.length) {
+                // Packet bigger than the buffer. Grow it.
+                byte[] newBuffer = new byte[Math.max(length, buffer.length * 2)];
+                System.arraycopy(buffer, position, newBuffer, 0, limit - position);
+                buffer = newBuffer;
+                if (channel != null)
+                    channelBuffer = ByteBuffer.wrap(buffer);
+                if (DEBUG)
+                    Log.d(TAG, "Buffer grown to " + buffer.length + " bytes");
+            } else {
+                // Move unread data to the beginning
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+            }
+            limit -= position;
+            position = 0;
+        }
+
+        while (limit - position < length) {
+            int readBytes = read();
+            if (readBytes < 0)
+                throw new EOFException("Connection closed");
+            limit += readBytes;
+        }
+    }
+
+    /**
+     * Buffer data already received by the connection without waiting for more. Stream reads wait
+     * up to the socket read timeout, so set a short SO_TIMEOUT before polling a stream.
+     * Unlike {@link InputStream#available()}, works for channel and TLS socket streams.
+     * @return number of bytes buffered and not consumed yet
+     * @throws EOFException if connection closed
+     */
+    public int poll() throws IOException {
+        if (limit == buffer.length) {
+            if (position == 0)
+                return limit;
+            // Move unread data to the beginning
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        int readBytes;
+        if (selector != null) {
+            readBytes = readChannel();
+        } else if (inputStream != null) {
+            try {
+                readBytes = read();
+            } catch (SocketTimeoutException e) {
+                readBytes = 0;
+            }
+        } else {
+            // Readiness of other channels cannot be checked
+            readBytes = 0;
+        }
+        if (readBytes < 0)
+            throw new EOFException("Connection closed");
+        limit += readBytes;
+        return limit - position;
+    }
+
+    private int read() throws IOException {
+        if (selector != null) {
+            int readBytes = readChannel();
+            return readBytes != 0 ? readBytes : waitChannelData();
+        } else if (channel != null) {
+            return readChannel();
+        } else if (inputStream != null) {
+            return inputStream.read(buffer, limit, buffer.length - limit);
+        }
+        return -1;
+    }
+
+    private int readChannel() throws IOException {
+        if (channel == null || channelBuffer == null)
+            return -1;
+        channelBuffer.limit(buffer.length);
+        channelBuffer.position(limit);
+        return channel.read(channelBuffer);
+    }
+
+    // Non-blocking channel has no data yet. Thread.interrupt() wakes up select() and closes the
+    // channel, same as it does for a blocking read. Non-blocking reads are not interruptible.
+    private int waitChannelData() throws IOException {
+        if (selector == null)
+            return -1;
+        int timeout = channel instanceof SocketChannel ? ((SocketChannel) channel).socket().getSoTimeout() : 0;
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long waitMs = 0;
+            if (timeout > 0) {
+                waitMs = deadline - System.currentTimeMillis();
+                if (waitMs <= 0)
+                    throw new SocketTimeoutException("Read timed out");
+            }
+            selector.select(waitMs);
+            selector.selectedKeys().clear();
+            if (Thread.currentThread().isInterrupted()) {
+                channel.close();
+                throw new ClosedByInterruptException();
+            }
+            int readBytes = readChannel();
+            if (readBytes != 0)
+                return readBytes;
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Grows socket receive buffer to hold data of the peak bitrate observed, so I-frame bursts
+ * do not fill the TCP receive window and stall the sender. The buffer never shrinks.
+ */
+public class ReceiveBufferSizer {
+
+    private static final String TAG = ReceiveBufferSizer.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // Short enough to catch a single I-frame burst
+    private static final int WINDOW_MS = 100;
+    // Buffer holds this much data at the peak bitrate
+    private static final int BUFFER_TIME_MS = 500;
+    private static final int SIZE_GRANULARITY = 64 * 1024;
+
+    private final @NonNull Socket socket;
+    private final int maxSize;
+    private int size;
+    private long windowStartMs = 0;
+    private long windowBytes = 0;
+    private long peakBitrate = 0;
+
+    public ReceiveBufferSizer(@NonNull Socket socket, int maxSize) throws SocketException {
+        this.socket = socket;
+        this.maxSize = maxSize;
+        size = socket.getReceiveBufferSize();
+    }
+
+    /**
+     * @return true if the receive buffer was resized
+     */
+    public boolean onDataReceived(int length, long nowMs) {
+        if (nowMs - windowStartMs < WINDOW_MS) {
+            windowBytes += length;
+            return false;
+        }
+        long elapsedMs = nowMs - windowStartMs;
+        boolean firstWindow = (windowStartMs == 0);
+        long bytes = windowBytes;
+        windowStartMs = nowMs;
+        windowBytes = length;
+        if (firstWindow)
+            return false;
+
+        long bitrate = bytes * 8 * 1000 / elapsedMs;
+        if (bitrate <= peakBitrate)
+            return false;
+        peakBitrate = bitrate;
+
+        long target = peakBitrate / 8 * BUFFER_TIME_MS / 1000;
+        target = (target + SIZE_GRANULARITY - 1) / SIZE_GRANULARITY * SIZE_GRANULARITY;
+        target = Math.min(target, maxSize);
+        // Avoid frequent resizes on small bitrate changes
+        if (target <= size + size / 4)
+            return false;
+        try {
+            socket.setReceiveBufferSize((int) target);
+            // Effective size may differ, e.g. doubled by Linux kernel
+            size = socket.getReceiveBufferSize();
+        } catch (SocketException e) {
+            Log.w(TAG, "Failed to set receive buffer size " + target + " (" + e.getMessage() + ")");
+            return false;
+        }
+        if (DEBUG)
+            Log.d(TAG, "Peak bitrate " + peakBitrate + " bps, receive buffer " + size + " bytes");
+        return true;
+    }
+
+    public int getReceiveBufferSize() {
+        return size;
+    }
+
+    /**
+     * @return bits per second
+     */
+    public long getPeakBitrate() {
+        return peakBitrate;
+    }
+
+}
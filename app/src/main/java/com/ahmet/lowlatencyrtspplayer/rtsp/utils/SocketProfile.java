@@ -0,0 +1,73 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Socket options of RTSP connection applied by {@link NetUtils}.
+ * Receive buffer should be set before connect, since TCP window scaling is negotiated on connect.
+ */
+public class SocketProfile {
+
+    // RFC 1349 type of service values for IP_TOS
+    public static final int TRAFFIC_CLASS_DEFAULT = 0;
+    public static final int TRAFFIC_CLASS_LOW_DELAY = 0x10;
+    public static final int TRAFFIC_CLASS_THROUGHPUT = 0x08;
+
+    /**
+     * System defaults, only SO_LINGER and read timeout set.
+     */
+    public static final SocketProfile DEFAULT = new SocketProfile(0, 0, false, TRAFFIC_CLASS_DEFAULT);
+
+    /**
+     * Moderate buffer growing with I-frame bursts, requests sent without Nagle delay.
+     */
+    public static final SocketProfile LOW_LATENCY = new SocketProfile(256 * 1024, 2 * 1024 * 1024, true, TRAFFIC_CLASS_LOW_DELAY);
+
+    /**
+     * High bitrate streams, e.g. 4K. Large buffer keeps the camera sending during I-frames.
+     */
+    public static final SocketProfile HIGH_THROUGHPUT = new SocketProfile(1024 * 1024, 8 * 1024 * 1024, true, TRAFFIC_CLASS_THROUGHPUT);
+
+    /**
+     * Many simultaneous streams on low memory devices. Fixed small buffer.
+     */
+    public static final SocketProfile CONSTRAINED_MEMORY = new SocketProfile(64 * 1024, 0, true, TRAFFIC_CLASS_DEFAULT);
+
+    /**
+     * SO_RCVBUF set before connect, 0 for system default
+     */
+    public final int receiveBufferSize;
+    /**
+     * Receive buffer is grown up to this size from the observed peak bitrate, 0 to keep it fixed
+     */
+    public final int maxReceiveBufferSize;
+    /**
+     * TCP_NODELAY. RTSP requests are small and should not wait for Nagle's algorithm.
+     */
+    public final boolean tcpNoDelay;
+    /**
+     * IP_TOS, e.g. {@link #TRAFFIC_CLASS_LOW_DELAY}
+     */
+    public final int trafficClass;
+
+    public SocketProfile(int receiveBufferSize, int maxReceiveBufferSize, boolean tcpNoDelay, int trafficClass) {
+        this.receiveBufferSize = receiveBufferSize;
+        this.maxReceiveBufferSize = maxReceiveBufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+        this.trafficClass = trafficClass;
+    }
+
+    public boolean isAutoReceiveBufferSize() {
+        return maxReceiveBufferSize > receiveBufferSize;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SocketProfile{receiveBufferSize=" + receiveBufferSize +
+                ", maxReceiveBufferSize=" + maxReceiveBufferSize +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", trafficClass=" + trafficClass + "}";
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Process wide TLS context for "rtsps://" connections. Sessions are cached by host:port,
+ * so reconnects resume the previous session (session tickets or IDs) instead of a full handshake.
+ * Thread safe.
+ */
+public class TlsContextCache {
+
+    private static final String TAG = TlsContextCache.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_SESSIONS = 64;
+    private static final int SESSION_TIMEOUT_SEC = 24 * 3600;
+
+    /**
+     * TLS 1.3 needs one round trip for a full handshake, TLS 1.2 two.
+     * Drops TLS 1.0/1.1, so older cameras fail the handshake.
+     */
+    public static final String[] PROTOCOLS_FAST_HANDSHAKE = { "TLSv1.3", "TLSv1.2" };
+
+    /**
+     * ECDHE key exchange with AEAD ciphers. AES-GCM is the fastest one on ARMv8 with crypto
+     * extensions, ChaCha20-Poly1305 on older ARM cores without AES instructions.
+     * ECDSA certificates are verified faster than RSA ones, so they are preferred.
+     */
+    public static final String[] CIPHER_SUITES_FAST_HANDSHAKE = {
+            // TLS 1.3
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            // TLS 1.2
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+    };
+
+    public interface TlsHandshakeListener {
+        /**
+         * @param resumed true if a cached session was resumed without a full handshake
+         */
+        void onTlsHandshake(long durationMs, boolean resumed);
+    }
+
+    public static class Statistics {
+        public long handshakes;
+        public long resumedHandshakes;
+        public long totalHandshakeTimeMs;
+        public long lastHandshakeTimeMs;
+
+        public float getResumptionRate() {
+            return handshakes > 0 ? (float) resumedHandshakes / handshakes : 0;
+        }
+
+        public long getAverageHandshakeTimeMs() {
+            return handshakes > 0 ? totalHandshakeTimeMs / handshakes : 0;
+        }
+    }
+
+    private static @Nullable SSLContext sslContext;
+    private static @Nullable String[] protocols = null;
+    private static @Nullable String[] cipherSuites = null;
+    private static final @NonNull Statistics statistics = new Statistics();
+
+    /**
+     * @param protocols enabled protocols in order of preference, e.g. {@link #PROTOCOLS_FAST_HANDSHAKE},
+     *                  null for platform defaults (default). Protocols not supported by the platform are skipped.
+     */
+    public static synchronized void setProtocols(@Nullable String[] protocols) {
+        TlsContextCache.protocols = protocols;
+    }
+
+    /**
+     * @param cipherSuites enabled cipher suites in order of preference, e.g. {@link #CIPHER_SUITES_FAST_HANDSHAKE},
+     *                     null for platform defaults. Suites not supported by the platform are skipped.
+     */
+    public static synchronized void setCipherSuites(@Nullable String[] cipherSuites) {
+        TlsContextCache.cipherSuites = cipherSuites;
+    }
+
+    /**
+     * Connect and complete TLS handshake, resuming the cached session for host:port if any.
+     */
+    @NonNull
+    public static SSLSocket createSocketAndConnect(
+            @NonNull String dstName,
+            int dstPort,
+            int timeout,
+            @NonNull SocketProfile profile,
+            @Nullable TlsHandshakeListener listener)
+            throws IOException, GeneralSecurityException {
+        SSLSocketFactory factory;
+        String[] protocols;
+        String[] cipherSuites;
+        synchronized (TlsContextCache.class) {
+            factory = getContext().getSocketFactory();
+            protocols = TlsContextCache.protocols;
+            cipherSuites = TlsContextCache.cipherSuites;
+        }
+        // Layered socket gets host and port before the handshake, used as session cache key and for SNI
+        Socket socket = NetUtils.createSocketAndConnect(dstName, dstPort, timeout, profile);
+        SSLSocket sslSocket;
+        try {
+            sslSocket = (SSLSocket) factory.createSocket(socket, dstName, dstPort, true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        try {
+            if (protocols != null)
+                setSupported(protocols, sslSocket.getSupportedProtocols(), sslSocket::setEnabledProtocols);
+            if (cipherSuites != null)
+                setSupported(cipherSuites, sslSocket.getSupportedCipherSuites(), sslSocket::setEnabledCipherSuites);
+            enableSessionTickets(sslSocket);
+            long startTime = System.currentTimeMillis();
+            sslSocket.startHandshake();
+            long durationMs = System.currentTimeMillis() - startTime;
+            // Resumed session keeps the creation time of the original one
+            SSLSession session = sslSocket.getSession();
+            boolean resumed = session.getCreationTime() < startTime;
+            synchronized (statistics) {
+                statistics.handshakes++;
+                if (resumed)
+                    statistics.resumedHandshakes++;
+                statistics.totalHandshakeTimeMs += durationMs;
+                statistics.lastHandshakeTimeMs = durationMs;
+            }
+            if (DEBUG)
+                Log.d(TAG, "TLS handshake with " + dstName + ":" + dstPort + " took " + durationMs +
+                        " msec (" + session.getProtocol() + ", " + session.getCipherSuite() + ", resumed " + resumed + ")");
+            if (listener != null)
+                listener.onTlsHandshake(durationMs, resumed);
+        } catch (IOException e) {
+            sslSocket.close();
+            throw e;
+        }
+        return sslSocket;
+    }
+
+    @NonNull
+    public static Statistics getStatistics() {
+        Statistics copy = new Statistics();
+        synchronized (statistics) {
+            copy.handshakes = statistics.handshakes;
+            copy.resumedHandshakes = statistics.resumedHandshakes;
+            copy.totalHandshakeTimeMs = statistics.totalHandshakeTimeMs;
+            copy.lastHandshakeTimeMs = statistics.lastHandshakeTimeMs;
+        }
+        return copy;
+    }
+
+    /**
+     * Forget cached sessions, next connections do a full handshake.
+     */
+    public static synchronized void clear() {
+        sslContext = null;
+    }
+
+    @NonNull
+    private static SSLContext getContext() throws GeneralSecurityException {
+        if (sslContext == null) {
+//            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+//            trustManagerFactory.init((KeyStore) null);
+//            TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
+//            if (trustManagers.length != 1 || !(trustManagers[0] instanceof X509TrustManager)) {
+//               throw new IllegalStateException("Unexpected default trust managers:" + Arrays.toString(trustManagers));
+//            }
+//            X509TrustManager trustManager = (X509TrustManager) trustManagers[0];
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] { new NetUtils.FakeX509TrustManager() }, null);
+            SSLSessionContext sessionContext = context.getClientSessionContext();
+            if (sessionContext != null) {
+                sessionContext.setSessionCacheSize(MAX_SESSIONS);
+                sessionContext.setSessionTimeout(SESSION_TIMEOUT_SEC);
+            }
+            sslContext = context;
+        }
+        return sslContext;
+    }
+
+    private interface StringArraySetter {
+        void set(@NonNull String[] values);
+    }
+
+    private static void setSupported(
+            @NonNull String[] preferred,
+            @NonNull String[] supported,
+            @NonNull StringArraySetter setter) {
+        List<String> supportedList = Arrays.asList(supported);
+        ArrayList<String> enabled = new ArrayList<>(preferred.length);
+        for (String value : preferred) {
+            if (supportedList.contains(value))
+                enabled.add(value);
+        }
+        // Keep platform defaults rather than failing the handshake
+        if (enabled.isEmpty()) {
+            Log.w(TAG, "None of " + Arrays.toString(preferred) + " supported");
+            return;
+        }
+        setter.set(enabled.toArray(new String[0]));
+    }
+
+    // Conscrypt on Android has session tickets disabled by default.
+    // Same reflection call as in android.net.SSLCertificateSocketFactory.
+    private static void enableSessionTickets(@NonNull SSLSocket socket) {
+        try {
+            Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socket, true);
+        } catch (Exception e) {
+            if (DEBUG)
+                Log.d(TAG, "Session tickets not configurable (" + e.getClass().getSimpleName() + ")");
+        }
+    }
+
+}
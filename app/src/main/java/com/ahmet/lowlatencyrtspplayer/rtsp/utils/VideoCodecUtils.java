@@ -101,6 +101,14 @@ public final class VideoCodecUtils {
         }
     }
 
+    /**
+     * Intra random access point: BLA, IDR, CRA and reserved IRAP types 22-23.
+     * Decoding can start at such NAL unit.
+     */
+    public static boolean isH265IRAP(int nalUnitType) {
+        return nalUnitType >= H265_NAL_BLA_W_LP && nalUnitType <= 23;
+    }
+
     /**
      * Search for 00 00 01 or 00 00 00 01 in byte stream.
      * @return offset to the start of NAL unit if found, otherwise -1
@@ -266,10 +274,6 @@ public final class VideoCodecUtils {
 //        return isKeyFrame;
 //    }
 
-//    private static boolean isH265IRAP(int nalUnitType) {
-//        return nalUnitType >= 16 && nalUnitType <= 23;
-//    }
-
 //    public static boolean isH265KeyFrame(@Nullable byte[] data, int offset, int length) {
 //        boolean isKeyFrame = false;
 //
@@ -1,8 +1,10 @@
 package com.ahmet.lowlatencyrtspplayer.rtsp.widget
 
 import android.content.Context
+import android.media.MediaCodec
 import android.media.MediaFormat
 import android.net.Uri
+import android.net.wifi.WifiManager
 import android.os.Handler
 import android.os.Looper
 import android.util.AttributeSet
@@ -10,10 +12,15 @@ import android.util.Log
 import android.view.SurfaceHolder
 import android.view.SurfaceView
 import com.ahmet.lowlatencyrtspplayer.rtsp.RtspClient
+import com.ahmet.lowlatencyrtspplayer.rtsp.RtspSessionCache
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool
 import com.ahmet.lowlatencyrtspplayer.rtsp.utils.NetUtils
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.SocketProfile
 
 import com.ahmet.lowlatencyrtspplayer.rtsp.codec.AudioDecodeThread
 import com.ahmet.lowlatencyrtspplayer.rtsp.codec.FrameQueue
+import com.ahmet.lowlatencyrtspplayer.rtsp.codec.PcmAudioThread
+import com.ahmet.lowlatencyrtspplayer.rtsp.codec.PresentationClock
 import com.ahmet.lowlatencyrtspplayer.rtsp.codec.VideoDecodeThread
 import java.net.Socket
 import java.util.concurrent.atomic.AtomicBoolean
@@ -28,10 +35,14 @@ open class RtspSurfaceView: SurfaceView {
     private var requestVideo = true
     private var requestAudio = true
     private var rtspThread: RtspThread? = null
-    private var videoFrameQueue = FrameQueue(60)
-    private var audioFrameQueue = FrameQueue(10)
+    // Video NAL units and audio samples are allocated from and released into it after decoding
+    private val bufferPool = ByteArrayPool()
+    private var videoFrameQueue = FrameQueue(60, bufferPool)
+    private var audioFrameQueue = FrameQueue(10, bufferPool)
     private var videoDecodeThread: VideoDecodeThread? = null
     private var audioDecodeThread: AudioDecodeThread? = null
+    // G.711 and L16 are played without decoder
+    private var pcmAudioThread: PcmAudioThread? = null
     private var surfaceWidth = 1920
     private var surfaceHeight = 1080
     private var statusListener: RtspStatusListener? = null
@@ -42,12 +53,53 @@ open class RtspSurfaceView: SurfaceView {
     private var audioChannelCount: Int = 0
     private var audioCodecConfig: ByteArray? = null
     private var firstFrameRendered = false
+    // Server capabilities from the previous connection to the same URI
+    @Volatile private var serverCapabilities = RtspClient.RTSP_CAPABILITY_NONE
 
     /**
      * Show more debug info on console on runtime.
      */
     var debug = false
 
+    /**
+     * Read RTSP/RTP data via NIO SocketChannel instead of socket streams.
+     * Used for plain "rtsp://" only, "rtsps://" always uses SSL socket.
+     */
+    var socketChannel = false
+
+    /**
+     * RTP transport, [RtspClient.TRANSPORT_TCP], [RtspClient.TRANSPORT_UDP] or
+     * [RtspClient.TRANSPORT_UDP_MULTICAST].
+     * UDP falls back to TCP if the server or network does not support it.
+     */
+    var transport = RtspClient.TRANSPORT_TCP
+
+    /**
+     * Max time in msec to wait for lost or reordered UDP packets.
+     */
+    var jitterBufferDelay = 50
+
+    /**
+     * Link quality metrics, e.g. RTCP statistics. Called on RTSP or UDP receiver thread.
+     */
+    var metricsListener: RtspClient.RtspMetricsListener? = null
+
+    /**
+     * Pipeline RTSP requests while connecting to reduce time to the first frame.
+     * Reconnects to the same URI skip OPTIONS request.
+     */
+    var fastConnect = false
+
+    /**
+     * Server profiles kept between connections to reconnect without OPTIONS and DESCRIBE requests.
+     */
+    var sessionCache: RtspSessionCache? = null
+
+    /**
+     * Socket options of RTSP connection, e.g. [SocketProfile.LOW_LATENCY].
+     */
+    var socketProfile: SocketProfile = SocketProfile.DEFAULT
+
     /**
      * Video rotation in degrees. Allowed values: 0, 90, 180, 270.
      * Note that not all hardware video decoders support rotation.
@@ -88,15 +140,20 @@ open class RtspSurfaceView: SurfaceView {
                 when (sdpInfo.audioTrack?.audioCodec) {
                     RtspClient.AUDIO_CODEC_AAC -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_AAC
                     RtspClient.AUDIO_CODEC_OPUS -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_OPUS
+                    RtspClient.AUDIO_CODEC_PCMA -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_G711_ALAW
+                    RtspClient.AUDIO_CODEC_PCMU -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_G711_MLAW
+                    RtspClient.AUDIO_CODEC_L16 -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_RAW
                 }
+                val vps: ByteArray = sdpInfo.videoTrack?.vps ?: ByteArray(0) // H.265 only
                 val sps: ByteArray? = sdpInfo.videoTrack?.sps
                 val pps: ByteArray? = sdpInfo.videoTrack?.pps
                 // Initialize decoder
                 if (sps != null && pps != null) {
-                    val data = ByteArray(sps.size + pps.size)
-                    sps.copyInto(data, 0, 0, sps.size)
-                    pps.copyInto(data, sps.size, 0, pps.size)
-                    videoFrameQueue.push(FrameQueue.Frame(data, 0, data.size, 0))
+                    val data = ByteArray(vps.size + sps.size + pps.size)
+                    vps.copyInto(data, 0, 0, vps.size)
+                    sps.copyInto(data, vps.size, 0, sps.size)
+                    pps.copyInto(data, vps.size + sps.size, 0, pps.size)
+                    videoFrameQueue.push(FrameQueue.Frame(data, 0, data.size, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG))
                 } else {
                     if (DEBUG) Log.d(TAG, "RTSP SPS and PPS NAL units missed in SDP")
                 }
@@ -106,6 +163,9 @@ open class RtspSurfaceView: SurfaceView {
                 when (sdpInfo.audioTrack?.audioCodec) {
                     RtspClient.AUDIO_CODEC_AAC -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_AAC
                     RtspClient.AUDIO_CODEC_OPUS -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_OPUS
+                    RtspClient.AUDIO_CODEC_PCMA -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_G711_ALAW
+                    RtspClient.AUDIO_CODEC_PCMU -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_G711_MLAW
+                    RtspClient.AUDIO_CODEC_L16 -> audioMimeType = MediaFormat.MIMETYPE_AUDIO_RAW
                 }
                 audioSampleRate = sdpInfo.audioTrack?.sampleRateHz!!
                 audioChannelCount = sdpInfo.audioTrack?.channels!!
@@ -121,6 +181,11 @@ open class RtspSurfaceView: SurfaceView {
             if (length > 0) videoFrameQueue.push(FrameQueue.Frame(data, offset, length, timestamp))
         }
 
+        // One decoder input buffer per frame, flags values are the same as MediaCodec ones
+        override fun onRtspVideoAccessUnitReceived(data: ByteArray, offset: Int, length: Int, timestamp: Long, flags: Int) {
+            if (length > 0) videoFrameQueue.push(FrameQueue.Frame(data, offset, length, timestamp, flags))
+        }
+
         override fun onRtspAudioSampleReceived(data: ByteArray, offset: Int, length: Int, timestamp: Long) {
             if (length > 0) audioFrameQueue.push(FrameQueue.Frame(data, offset, length, timestamp))
         }
@@ -218,6 +283,8 @@ open class RtspSurfaceView: SurfaceView {
 
     fun init(uri: Uri, username: String?, password: String?, userAgent: String?) {
         if (DEBUG) Log.v(TAG, "init(uri='$uri', username=$username, password=$password, userAgent='$userAgent')")
+        if (!this::uri.isInitialized || this.uri != uri)
+            serverCapabilities = RtspClient.RTSP_CAPABILITY_NONE
         this.uri = uri
         this.username = username
         this.password = password
@@ -257,27 +324,58 @@ open class RtspSurfaceView: SurfaceView {
         override fun run() {
             onRtspClientStarted()
             val port = if (uri.port == -1) DEFAULT_RTSP_PORT else uri.port
+            // Wi-Fi drops multicast packets to save power unless the lock is held
+            var multicastLock: WifiManager.MulticastLock? = null
             try {
+                if (transport == RtspClient.TRANSPORT_UDP_MULTICAST) {
+                    val wifiManager = context.applicationContext.getSystemService(Context.WIFI_SERVICE) as WifiManager?
+                    multicastLock = wifiManager?.createMulticastLock("RTSP multicast [${getUriName()}]")
+                    multicastLock?.setReferenceCounted(false)
+                    multicastLock?.acquire()
+                }
+
                 if (DEBUG) Log.d(TAG, "Connecting to ${uri.host.toString()}:$port...")
 
-                val socket: Socket = if (uri.scheme?.lowercase() == "rtsps")
-                    NetUtils.createSslSocketAndConnect(uri.host.toString(), port, 5000)
-                else
-                    NetUtils.createSocketAndConnect(uri.host.toString(), port, 5000)
+                val rtsps = uri.scheme?.lowercase() == "rtsps"
+                val socket: Socket
+                val builder = if (socketChannel && !rtsps) {
+                    val channel = NetUtils.createSocketChannelAndConnect(uri.host.toString(), port, 5000, socketProfile)
+                    socket = channel.socket()
+                    RtspClient.Builder(channel, uri.toString(), rtspStopped, proxyClientListener)
+                } else {
+                    socket = if (rtsps)
+                        NetUtils.createSslSocketAndConnect(uri.host.toString(), port, 5000, socketProfile) { durationMs, resumed ->
+                            metricsListener?.onRtspTlsHandshake(durationMs, resumed)
+                        }
+                    else
+                        NetUtils.createSocketAndConnect(uri.host.toString(), port, 5000, socketProfile)
+                    RtspClient.Builder(socket, uri.toString(), rtspStopped, proxyClientListener)
+                }
 
                 // Blocking call until stopped variable is true or connection failed
-                val rtspClient = RtspClient.Builder(socket, uri.toString(), rtspStopped, proxyClientListener)
+                val rtspClient = builder
                     .requestVideo(requestVideo)
                     .requestAudio(requestAudio)
+                    .withTransport(transport)
+                    .withJitterBufferDelay(jitterBufferDelay)
+                    .withMetricsListener(metricsListener)
+                    .withFastConnect(fastConnect)
+                    .withKnownCapabilities(serverCapabilities)
+                    .withSessionCache(sessionCache)
+                    .withSocketProfile(socketProfile)
+                    .withBufferPool(bufferPool)
                     .withDebug(debug)
                     .withUserAgent(userAgent)
                     .withCredentials(username, password)
                     .build()
                 rtspClient.execute()
+                serverCapabilities = rtspClient.serverCapabilities
 
                 NetUtils.closeSocket(socket)
             } catch (e: Exception) {
                 e.printStackTrace()
+            } finally {
+                multicastLock?.release()
             }
             onRtspClientStopped()
         }
@@ -295,20 +393,30 @@ open class RtspSurfaceView: SurfaceView {
 
     private fun onRtspClientConnected() {
         if (DEBUG) Log.v(TAG, "onRtspClientConnected()")
+        // Video is synchronized to audio playback if both tracks present
+        val presentationClock = if (videoMimeType.isNotEmpty() && audioMimeType.isNotEmpty()) PresentationClock() else null
         if (videoMimeType.isNotEmpty()) {
             firstFrameRendered = false
             Log.i(TAG, "Starting video decoder with mime type \"$videoMimeType\"")
             videoDecodeThread = VideoDecodeThread(
-                holder.surface, videoMimeType, surfaceWidth, surfaceHeight, videoRotation, videoFrameQueue, videoDecoderListener)
+                holder.surface, videoMimeType, surfaceWidth, surfaceHeight, videoRotation, videoFrameQueue, videoDecoderListener, presentationClock)
             videoDecodeThread!!.apply {
                 name = "RTSP video thread [${getUriName()}]"
                 start()
             }
         }
-        if (audioMimeType.isNotEmpty() /*&& checkAudio!!.isChecked*/) {
+        if (isPcmAudio(audioMimeType)) {
+            Log.i(TAG, "Starting PCM audio with mime type \"$audioMimeType\"")
+            pcmAudioThread = PcmAudioThread(
+                audioMimeType, audioSampleRate, audioChannelCount, audioFrameQueue, presentationClock)
+            pcmAudioThread!!.apply {
+                name = "RTSP audio thread [${getUriName()}]"
+                start()
+            }
+        } else if (audioMimeType.isNotEmpty() /*&& checkAudio!!.isChecked*/) {
             Log.i(TAG, "Starting audio decoder with mime type \"$audioMimeType\"")
             audioDecodeThread = AudioDecodeThread(
-                audioMimeType, audioSampleRate, audioChannelCount, audioCodecConfig, audioFrameQueue)
+                audioMimeType, audioSampleRate, audioChannelCount, audioCodecConfig, audioFrameQueue, presentationClock)
             audioDecodeThread!!.apply {
                 name = "RTSP audio thread [${getUriName()}]"
                 start()
@@ -329,6 +437,14 @@ open class RtspSurfaceView: SurfaceView {
         videoDecodeThread = null
         audioDecodeThread?.stopAsync()
         audioDecodeThread = null
+        pcmAudioThread?.stopAsync()
+        pcmAudioThread = null
+    }
+
+    private fun isPcmAudio(mimeType: String): Boolean {
+        return mimeType == MediaFormat.MIMETYPE_AUDIO_G711_ALAW ||
+                mimeType == MediaFormat.MIMETYPE_AUDIO_G711_MLAW ||
+                mimeType == MediaFormat.MIMETYPE_AUDIO_RAW
     }
 
     private fun getUriName(): String {
@@ -0,0 +1,105 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+// Real android.util.Pair needed
+@RunWith(RobolectricTestRunner.class)
+public class DigestAuthenticatorTest {
+
+    // RFC 2617 3.5 example
+    private static final String CHALLENGE_RFC2617 =
+            "Digest realm=\"testrealm@host.com\", qop=\"auth,auth-int\", nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\", opaque=\"5ccc069c403ebaf9f0171e9517f40e41\"";
+
+    private static ArrayList<Pair<String, String>> getHeaders(@NonNull String challenge) {
+        ArrayList<Pair<String, String>> headers = new ArrayList<>();
+        headers.add(Pair.create("CSeq", "2"));
+        headers.add(Pair.create("WWW-Authenticate", "Basic realm=\"testrealm@host.com\""));
+        headers.add(Pair.create("WWW-Authenticate", challenge));
+        return headers;
+    }
+
+    @NonNull
+    private static DigestAuthenticator getRfc2617Authenticator() {
+        DigestAuthenticator authenticator = DigestAuthenticator.fromChallenge("Mufasa", "Circle Of Life", getHeaders(CHALLENGE_RFC2617));
+        assertNotNull(authenticator);
+        authenticator.setCnonce("0a4f113b");
+        return authenticator;
+    }
+
+    @Test
+    public void rfc2617_response() {
+        String header = getRfc2617Authenticator().getAuthHeader("GET", "/dir/index.html");
+        assertEquals(
+                "Digest username=\"Mufasa\", realm=\"testrealm@host.com\", nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\", " +
+                "uri=\"/dir/index.html\", response=\"6629fae49393a05397450978507c4ef1\", " +
+                "qop=auth, nc=00000001, cnonce=\"0a4f113b\", opaque=\"5ccc069c403ebaf9f0171e9517f40e41\"",
+                header);
+    }
+
+    @Test
+    public void nonceCount_incremented() {
+        DigestAuthenticator authenticator = getRfc2617Authenticator();
+        assertTrue(authenticator.getAuthHeader("DESCRIBE", "rtsp://host/").contains("nc=00000001"));
+        String header = authenticator.getAuthHeader("SETUP", "rtsp://host/trackID=1");
+        assertTrue(header.contains("nc=00000002"));
+        assertTrue(header.contains("opaque=\"5ccc069c403ebaf9f0171e9517f40e41\""));
+    }
+
+    @Test
+    public void noQop_noNonceCount() {
+        DigestAuthenticator authenticator = DigestAuthenticator.fromChallenge("admin", "admin",
+                getHeaders("Digest realm=\"AXIS_00408CEF081C\", nonce=\"00054cecY7165349339ae05f7017797d6b0aaad38f6ff45\", stale=FALSE"));
+        assertNotNull(authenticator);
+        String header = authenticator.getAuthHeader("OPTIONS", "rtsp://host/");
+        assertFalse(header.contains("qop="));
+        assertFalse(header.contains("nc="));
+        assertFalse(header.contains("opaque="));
+    }
+
+    @Test
+    public void staleNonce_updated() {
+        DigestAuthenticator authenticator = getRfc2617Authenticator();
+        authenticator.getAuthHeader("PLAY", "rtsp://host/");
+        authenticator.getAuthHeader("GET_PARAMETER", "rtsp://host/");
+
+        // Not stale, credentials rejected
+        assertFalse(authenticator.updateChallenge(getHeaders(
+                "Digest realm=\"testrealm@host.com\", qop=\"auth\", nonce=\"0000\", opaque=\"5ccc069c403ebaf9f0171e9517f40e41\"")));
+        assertEquals("dcd98b7102dd2f0e8b11d0f600bfb0c093", authenticator.getNonce());
+
+        assertTrue(authenticator.updateChallenge(getHeaders(
+                "Digest realm=\"testrealm@host.com\", qop=\"auth\", nonce=\"1111\", opaque=\"abcd\", stale=true")));
+        assertEquals("1111", authenticator.getNonce());
+        String header = authenticator.getAuthHeader("GET_PARAMETER", "rtsp://host/");
+        assertTrue(header.contains("nonce=\"1111\""));
+        // Nonce count restarted for the new nonce
+        assertTrue(header.contains("nc=00000001"));
+        assertTrue(header.contains("opaque=\"abcd\""));
+    }
+
+    @Test
+    public void challenge_restored() {
+        DigestAuthenticator authenticator = getRfc2617Authenticator();
+        String challenge = authenticator.getChallenge();
+
+        // As stored in session cache and used on reconnect
+        DigestAuthenticator restored = DigestAuthenticator.fromChallenge("Mufasa", "Circle Of Life", challenge);
+        assertNotNull(restored);
+        restored.setCnonce("0a4f113b");
+        assertEquals(
+                authenticator.getAuthHeader("GET", "/dir/index.html"),
+                restored.getAuthHeader("GET", "/dir/index.html"));
+        assertNull(DigestAuthenticator.fromChallenge("Mufasa", "Circle Of Life", "Basic realm=\"testrealm@host.com\""));
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtcpParser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RtcpSessionTest {
+
+    private static final long VIDEO_SSRC = 0x11111111L;
+    private static final long AUDIO_SSRC = 0x22222222L;
+    // Randomized interval is at most 1.5 of 5 seconds
+    private static final long MAX_REPORT_INTERVAL_MS = 7500;
+
+    private final ArrayList<Integer> sentChannels = new ArrayList<>();
+    private final ArrayList<byte[]> sentPackets = new ArrayList<>();
+    private RtpClockSync clockSync;
+    private RtcpSession rtcpSession;
+
+    @Before
+    public void setUp() {
+        RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+        sdpInfo.videoTrack = new RtspClient.VideoTrack();
+        sdpInfo.audioTrack = new RtspClient.AudioTrack();
+        sdpInfo.audioTrack.sampleRateHz = 16000;
+        clockSync = new RtpClockSync(sdpInfo);
+        rtcpSession = new RtcpSession(clockSync, null);
+        rtcpSession.setSender((channel, data, offset, length) -> {
+            assertTrue(offset >= RtcpSession.SEND_HEADROOM);
+            sentChannels.add(channel);
+            sentPackets.add(Arrays.copyOfRange(data, offset, offset + length));
+        });
+    }
+
+    @NonNull
+    private static byte[] getRtpPacket(long ssrc, int sequence, long timestamp) {
+        byte[] packet = new byte[20];
+        packet[0] = (byte) 0x80;
+        packet[1] = 96;
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        writeUint32(packet, 4, timestamp);
+        writeUint32(packet, 8, ssrc);
+        return packet;
+    }
+
+    @NonNull
+    private static byte[] getSenderReport(long ssrc, long ntpTimestamp, long rtpTimestamp) {
+        byte[] sr = new byte[28];
+        sr[0] = (byte) 0x80;
+        sr[1] = (byte) RtcpParser.RTCP_PACKET_TYPE_SR;
+        sr[3] = 6;
+        writeUint32(sr, 4, ssrc);
+        writeUint32(sr, 8, ntpTimestamp >>> 32);
+        writeUint32(sr, 12, ntpTimestamp);
+        writeUint32(sr, 16, rtpTimestamp);
+        return sr;
+    }
+
+    private void onRtpPacket(int channel, long ssrc, int sequence, long nowMs) {
+        byte[] packet = getRtpPacket(ssrc, sequence, 0);
+        rtcpSession.onRtpPacket(channel, packet, 0, packet.length, nowMs);
+    }
+
+    @Test
+    public void receiverReports_sentPerTrack() {
+        // Nothing to report before any RTP packet
+        rtcpSession.sendReportsIfNeeded(MAX_REPORT_INTERVAL_MS);
+        assertTrue(sentPackets.isEmpty());
+
+        for (int i = 0; i < 10; i++) {
+            if (i != 3)
+                onRtpPacket(0, VIDEO_SSRC, 100 + i, 1000 + i);
+            onRtpPacket(2, AUDIO_SSRC, 500 + i, 1000 + i);
+        }
+        rtcpSession.sendReportsIfNeeded(1000);
+        assertTrue(sentPackets.isEmpty());
+
+        rtcpSession.sendReportsIfNeeded(1000 + MAX_REPORT_INTERVAL_MS);
+        assertEquals(Arrays.asList(1, 3), sentChannels);
+
+        // RR of video, lost one packet
+        byte[] rr = sentPackets.get(0);
+        assertEquals(RtcpParser.RTCP_PACKET_TYPE_RR, rr[1] & 0xFF);
+        assertEquals(1, rr[0] & 0x1F);
+        assertEquals(VIDEO_SSRC, readUint32(rr, 8));
+        assertEquals(1, readUint32(rr, 12) & 0xFFFFFF);
+        assertEquals(109, readUint32(rr, 16));
+        // RR of audio
+        rr = sentPackets.get(1);
+        assertEquals(AUDIO_SSRC, readUint32(rr, 8));
+        assertEquals(0, readUint32(rr, 12) & 0xFFFFFF);
+        assertEquals(509, readUint32(rr, 16));
+
+        // Not sent again till the next interval
+        rtcpSession.sendReportsIfNeeded(1000 + MAX_REPORT_INTERVAL_MS + 1);
+        assertEquals(2, sentPackets.size());
+    }
+
+    @Test
+    public void senderReport_usedInReceiverReport() {
+        onRtpPacket(0, VIDEO_SSRC, 100, 1000);
+        byte[] sr = getSenderReport(VIDEO_SSRC, 0xE8A1B2C3_40000000L, 90000);
+        rtcpSession.processRtcpPacket(1, sr, 0, sr.length, 2000);
+        // SR of unknown source is ignored for LSR, still passed to clock sync
+        sr = getSenderReport(0x33333333L, 0xE8A1B2C3_80000000L, 16000);
+        rtcpSession.processRtcpPacket(3, sr, 0, sr.length, 2000);
+        assertTrue(clockSync.isSynced());
+
+        rtcpSession.sendReportsIfNeeded(1000 + MAX_REPORT_INTERVAL_MS);
+        assertEquals(1, sentPackets.size());
+        byte[] rr = sentPackets.get(0);
+        // Middle 32 bits of NTP timestamp
+        assertEquals(0xB2C34000L, readUint32(rr, 24));
+        // Delay since SR in units of 1/65536 seconds
+        assertEquals((MAX_REPORT_INTERVAL_MS - 1000) * 65536 / 1000, readUint32(rr, 28));
+    }
+
+    @Test
+    public void newSource_restartsStatistics() {
+        onRtpPacket(0, VIDEO_SSRC, 100, 1000);
+        onRtpPacket(0, VIDEO_SSRC, 105, 1001);
+        onRtpPacket(0, 0x44444444L, 7, 1002);
+        rtcpSession.sendReportsIfNeeded(1000 + MAX_REPORT_INTERVAL_MS);
+        byte[] rr = sentPackets.get(0);
+        assertEquals(0x44444444L, readUint32(rr, 8));
+        assertEquals(0, readUint32(rr, 12) & 0xFFFFFF);
+        assertEquals(7, readUint32(rr, 16));
+    }
+
+    @Test
+    public void invalidPackets_ignored() {
+        byte[] packet = getRtpPacket(VIDEO_SSRC, 100, 0);
+        // Shorter than RTP header
+        rtcpSession.onRtpPacket(0, packet, 0, 11, 1000);
+        // Channel of unknown track
+        rtcpSession.onRtpPacket(4, packet, 0, packet.length, 1000);
+        rtcpSession.sendReportsIfNeeded(1000 + MAX_REPORT_INTERVAL_MS);
+        assertTrue(sentPackets.isEmpty());
+
+        byte[] sr = getSenderReport(VIDEO_SSRC, 0xE8A1B2C3_40000000L, 90000);
+        rtcpSession.processRtcpPacket(5, sr, 0, sr.length, 2000);
+        // Truncated
+        rtcpSession.processRtcpPacket(1, sr, 0, sr.length - 4, 2000);
+        assertFalse(clockSync.isSynced());
+    }
+
+    private static long readUint32(@NonNull byte[] data, int offset) {
+        return ((long) (data[offset] & 0xFF) << 24) |
+                ((data[offset + 1] & 0xFF) << 16) |
+                ((data[offset + 2] & 0xFF) << 8) |
+                (data[offset + 3] & 0xFF);
+    }
+
+    private static void writeUint32(@NonNull byte[] data, int offset, long value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+}
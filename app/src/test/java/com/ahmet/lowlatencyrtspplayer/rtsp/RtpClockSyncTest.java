@@ -0,0 +1,111 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RtpClockSyncTest {
+
+    private static final int VIDEO = RtpClockSync.TRACK_VIDEO;
+    private static final int AUDIO = RtpClockSync.TRACK_AUDIO;
+    private static final int AUDIO_CLOCK_RATE = 16000;
+    // 2024-01-01 in NTP seconds
+    private static final long NTP_SECONDS = 3913056000L;
+
+    @NonNull
+    private static RtpClockSync getClockSync(boolean audio) {
+        RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+        sdpInfo.videoTrack = new RtspClient.VideoTrack();
+        if (audio) {
+            sdpInfo.audioTrack = new RtspClient.AudioTrack();
+            sdpInfo.audioTrack.sampleRateHz = AUDIO_CLOCK_RATE;
+        }
+        return new RtpClockSync(sdpInfo);
+    }
+
+    // NTP timestamp of the time in usec since NTP_SECONDS
+    private static long getNtpTimestamp(long timeUs) {
+        long seconds = NTP_SECONDS + timeUs / 1000000;
+        long fraction = ((timeUs % 1000000) << 32) / 1000000;
+        return (seconds << 32) | fraction;
+    }
+
+    @Test
+    public void beforeSenderReport_arrivalTimeUsed() {
+        RtpClockSync clockSync = getClockSync(true);
+        assertEquals(90000, clockSync.getClockRate(VIDEO));
+        assertEquals(AUDIO_CLOCK_RATE, clockSync.getClockRate(AUDIO));
+
+        assertEquals(0, clockSync.getPresentationTimeUs(VIDEO, 90000, 1000));
+        // RTP clock used after the first packet, arrival jitter ignored
+        assertEquals(500000, clockSync.getPresentationTimeUs(VIDEO, 90000 + 45000, 1234));
+        // Audio anchored to its own arrival time
+        assertEquals(100000, clockSync.getPresentationTimeUs(AUDIO, 8000, 1100));
+        assertEquals(600000, clockSync.getPresentationTimeUs(AUDIO, 8000 + 8000, 1100));
+
+        // Not all tracks reported yet
+        clockSync.onSenderReport(VIDEO, getNtpTimestamp(0), 90000);
+        assertFalse(clockSync.isSynced());
+        assertEquals(500000, clockSync.getPresentationTimeUs(VIDEO, 90000 + 45000, 1234));
+    }
+
+    @Test
+    public void senderReports_tracksAligned() {
+        RtpClockSync clockSync = getClockSync(true);
+        // Random RTP offsets of each track related via NTP time
+        clockSync.onSenderReport(VIDEO, getNtpTimestamp(0), 1000);
+        clockSync.onSenderReport(AUDIO, getNtpTimestamp(500000), 5000);
+        assertTrue(clockSync.isSynced());
+
+        // All three sampled 1 second after the video SR
+        assertEquals(0, clockSync.getPresentationTimeUs(VIDEO, 1000 + 90000, 5000));
+        assertEquals(0, clockSync.getPresentationTimeUs(AUDIO, 5000 + 8000, 3000));
+        assertEquals(100000, clockSync.getPresentationTimeUs(VIDEO, 1000 + 99000, 9000));
+        assertEquals(-250000, clockSync.getPresentationTimeUs(AUDIO, 5000 + 4000, 9000));
+    }
+
+    @Test
+    public void senderReports_outputContinuous() {
+        RtpClockSync clockSync = getClockSync(true);
+        assertEquals(0, clockSync.getPresentationTimeUs(VIDEO, 0, 1000));
+        assertEquals(100000, clockSync.getPresentationTimeUs(VIDEO, 9000, 1100));
+
+        // Synced by the audio SR before any audio packet
+        clockSync.onSenderReport(VIDEO, getNtpTimestamp(0), 9000);
+        clockSync.onSenderReport(AUDIO, getNtpTimestamp(250000), 4000);
+        assertTrue(clockSync.isSynced());
+
+        assertEquals(200000, clockSync.getPresentationTimeUs(VIDEO, 18000, 1500));
+        // Audio sampled at the same time
+        assertEquals(200000, clockSync.getPresentationTimeUs(AUDIO, 1600, 1500));
+    }
+
+    @Test
+    public void senderReport_driftCompensated() {
+        RtpClockSync clockSync = getClockSync(false);
+        clockSync.onSenderReport(VIDEO, getNtpTimestamp(0), 0);
+        assertTrue(clockSync.isSynced());
+        assertEquals(0, clockSync.getPresentationTimeUs(VIDEO, 0, 0));
+        assertEquals(10000000, clockSync.getPresentationTimeUs(VIDEO, 900000, 0));
+        // Server RTP clock is 5% slow, the next SR moves the reference
+        clockSync.onSenderReport(VIDEO, getNtpTimestamp(10500000), 900000);
+        assertEquals(10500000, clockSync.getPresentationTimeUs(VIDEO, 900000, 0));
+        assertEquals(11500000, clockSync.getPresentationTimeUs(VIDEO, 990000, 0));
+    }
+
+    @Test
+    public void rtpTimestampWraparound() {
+        RtpClockSync clockSync = getClockSync(false);
+        assertEquals(0, clockSync.getPresentationTimeUs(VIDEO, 0xFFFFFF00L, 1000));
+        assertEquals(512 * 1000000L / 90000, clockSync.getPresentationTimeUs(VIDEO, 0x100L, 1000));
+
+        clockSync.onSenderReport(VIDEO, getNtpTimestamp(0), 0xFFFFF000L);
+        long timeUs = clockSync.getPresentationTimeUs(VIDEO, 0xFFFFF000L, 1000);
+        assertEquals(0x2000 * 1000000L / 90000, clockSync.getPresentationTimeUs(VIDEO, 0x1000L, 1000) - timeUs);
+        // Reordered packet before the wrap
+        assertEquals(-1000000L / 90000, clockSync.getPresentationTimeUs(VIDEO, 0xFFFFEFFFL, 1000) - timeUs);
+    }
+
+}
@@ -0,0 +1,303 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.InterleavedFrameReader;
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpJitterBuffer;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReadAheadBuffer;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * RTP packet hot path should not allocate anything per packet in steady state.
+ */
+public class RtpPacketAllocationTest {
+
+    private static final int PACKET_SIZE = 1400;
+    private static final int PACKETS_WARMUP = 200000;
+    private static final int PACKETS = 100000;
+    private static final int FRAGMENTS_PER_NAL_UNIT = 40;
+    private static final int AAC_ACCESS_UNITS_PER_PACKET = 4;
+
+    private interface Block {
+        void run() throws Exception;
+    }
+
+    // Endless stream of interleaved RTP packets with increasing sequence numbers.
+    // Sets exit flag once the packet limit is reached, as stop() does for RtspClient.
+    private static class InterleavedRtpStream extends InputStream {
+        private final byte[] frame = new byte[4 + PACKET_SIZE];
+        private final AtomicBoolean exitFlag;
+        private int position = 0;
+        private int sequence = 0;
+        private int limit = 0;
+
+        InterleavedRtpStream(@NonNull AtomicBoolean exitFlag) {
+            this.exitFlag = exitFlag;
+            frame[0] = '$';
+            frame[1] = 0;
+            frame[2] = (byte) (PACKET_SIZE >> 8);
+            frame[3] = (byte) PACKET_SIZE;
+            frame[4] = (byte) 0x80;
+            frame[5] = 33; // Payload type not used by any track
+            frame[12] = 0x12;
+            frame[13] = 0x34;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            read(b, 0, 1);
+            return b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (position == 0) {
+                if (++sequence >= limit)
+                    exitFlag.set(true);
+                frame[6] = (byte) (sequence >> 8);
+                frame[7] = (byte) sequence;
+                frame[11] = (byte) sequence;
+            }
+            int size = Math.min(len, frame.length - position);
+            System.arraycopy(frame, position, b, off, size);
+            position = (position + size) % frame.length;
+            return size;
+        }
+
+        void addPackets(int count) {
+            limit = sequence + count;
+            exitFlag.set(false);
+        }
+    }
+
+    private static final RtspClient.RtspClientListener EMPTY_LISTENER = new RtspClient.RtspClientListener() {
+        @Override public void onRtspConnecting() {}
+        @Override public void onRtspConnected(@NonNull RtspClient.SdpInfo sdpInfo) {}
+        @Override public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp) {}
+        @Override public void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestamp) {}
+        @Override public void onRtspDisconnecting() {}
+        @Override public void onRtspDisconnected() {}
+        @Override public void onRtspFailedUnauthorized() {}
+        @Override public void onRtspFailed(@Nullable String message) {}
+    };
+
+    // Consumer releasing NAL units and audio samples, as decoder does after copying them into codec input buffer
+    private static class ReleasingListener implements RtspClient.RtspClientListener {
+        private final ByteArrayPool pool;
+        int nalUnits = 0;
+        int lastLength = 0;
+        int audioSamples = 0;
+
+        ReleasingListener(@NonNull ByteArrayPool pool) {
+            this.pool = pool;
+        }
+
+        @Override public void onRtspConnecting() {}
+        @Override public void onRtspConnected(@NonNull RtspClient.SdpInfo sdpInfo) {}
+        @Override public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp) {
+            nalUnits++;
+            lastLength = length;
+            pool.release(data);
+        }
+        @Override public void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestamp) {
+            audioSamples++;
+            pool.release(data);
+        }
+        @Override public void onRtspDisconnecting() {}
+        @Override public void onRtspDisconnected() {}
+        @Override public void onRtspFailedUnauthorized() {}
+        @Override public void onRtspFailed(@Nullable String message) {}
+    }
+
+    private static final RtpJitterBuffer.RtpJitterBufferListener EMPTY_JITTER_LISTENER = new RtpJitterBuffer.RtpJitterBufferListener() {
+        @Override public void onRtpPacketReady(@NonNull byte[] data, int offset, int length) {}
+        @Override public void onRtpPacketsLost(int sequenceNumber, int count) {}
+    };
+
+    @Test
+    public void readRtpPackets_noAllocations() {
+        RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+        RtpPacketProcessor packetProcessor = new RtpPacketProcessor(sdpInfo, EMPTY_LISTENER, new ByteArrayPool());
+        RtcpSession rtcpSession = new RtcpSession(packetProcessor.getClockSync(), null);
+        AtomicBoolean exitFlag = new AtomicBoolean(false);
+        InterleavedRtpStream stream = new InterleavedRtpStream(exitFlag);
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(new ReadAheadBuffer(stream));
+        Socket socket = new Socket();
+        RtspClient.RtspClientKeepAliveListener keepAliveListener = () -> {};
+
+        Block readPackets = () -> RtspClient.readRtpData(
+                frameReader, packetProcessor, rtcpSession, exitFlag, 0, keepAliveListener, socket, null, null, 0);
+        assertNoAllocations(
+                () -> {
+                    stream.addPackets(PACKETS_WARMUP);
+                    readPackets.run();
+                },
+                () -> {
+                    stream.addPackets(PACKETS);
+                    readPackets.run();
+                });
+    }
+
+    @Test
+    public void jitterBuffer_noAllocations() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, 50, EMPTY_JITTER_LISTENER);
+        byte[] packet = new byte[12 + PACKET_SIZE];
+        packet[0] = (byte) 0x80;
+        packet[1] = 96;
+        assertNoAllocations(
+                () -> {
+                    for (int i = 0; i < PACKETS_WARMUP; i++)
+                        pushPacket(jitterBuffer, packet, i);
+                },
+                () -> {
+                    for (int i = PACKETS_WARMUP; i < PACKETS_WARMUP + PACKETS; i++)
+                        pushPacket(jitterBuffer, packet, i);
+                });
+    }
+
+    @Test
+    public void fuaReassembly_noAllocations() {
+        RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+        sdpInfo.videoTrack = new RtspClient.VideoTrack();
+        sdpInfo.videoTrack.payloadType = 96;
+        ByteArrayPool pool = new ByteArrayPool();
+        ReleasingListener listener = new ReleasingListener(pool);
+        RtpPacketProcessor packetProcessor = new RtpPacketProcessor(sdpInfo, listener, pool);
+
+        // Non-IDR slice fragmented into FU-A packets
+        byte[][] packets = new byte[FRAGMENTS_PER_NAL_UNIT][12 + PACKET_SIZE];
+        for (int i = 0; i < FRAGMENTS_PER_NAL_UNIT; i++) {
+            byte[] packet = packets[i];
+            packet[0] = (byte) 0x80;
+            packet[1] = (byte) (96 | (i == FRAGMENTS_PER_NAL_UNIT - 1 ? 0x80 : 0));
+            packet[12] = 0x41 & 0xE0 | 28; // FU indicator
+            packet[13] = (byte) ((i == 0 ? 0x80 : 0) | (i == FRAGMENTS_PER_NAL_UNIT - 1 ? 0x40 : 0) | 1); // FU header
+        }
+
+        long[] poolAllocations = { 0 };
+        int[] nalUnits = { 0 };
+        assertNoAllocations(
+                () -> {
+                    for (int i = 0; i < PACKETS_WARMUP; i++)
+                        processFragment(packetProcessor, packets, i);
+                    assertEquals(4 + 1 + FRAGMENTS_PER_NAL_UNIT * (PACKET_SIZE - 2), listener.lastLength);
+                    poolAllocations[0] = pool.getAllocationCount();
+                    nalUnits[0] = listener.nalUnits;
+                },
+                () -> {
+                    for (int i = PACKETS_WARMUP; i < PACKETS_WARMUP + PACKETS; i++)
+                        processFragment(packetProcessor, packets, i);
+                });
+
+        assertEquals(nalUnits[0] + PACKETS / FRAGMENTS_PER_NAL_UNIT, listener.nalUnits);
+        assertEquals("Pool allocations", poolAllocations[0], pool.getAllocationCount());
+        assertEquals(0, packetProcessor.getDroppedNalUnitCount());
+    }
+
+    @Test
+    public void aacMultipleAccessUnits_noAllocations() {
+        RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+        sdpInfo.audioTrack = new RtspClient.AudioTrack();
+        sdpInfo.audioTrack.payloadType = 97;
+        sdpInfo.audioTrack.audioCodec = RtspClient.AUDIO_CODEC_AAC;
+        sdpInfo.audioTrack.mode = "AAC-hbr";
+        sdpInfo.audioTrack.sampleRateHz = 16000;
+        ByteArrayPool pool = new ByteArrayPool();
+        ReleasingListener listener = new ReleasingListener(pool);
+        RtpPacketProcessor packetProcessor = new RtpPacketProcessor(sdpInfo, listener, pool);
+
+        // AAC-hbr packet with 4 AUs of 300 bytes, as NVRs send
+        byte[] packet = new byte[12 + 2 + AAC_ACCESS_UNITS_PER_PACKET * (2 + 300)];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) (97 | 0x80);
+        packet[13] = AAC_ACCESS_UNITS_PER_PACKET * 16;
+        for (int i = 0; i < AAC_ACCESS_UNITS_PER_PACKET; i++) {
+            packet[14 + i * 2] = (byte) ((300 << 3) >> 8);
+            packet[15 + i * 2] = (byte) (300 << 3);
+        }
+
+        long[] poolAllocations = { 0 };
+        int[] audioSamples = { 0 };
+        assertNoAllocations(
+                () -> {
+                    for (int i = 0; i < PACKETS_WARMUP; i++)
+                        processAacPacket(packetProcessor, packet, i);
+                    poolAllocations[0] = pool.getAllocationCount();
+                    audioSamples[0] = listener.audioSamples;
+                },
+                () -> {
+                    for (int i = PACKETS_WARMUP; i < PACKETS_WARMUP + PACKETS; i++)
+                        processAacPacket(packetProcessor, packet, i);
+                });
+
+        assertEquals(audioSamples[0] + PACKETS * AAC_ACCESS_UNITS_PER_PACKET, listener.audioSamples);
+        assertEquals("Pool allocations", poolAllocations[0], pool.getAllocationCount());
+    }
+
+    /**
+     * Runs warmup, which fills buffers and lets JIT compile the path, then checks that measured
+     * block allocates nothing on the current thread. Skipped if the JVM cannot count allocations.
+     */
+    private static void assertNoAllocations(@NonNull Block warmup, @NonNull Block measured) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Thread allocation counter not available",
+                bean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        try {
+            warmup.run();
+
+            long threadId = Thread.currentThread().getId();
+            long overheadStart = threadBean.getThreadAllocatedBytes(threadId);
+            long overhead = threadBean.getThreadAllocatedBytes(threadId) - overheadStart;
+
+            long start = threadBean.getThreadAllocatedBytes(threadId);
+            measured.run();
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+
+            assertEquals("Bytes allocated for " + PACKETS + " packets", 0, allocated);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void processAacPacket(@NonNull RtpPacketProcessor packetProcessor, @NonNull byte[] packet, int sequence) {
+        long timestamp = (long) sequence * AAC_ACCESS_UNITS_PER_PACKET * 1024;
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        packet[4] = (byte) (timestamp >> 24);
+        packet[5] = (byte) (timestamp >> 16);
+        packet[6] = (byte) (timestamp >> 8);
+        packet[7] = (byte) timestamp;
+        packetProcessor.processRtpPacket(packet, 0, packet.length);
+    }
+
+    private static void pushPacket(@NonNull RtpJitterBuffer jitterBuffer, @NonNull byte[] packet, int sequence) {
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        jitterBuffer.push(packet, 0, packet.length, System.currentTimeMillis());
+    }
+
+    // Sequence numbers continuous, otherwise fragmented NAL units are dropped
+    private static void processFragment(@NonNull RtpPacketProcessor packetProcessor, @NonNull byte[][] packets, int sequence) {
+        byte[] packet = packets[sequence % FRAGMENTS_PER_NAL_UNIT];
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        packetProcessor.processRtpPacket(packet, 0, packet.length);
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.parser.RtpParser;
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ByteArrayPool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Video NAL units assembled into access units passed to the listener.
+ */
+public class RtpPacketProcessorTest {
+
+    private static final int PAYLOAD_TYPE = 96;
+    // 30 fps in 90 kHz units
+    private static final int FRAME_DURATION = 3000;
+    private static final long FRAME_DURATION_US = FRAME_DURATION * 1000000L / 90000;
+
+    private static final byte[] START_CODE = { 0x00, 0x00, 0x00, 0x01 };
+    private static final byte[] NAL_SPS = { 0x67, 0x42, 0x00, 0x1F };
+    private static final byte[] NAL_PPS = { 0x68, (byte) 0xCE, 0x3C, (byte) 0x80 };
+    private static final byte[] NAL_IDR = { 0x65, (byte) 0x88, (byte) 0x84 };
+    private static final byte[] NAL_SLICE_1 = { 0x41, (byte) 0x9A, 0x01 };
+    private static final byte[] NAL_SLICE_2 = { 0x41, (byte) 0x9A, 0x02 };
+    private static final byte[] NAL_SEI = { 0x06, 0x05, 0x01 };
+
+    private static class AccessUnit {
+        final byte[] data;
+        final long timestamp;
+        final int flags;
+
+        AccessUnit(@NonNull byte[] data, long timestamp, int flags) {
+            this.data = data;
+            this.timestamp = timestamp;
+            this.flags = flags;
+        }
+    }
+
+    private static class RecordingListener implements RtspClient.RtspClientListener {
+        final ArrayList<AccessUnit> accessUnits = new ArrayList<>();
+
+        @Override public void onRtspConnecting() {}
+        @Override public void onRtspConnected(@NonNull RtspClient.SdpInfo sdpInfo) {}
+        @Override public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp) {
+            fail("Access units expected");
+        }
+        @Override public void onRtspVideoAccessUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp, int flags) {
+            accessUnits.add(new AccessUnit(Arrays.copyOfRange(data, offset, offset + length), timestamp, flags));
+        }
+        @Override public void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestamp) {}
+        @Override public void onRtspDisconnecting() {}
+        @Override public void onRtspDisconnected() {}
+        @Override public void onRtspFailedUnauthorized() {}
+        @Override public void onRtspFailed(@Nullable String message) {}
+    }
+
+    private final RecordingListener listener = new RecordingListener();
+    private int sequence = 0;
+
+    @NonNull
+    private RtpPacketProcessor getProcessor(int videoCodec) {
+        RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+        sdpInfo.videoTrack = new RtspClient.VideoTrack();
+        sdpInfo.videoTrack.payloadType = PAYLOAD_TYPE;
+        sdpInfo.videoTrack.videoCodec = videoCodec;
+        return new RtpPacketProcessor(sdpInfo, listener, new ByteArrayPool());
+    }
+
+    private void process(@NonNull RtpPacketProcessor processor, long timestamp, boolean marker, @NonNull byte[] payload) {
+        byte[] packet = new byte[RtpParser.RTP_HEADER_SIZE + payload.length];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) (PAYLOAD_TYPE | (marker ? 0x80 : 0));
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        packet[4] = (byte) (timestamp >> 24);
+        packet[5] = (byte) (timestamp >> 16);
+        packet[6] = (byte) (timestamp >> 8);
+        packet[7] = (byte) timestamp;
+        System.arraycopy(payload, 0, packet, RtpParser.RTP_HEADER_SIZE, payload.length);
+        sequence++;
+        processor.processRtpPacket(packet, 0, packet.length);
+    }
+
+    // NAL units with start codes, as expected by the decoder
+    @NonNull
+    private static byte[] getAnnexB(@NonNull byte[]... nalUnits) {
+        byte[] data = new byte[0];
+        for (byte[] nalUnit : nalUnits) {
+            int length = data.length;
+            data = Arrays.copyOf(data, length + START_CODE.length + nalUnit.length);
+            System.arraycopy(START_CODE, 0, data, length, START_CODE.length);
+            System.arraycopy(nalUnit, 0, data, length + START_CODE.length, nalUnit.length);
+        }
+        return data;
+    }
+
+    // STAP-A (timestampOffsetSize 0) or MTAP16 (2) with the NAL units and timestamp offsets
+    @NonNull
+    private static byte[] getAggregationPacket(int timestampOffsetSize, @NonNull int[] timestampOffsets, @NonNull byte[]... nalUnits) {
+        int headerSize = (timestampOffsetSize > 0 ? 3 : 1);
+        int unitHeaderSize = (timestampOffsetSize > 0 ? 2 + 1 + timestampOffsetSize : 2);
+        int length = headerSize;
+        for (byte[] nalUnit : nalUnits)
+            length += unitHeaderSize + nalUnit.length;
+        byte[] payload = new byte[length];
+        payload[0] = (byte) (timestampOffsetSize > 0 ? 0x60 | 26 : 0x60 | 24);
+        int offset = headerSize;
+        for (int i = 0; i < nalUnits.length; i++) {
+            payload[offset] = (byte) (nalUnits[i].length >> 8);
+            payload[offset + 1] = (byte) nalUnits[i].length;
+            if (timestampOffsetSize > 0) {
+                payload[offset + 2] = (byte) i; // DOND
+                payload[offset + 3] = (byte) (timestampOffsets[i] >> 8);
+                payload[offset + 4] = (byte) timestampOffsets[i];
+            }
+            offset += unitHeaderSize;
+            System.arraycopy(nalUnits[i], 0, payload, offset, nalUnits[i].length);
+            offset += nalUnits[i].length;
+        }
+        return payload;
+    }
+
+    @Test
+    public void marker_flushesAccessUnit() {
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H264);
+        process(processor, 0, false, NAL_SEI);
+        process(processor, 0, false, NAL_SLICE_1);
+        assertTrue(listener.accessUnits.isEmpty());
+        process(processor, 0, true, NAL_SLICE_2);
+
+        assertEquals(1, listener.accessUnits.size());
+        AccessUnit accessUnit = listener.accessUnits.get(0);
+        assertArrayEquals(getAnnexB(NAL_SEI, NAL_SLICE_1, NAL_SLICE_2), accessUnit.data);
+        assertEquals(0, accessUnit.flags);
+    }
+
+    @Test
+    public void timestampChange_flushesAccessUnit() {
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H264);
+        process(processor, 0, true, NAL_SLICE_1);
+        process(processor, FRAME_DURATION, false, NAL_SLICE_1);
+        // Marker packet of the second frame lost
+        sequence++;
+        assertEquals(1, listener.accessUnits.size());
+        process(processor, 2 * FRAME_DURATION, true, NAL_IDR);
+
+        assertEquals(3, listener.accessUnits.size());
+        assertArrayEquals(getAnnexB(NAL_SLICE_1), listener.accessUnits.get(1).data);
+        assertArrayEquals(getAnnexB(NAL_IDR), listener.accessUnits.get(2).data);
+        long timestamp = listener.accessUnits.get(0).timestamp;
+        assertEquals(timestamp + FRAME_DURATION_US, listener.accessUnits.get(1).timestamp);
+        assertEquals(timestamp + 2 * FRAME_DURATION_US, listener.accessUnits.get(2).timestamp);
+    }
+
+    @Test
+    public void noMarker_flushedOnTimestampChange() {
+        // Some servers never set the marker bit
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H264);
+        process(processor, 0, false, NAL_SLICE_1);
+        process(processor, 0, false, NAL_SLICE_2);
+        assertTrue(listener.accessUnits.isEmpty());
+        process(processor, FRAME_DURATION, false, NAL_SLICE_1);
+
+        assertEquals(1, listener.accessUnits.size());
+        assertArrayEquals(getAnnexB(NAL_SLICE_1, NAL_SLICE_2), listener.accessUnits.get(0).data);
+    }
+
+    @Test
+    public void mtapTimestampOffsets_separateAccessUnits() {
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H264);
+        byte[] payload = getAggregationPacket(2, new int[] { 0, 0, FRAME_DURATION }, NAL_SEI, NAL_SLICE_1, NAL_SLICE_2);
+        process(processor, 90000, true, payload);
+
+        assertEquals(2, listener.accessUnits.size());
+        assertArrayEquals(getAnnexB(NAL_SEI, NAL_SLICE_1), listener.accessUnits.get(0).data);
+        assertArrayEquals(getAnnexB(NAL_SLICE_2), listener.accessUnits.get(1).data);
+        assertEquals(listener.accessUnits.get(0).timestamp + FRAME_DURATION_US, listener.accessUnits.get(1).timestamp);
+    }
+
+    @Test
+    public void keyFrame_codecConfigSentBefore() {
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H264);
+        process(processor, 0, false, NAL_SPS);
+        process(processor, 0, false, NAL_PPS);
+        process(processor, 0, true, NAL_IDR);
+        process(processor, FRAME_DURATION, true, NAL_SLICE_1);
+
+        assertEquals(3, listener.accessUnits.size());
+        AccessUnit config = listener.accessUnits.get(0);
+        assertEquals(RtspClient.VIDEO_FLAG_CODEC_CONFIG, config.flags);
+        assertArrayEquals(getAnnexB(NAL_SPS, NAL_PPS), config.data);
+        AccessUnit keyFrame = listener.accessUnits.get(1);
+        assertEquals(RtspClient.VIDEO_FLAG_KEY_FRAME, keyFrame.flags);
+        assertArrayEquals(getAnnexB(NAL_IDR), keyFrame.data);
+        assertEquals(config.timestamp, keyFrame.timestamp);
+        assertEquals(0, listener.accessUnits.get(2).flags);
+    }
+
+    @Test
+    public void stapKeyFrame_codecConfigSentBefore() {
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H264);
+        process(processor, 0, true, getAggregationPacket(0, new int[0], NAL_SPS, NAL_PPS, NAL_SEI, NAL_IDR));
+        // Parameter sets sent once
+        process(processor, FRAME_DURATION, true, NAL_IDR);
+
+        assertEquals(3, listener.accessUnits.size());
+        assertEquals(RtspClient.VIDEO_FLAG_CODEC_CONFIG, listener.accessUnits.get(0).flags);
+        assertArrayEquals(getAnnexB(NAL_SPS, NAL_PPS), listener.accessUnits.get(0).data);
+        assertEquals(RtspClient.VIDEO_FLAG_KEY_FRAME, listener.accessUnits.get(1).flags);
+        assertArrayEquals(getAnnexB(NAL_SEI, NAL_IDR), listener.accessUnits.get(1).data);
+        assertEquals(RtspClient.VIDEO_FLAG_KEY_FRAME, listener.accessUnits.get(2).flags);
+    }
+
+    @Test
+    public void h265Irap_keyFrame() {
+        RtpPacketProcessor processor = getProcessor(RtspClient.VIDEO_CODEC_H265);
+        byte[] vps = { 0x40, 0x01, 0x0C };
+        byte[] sps = { 0x42, 0x01, 0x01 };
+        byte[] pps = { 0x44, 0x01, (byte) 0xC1 };
+        byte[] idr = { 0x26, 0x01, (byte) 0xAF }; // IDR_W_RADL
+        byte[] cra = { 0x2A, 0x01, (byte) 0xAF }; // CRA
+        byte[] trail = { 0x02, 0x01, (byte) 0xD0 }; // TRAIL_R
+        process(processor, 0, false, vps);
+        process(processor, 0, false, sps);
+        process(processor, 0, false, pps);
+        process(processor, 0, true, idr);
+        process(processor, FRAME_DURATION, true, trail);
+        process(processor, 2 * FRAME_DURATION, true, cra);
+
+        assertEquals(4, listener.accessUnits.size());
+        assertEquals(RtspClient.VIDEO_FLAG_CODEC_CONFIG, listener.accessUnits.get(0).flags);
+        assertArrayEquals(getAnnexB(vps, sps, pps), listener.accessUnits.get(0).data);
+        assertEquals(RtspClient.VIDEO_FLAG_KEY_FRAME, listener.accessUnits.get(1).flags);
+        assertArrayEquals(getAnnexB(idr), listener.accessUnits.get(1).data);
+        assertEquals(0, listener.accessUnits.get(2).flags);
+        assertEquals(RtspClient.VIDEO_FLAG_KEY_FRAME, listener.accessUnits.get(3).flags);
+    }
+
+}
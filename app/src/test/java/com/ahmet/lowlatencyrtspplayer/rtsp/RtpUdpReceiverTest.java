@@ -0,0 +1,66 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.NetUtils;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Multicast receive via loopback interface with a local sender.
+ */
+public class RtpUdpReceiverTest {
+
+    private static final String GROUP = "239.255.42.99";
+
+    @Test
+    public void multicast_receivedOnLoopback() throws Exception {
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        assumeTrue("Loopback multicast not supported", loopback != null);
+
+        InetAddress group = InetAddress.getByName(GROUP);
+        DatagramChannel rtpChannel = NetUtils.createMulticastChannel(group, 0, loopback);
+        int port = rtpChannel.socket().getLocalPort();
+
+        ArrayBlockingQueue<byte[]> received = new ArrayBlockingQueue<>(10);
+        RtpUdpReceiver receiver = new RtpUdpReceiver((channel, data, offset, length) -> {
+            byte[] packet = new byte[length + 1];
+            packet[0] = (byte) channel;
+            System.arraycopy(data, offset, packet, 1, length);
+            received.offer(packet);
+        });
+        receiver.addChannel(2, rtpChannel);
+        receiver.start();
+
+        byte[] rtpPacket = { (byte) 0x80, 0x60, 0x00, 0x01, 0, 0, 0, 1, 0x12, 0x34, 0x56, 0x78, 0x65, 0x01 };
+        try (DatagramChannel sender = DatagramChannel.open()) {
+            sender.setOption(StandardSocketOptions.IP_MULTICAST_IF, loopback);
+            sender.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            sender.send(ByteBuffer.wrap(rtpPacket), new InetSocketAddress(group, port));
+
+            assertTrue(receiver.waitForFirstPacket(2000));
+            byte[] packet = received.poll(2, TimeUnit.SECONDS);
+            assertNotNull(packet);
+            assertEquals(2, packet[0]);
+            assertEquals(rtpPacket.length, packet.length - 1);
+            for (int i = 0; i < rtpPacket.length; i++)
+                assertEquals(rtpPacket[i], packet[i + 1]);
+            assertTrue(receiver.getLastPacketTime() > 0);
+        } finally {
+            receiver.release();
+            receiver.join(2000);
+        }
+        assertFalse(rtpChannel.isOpen());
+    }
+
+}
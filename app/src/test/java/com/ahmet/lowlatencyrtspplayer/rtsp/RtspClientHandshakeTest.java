@@ -0,0 +1,411 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+// Fast connect handshake and transport fallback against a scripted RTSP server on the loopback
+// interface. Real android.util.Log, Pair, TextUtils and Base64 needed.
+@RunWith(RobolectricTestRunner.class)
+public class RtspClientHandshakeTest {
+
+    // Server waits before each response, so pipelined requests are already received by then
+    private static final int RESPONSE_DELAY_MS = 100;
+    private static final int SOCKET_TIMEOUT_MS = 5000;
+    // RtspClient.UDP_FIRST_PACKET_TIMEOUT_MS
+    private static final int UDP_FIRST_PACKET_TIMEOUT_MS = 3000;
+    private static final String SESSION = "4066342621205";
+    private static final String SDP =
+            "v=0\r\n" +
+            "t=0 0\r\n" +
+            "a=range:npt=now-\r\n" +
+            "m=video 0 RTP/AVP 96\r\n" +
+            "a=rtpmap:96 H264/90000\r\n" +
+            "a=fmtp:96 packetization-mode=1;sprop-parameter-sets=Z0KAH9oBABhpSCgwMDaFCag=,aM4G4g==\r\n" +
+            "a=control:trackID=1\r\n" +
+            "m=audio 0 RTP/AVP 97\r\n" +
+            "a=rtpmap:97 mpeg4-generic/48000/1\r\n" +
+            "a=fmtp:97 profile-level-id=1;mode=AAC-hbr;sizelength=13;indexlength=3;indexdeltalength=3;config=1188\r\n" +
+            "a=control:trackID=2\r\n";
+
+    // Video RTP packet with a single NAL unit on interleaved channel 0
+    private static final byte[] RTP_FRAME = {
+            '$', 0, 0, 16,
+            (byte) 0x80, 96, 0, 1, 0, 0, 0x0B, (byte) 0xB8, 0x12, 0x34, 0x56, 0x78,
+            0x65, (byte) 0x88, (byte) 0x84, 0x00
+    };
+
+    private static class Request {
+        int connection;
+        @NonNull String method = "";
+        int cSeq;
+        final @NonNull HashMap<String, String> headers = new HashMap<>();
+        // Next request already received when the response was sent
+        boolean nextPipelined;
+    }
+
+    // Serves connections one by one, answering requests in order unless swapFirstResponses set.
+    // RTP is never sent via UDP, one interleaved RTP packet is sent after PLAY via TCP.
+    private static class LoopbackServer extends Thread {
+        final @NonNull ServerSocket serverSocket;
+        final @NonNull List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+        final int connections;
+        // Answer the second request of the first connection before the first one
+        volatile boolean swapFirstResponses;
+        // Requests without Authorization header get 401
+        volatile boolean digestAuth;
+
+        LoopbackServer(int connections) throws IOException {
+            serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            this.connections = connections;
+        }
+
+        @NonNull
+        String getUri() {
+            return "rtsp://127.0.0.1:" + serverSocket.getLocalPort() + "/video/h264";
+        }
+
+        @Override
+        public void run() {
+            for (int connection = 0; connection < connections; connection++) {
+                try (Socket socket = serverSocket.accept()) {
+                    serve(socket, connection);
+                } catch (Exception ignored) {
+                    // Connection closed by the client
+                }
+            }
+        }
+
+        private void serve(@NonNull Socket socket, int connection) throws Exception {
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            String heldResponse = null;
+            boolean first = true;
+            boolean interleaved = false;
+            Request request;
+            while ((request = readRequest(reader)) != null) {
+                Thread.sleep(RESPONSE_DELAY_MS);
+                request.connection = connection;
+                request.nextPipelined = reader.ready();
+                requests.add(request);
+                if ("SETUP".equals(request.method))
+                    interleaved = request.headers.get("transport").contains("interleaved");
+                String response = getResponse(request);
+                if (swapFirstResponses && connection == 0 && first) {
+                    first = false;
+                    heldResponse = response;
+                    continue;
+                }
+                out.write(response.getBytes(StandardCharsets.US_ASCII));
+                if (heldResponse != null) {
+                    out.write(heldResponse.getBytes(StandardCharsets.US_ASCII));
+                    heldResponse = null;
+                }
+                if ("PLAY".equals(request.method) && interleaved)
+                    out.write(RTP_FRAME);
+                out.flush();
+            }
+        }
+
+        @Nullable
+        private static Request readRequest(@NonNull BufferedReader reader) throws IOException {
+            String line = reader.readLine();
+            if (line == null)
+                return null;
+            Request request = new Request();
+            request.method = line.substring(0, line.indexOf(' '));
+            while (!(line = reader.readLine()).isEmpty()) {
+                int index = line.indexOf(':');
+                request.headers.put(line.substring(0, index).trim().toLowerCase(), line.substring(index + 1).trim());
+            }
+            request.cSeq = Integer.parseInt(request.headers.get("cseq"));
+            return request;
+        }
+
+        @NonNull
+        private String getResponse(@NonNull Request request) {
+            StringBuilder response = new StringBuilder();
+            if (digestAuth && !request.headers.containsKey("authorization")) {
+                String body = "Unauthorized";
+                response.append("RTSP/1.0 401 Unauthorized\r\n")
+                        .append("CSeq: ").append(request.cSeq).append("\r\n")
+                        .append("WWW-Authenticate: Digest realm=\"Login to cam\", nonce=\"8fb58500489d60f99a40b43f3c8574ef\"\r\n")
+                        .append("Content-Length: ").append(body.length()).append("\r\n")
+                        .append("\r\n")
+                        .append(body);
+                return response.toString();
+            }
+            response.append("RTSP/1.0 200 OK\r\n")
+                    .append("CSeq: ").append(request.cSeq).append("\r\n");
+            switch (request.method) {
+                case "OPTIONS":
+                    response.append("Public: OPTIONS, DESCRIBE, SETUP, PLAY, GET_PARAMETER, TEARDOWN\r\n\r\n");
+                    break;
+                case "DESCRIBE":
+                    response.append("Content-Type: application/sdp\r\n")
+                            .append("Content-Length: ").append(SDP.length()).append("\r\n")
+                            .append("\r\n")
+                            .append(SDP);
+                    break;
+                case "SETUP":
+                    String transport = request.headers.get("transport");
+                    if (transport.contains("client_port"))
+                        transport += ";server_port=6970-6971";
+                    response.append("Transport: ").append(transport).append("\r\n")
+                            .append("Session: ").append(SESSION).append(";timeout=60\r\n\r\n");
+                    break;
+                default:
+                    response.append("Session: ").append(SESSION).append("\r\n\r\n");
+                    break;
+            }
+            return response.toString();
+        }
+    }
+
+    private static class Listener implements RtspClient.RtspClientListener, RtspClient.RtspMetricsListener {
+        final @NonNull AtomicBoolean exitFlag;
+        // Otherwise stop on the first RTP packet
+        final boolean exitOnConnected;
+        final @NonNull ArrayList<Integer> phases = new ArrayList<>();
+        final @NonNull ArrayList<Long> phaseDurations = new ArrayList<>();
+        boolean connected;
+        boolean disconnected;
+        boolean unauthorized;
+        @Nullable String failure;
+
+        Listener(@NonNull AtomicBoolean exitFlag, boolean exitOnConnected) {
+            this.exitFlag = exitFlag;
+            this.exitOnConnected = exitOnConnected;
+        }
+
+        @Override
+        public void onRtspConnecting() {
+        }
+
+        @Override
+        public void onRtspConnected(@NonNull RtspClient.SdpInfo sdpInfo) {
+            connected = true;
+            // Stop right after PLAY
+            if (exitOnConnected)
+                exitFlag.set(true);
+        }
+
+        @Override
+        public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp) {
+        }
+
+        @Override
+        public void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestamp) {
+        }
+
+        @Override
+        public void onRtspDisconnecting() {
+        }
+
+        @Override
+        public void onRtspDisconnected() {
+            disconnected = true;
+        }
+
+        @Override
+        public void onRtspFailedUnauthorized() {
+            unauthorized = true;
+        }
+
+        @Override
+        public void onRtspFailed(@Nullable String message) {
+            failure = message;
+        }
+
+        @Override
+        public void onRtspConnectPhase(int phase, long durationMs) {
+            phases.add(phase);
+            phaseDurations.add(durationMs);
+            if (phase == RtspClient.CONNECT_PHASE_FIRST_RTP_PACKET)
+                exitFlag.set(true);
+        }
+    }
+
+    private LoopbackServer server;
+
+    @After
+    public void tearDown() throws Exception {
+        server.serverSocket.close();
+        server.join(SOCKET_TIMEOUT_MS);
+    }
+
+    private void startServer(int connections) throws IOException {
+        server = new LoopbackServer(connections);
+        server.start();
+    }
+
+    @NonNull
+    private Listener connect(@Nullable RtspSessionCache sessionCache) throws IOException {
+        return connect(sessionCache, RtspClient.TRANSPORT_TCP);
+    }
+
+    @NonNull
+    private Listener connect(@Nullable RtspSessionCache sessionCache, int transport) throws IOException {
+        AtomicBoolean exitFlag = new AtomicBoolean(false);
+        Listener listener = new Listener(exitFlag, transport == RtspClient.TRANSPORT_TCP);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.serverSocket.getLocalPort());
+        socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+        new RtspClient.Builder(socket, server.getUri(), exitFlag, listener)
+                .withFastConnect(true)
+                .withCredentials("admin", "secret")
+                .withSessionCache(sessionCache)
+                .withTransport(transport)
+                .withMetricsListener(listener)
+                .build()
+                .execute();
+        return listener;
+    }
+
+    // Requests of the connection, once all connections served
+    @NonNull
+    private ArrayList<Request> getRequests(int connection) throws InterruptedException {
+        server.join(SOCKET_TIMEOUT_MS);
+        assertFalse(server.isAlive());
+        ArrayList<Request> requests = new ArrayList<>();
+        for (Request request : server.requests) {
+            if (request.connection == connection)
+                requests.add(request);
+        }
+        return requests;
+    }
+
+    private static void assertMethods(@NonNull ArrayList<Request> requests, @NonNull String... methods) {
+        assertEquals(methods.length, requests.size());
+        for (int i = 0; i < methods.length; i++)
+            assertEquals(methods[i], requests.get(i).method);
+    }
+
+    @Test
+    public void pipelinedHandshake() throws Exception {
+        startServer(1);
+        long startMs = System.currentTimeMillis();
+        Listener listener = connect(null);
+        long durationMs = System.currentTimeMillis() - startMs;
+        assertNull(listener.failure);
+        assertTrue(listener.connected);
+        assertTrue(listener.disconnected);
+
+        ArrayList<Request> requests = getRequests(0);
+        assertMethods(requests, "OPTIONS", "DESCRIBE", "SETUP", "SETUP", "PLAY", "TEARDOWN");
+        // DESCRIBE sent behind OPTIONS, PLAY behind the last SETUP
+        assertTrue(requests.get(0).nextPipelined);
+        assertFalse(requests.get(1).nextPipelined);
+        assertFalse(requests.get(2).nextPipelined);
+        assertTrue(requests.get(3).nextPipelined);
+        for (int i = 0; i < requests.size(); i++)
+            assertEquals(i + 1, requests.get(i).cSeq);
+        assertEquals(SESSION, requests.get(3).headers.get("session"));
+        assertEquals(SESSION, requests.get(4).headers.get("session"));
+
+        // Phases in order, durations sum up to the handshake time
+        assertEquals(4, listener.phases.size());
+        assertEquals(RtspClient.CONNECT_PHASE_OPTIONS, (int) listener.phases.get(0));
+        assertEquals(RtspClient.CONNECT_PHASE_DESCRIBE, (int) listener.phases.get(1));
+        assertEquals(RtspClient.CONNECT_PHASE_SETUP, (int) listener.phases.get(2));
+        assertEquals(RtspClient.CONNECT_PHASE_PLAY, (int) listener.phases.get(3));
+        long totalMs = 0;
+        for (long phaseMs : listener.phaseDurations)
+            totalMs += phaseMs;
+        assertTrue(totalMs <= durationMs);
+        // Responses delayed by the server, 2 SETUP responses waited for
+        assertTrue(listener.phaseDurations.get(0) >= RESPONSE_DELAY_MS - 10);
+        assertTrue(listener.phaseDurations.get(2) >= 2 * RESPONSE_DELAY_MS - 10);
+    }
+
+    @Test
+    public void pipelinedHandshake_unauthorized() throws Exception {
+        startServer(1);
+        server.digestAuth = true;
+        Listener listener = connect(null);
+        assertNull(listener.failure);
+        assertFalse(listener.unauthorized);
+        assertTrue(listener.connected);
+
+        // Both pipelined requests answered with 401, only DESCRIBE repeated with credentials
+        ArrayList<Request> requests = getRequests(0);
+        assertMethods(requests, "OPTIONS", "DESCRIBE", "DESCRIBE", "SETUP", "SETUP", "PLAY", "TEARDOWN");
+        assertTrue(requests.get(0).nextPipelined);
+        assertNull(requests.get(1).headers.get("authorization"));
+        String authorization = requests.get(2).headers.get("authorization");
+        assertNotNull(authorization);
+        assertTrue(authorization.startsWith("Digest "));
+        assertTrue(authorization.contains("realm=\"Login to cam\""));
+        for (int i = 3; i < requests.size(); i++)
+            assertNotNull(requests.get(i).headers.get("authorization"));
+        // PLAY still pipelined with authorization
+        assertTrue(requests.get(4).nextPipelined);
+    }
+
+    @Test
+    public void outOfOrderResponses_fallbackToSequential() throws Exception {
+        startServer(2);
+        RtspSessionCache sessionCache = new RtspSessionCache(null);
+        server.swapFirstResponses = true;
+        Listener listener = connect(sessionCache);
+        // DESCRIBE response came first
+        assertNotNull(listener.failure);
+        assertTrue(listener.failure.contains("CSeq"));
+        assertFalse(listener.connected);
+        RtspSessionCache.Entry entry = sessionCache.get(server.getUri());
+        assertNotNull(entry);
+        assertTrue(entry.hasQuirk(RtspSessionCache.QUIRK_NO_PIPELINING));
+
+        // Server remembered as not handling pipelined requests, next connection is sequential
+        listener = connect(sessionCache);
+        assertNull(listener.failure);
+        assertTrue(listener.connected);
+        assertMethods(getRequests(0), "OPTIONS", "DESCRIBE");
+        ArrayList<Request> requests = getRequests(1);
+        assertMethods(requests, "OPTIONS", "DESCRIBE", "SETUP", "SETUP", "PLAY", "TEARDOWN");
+        for (Request request : requests)
+            assertFalse(request.nextPipelined);
+    }
+
+    @Test
+    public void udpWithoutData_fallbackToTcp() throws Exception {
+        startServer(1);
+        Listener listener = connect(null, RtspClient.TRANSPORT_UDP);
+        assertNull(listener.failure);
+        assertTrue(listener.disconnected);
+
+        ArrayList<Request> requests = getRequests(0);
+        assertMethods(requests,
+                "OPTIONS", "DESCRIBE", "SETUP", "SETUP", "PLAY", "TEARDOWN",
+                "SETUP", "SETUP", "PLAY", "TEARDOWN");
+        assertTrue(requests.get(2).headers.get("transport").contains("client_port"));
+        assertTrue(requests.get(6).headers.get("transport").contains("interleaved"));
+
+        // First RTP packet reported by the TCP read loop, after waiting for UDP data in vain
+        assertEquals(5, listener.phases.size());
+        assertEquals(RtspClient.CONNECT_PHASE_PLAY, (int) listener.phases.get(3));
+        assertEquals(RtspClient.CONNECT_PHASE_FIRST_RTP_PACKET, (int) listener.phases.get(4));
+        assertTrue(listener.phaseDurations.get(4) >= UDP_FIRST_PACKET_TIMEOUT_MS);
+    }
+
+}
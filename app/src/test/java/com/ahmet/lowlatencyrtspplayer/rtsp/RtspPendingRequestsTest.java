@@ -0,0 +1,77 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+// Real android.util.Log and Pair needed
+@RunWith(RobolectricTestRunner.class)
+public class RtspPendingRequestsTest {
+
+    private static final int TIMEOUT_MS = 30000;
+
+    @NonNull
+    private static ArrayList<Pair<String, String>> getHeaders(int cSeq) {
+        ArrayList<Pair<String, String>> headers = new ArrayList<>();
+        headers.add(Pair.create("CSeq", String.valueOf(cSeq)));
+        return headers;
+    }
+
+    @Test
+    public void response_routedByCSeq() {
+        RtspPendingRequests requests = new RtspPendingRequests(TIMEOUT_MS);
+        int[] statusCodes = new int[2];
+        requests.add(5, "GET_PARAMETER", (statusCode, headers, content) -> statusCodes[0] = statusCode);
+        requests.add(6, "OPTIONS", (statusCode, headers, content) -> statusCodes[1] = statusCode);
+
+        requests.onRtspResponse(401, getHeaders(6), "");
+        requests.onRtspResponse(200, getHeaders(5), "");
+        // Unknown CSeq ignored
+        requests.onRtspResponse(200, getHeaders(7), "");
+
+        assertEquals(200, statusCodes[0]);
+        assertEquals(401, statusCodes[1]);
+        assertEquals(0, requests.size());
+    }
+
+    @Test
+    public void removeExpired_countsMissedResponses() {
+        RtspPendingRequests requests = new RtspPendingRequests(TIMEOUT_MS);
+        long now = System.currentTimeMillis();
+        requests.add(1, "GET_PARAMETER", null);
+        assertEquals(0, requests.removeExpired(now + TIMEOUT_MS / 2));
+        assertEquals(1, requests.size());
+
+        // Keep-alive ticks without responses
+        assertEquals(1, requests.removeExpired(now + TIMEOUT_MS + 1000));
+        requests.add(2, "GET_PARAMETER", null);
+        requests.add(3, "GET_PARAMETER", null);
+        assertEquals(3, requests.removeExpired(now + 2 * TIMEOUT_MS + 1000));
+        assertEquals(0, requests.size());
+
+        // Late response to an expired request is not counted as an answer
+        requests.onRtspResponse(200, getHeaders(3), "");
+        assertEquals(3, requests.removeExpired(now + 2 * TIMEOUT_MS + 1000));
+    }
+
+    @Test
+    public void response_resetsMissedResponses() {
+        RtspPendingRequests requests = new RtspPendingRequests(TIMEOUT_MS);
+        long now = System.currentTimeMillis();
+        requests.add(1, "GET_PARAMETER", null);
+        assertEquals(1, requests.removeExpired(now + TIMEOUT_MS + 1000));
+
+        requests.add(2, "GET_PARAMETER", null);
+        requests.onRtspResponse(200, getHeaders(2), "");
+        assertEquals(0, requests.removeExpired(now + TIMEOUT_MS + 1000));
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PresentationClockTest {
+
+    private static final long SYSTEM_TIME_NS = 5_000_000_000L;
+
+    @Test
+    public void noAudio_notValid() {
+        PresentationClock clock = new PresentationClock();
+        assertNull(clock.getTimeUs(SYSTEM_TIME_NS));
+    }
+
+    @Test
+    public void audioPosition_followed() {
+        PresentationClock clock = new PresentationClock();
+        clock.updateAudioPosition(1_000_000L, SYSTEM_TIME_NS);
+        assertEquals(Long.valueOf(1_000_000L), clock.getTimeUs(SYSTEM_TIME_NS));
+        assertEquals(Long.valueOf(1_020_000L), clock.getTimeUs(SYSTEM_TIME_NS + 20_000_000L));
+
+        // Audio output lags, the clock follows it
+        clock.updateAudioPosition(1_015_000L, SYSTEM_TIME_NS + 20_000_000L);
+        assertEquals(Long.valueOf(1_015_000L), clock.getTimeUs(SYSTEM_TIME_NS + 20_000_000L));
+    }
+
+    @Test
+    public void audioStalled_notValid() {
+        PresentationClock clock = new PresentationClock();
+        clock.updateAudioPosition(1_000_000L, SYSTEM_TIME_NS);
+        assertEquals(Long.valueOf(1_500_000L), clock.getTimeUs(SYSTEM_TIME_NS + 500_000_000L));
+        assertNull(clock.getTimeUs(SYSTEM_TIME_NS + 500_000_001L));
+    }
+
+    @Test
+    public void reset_notValid() {
+        PresentationClock clock = new PresentationClock();
+        clock.updateAudioPosition(1_000_000L, SYSTEM_TIME_NS);
+        clock.reset();
+        assertNull(clock.getTimeUs(SYSTEM_TIME_NS));
+        clock.updateAudioPosition(0, SYSTEM_TIME_NS);
+        assertEquals(Long.valueOf(0), clock.getTimeUs(SYSTEM_TIME_NS));
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AacParserTest {
+
+    private static final long TIMESTAMP = 90000;
+
+    // AAC-hbr payload, 16 bits AU headers (13 bits AU-size, 3 bits AU-Index/AU-Index-delta).
+    // Each AU is filled with its first byte value.
+    private static byte[] getHbrPayload(@NonNull int[] sizes, @NonNull int[] indexes, @NonNull byte[] values) {
+        int dataLength = 0;
+        for (int size: sizes)
+            dataLength += size;
+        byte[] payload = new byte[2 + sizes.length * 2 + dataLength];
+        int auHeadersLength = sizes.length * 16;
+        payload[0] = (byte) (auHeadersLength >> 8);
+        payload[1] = (byte) auHeadersLength;
+        int offset = 2 + sizes.length * 2;
+        for (int i = 0; i < sizes.length; i++) {
+            int auHeader = (sizes[i] << 3) | indexes[i];
+            payload[2 + i * 2] = (byte) (auHeader >> 8);
+            payload[3 + i * 2] = (byte) auHeader;
+            Arrays.fill(payload, offset, offset + sizes[i], values[i]);
+            offset += sizes[i];
+        }
+        return payload;
+    }
+
+    private static byte[] getAccessUnit(@NonNull AacParser parser, int index) {
+        int offset = parser.getAccessUnitOffset(index);
+        return Arrays.copyOfRange(parser.getAccessUnitData(index), offset, offset + parser.getAccessUnitLength(index));
+    }
+
+    @Test
+    public void singleAccessUnit() {
+        AacParser parser = new AacParser("AAC-hbr");
+        byte[] payload = getHbrPayload(new int[] { 5 }, new int[] { 0 }, new byte[] { 0x21 });
+        assertEquals(1, parser.processRtpPacket(payload, 0, payload.length, TIMESTAMP, true));
+        assertSame(payload, parser.getAccessUnitData(0));
+        assertEquals(4, parser.getAccessUnitOffset(0));
+        assertArrayEquals(new byte[] { 0x21, 0x21, 0x21, 0x21, 0x21 }, getAccessUnit(parser, 0));
+        assertEquals(TIMESTAMP, parser.getAccessUnitTimestamp(0));
+    }
+
+    @Test
+    public void multipleAccessUnits() {
+        AacParser parser = new AacParser("AAC-hbr");
+        byte[] payload = getHbrPayload(new int[] { 3, 4, 2, 5 }, new int[] { 0, 0, 0, 0 }, new byte[] { 1, 2, 3, 4 });
+        assertEquals(4, parser.processRtpPacket(payload, 0, payload.length, TIMESTAMP, true));
+        for (int i = 0; i < 4; i++) {
+            assertSame(payload, parser.getAccessUnitData(i));
+            assertEquals(TIMESTAMP + i * 1024, parser.getAccessUnitTimestamp(i));
+        }
+        assertArrayEquals(new byte[] { 1, 1, 1 }, getAccessUnit(parser, 0));
+        assertArrayEquals(new byte[] { 2, 2, 2, 2 }, getAccessUnit(parser, 1));
+        assertArrayEquals(new byte[] { 3, 3 }, getAccessUnit(parser, 2));
+        assertArrayEquals(new byte[] { 4, 4, 4, 4, 4 }, getAccessUnit(parser, 3));
+    }
+
+    @Test
+    public void lbr_sdpLengths() {
+        // a=fmtp:96 streamtype=5; profile-level-id=14; mode=AAC-lbr; config=1388; sizeLength=6; indexLength=2; indexDeltaLength=2; constantDuration=1024
+        AacParser parser = new AacParser("AAC-lbr", 6, 2, 2, 1024);
+        // Two 8 bits AU headers, AU sizes 2 and 1
+        byte[] payload = { 0x00, 0x10, 0x02 << 2, 0x01 << 2, 0x0A, 0x0B, 0x0C };
+        assertEquals(2, parser.processRtpPacket(payload, 0, payload.length, TIMESTAMP, true));
+        assertArrayEquals(new byte[] { 0x0A, 0x0B }, getAccessUnit(parser, 0));
+        assertArrayEquals(new byte[] { 0x0C }, getAccessUnit(parser, 1));
+        assertEquals(TIMESTAMP + 1024, parser.getAccessUnitTimestamp(1));
+    }
+
+    @Test
+    public void fragmentedAccessUnit() {
+        AacParser parser = new AacParser("AAC-hbr");
+        // AU of 9 bytes in three packets, AU header repeated in each of them
+        byte[] header = { 0x00, 0x10, 0x00, 9 << 3 };
+        byte[] fragment1 = concat(header, new byte[] { 1, 2, 3, 4 });
+        byte[] fragment2 = concat(header, new byte[] { 5, 6, 7 });
+        byte[] fragment3 = concat(header, new byte[] { 8, 9 });
+        assertEquals(0, parser.processRtpPacket(fragment1, 0, fragment1.length, TIMESTAMP, false));
+        assertEquals(0, parser.processRtpPacket(fragment2, 0, fragment2.length, TIMESTAMP, false));
+        assertEquals(1, parser.processRtpPacket(fragment3, 0, fragment3.length, TIMESTAMP, true));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 }, getAccessUnit(parser, 0));
+        assertEquals(TIMESTAMP, parser.getAccessUnitTimestamp(0));
+
+        // Middle fragment lost, AU dropped
+        long timestamp = TIMESTAMP + 1024;
+        assertEquals(0, parser.processRtpPacket(fragment1, 0, fragment1.length, timestamp, false));
+        assertEquals(0, parser.processRtpPacket(fragment3, 0, fragment3.length, timestamp, true));
+
+        // Next AU is fine
+        timestamp += 1024;
+        byte[] payload = getHbrPayload(new int[] { 2 }, new int[] { 0 }, new byte[] { 7 });
+        assertEquals(1, parser.processRtpPacket(payload, 0, payload.length, timestamp, true));
+        assertEquals(timestamp, parser.getAccessUnitTimestamp(0));
+    }
+
+    @Test
+    public void interleavedAccessUnits() {
+        AacParser parser = new AacParser("AAC-hbr");
+        // AUs 0..8 interleaved into packets of (0, 3, 6), (1, 4, 7) and (2, 5, 8), AU-Index-delta is 2
+        int[] sizes = { 2, 2, 2 };
+        int[] indexes = { 0, 2, 2 };
+        byte[] packet1 = getHbrPayload(sizes, indexes, new byte[] { 0, 3, 6 });
+        byte[] packet2 = getHbrPayload(sizes, indexes, new byte[] { 1, 4, 7 });
+        byte[] packet3 = getHbrPayload(sizes, indexes, new byte[] { 2, 5, 8 });
+
+        assertEquals(1, parser.processRtpPacket(packet1, 0, packet1.length, TIMESTAMP, true));
+        assertEquals(TIMESTAMP, parser.getAccessUnitTimestamp(0));
+        assertEquals(1, parser.processRtpPacket(packet2, 0, packet2.length, TIMESTAMP + 1024, true));
+        assertEquals(TIMESTAMP + 1024, parser.getAccessUnitTimestamp(0));
+        assertEquals(7, parser.processRtpPacket(packet3, 0, packet3.length, TIMESTAMP + 2 * 1024, true));
+        for (int i = 0; i < 7; i++) {
+            assertEquals(TIMESTAMP + (i + 2) * 1024, parser.getAccessUnitTimestamp(i));
+            assertArrayEquals(new byte[] { (byte) (i + 2), (byte) (i + 2) }, getAccessUnit(parser, i));
+        }
+    }
+
+    private static byte[] concat(@NonNull byte[] a, @NonNull byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.VideoCodecUtils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class H265RtpParserTest {
+
+    // AP (type 48) with VPS, SPS and PPS, as sent by cameras before each IRAP picture. RTP header stripped.
+    private static final byte[] PAYLOAD_AP_VPS_SPS_PPS = {
+            0x60, 0x01,
+            0x00, 0x17,
+            0x40, 0x01, 0x0C, 0x01, (byte) 0xFF, (byte) 0xFF, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, (byte) 0x80, 0x00, 0x00, 0x03,
+            0x00, 0x00, 0x03, 0x00, 0x78, (byte) 0xAC, 0x09,
+            0x00, 0x0A,
+            0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, (byte) 0x80,
+            0x00, 0x08,
+            0x44, 0x01, (byte) 0xC0, (byte) 0xF2, (byte) 0xF0, 0x3C, (byte) 0x90, 0x00,
+    };
+
+    // IDR_W_RADL (type 19) split into three FU (type 49) packets
+    private static final byte[] PAYLOAD_FU_START = { 0x62, 0x01, (byte) 0x93, (byte) 0xAF, 0x01, 0x02 };
+    private static final byte[] PAYLOAD_FU_MIDDLE = { 0x62, 0x01, 0x13, 0x03, 0x04 };
+    private static final byte[] PAYLOAD_FU_END = { 0x62, 0x01, 0x53, 0x05 };
+
+    private static byte[] getNalUnit(@NonNull H265RtpParser parser, @NonNull byte[] nalUnit) {
+        return Arrays.copyOf(nalUnit, parser.getNalUnitLength());
+    }
+
+    @Test
+    public void ap_parameterSets() {
+        H265RtpParser parser = new H265RtpParser();
+        assertNull(parser.processRtpPacketAndGetNalUnit(PAYLOAD_AP_VPS_SPS_PPS, PAYLOAD_AP_VPS_SPS_PPS.length));
+        assertEquals(3, parser.getAggregatedNalUnitCount());
+        assertEquals(VideoCodecUtils.H265_NAL_VPS, parser.getNalUnitType(PAYLOAD_AP_VPS_SPS_PPS, parser.getAggregatedNalUnitOffset(0)));
+        assertEquals(23, parser.getAggregatedNalUnitLength(0));
+        assertEquals(VideoCodecUtils.H265_NAL_SPS, parser.getNalUnitType(PAYLOAD_AP_VPS_SPS_PPS, parser.getAggregatedNalUnitOffset(1)));
+        assertEquals(10, parser.getAggregatedNalUnitLength(1));
+        assertEquals(VideoCodecUtils.H265_NAL_PPS, parser.getNalUnitType(PAYLOAD_AP_VPS_SPS_PPS, parser.getAggregatedNalUnitOffset(2)));
+        assertEquals(PAYLOAD_AP_VPS_SPS_PPS.length, parser.getAggregatedNalUnitOffset(2) + parser.getAggregatedNalUnitLength(2));
+    }
+
+    @Test
+    public void fu_reassembled() {
+        H265RtpParser parser = new H265RtpParser();
+        assertNull(parser.processRtpPacketAndGetNalUnit(PAYLOAD_FU_START, PAYLOAD_FU_START.length));
+        assertNull(parser.processRtpPacketAndGetNalUnit(PAYLOAD_FU_MIDDLE, PAYLOAD_FU_MIDDLE.length));
+        byte[] nalUnit = parser.processRtpPacketAndGetNalUnit(PAYLOAD_FU_END, PAYLOAD_FU_END.length);
+        assertNotNull(nalUnit);
+        // Start code, reconstructed 2 bytes NAL unit header, payload
+        assertArrayEquals(
+                new byte[] { 0x00, 0x00, 0x00, 0x01, 0x26, 0x01, (byte) 0xAF, 0x01, 0x02, 0x03, 0x04, 0x05 },
+                getNalUnit(parser, nalUnit));
+        assertEquals(VideoCodecUtils.H265_NAL_IDR_W_RADL, parser.getNalUnitType(nalUnit, 4));
+        assertTrue(VideoCodecUtils.isH265IRAP(parser.getNalUnitType(nalUnit, 4)));
+    }
+
+    @Test
+    public void fu_startLost() {
+        H265RtpParser parser = new H265RtpParser();
+        assertNull(parser.processRtpPacketAndGetNalUnit(PAYLOAD_FU_MIDDLE, PAYLOAD_FU_MIDDLE.length));
+        assertNull(parser.processRtpPacketAndGetNalUnit(PAYLOAD_FU_END, PAYLOAD_FU_END.length));
+    }
+
+    @Test
+    public void singleNalUnit() {
+        H265RtpParser parser = new H265RtpParser();
+        // TRAIL_R
+        byte[] payload = { 0x02, 0x01, (byte) 0xD0, 0x11 };
+        byte[] nalUnit = parser.processRtpPacketAndGetNalUnit(payload, payload.length);
+        assertNotNull(nalUnit);
+        assertArrayEquals(new byte[] { 0x00, 0x00, 0x00, 0x01, 0x02, 0x01, (byte) 0xD0, 0x11 }, getNalUnit(parser, nalUnit));
+        assertEquals(VideoCodecUtils.H265_NAL_TRAIL_R, parser.getNalUnitType(nalUnit, 4));
+        assertFalse(VideoCodecUtils.isH265IRAP(VideoCodecUtils.H265_NAL_TRAIL_R));
+    }
+
+}
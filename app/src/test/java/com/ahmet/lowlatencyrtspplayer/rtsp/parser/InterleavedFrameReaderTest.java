@@ -0,0 +1,245 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReadAheadBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+// Real android.util.Pair needed for RTSP message headers
+@RunWith(RobolectricTestRunner.class)
+public class InterleavedFrameReaderTest {
+
+    // Records RTSP messages as "<status code or request line>|CSeq|content"
+    private static class RecordingListener implements InterleavedFrameReader.RtspMessageListener {
+        final ArrayList<String> messages = new ArrayList<>();
+
+        @Override
+        public void onRtspResponse(int statusCode, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content) {
+            messages.add(statusCode + "|" + RtspResponseReader.getCSeq(headers) + "|" + content);
+        }
+
+        @Override
+        public void onRtspRequest(@NonNull String requestLine, @NonNull ArrayList<Pair<String, String>> headers, @NonNull String content) {
+            messages.add(requestLine + "|" + RtspResponseReader.getCSeq(headers) + "|" + content);
+        }
+    }
+
+    // Returns at most chunkSize bytes per read, like a socket with data arriving in pieces
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int chunkSize;
+
+        ChunkedInputStream(@NonNull byte[] data, int chunkSize) {
+            super(data);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(@NonNull byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+
+    // RTP version 2 packet of the given size filled with a byte pattern
+    @NonNull
+    private static byte[] getPacket(int size, int seed) {
+        byte[] packet = new byte[size];
+        for (int i = 0; i < size; i++)
+            packet[i] = (byte) (seed + i);
+        packet[0] = (byte) 0x80;
+        return packet;
+    }
+
+    private static void writeFrame(@NonNull ByteArrayOutputStream out, int channel, @NonNull byte[] packet) {
+        out.write('$');
+        out.write(channel);
+        out.write(packet.length >> 8);
+        out.write(packet.length);
+        out.write(packet, 0, packet.length);
+    }
+
+    private static void writeString(@NonNull ByteArrayOutputStream out, @NonNull String s) {
+        byte[] data = s.getBytes(StandardCharsets.US_ASCII);
+        out.write(data, 0, data.length);
+    }
+
+    private static void assertFrame(@NonNull InterleavedFrameReader frameReader, int channel, @NonNull byte[] packet) throws Exception {
+        assertTrue(frameReader.readFrame());
+        assertEquals(channel, frameReader.getChannel());
+        assertEquals(packet.length, frameReader.getLength());
+        int offset = frameReader.getOffset();
+        assertArrayEquals(packet, Arrays.copyOfRange(frameReader.getData(), offset, offset + packet.length));
+    }
+
+    @Test
+    public void frames_partialHeader() throws Exception {
+        byte[] rtp = getPacket(20, 1);
+        byte[] rtcp = getPacket(9, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, 0, rtp);
+        writeFrame(out, 1, rtcp);
+        // Headers split across reads
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(
+                new ReadAheadBuffer(new ChunkedInputStream(out.toByteArray(), 3), 64));
+        assertFrame(frameReader, 0, rtp);
+        assertFrame(frameReader, 1, rtcp);
+    }
+
+    @Test
+    public void frame_largerThanBuffer() throws Exception {
+        byte[] small = getPacket(8, 3);
+        byte[] big = getPacket(1500, 4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, 0, small);
+        writeFrame(out, 2, big);
+        writeFrame(out, 0, small);
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(new ChunkedInputStream(out.toByteArray(), 100), 32);
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(readBuffer);
+        assertFrame(frameReader, 0, small);
+        assertFrame(frameReader, 2, big);
+        assertTrue(readBuffer.getData().length >= big.length);
+        assertFrame(frameReader, 0, small);
+    }
+
+    @Test
+    public void frames_bufferCompacted() throws Exception {
+        // 14-byte frames do not divide the buffer, every few frames straddle its end
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++)
+            writeFrame(out, 0, getPacket(10, i));
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(new ChunkedInputStream(out.toByteArray(), 32), 32);
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(readBuffer);
+        byte[] data = readBuffer.getData();
+        for (int i = 0; i < 20; i++)
+            assertFrame(frameReader, 0, getPacket(10, i));
+        // Packets fit, buffer never grown
+        assertSame(data, readBuffer.getData());
+    }
+
+    @Test
+    public void truncatedFrame_throws() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, 0, getPacket(20, 5));
+        byte[] data = Arrays.copyOf(out.toByteArray(), 15);
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(
+                new ReadAheadBuffer(new ByteArrayInputStream(data), 64));
+        try {
+            frameReader.readFrame();
+            fail("EOF expected");
+        } catch (EOFException ignored) {
+        }
+    }
+
+    @Test
+    public void partialResponse_channelTimesOut() throws Exception {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+                 SocketChannel server = serverChannel.accept()) {
+                client.socket().setSoTimeout(100);
+                ReadAheadBuffer readBuffer = new ReadAheadBuffer(client);
+                InterleavedFrameReader frameReader = new InterleavedFrameReader(readBuffer);
+                // Keep-alive response stalled in the middle of the headers
+                server.write(ByteBuffer.wrap("RTSP/1.0 200 OK\r\nCSe".getBytes(StandardCharsets.US_ASCII)));
+                long startMs = System.currentTimeMillis();
+                try {
+                    frameReader.readFrame();
+                    fail("Timeout expected");
+                } catch (SocketTimeoutException e) {
+                    assertTrue(System.currentTimeMillis() - startMs >= 100);
+                }
+                readBuffer.release();
+            }
+        }
+    }
+
+    @Test
+    public void messagesBetweenFrames_demultiplexed() throws Exception {
+        byte[] rtp1 = getPacket(30, 6);
+        byte[] rtcp = getPacket(12, 7);
+        byte[] rtp2 = getPacket(40, 8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, 0, rtp1);
+        // Keep-alive response with body
+        writeString(out,
+                "RTSP/1.0 200 OK\r\n" +
+                "CSeq: 6\r\n" +
+                "Session: 4066342621205\r\n" +
+                "Content-Length: 5\r\n" +
+                "\r\n" +
+                "hello");
+        writeFrame(out, 1, rtcp);
+        // Server request
+        writeString(out,
+                "SET_PARAMETER rtsp://10.0.1.78/video RTSP/1.0\r\n" +
+                "CSeq: 12\r\n" +
+                "Content-Length: 9\r\n" +
+                "\r\n" +
+                "ping: 1\r\n");
+        writeFrame(out, 0, rtp2);
+        // Response without body
+        writeString(out,
+                "RTSP/1.0 401 Unauthorized\r\n" +
+                "CSeq: 7\r\n" +
+                "\r\n");
+        writeFrame(out, 0, rtp1);
+
+        // Messages split across many reads
+        RecordingListener listener = new RecordingListener();
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(
+                new ReadAheadBuffer(new ChunkedInputStream(out.toByteArray(), 7), 32), listener);
+        assertFrame(frameReader, 0, rtp1);
+        assertFalse(frameReader.readFrame());
+        assertEquals(1, listener.messages.size());
+        assertEquals("200|6|hello", listener.messages.get(0));
+        assertFrame(frameReader, 1, rtcp);
+        assertFalse(frameReader.readFrame());
+        assertEquals("SET_PARAMETER rtsp://10.0.1.78/video RTSP/1.0|12|ping: 1\r\n", listener.messages.get(1));
+        assertFrame(frameReader, 0, rtp2);
+        assertFalse(frameReader.readFrame());
+        assertEquals("401|7|", listener.messages.get(2));
+        assertFrame(frameReader, 0, rtp1);
+        assertEquals(3, listener.messages.size());
+    }
+
+    @Test
+    public void invalidFirstByte_throws() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, 0, getPacket(10, 9));
+        // Garbage followed by a valid frame, which must not be searched for
+        out.write(0x00);
+        out.write(0x17);
+        writeFrame(out, 0, getPacket(10, 10));
+        RecordingListener listener = new RecordingListener();
+        InterleavedFrameReader frameReader = new InterleavedFrameReader(
+                new ReadAheadBuffer(new ByteArrayInputStream(out.toByteArray()), 64), listener);
+        assertFrame(frameReader, 0, getPacket(10, 9));
+        try {
+            frameReader.readFrame();
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Unexpected data"));
+        }
+        assertTrue(listener.messages.isEmpty());
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OpusParserTest {
+
+    @Test
+    public void singleFrame() {
+        OpusParser parser = new OpusParser();
+        // CELT-only FB 20 ms (config 31), stereo, code 0
+        byte[] payload = { (byte) 0xFC, 0x11, 0x22, 0x33 };
+        assertTrue(parser.processRtpPacket(payload, 0, payload.length));
+        assertEquals(960, parser.getSampleCount());
+
+        // SILK-only WB 60 ms (config 11), mono, code 0
+        payload = new byte[] { 0x58, 0x11 };
+        assertTrue(parser.processRtpPacket(payload, 0, payload.length));
+        assertEquals(2880, parser.getSampleCount());
+    }
+
+    @Test
+    public void twoFrames() {
+        OpusParser parser = new OpusParser();
+        // Hybrid FB 10 ms (config 14), code 1, frames of equal size
+        byte[] payload = { 0x71, 0x01, 0x02, 0x03, 0x04 };
+        assertTrue(parser.processRtpPacket(payload, 0, payload.length));
+        assertEquals(960, parser.getSampleCount());
+        // Odd frames size
+        assertFalse(parser.processRtpPacket(payload, 0, payload.length - 1));
+
+        // Code 2, first frame of 2 bytes
+        payload = new byte[] { 0x72, 0x02, 0x11, 0x22, 0x33 };
+        assertTrue(parser.processRtpPacket(payload, 0, payload.length));
+        assertEquals(960, parser.getSampleCount());
+        // First frame exceeds packet
+        payload[1] = 10;
+        assertFalse(parser.processRtpPacket(payload, 0, payload.length));
+    }
+
+    @Test
+    public void arbitraryFrames() {
+        OpusParser parser = new OpusParser();
+        // CELT-only 2.5 ms (config 16), code 3, 6 frames
+        byte[] payload = { (byte) 0x83, 0x06, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66 };
+        assertTrue(parser.processRtpPacket(payload, 0, payload.length));
+        assertEquals(720, parser.getSampleCount());
+
+        // No frames
+        payload[1] = 0;
+        assertFalse(parser.processRtpPacket(payload, 0, payload.length));
+        // 7 frames of 20 ms exceed 120 ms
+        payload[0] = (byte) 0xFB;
+        payload[1] = 7;
+        assertFalse(parser.processRtpPacket(payload, 0, payload.length));
+        assertEquals(2, parser.getDroppedPacketCount());
+    }
+
+}
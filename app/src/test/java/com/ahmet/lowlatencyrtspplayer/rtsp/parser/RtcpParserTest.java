@@ -0,0 +1,152 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class RtcpParserTest {
+
+    private static final long SSRC = 0x12345678L;
+    private static final long NTP_TIMESTAMP = 0xE8A1B2C3_80000000L;
+
+    private static class RecordingListener implements RtcpParser.RtcpParserListener {
+        final ArrayList<String> events = new ArrayList<>();
+
+        @Override
+        public void onRtcpSenderReport(long ssrc, long ntpTimestamp, long rtpTimestamp, long packetCount, long octetCount) {
+            events.add("SR " + Long.toHexString(ssrc) + " " + Long.toHexString(ntpTimestamp) + " " + rtpTimestamp + " " + packetCount + " " + octetCount);
+        }
+
+        @Override
+        public void onRtcpSdesCname(long ssrc, @NonNull String cname) {
+            events.add("CNAME " + Long.toHexString(ssrc) + " " + cname);
+        }
+
+        @Override
+        public void onRtcpBye(long ssrc) {
+            events.add("BYE " + Long.toHexString(ssrc));
+        }
+    }
+
+    private final RecordingListener listener = new RecordingListener();
+
+    @NonNull
+    private static byte[] getSenderReport() {
+        byte[] sr = new byte[28];
+        sr[0] = (byte) 0x80;
+        sr[1] = (byte) RtcpParser.RTCP_PACKET_TYPE_SR;
+        sr[3] = 6;
+        RtcpParser.writeUint32(sr, 4, SSRC);
+        RtcpParser.writeUint32(sr, 8, NTP_TIMESTAMP >>> 32);
+        RtcpParser.writeUint32(sr, 12, NTP_TIMESTAMP & 0xFFFFFFFFL);
+        RtcpParser.writeUint32(sr, 16, 0xFFFFFF00L);
+        RtcpParser.writeUint32(sr, 20, 1000);
+        RtcpParser.writeUint32(sr, 24, 1200000);
+        return sr;
+    }
+
+    @NonNull
+    private static byte[] concat(@NonNull byte[]... packets) {
+        int length = 0;
+        for (byte[] packet : packets)
+            length += packet.length;
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] packet : packets) {
+            System.arraycopy(packet, 0, data, offset, packet.length);
+            offset += packet.length;
+        }
+        return data;
+    }
+
+    @Test
+    public void senderReport_parsed() {
+        byte[] sr = getSenderReport();
+        assertTrue(RtcpParser.parse(sr, 0, sr.length, listener));
+        assertEquals(1, listener.events.size());
+        assertEquals("SR 12345678 e8a1b2c380000000 4294967040 1000 1200000", listener.events.get(0));
+    }
+
+    @Test
+    public void compoundPacket_parsed() {
+        // SR, SDES with CNAME "cam" and BYE, as sent by a server on stream end
+        byte[] sdes = {
+                (byte) 0x81, (byte) RtcpParser.RTCP_PACKET_TYPE_SDES, 0, 3,
+                0x12, 0x34, 0x56, 0x78,
+                1, 3, 'c', 'a',
+                'm', 0, 0, 0 };
+        byte[] bye = {
+                (byte) 0x81, (byte) RtcpParser.RTCP_PACKET_TYPE_BYE, 0, 1,
+                0x12, 0x34, 0x56, 0x78 };
+        byte[] data = concat(new byte[3], getSenderReport(), sdes, bye);
+        assertTrue(RtcpParser.parse(data, 3, data.length - 3, listener));
+        assertEquals(3, listener.events.size());
+        assertTrue(listener.events.get(0).startsWith("SR 12345678"));
+        assertEquals("CNAME 12345678 cam", listener.events.get(1));
+        assertEquals("BYE 12345678", listener.events.get(2));
+    }
+
+    @Test
+    public void invalidVersion_rejected() {
+        byte[] sr = getSenderReport();
+        sr[0] = 0x40;
+        assertFalse(RtcpParser.parse(sr, 0, sr.length, listener));
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void invalidSize_rejected() {
+        byte[] sr = getSenderReport();
+        // Length exceeds data
+        assertFalse(RtcpParser.parse(sr, 0, sr.length - 4, listener));
+        assertTrue(listener.events.isEmpty());
+
+        // SR shorter than its fixed part is skipped
+        byte[] shortSr = { (byte) 0x80, (byte) RtcpParser.RTCP_PACKET_TYPE_SR, 0, 1, 0x12, 0x34, 0x56, 0x78 };
+        assertTrue(RtcpParser.parse(shortSr, 0, shortSr.length, listener));
+        assertTrue(listener.events.isEmpty());
+
+        // CNAME item length exceeds SDES packet
+        byte[] sdes = {
+                (byte) 0x81, (byte) RtcpParser.RTCP_PACKET_TYPE_SDES, 0, 2,
+                0x12, 0x34, 0x56, 0x78,
+                1, 10, 'c', 'a' };
+        assertTrue(RtcpParser.parse(sdes, 0, sdes.length, listener));
+        assertTrue(listener.events.isEmpty());
+
+        // BYE count exceeds packet
+        byte[] bye = { (byte) 0x83, (byte) RtcpParser.RTCP_PACKET_TYPE_BYE, 0, 1, 0x12, 0x34, 0x56, 0x78 };
+        assertTrue(RtcpParser.parse(bye, 0, bye.length, listener));
+        assertEquals(1, listener.events.size());
+    }
+
+    @Test
+    public void receiverReport_written() {
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 90000, 100);
+        stats.onRtpPacket(100, 0, 1000);
+        byte[] cname = "client".getBytes(StandardCharsets.US_ASCII);
+        int size = RtcpParser.getReceiverReportSize(cname.length, 1);
+        byte[] data = new byte[4 + size];
+        int length = RtcpParser.writeReceiverReport(data, 4, 0xCAFEL, cname, new RtpReceiverStatistics[] { stats }, 1, 2000);
+        assertEquals(size, length);
+        assertEquals(0, length % 4);
+
+        // RR with one report block
+        assertEquals((byte) 0x81, data[4]);
+        assertEquals((byte) RtcpParser.RTCP_PACKET_TYPE_RR, data[5]);
+        assertEquals(0xCAFEL, RtcpParser.readUint32(data, 8));
+        assertEquals(SSRC, RtcpParser.readUint32(data, 12));
+        assertEquals(100, RtcpParser.readUint32(data, 20));
+
+        // Parsed back, RR skipped
+        assertTrue(RtcpParser.parse(data, 4, length, listener));
+        assertEquals(1, listener.events.size());
+        assertEquals("CNAME cafe client", listener.events.get(0));
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RtpJitterBufferTest {
+
+    private static final int PLAYOUT_DELAY_MS = 50;
+
+    private static class RecordingListener implements RtpJitterBuffer.RtpJitterBufferListener {
+        final ArrayList<Integer> ready = new ArrayList<>();
+        // Pairs of the first lost sequence number and count
+        final ArrayList<Integer> lost = new ArrayList<>();
+
+        @Override
+        public void onRtpPacketReady(@NonNull byte[] data, int offset, int length) {
+            assertEquals(RtpParser.RTP_HEADER_SIZE + 1, length);
+            ready.add(((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF));
+        }
+
+        @Override
+        public void onRtpPacketsLost(int sequenceNumber, int count) {
+            lost.add(sequenceNumber);
+            lost.add(count);
+        }
+    }
+
+    private final RecordingListener listener = new RecordingListener();
+
+    private static boolean push(@NonNull RtpJitterBuffer jitterBuffer, int sequence, long nowMs) {
+        byte[] packet = new byte[RtpParser.RTP_HEADER_SIZE + 1];
+        packet[0] = (byte) 0x80;
+        packet[1] = 96;
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        return jitterBuffer.push(packet, 0, packet.length, nowMs);
+    }
+
+    @NonNull
+    private static List<Integer> list(Integer... values) {
+        return Arrays.asList(values);
+    }
+
+    @Test
+    public void inOrder_passedImmediately() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        for (int i = 100; i < 103; i++)
+            assertTrue(push(jitterBuffer, i, 0));
+        assertEquals(list(100, 101, 102), listener.ready);
+        assertTrue(listener.lost.isEmpty());
+    }
+
+    @Test
+    public void reordered_sorted() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 10, 0));
+        assertTrue(push(jitterBuffer, 12, 1));
+        assertTrue(push(jitterBuffer, 13, 2));
+        assertEquals(list(10), listener.ready);
+        assertTrue(push(jitterBuffer, 11, 3));
+        assertEquals(list(10, 11, 12, 13), listener.ready);
+        assertTrue(listener.lost.isEmpty());
+        assertEquals(0, jitterBuffer.getLostPackets());
+    }
+
+    @Test
+    public void duplicate_dropped() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 10, 0));
+        assertTrue(push(jitterBuffer, 12, 0));
+        // Still buffered
+        assertFalse(push(jitterBuffer, 12, 1));
+        assertEquals(1, jitterBuffer.getDuplicatePackets());
+        assertTrue(push(jitterBuffer, 11, 2));
+        assertEquals(list(10, 11, 12), listener.ready);
+        // Already passed, counted as late
+        assertFalse(push(jitterBuffer, 11, 3));
+        assertEquals(1, jitterBuffer.getLatePackets());
+        assertEquals(list(10, 11, 12), listener.ready);
+    }
+
+    @Test
+    public void late_droppedAfterPlayoutDelay() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 10, 0));
+        assertTrue(push(jitterBuffer, 12, 0));
+        jitterBuffer.drain(PLAYOUT_DELAY_MS - 1);
+        assertEquals(list(10), listener.ready);
+        jitterBuffer.drain(PLAYOUT_DELAY_MS);
+        assertEquals(list(10, 12), listener.ready);
+        assertEquals(list(11, 1), listener.lost);
+
+        assertFalse(push(jitterBuffer, 11, PLAYOUT_DELAY_MS + 1));
+        assertEquals(1, jitterBuffer.getLatePackets());
+        assertEquals(list(10, 12), listener.ready);
+    }
+
+    @Test
+    public void lost_reported() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 0, 0));
+        assertTrue(push(jitterBuffer, 3, 0));
+        assertTrue(push(jitterBuffer, 4, 10));
+        // Playout delay of the packet after the gap passed
+        assertTrue(push(jitterBuffer, 6, PLAYOUT_DELAY_MS));
+        assertEquals(list(0, 3, 4), listener.ready);
+        assertEquals(list(1, 2), listener.lost);
+
+        jitterBuffer.flush();
+        assertEquals(list(0, 3, 4, 6), listener.ready);
+        assertEquals(list(1, 2, 5, 1), listener.lost);
+        assertEquals(3, jitterBuffer.getLostPackets());
+    }
+
+    @Test
+    public void farAhead_skipped() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(8, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 0, 0));
+        assertTrue(push(jitterBuffer, 2, 0));
+        // Beyond capacity, buffered packets released
+        assertTrue(push(jitterBuffer, 20, 1));
+        assertEquals(list(0, 2, 20), listener.ready);
+        assertEquals(list(1, 1, 3, 17), listener.lost);
+    }
+
+    @Test
+    public void sequenceWraparound() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 65534, 0));
+        assertTrue(push(jitterBuffer, 0, 0));
+        assertTrue(push(jitterBuffer, 65535, 0));
+        assertTrue(push(jitterBuffer, 2, 0));
+        assertEquals(list(65534, 65535, 0), listener.ready);
+        jitterBuffer.drain(PLAYOUT_DELAY_MS);
+        assertEquals(list(65534, 65535, 0, 2), listener.ready);
+        assertEquals(list(1, 1), listener.lost);
+        // Packet before the wrap is late
+        assertFalse(push(jitterBuffer, 65533, PLAYOUT_DELAY_MS));
+        assertEquals(1, jitterBuffer.getLatePackets());
+    }
+
+    @Test
+    public void sequenceRestart_accepted() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 5000, 0));
+        assertTrue(push(jitterBuffer, 5002, 0));
+        // Sender restarted. Treated as late packets first, the new sequence accepted after MAX_MISORDER of them.
+        for (int i = 0; i < 100; i++)
+            assertFalse(push(jitterBuffer, 10 + i, 1));
+        assertEquals(100, jitterBuffer.getLatePackets());
+        assertTrue(push(jitterBuffer, 110, 1));
+        assertTrue(push(jitterBuffer, 111, 1));
+        // Packets buffered before restart flushed
+        assertEquals(list(5000, 5002, 110, 111), listener.ready);
+        assertEquals(list(5001, 1), listener.lost);
+    }
+
+    @Test
+    public void late_notCountedAsRestart() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertTrue(push(jitterBuffer, 1000, 0));
+        for (int i = 0; i < 100; i++)
+            assertFalse(push(jitterBuffer, 900, 0));
+        // In sequence packet resets consecutive late counter
+        assertTrue(push(jitterBuffer, 1001, 0));
+        assertFalse(push(jitterBuffer, 900, 0));
+        assertEquals(list(1000, 1001), listener.ready);
+    }
+
+    @Test
+    public void shortPacket_dropped() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(RtpJitterBuffer.DEFAULT_CAPACITY, PLAYOUT_DELAY_MS, listener);
+        assertFalse(jitterBuffer.push(new byte[RtpParser.RTP_HEADER_SIZE - 1], 0, RtpParser.RTP_HEADER_SIZE - 1, 0));
+        assertTrue(listener.ready.isEmpty());
+    }
+
+}
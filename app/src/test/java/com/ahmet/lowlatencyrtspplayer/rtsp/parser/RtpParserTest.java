@@ -0,0 +1,114 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class RtpParserTest {
+
+    private static class Element {
+        final int id;
+        final byte[] value;
+
+        Element(int id, @NonNull byte[] data, int offset, int length) {
+            this.id = id;
+            this.value = new byte[length];
+            System.arraycopy(data, offset, value, 0, length);
+        }
+    }
+
+    private static ArrayList<Element> parseElements(@NonNull RtpParser.RtpHeader header) {
+        ArrayList<Element> elements = new ArrayList<>();
+        assertTrue(header.parseExtension((id, data, offset, length) -> elements.add(new Element(id, data, offset, length))));
+        return elements;
+    }
+
+    @Test
+    public void header_parsedInPlace() {
+        byte[] packet = {
+                0x00, 0x00, // Preceding data in the buffer
+                (byte) 0x80, (byte) 0xE0, 0x01, 0x02, 0x00, 0x00, 0x10, 0x00, (byte) 0xCA, (byte) 0xFE, 0x00, 0x01,
+                0x65, 0x01, 0x02 };
+        RtpParser.RtpHeader header = new RtpParser.RtpHeader();
+        assertTrue(header.parse(packet, 2, packet.length - 2));
+        assertEquals(2, header.version);
+        assertEquals(1, header.marker);
+        assertEquals(96, header.payloadType);
+        assertEquals(0x0102, header.sequenceNumber);
+        assertEquals(0x1000, header.timeStamp);
+        assertEquals(0xCAFE0001L, header.ssrc);
+        assertEquals(14, header.payloadOffset);
+        assertEquals(3, header.payloadSize);
+        assertFalse(header.parse(packet, 2, RtpParser.RTP_HEADER_SIZE - 1));
+    }
+
+    @Test
+    public void csrcExtensionPadding_skipped() {
+        byte[] packet = {
+                // V=2, P=1, X=1, CC=2
+                (byte) 0xB2, 0x60, 0x00, 0x01, 0x00, 0x00, 0x00, 0x01, 0x11, 0x22, 0x33, 0x44,
+                // CSRC list
+                0x00, 0x00, 0x00, 0x0A, 0x00, 0x00, 0x00, 0x0B,
+                // One-byte header extension, 2 words
+                (byte) 0xBE, (byte) 0xDE, 0x00, 0x02,
+                // ID 1, 2 bytes; padding; ID 3, 3 bytes; padding
+                0x11, 0x55, 0x66, 0x00, 0x32, 0x01, 0x02, 0x03,
+                // Payload
+                0x65, (byte) 0x88, (byte) 0x84,
+                // 3 bytes of padding
+                0x00, 0x00, 0x03 };
+        RtpParser.RtpHeader header = new RtpParser.RtpHeader();
+        assertTrue(header.parse(packet, 0, packet.length));
+        assertEquals(2, header.cc);
+        assertEquals(0x0A, header.getCsrc(0));
+        assertEquals(0x0B, header.getCsrc(1));
+        assertEquals(RtpParser.EXTENSION_PROFILE_ONE_BYTE, header.extensionProfile);
+        assertEquals(8, header.extensionLength);
+        assertEquals(32, header.payloadOffset);
+        assertEquals(3, header.payloadSize);
+        assertEquals(0x65, packet[header.payloadOffset]);
+
+        ArrayList<Element> elements = parseElements(header);
+        assertEquals(2, elements.size());
+        assertEquals(1, elements.get(0).id);
+        assertArrayEquals(new byte[] { 0x55, 0x66 }, elements.get(0).value);
+        assertEquals(3, elements.get(1).id);
+        assertArrayEquals(new byte[] { 0x01, 0x02, 0x03 }, elements.get(1).value);
+    }
+
+    @Test
+    public void twoByteExtension_parsed() {
+        byte[] packet = {
+                (byte) 0x90, 0x60, 0x00, 0x01, 0x00, 0x00, 0x00, 0x01, 0x11, 0x22, 0x33, 0x44,
+                // Two-byte header extension, 1 word
+                0x10, 0x00, 0x00, 0x01,
+                // ID 7, 1 byte, padding
+                0x07, 0x01, 0x42, 0x00,
+                0x41 };
+        RtpParser.RtpHeader header = new RtpParser.RtpHeader();
+        assertTrue(header.parse(packet, 0, packet.length));
+        assertEquals(20, header.payloadOffset);
+        assertEquals(1, header.payloadSize);
+        ArrayList<Element> elements = parseElements(header);
+        assertEquals(1, elements.size());
+        assertEquals(7, elements.get(0).id);
+        assertArrayEquals(new byte[] { 0x42 }, elements.get(0).value);
+    }
+
+    @Test
+    public void malformedHeader_rejected() {
+        RtpParser.RtpHeader header = new RtpParser.RtpHeader();
+        // Extension length exceeds packet
+        byte[] extension = { (byte) 0x90, 0x60, 0x00, 0x01, 0x00, 0x00, 0x00, 0x01, 0x11, 0x22, 0x33, 0x44,
+                (byte) 0xBE, (byte) 0xDE, 0x00, 0x04, 0x10, 0x00 };
+        assertFalse(header.parse(extension, 0, extension.length));
+        // Padding count exceeds packet
+        byte[] padding = { (byte) 0xA0, 0x60, 0x00, 0x01, 0x00, 0x00, 0x00, 0x01, 0x11, 0x22, 0x33, 0x44, 0x41, 0x10 };
+        assertFalse(header.parse(padding, 0, padding.length));
+    }
+
+}
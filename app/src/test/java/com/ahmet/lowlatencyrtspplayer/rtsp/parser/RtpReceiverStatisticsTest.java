@@ -0,0 +1,137 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RtpReceiverStatisticsTest {
+
+    private static final long SSRC = 0x12345678L;
+    private static final int REPORT_BLOCK_SIZE = 24;
+
+    // Report block fields, see RFC 3550 6.4.1
+    private static class ReportBlock {
+        final long ssrc;
+        final int fractionLost;
+        final int cumulativeLost;
+        final long extendedHighestSequence;
+        final long jitter;
+        final long lastSenderReport;
+        final long delaySinceLastSenderReport;
+
+        ReportBlock(@NonNull RtpReceiverStatistics stats, long nowMs) {
+            byte[] data = new byte[REPORT_BLOCK_SIZE];
+            stats.writeReportBlock(data, 0, nowMs);
+            ssrc = RtcpParser.readUint32(data, 0);
+            fractionLost = data[4] & 0xFF;
+            // 24-bit signed
+            cumulativeLost = (int) (RtcpParser.readUint32(data, 4) << 8) >> 8;
+            extendedHighestSequence = RtcpParser.readUint32(data, 8);
+            jitter = RtcpParser.readUint32(data, 12);
+            lastSenderReport = RtcpParser.readUint32(data, 16);
+            delaySinceLastSenderReport = RtcpParser.readUint32(data, 20);
+        }
+    }
+
+    @Test
+    public void extendedHighestSequence_wraparound() {
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 90000, 65530);
+        for (int i = 65530; i < 65536 + 5; i++)
+            stats.onRtpPacket(i & 0xFFFF, 0, 0);
+        assertEquals(65536 + 4, stats.getExtendedHighestSequence());
+        // Reordered packet before the wrap does not count a cycle
+        stats.onRtpPacket(65535, 0, 0);
+        assertEquals(65536 + 4, stats.getExtendedHighestSequence());
+
+        ReportBlock block = new ReportBlock(stats, 0);
+        assertEquals(SSRC, block.ssrc);
+        assertEquals(65536 + 4, block.extendedHighestSequence);
+        // Duplicate counted as received, so loss is negative
+        assertEquals(-1, block.cumulativeLost);
+        assertEquals(0, block.fractionLost);
+    }
+
+    @Test
+    public void loss_cumulativeAndFractional() {
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 90000, 0);
+        // 8 of 10 received
+        for (int i = 0; i < 10; i++) {
+            if (i != 2 && i != 5)
+                stats.onRtpPacket(i, 0, 0);
+        }
+        ReportBlock block = new ReportBlock(stats, 0);
+        assertEquals(2 * 256 / 10, block.fractionLost);
+        assertEquals(2, block.cumulativeLost);
+        assertEquals(2, stats.getCumulativeLost());
+        assertEquals(51 / 256f, stats.getFractionLost(), 0.0001f);
+
+        // No loss in the next interval, cumulative kept
+        for (int i = 10; i < 20; i++)
+            stats.onRtpPacket(i, 0, 0);
+        block = new ReportBlock(stats, 0);
+        assertEquals(0, block.fractionLost);
+        assertEquals(2, block.cumulativeLost);
+        assertEquals(20, stats.getPacketsReceived() + stats.getCumulativeLost());
+    }
+
+    @Test
+    public void sequenceRestart_detected() {
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 90000, 1000);
+        stats.onRtpPacket(1000, 0, 0);
+        stats.onRtpPacket(1001, 0, 0);
+        // Single big jump ignored
+        stats.onRtpPacket(30000, 0, 0);
+        assertEquals(1001, stats.getExtendedHighestSequence());
+        assertEquals(2, stats.getPacketsReceived());
+        // Two sequential packets after the jump restart statistics
+        stats.onRtpPacket(30001, 0, 0);
+        assertEquals(30001, stats.getExtendedHighestSequence());
+        assertEquals(1, stats.getPacketsReceived());
+        stats.onRtpPacket(30002, 0, 0);
+        assertEquals(0, new ReportBlock(stats, 0).cumulativeLost);
+    }
+
+    @Test
+    public void jitter_rfc3550() {
+        // Clock rate of 1 kHz, one timestamp unit per msec
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 1000, 0);
+        // Transit times 0, 10 and 0 msec
+        stats.onRtpPacket(0, 0, 0);
+        stats.onRtpPacket(1, 20, 30);
+        stats.onRtpPacket(2, 40, 40);
+        // J(i) = J(i-1) + (|D(i-1,i)| - J(i-1))/16 (A.8)
+        double jitter = 10 / 16.0;
+        jitter += (10 - jitter) / 16.0;
+        assertEquals(jitter, stats.getJitterMs(), 0.0001);
+        assertEquals((long) jitter, new ReportBlock(stats, 0).jitter);
+    }
+
+    @Test
+    public void jitter_rtpTimestampWraparound() {
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 1000, 0);
+        stats.onRtpPacket(0, 0xFFFFFFF0L, 1000);
+        // 32 msec later in both clocks
+        stats.onRtpPacket(1, 0x10L, 1032);
+        assertEquals(0, stats.getJitterMs(), 0.0001);
+    }
+
+    @Test
+    public void lastSenderReport_delay() {
+        RtpReceiverStatistics stats = new RtpReceiverStatistics(SSRC, 90000, 0);
+        stats.onRtpPacket(0, 0, 0);
+        ReportBlock block = new ReportBlock(stats, 1000);
+        // No SR received yet
+        assertEquals(0, block.lastSenderReport);
+        assertEquals(0, block.delaySinceLastSenderReport);
+
+        stats.onSenderReport(0x1122334455667788L, 10000);
+        block = new ReportBlock(stats, 11500);
+        // Middle 32 bits of NTP timestamp
+        assertEquals(0x33445566L, block.lastSenderReport);
+        // 1.5 seconds in units of 1/65536 seconds
+        assertEquals(98304, block.delaySinceLastSenderReport);
+    }
+
+}
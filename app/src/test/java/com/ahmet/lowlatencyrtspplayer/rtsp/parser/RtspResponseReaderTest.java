@@ -0,0 +1,162 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import com.ahmet.lowlatencyrtspplayer.rtsp.utils.ReadAheadBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+// Real android.util.Pair and TextUtils needed
+@RunWith(RobolectricTestRunner.class)
+public class RtspResponseReaderTest {
+
+    private static final String STATUS_LINE = "RTSP/1.0 200 OK\r\n";
+
+    // Returns at most chunkSize bytes per read, like a socket with data arriving in pieces
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int chunkSize;
+
+        ChunkedInputStream(@NonNull byte[] data, int chunkSize) {
+            super(data);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(@NonNull byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+
+    @NonNull
+    private static RtspResponseReader getReader(@NonNull byte[] data, int chunkSize) {
+        return new RtspResponseReader(new ReadAheadBuffer(new ChunkedInputStream(data, chunkSize), 64));
+    }
+
+    @NonNull
+    private static RtspResponseReader getReader(@NonNull String data, int chunkSize) {
+        return getReader(data.getBytes(StandardCharsets.US_ASCII), chunkSize);
+    }
+
+    @NonNull
+    private static byte[] concat(@NonNull byte[] junk, @NonNull String s) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(junk, 0, junk.length);
+        byte[] data = s.getBytes(StandardCharsets.US_ASCII);
+        out.write(data, 0, data.length);
+        return out.toByteArray();
+    }
+
+    @NonNull
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void skipToStatusLine_junkBefore() throws Exception {
+        // Tail of an RTP frame and partial matches of the version string split across reads
+        byte[] junk = concat(new byte[] { '$', 0, 0, 8, (byte) 0x80, 'R', 'T' }, "RTSP/1.1 RTSP/1.");
+        RtspResponseReader reader = getReader(concat(junk, STATUS_LINE + "CSeq: 2\r\n\r\n"), 5);
+        assertTrue(reader.skipToStatusLine());
+        assertEquals("200 OK", reader.readLine());
+        ArrayList<Pair<String, String>> headers = reader.readHeaders();
+        assertEquals(2, RtspResponseReader.getCSeq(headers));
+    }
+
+    @Test
+    public void skipToStatusLine_withinLimit() throws Exception {
+        RtspResponseReader reader = getReader(concat(new byte[90000], STATUS_LINE), 1400);
+        assertTrue(reader.skipToStatusLine());
+        assertEquals("200 OK", reader.readLine());
+    }
+
+    @Test
+    public void skipToStatusLine_limitExceeded() throws Exception {
+        // 100 KB checked at most
+        RtspResponseReader reader = getReader(concat(new byte[110000], STATUS_LINE), 1400);
+        assertFalse(reader.skipToStatusLine());
+    }
+
+    @Test
+    public void readLine_growsBuffer() throws Exception {
+        String value = repeat('a', 4000);
+        RtspResponseReader reader = getReader("Session: " + value + "\r\n" + "CSeq: 3\n\r\n", 100);
+        assertEquals("Session: " + value, reader.readLine());
+        // "\n" only terminator
+        assertEquals("CSeq: 3", reader.readLine());
+        assertEquals("", reader.readLine());
+    }
+
+    @Test
+    public void readLine_limitExceeded() throws Exception {
+        // 4098 bytes max
+        RtspResponseReader reader = getReader(repeat('a', 5000) + "\r\n", 1000);
+        try {
+            reader.readLine();
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("No end of line"));
+        }
+    }
+
+    @Test
+    public void readHeaders_multipleReads() throws Exception {
+        String response =
+                STATUS_LINE +
+                "CSeq: 4\r\n" +
+                "Session: 4066342621205;timeout=60\r\n" +
+                "RTP-Info: url=rtsp://10.0.1.78:554/video/trackID=1;seq=9;rtptime=1234\r\n" +
+                "Range: npt=0.000-\r\n" +
+                "\r\n";
+        RtspResponseReader reader = getReader(response, 3);
+        assertTrue(reader.skipToStatusLine());
+        assertEquals("200 OK", reader.readLine());
+        ArrayList<Pair<String, String>> headers = reader.readHeaders();
+        assertEquals(4, headers.size());
+        assertEquals(4, RtspResponseReader.getCSeq(headers));
+        assertEquals(-1, RtspResponseReader.getContentLength(headers));
+        assertEquals("RTP-Info", headers.get(2).first);
+        // Value containing ':'
+        assertEquals("url=rtsp://10.0.1.78:554/video/trackID=1;seq=9;rtptime=1234", headers.get(2).second);
+        assertEquals("npt=0.000-", headers.get(3).second);
+    }
+
+    @Test
+    public void readContent_multipleReads() throws Exception {
+        StringBuilder sdp = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            sdp.append("a=attribute").append(i).append(":value\r\n");
+        String content = sdp.toString();
+        String response =
+                STATUS_LINE +
+                "CSeq: 5\r\n" +
+                "Content-Type: application/sdp\r\n" +
+                "Content-Length: " + content.length() + "\r\n" +
+                "\r\n" +
+                content +
+                "$";
+        RtspResponseReader reader = getReader(response, 7);
+        assertTrue(reader.skipToStatusLine());
+        assertEquals("200 OK", reader.readLine());
+        ArrayList<Pair<String, String>> headers = reader.readHeaders();
+        assertEquals(content.length(), RtspResponseReader.getContentLength(headers));
+        assertEquals(content, reader.readContent(content.length()));
+        // Data after the body left for the frame reader
+        assertEquals("$", reader.readContent(1));
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class VideoRtpParserTest {
+
+    // Parameter sets of a camera with profile-level-id=4D4029 (see RtspClient SDP samples) sent in-band before IDR
+    private static final byte[] PACKET_STAP_A_SPS_PPS_SEI = {
+            // RTP header, PT 96, seq 0x3A2F, ts 0x6E2C81F0
+            (byte) 0x80, 0x60, 0x3A, 0x2F, 0x6E, 0x2C, (byte) 0x81, (byte) 0xF0, 0x5B, 0x0C, 0x41, (byte) 0xD2,
+            // STAP-A NAL HDR
+            0x78,
+            // SPS
+            0x00, 0x12,
+            0x67, 0x4D, 0x40, 0x29, (byte) 0x9A, 0x66, 0x06, 0x40, (byte) 0x9B, (byte) 0xF2, (byte) 0xE0, 0x2D, 0x40, 0x40, 0x40, 0x41, 0x7A, 0x70,
+            // PPS
+            0x00, 0x04,
+            0x68, (byte) 0xEE, 0x3C, (byte) 0x80,
+            // SEI
+            0x00, 0x07,
+            0x06, (byte) 0xE5, 0x01, 0x4B, 0x00, 0x00, (byte) 0x80,
+    };
+
+    // Same NAL units in STAP-B, DON 0x0102
+    private static final byte[] PACKET_STAP_B_SPS_PPS = {
+            (byte) 0x80, 0x60, 0x00, 0x01, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00, 0x01,
+            0x79, 0x01, 0x02,
+            0x00, 0x12,
+            0x67, 0x4D, 0x40, 0x29, (byte) 0x9A, 0x66, 0x06, 0x40, (byte) 0x9B, (byte) 0xF2, (byte) 0xE0, 0x2D, 0x40, 0x40, 0x40, 0x41, 0x7A, 0x70,
+            0x00, 0x04,
+            0x68, (byte) 0xEE, 0x3C, (byte) 0x80,
+    };
+
+    // MTAP16 with two slices 3000 ticks (one frame at 30 fps) apart, DONB 0x0010
+    private static final byte[] PACKET_MTAP16 = {
+            (byte) 0x80, 0x60, 0x00, 0x02, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00, 0x01,
+            0x7A, 0x00, 0x10,
+            0x00, 0x04, 0x00, 0x00, 0x00, 0x41, (byte) 0x9A, 0x02, 0x03,
+            0x00, 0x03, 0x01, 0x0B, (byte) 0xB8, 0x41, (byte) 0x9A, 0x04,
+    };
+
+    // MTAP24 with 24 bit timestamp offsets
+    private static final byte[] PACKET_MTAP24 = {
+            (byte) 0x80, 0x60, 0x00, 0x03, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00, 0x01,
+            0x7B, 0x00, 0x10,
+            0x00, 0x02, 0x00, 0x00, 0x00, 0x00, 0x41, (byte) 0x9A,
+            0x00, 0x02, 0x01, 0x01, 0x01, 0x00, 0x41, (byte) 0x9B,
+    };
+
+    private static byte[] getNalUnit(@NonNull VideoRtpParser parser, @NonNull byte[] packet, int index) {
+        int offset = parser.getAggregatedNalUnitOffset(index);
+        return Arrays.copyOfRange(packet, offset, offset + parser.getAggregatedNalUnitLength(index));
+    }
+
+    private static byte[] parse(@NonNull VideoRtpParser parser, @NonNull byte[] packet) {
+        return parser.processRtpPacketAndGetNalUnit(packet, RtpParser.RTP_HEADER_SIZE, packet.length - RtpParser.RTP_HEADER_SIZE);
+    }
+
+    @Test
+    public void stapA_nalUnitsSlicedInPlace() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PACKET_STAP_A_SPS_PPS_SEI));
+        assertEquals(3, parser.getAggregatedNalUnitCount());
+
+        // Offsets point into the packet itself
+        assertEquals(RtpParser.RTP_HEADER_SIZE + 3, parser.getAggregatedNalUnitOffset(0));
+        assertEquals(18, parser.getAggregatedNalUnitLength(0));
+        assertEquals(RtpParser.RTP_HEADER_SIZE + 3 + 18 + 2, parser.getAggregatedNalUnitOffset(1));
+        assertEquals(4, parser.getAggregatedNalUnitLength(1));
+        assertEquals(7, parser.getAggregatedNalUnitLength(2));
+        assertEquals(PACKET_STAP_A_SPS_PPS_SEI.length,
+                parser.getAggregatedNalUnitOffset(2) + parser.getAggregatedNalUnitLength(2));
+
+        assertArrayEquals(new byte[] { 0x68, (byte) 0xEE, 0x3C, (byte) 0x80 }, getNalUnit(parser, PACKET_STAP_A_SPS_PPS_SEI, 1));
+        assertEquals(0x67, PACKET_STAP_A_SPS_PPS_SEI[parser.getAggregatedNalUnitOffset(0)]);
+        assertEquals(0x06, PACKET_STAP_A_SPS_PPS_SEI[parser.getAggregatedNalUnitOffset(2)]);
+        for (int i = 0; i < 3; i++)
+            assertEquals(0, parser.getAggregatedNalUnitTimestampOffset(i));
+    }
+
+    @Test
+    public void stapB_donSkipped() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PACKET_STAP_B_SPS_PPS));
+        assertEquals(2, parser.getAggregatedNalUnitCount());
+        assertEquals(RtpParser.RTP_HEADER_SIZE + 5, parser.getAggregatedNalUnitOffset(0));
+        assertEquals(18, parser.getAggregatedNalUnitLength(0));
+        assertArrayEquals(new byte[] { 0x68, (byte) 0xEE, 0x3C, (byte) 0x80 }, getNalUnit(parser, PACKET_STAP_B_SPS_PPS, 1));
+    }
+
+    @Test
+    public void mtap16_timestampOffsets() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PACKET_MTAP16));
+        assertEquals(2, parser.getAggregatedNalUnitCount());
+        assertArrayEquals(new byte[] { 0x41, (byte) 0x9A, 0x02, 0x03 }, getNalUnit(parser, PACKET_MTAP16, 0));
+        assertEquals(0, parser.getAggregatedNalUnitTimestampOffset(0));
+        assertArrayEquals(new byte[] { 0x41, (byte) 0x9A, 0x04 }, getNalUnit(parser, PACKET_MTAP16, 1));
+        assertEquals(3000, parser.getAggregatedNalUnitTimestampOffset(1));
+    }
+
+    @Test
+    public void mtap24_timestampOffsets() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PACKET_MTAP24));
+        assertEquals(2, parser.getAggregatedNalUnitCount());
+        assertArrayEquals(new byte[] { 0x41, (byte) 0x9A }, getNalUnit(parser, PACKET_MTAP24, 0));
+        assertEquals(0, parser.getAggregatedNalUnitTimestampOffset(0));
+        assertArrayEquals(new byte[] { 0x41, (byte) 0x9B }, getNalUnit(parser, PACKET_MTAP24, 1));
+        assertEquals(0x010100, parser.getAggregatedNalUnitTimestampOffset(1));
+    }
+
+    @Test
+    public void stapA_truncatedUnitDropped() {
+        VideoRtpParser parser = new VideoRtpParser();
+        // SEI size exceeds the packet
+        byte[] packet = Arrays.copyOf(PACKET_STAP_A_SPS_PPS_SEI, PACKET_STAP_A_SPS_PPS_SEI.length - 2);
+        assertNull(parse(parser, packet));
+        assertEquals(2, parser.getAggregatedNalUnitCount());
+    }
+
+    // FU-A fragments of non-IDR slice, RTP header stripped
+    private static final byte[] PAYLOAD_FU_A_START = { 0x5C, (byte) 0x81, 0x01, 0x02 };
+    private static final byte[] PAYLOAD_FU_A_MIDDLE = { 0x5C, 0x01, 0x03, 0x04 };
+    private static final byte[] PAYLOAD_FU_A_END = { 0x5C, 0x41, 0x05 };
+
+    private static byte[] parse(@NonNull VideoRtpParser parser, @NonNull byte[] payload, int sequenceNumber) {
+        return parser.processRtpPacketAndGetNalUnit(payload, 0, payload.length, sequenceNumber);
+    }
+
+    @Test
+    public void fuA_continuous() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 0xFFFE));
+        assertNull(parse(parser, PAYLOAD_FU_A_MIDDLE, 0xFFFF));
+        byte[] nalUnit = parse(parser, PAYLOAD_FU_A_END, 0);
+        assertNotNull(nalUnit);
+        assertArrayEquals(new byte[] { 0x00, 0x00, 0x00, 0x01, 0x41, 0x01, 0x02, 0x03, 0x04, 0x05 }, Arrays.copyOf(nalUnit, parser.getNalUnitLength()));
+        assertFalse(parser.isDataLost());
+        assertEquals(0, parser.getDroppedNalUnitCount());
+    }
+
+    @Test
+    public void fuA_middleLost_nalUnitDropped() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 10));
+        assertNull(parse(parser, PAYLOAD_FU_A_END, 12));
+        assertTrue(parser.isDataLost());
+        assertEquals(1, parser.getDroppedNalUnitCount());
+        // Next NAL unit complete
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 13));
+        assertFalse(parser.isDataLost());
+        assertNotNull(parse(parser, PAYLOAD_FU_A_END, 14));
+        assertEquals(1, parser.getDroppedNalUnitCount());
+    }
+
+    @Test
+    public void fuA_endLost_nalUnitDropped() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 10));
+        // End packet lost without sequence gap, e.g. dropped by the server
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 11));
+        assertTrue(parser.isDataLost());
+        assertEquals(1, parser.getDroppedNalUnitCount());
+        assertNotNull(parse(parser, PAYLOAD_FU_A_END, 12));
+    }
+
+    @Test
+    public void fuA_startLost_countedOnce() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 10));
+        assertNotNull(parse(parser, PAYLOAD_FU_A_END, 11));
+        assertNull(parse(parser, PAYLOAD_FU_A_MIDDLE, 13));
+        assertNull(parse(parser, PAYLOAD_FU_A_MIDDLE, 14));
+        assertNull(parse(parser, PAYLOAD_FU_A_END, 15));
+        assertEquals(1, parser.getDroppedNalUnitCount());
+    }
+
+    @Test
+    public void fuA_resetAndSequenceGap_countedOnce() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 10));
+        // Loss reported by jitter buffer, then seen by the parser as a sequence number gap
+        parser.reset();
+        assertNull(parse(parser, PAYLOAD_FU_A_MIDDLE, 12));
+        assertNull(parse(parser, PAYLOAD_FU_A_END, 13));
+        assertEquals(1, parser.getDroppedNalUnitCount());
+    }
+
+    @Test
+    public void fuA_streamJoinedMidFragment_notALoss() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PAYLOAD_FU_A_MIDDLE, 10));
+        assertNull(parse(parser, PAYLOAD_FU_A_END, 11));
+        assertFalse(parser.isDataLost());
+        assertEquals(0, parser.getDroppedNalUnitCount());
+    }
+
+    @Test
+    public void accessUnitMode_nalUnitsWrittenIntoOneBuffer() {
+        VideoRtpParser parser = new VideoRtpParser();
+        parser.setAccessUnitMode(true);
+        // AUD
+        byte[] aud = { 0x09, (byte) 0xF0 };
+        byte[] buffer = parser.processRtpPacketAndGetNalUnit(aud, 0, aud.length, 1);
+        assertNotNull(buffer);
+        assertEquals(0, parser.getNalUnitOffset());
+        parser.commitNalUnit();
+        // SPS from STAP-A discarded, SEI kept
+        parse(parser, PACKET_STAP_A_SPS_PPS_SEI);
+        parser.appendNalUnit(PACKET_STAP_A_SPS_PPS_SEI, parser.getAggregatedNalUnitOffset(0), parser.getAggregatedNalUnitLength(0));
+        parser.discardNalUnit();
+        parser.appendNalUnit(PACKET_STAP_A_SPS_PPS_SEI, parser.getAggregatedNalUnitOffset(2), parser.getAggregatedNalUnitLength(2));
+        parser.commitNalUnit();
+        // Slice reassembled after SEI in the same buffer
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 2));
+        assertSame(buffer, parse(parser, PAYLOAD_FU_A_END, 3));
+        assertEquals(6 + 11, parser.getNalUnitOffset());
+        parser.commitNalUnit();
+        // Next fragmented NAL unit started, goes to the next access unit
+        assertNull(parse(parser, PAYLOAD_FU_A_START, 4));
+
+        int length = parser.getAccessUnitLength();
+        assertSame(buffer, parser.takeAccessUnit());
+        assertArrayEquals(new byte[] {
+                0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0,
+                0x00, 0x00, 0x00, 0x01, 0x06, (byte) 0xE5, 0x01, 0x4B, 0x00, 0x00, (byte) 0x80,
+                0x00, 0x00, 0x00, 0x01, 0x41, 0x01, 0x02, 0x05 }, Arrays.copyOf(buffer, length));
+        assertNull(parser.takeAccessUnit());
+
+        byte[] nalUnit = parse(parser, PAYLOAD_FU_A_END, 5);
+        assertNotNull(nalUnit);
+        assertNotSame(buffer, nalUnit);
+        assertArrayEquals(new byte[] { 0x00, 0x00, 0x00, 0x01, 0x41, 0x01, 0x02, 0x05 }, Arrays.copyOf(nalUnit, parser.getNalUnitLength()));
+    }
+
+    @Test
+    public void singleNalUnit_resetsAggregatedNalUnits() {
+        VideoRtpParser parser = new VideoRtpParser();
+        assertNull(parse(parser, PACKET_STAP_A_SPS_PPS_SEI));
+        byte[] packet = { (byte) 0x80, 0x60, 0x00, 0x04, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00, 0x01, 0x65, 0x01, 0x02 };
+        byte[] nalUnit = parse(parser, packet);
+        assertNotNull(nalUnit);
+        assertEquals(0, parser.getAggregatedNalUnitCount());
+        assertArrayEquals(new byte[] { 0x00, 0x00, 0x00, 0x01, 0x65, 0x01, 0x02 }, Arrays.copyOf(nalUnit, parser.getNalUnitLength()));
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioCodecUtilsTest {
+
+    @Test
+    public void alaw_decoded() {
+        // Smallest positive and negative, largest positive and negative (ITU-T G.711 Table 1a)
+        byte[] alaw = { (byte) 0xD5, 0x55, (byte) 0xAA, 0x2A };
+        short[] pcm = new short[alaw.length];
+        assertEquals(4, AudioCodecUtils.decodeAlaw(alaw, 0, alaw.length, pcm));
+        assertArrayEquals(new short[] { 8, -8, 32256, -32256 }, pcm);
+    }
+
+    @Test
+    public void ulaw_decoded() {
+        // Positive and negative zero, largest positive and negative (ITU-T G.711 Table 2a)
+        byte[] ulaw = { (byte) 0xFF, 0x7F, (byte) 0x80, 0x00 };
+        short[] pcm = new short[ulaw.length];
+        assertEquals(4, AudioCodecUtils.decodeUlaw(ulaw, 0, ulaw.length, pcm));
+        assertArrayEquals(new short[] { 0, 0, 32124, -32124 }, pcm);
+    }
+
+    @Test
+    public void l16_byteSwapped() {
+        byte[] l16 = { 0x00, 0x12, 0x34, (byte) 0xFF, (byte) 0xFE };
+        short[] pcm = new short[2];
+        assertEquals(2, AudioCodecUtils.decodeL16(l16, 1, l16.length - 1, pcm));
+        assertArrayEquals(new short[] { 0x1234, -2 }, pcm);
+    }
+
+}
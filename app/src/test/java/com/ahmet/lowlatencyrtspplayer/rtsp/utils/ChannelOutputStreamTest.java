@@ -0,0 +1,46 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+public class ChannelOutputStreamTest {
+
+    @Test
+    public void write_nonBlockingChannelWaitsForSendBuffer() throws Exception {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+                 SocketChannel server = serverChannel.accept()) {
+                client.configureBlocking(false);
+                // Much more than the socket buffers hold, reader starts late
+                byte[] data = new byte[4 * 1024 * 1024];
+                for (int i = 0; i < data.length; i++)
+                    data[i] = (byte) (i * 7);
+                byte[] received = new byte[data.length];
+                Thread reader = new Thread(() -> {
+                    try {
+                        Thread.sleep(100);
+                        new DataInputStream(server.socket().getInputStream()).readFully(received);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                reader.start();
+                OutputStream outputStream = new ChannelOutputStream(client);
+                outputStream.write(data, 0, data.length);
+                outputStream.write(1);
+                reader.join();
+                assertArrayEquals(data, received);
+            }
+        }
+    }
+
+}
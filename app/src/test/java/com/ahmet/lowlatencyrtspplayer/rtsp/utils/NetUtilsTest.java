@@ -0,0 +1,156 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// Real android.util.Log needed
+@RunWith(RobolectricTestRunner.class)
+public class NetUtilsTest {
+
+    private static final int TIMEOUT_MS = 3000;
+    // NetUtils.CONNECTION_ATTEMPT_DELAY_MS
+    private static final int CONNECTION_ATTEMPT_DELAY_MS = 250;
+
+    // Records sockets opened for connection attempts
+    private static class RecordingConnector implements NetUtils.Connector<Socket> {
+        final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+
+        @NonNull
+        @Override
+        public Socket open() {
+            Socket socket = new Socket();
+            sockets.add(socket);
+            return socket;
+        }
+
+        @Override
+        public void connect(@NonNull Socket socket, @NonNull InetSocketAddress address, int timeout) throws IOException {
+            socket.connect(address, timeout);
+        }
+    }
+
+    private InetAddress ipv4;
+    private InetAddress ipv6;
+    private ServerSocket server;
+    private ServerSocket deadServer;
+    private final ArrayList<SocketChannel> backlog = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        ipv4 = InetAddress.getByName("127.0.0.1");
+        ipv6 = InetAddress.getByName("::1");
+        server = new ServerSocket(0, 50, ipv4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel channel : backlog)
+            channel.close();
+        if (deadServer != null)
+            deadServer.close();
+        server.close();
+    }
+
+    // Address on the same port which never answers. Accept queue is full, so SYNs are dropped.
+    private void startDeadServer() throws Exception {
+        deadServer = new ServerSocket(server.getLocalPort(), 1, ipv6);
+        for (int i = 0; i < 4; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(ipv6, server.getLocalPort()));
+            backlog.add(channel);
+        }
+        Thread.sleep(100);
+    }
+
+    @Test
+    public void connect_fastAddressWins() throws Exception {
+        startDeadServer();
+        // Address which never answers goes first
+        InetAddress[] resolved = { ipv6, ipv4 };
+        RecordingConnector connector = new RecordingConnector();
+        long startMs = System.currentTimeMillis();
+        Socket socket = NetUtils.connectHappyEyeballs("camera1.test", resolved, server.getLocalPort(), TIMEOUT_MS, connector);
+        long durationMs = System.currentTimeMillis() - startMs;
+        try {
+            assertEquals(ipv4, socket.getInetAddress());
+            assertTrue(socket.isConnected());
+            // Second attempt started after the delay, not after the first one timed out
+            assertTrue(durationMs >= CONNECTION_ATTEMPT_DELAY_MS - 10);
+            assertTrue(durationMs < TIMEOUT_MS);
+            assertEquals(2, connector.sockets.size());
+            assertSame(socket, connector.sockets.get(1));
+            // Losing attempt closed
+            assertTrue(connector.sockets.get(0).isClosed());
+        } finally {
+            socket.close();
+        }
+
+        // Winning address tried first next time, no other attempts started
+        connector = new RecordingConnector();
+        startMs = System.currentTimeMillis();
+        socket = NetUtils.connectHappyEyeballs("camera1.test", resolved, server.getLocalPort(), TIMEOUT_MS, connector);
+        durationMs = System.currentTimeMillis() - startMs;
+        try {
+            assertEquals(ipv4, socket.getInetAddress());
+            assertTrue(durationMs < CONNECTION_ATTEMPT_DELAY_MS);
+            assertEquals(1, connector.sockets.size());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void connect_failedAttemptStartsNext() throws Exception {
+        // Nothing listens on the port of the first address
+        InetAddress[] resolved = { ipv6, ipv4 };
+        RecordingConnector connector = new RecordingConnector();
+        long startMs = System.currentTimeMillis();
+        Socket socket = NetUtils.connectHappyEyeballs("camera2.test", resolved, server.getLocalPort(), TIMEOUT_MS, connector);
+        long durationMs = System.currentTimeMillis() - startMs;
+        try {
+            assertEquals(ipv4, socket.getInetAddress());
+            // Next attempt started right after the refused one, no attempt delay
+            assertTrue(durationMs < CONNECTION_ATTEMPT_DELAY_MS);
+            assertEquals(2, connector.sockets.size());
+            assertTrue(connector.sockets.get(0).isClosed());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void connect_allAttemptsFail() throws Exception {
+        int port = server.getLocalPort();
+        server.close();
+        InetAddress[] resolved = { ipv4, ipv6 };
+        RecordingConnector connector = new RecordingConnector();
+        try {
+            NetUtils.connectHappyEyeballs("camera3.test", resolved, port, TIMEOUT_MS, connector);
+            fail("Exception expected");
+        } catch (ConnectException ignored) {
+        }
+        assertEquals(2, connector.sockets.size());
+        for (Socket socket : connector.sockets)
+            assertTrue(socket.isClosed());
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadBufferTest {
+
+    // Returns at most chunkSize bytes per read, like a socket with data arriving in pieces
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int chunkSize;
+
+        ChunkedInputStream(@NonNull byte[] data, int chunkSize) {
+            super(data);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(@NonNull byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+
+    @NonNull
+    private static byte[] getBytes(int count) {
+        byte[] data = new byte[count];
+        for (int i = 0; i < count; i++)
+            data[i] = (byte) i;
+        return data;
+    }
+
+    @NonNull
+    private static InputStream getStream(int count, int chunkSize) {
+        return new ChunkedInputStream(getBytes(count), chunkSize);
+    }
+
+    @Test
+    public void ensure_partialReads() throws Exception {
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(getStream(10, 1), 16);
+        readBuffer.ensure(4);
+        assertTrue(readBuffer.available() >= 4);
+        for (int i = 0; i < 4; i++)
+            assertEquals(i, readBuffer.peek(i));
+        // Already buffered, no read
+        readBuffer.ensure(2);
+        assertEquals(4, readBuffer.available());
+    }
+
+    @Test
+    public void ensure_bulkRead() throws Exception {
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(getStream(10, 100), 16);
+        readBuffer.ensure(1);
+        // Everything received so far is buffered by a single read
+        assertEquals(10, readBuffer.available());
+    }
+
+    @Test
+    public void ensure_growsBuffer() throws Exception {
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(getStream(100, 7), 8);
+        readBuffer.ensure(3);
+        readBuffer.skip(3);
+        readBuffer.ensure(50);
+        assertTrue(readBuffer.getData().length >= 50);
+        assertEquals(0, readBuffer.getPosition());
+        for (int i = 0; i < 50; i++)
+            assertEquals(3 + i, readBuffer.peek(i));
+    }
+
+    @Test
+    public void ensure_compactsBuffer() throws Exception {
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(getStream(20, 6), 8);
+        readBuffer.ensure(6);
+        byte[] data = readBuffer.getData();
+        readBuffer.skip(5);
+        // 1 unread byte moved to the beginning, no new array
+        readBuffer.ensure(4);
+        assertSame(data, readBuffer.getData());
+        assertEquals(0, readBuffer.getPosition());
+        for (int i = 0; i < 4; i++)
+            assertEquals(5 + i, readBuffer.peek(i));
+    }
+
+    @Test
+    public void skip_limitedToAvailable() throws Exception {
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(getStream(4, 4), 8);
+        readBuffer.ensure(4);
+        readBuffer.skip(10);
+        assertEquals(0, readBuffer.available());
+        assertEquals(4, readBuffer.getPosition());
+    }
+
+    @Test
+    public void ensure_connectionClosed() throws Exception {
+        ReadAheadBuffer readBuffer = new ReadAheadBuffer(getStream(3, 1), 8);
+        try {
+            readBuffer.ensure(4);
+            fail("EOF expected");
+        } catch (EOFException ignored) {
+        }
+    }
+
+    @Test
+    public void poll_channelDoesNotBlock() throws Exception {
+        Pipe pipe = Pipe.open();
+        try {
+            ReadAheadBuffer readBuffer = new ReadAheadBuffer(pipe.source());
+            assertFalse(pipe.source().isBlocking());
+            assertEquals(0, readBuffer.poll());
+
+            pipe.sink().write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            assertEquals(3, readBuffer.poll());
+            readBuffer.skip(1);
+            assertEquals(2, readBuffer.peek(0));
+
+            pipe.sink().close();
+            try {
+                readBuffer.poll();
+                fail("EOF expected");
+            } catch (EOFException ignored) {
+            }
+            readBuffer.release();
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test
+    public void poll_socketStreamWaitsForReadTimeout() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+             Socket server = serverSocket.accept()) {
+            client.setSoTimeout(1);
+            ReadAheadBuffer readBuffer = new ReadAheadBuffer(client.getInputStream(), 4);
+            assertEquals(0, readBuffer.poll());
+
+            server.getOutputStream().write(new byte[] { 1, 2, 3, 4 });
+            client.setSoTimeout(1000);
+            assertEquals(4, readBuffer.poll());
+            // Full buffer compacted on the next poll
+            readBuffer.skip(3);
+            server.getOutputStream().write(5);
+            assertEquals(2, readBuffer.poll());
+            assertEquals(4, readBuffer.peek(0));
+            assertEquals(5, readBuffer.peek(1));
+        }
+    }
+
+    @Test
+    public void ensure_stalledChannelTimesOut() throws Exception {
+        try (ServerSocketChannel serverChannel = openServerChannel();
+             SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+             SocketChannel ignored = serverChannel.accept()) {
+            client.socket().setSoTimeout(100);
+            ReadAheadBuffer readBuffer = new ReadAheadBuffer(client);
+            long startMs = System.currentTimeMillis();
+            try {
+                readBuffer.ensure(1);
+                fail("Timeout expected");
+            } catch (SocketTimeoutException e) {
+                assertTrue(System.currentTimeMillis() - startMs >= 100);
+            }
+            readBuffer.release();
+        }
+    }
+
+    @Test
+    public void ensure_channelWaitsForData() throws Exception {
+        try (ServerSocketChannel serverChannel = openServerChannel();
+             SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+             SocketChannel server = serverChannel.accept()) {
+            client.socket().setSoTimeout(5000);
+            ReadAheadBuffer readBuffer = new ReadAheadBuffer(client);
+            Thread writer = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                    server.write(ByteBuffer.wrap(new byte[] { 1, 2 }));
+                    Thread.sleep(50);
+                    server.write(ByteBuffer.wrap(new byte[] { 3 }));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+            readBuffer.ensure(3);
+            writer.join();
+            assertEquals(3, readBuffer.peek(2));
+            readBuffer.release();
+        }
+    }
+
+    @Test
+    public void ensure_channelInterrupted() throws Exception {
+        try (ServerSocketChannel serverChannel = openServerChannel();
+             SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+             SocketChannel ignored = serverChannel.accept()) {
+            ReadAheadBuffer readBuffer = new ReadAheadBuffer(client);
+            Thread.currentThread().interrupt();
+            try {
+                readBuffer.ensure(1);
+                fail("Interrupt expected");
+            } catch (ClosedByInterruptException e) {
+                assertFalse(client.isOpen());
+            } finally {
+                Thread.interrupted();
+            }
+            readBuffer.release();
+        }
+    }
+
+    @NonNull
+    private static ServerSocketChannel openServerChannel() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return serverChannel;
+    }
+
+}
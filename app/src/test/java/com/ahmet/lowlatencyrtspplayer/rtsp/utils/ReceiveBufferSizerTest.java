@@ -0,0 +1,138 @@
+package com.ahmet.lowlatencyrtspplayer.rtsp.utils;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.net.Socket;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class ReceiveBufferSizerTest {
+
+    private static final int KB = 1024;
+    private static final int MB = 1024 * 1024;
+    private static final int INITIAL_SIZE = 64 * KB;
+    // Packet received every 10 msec
+    private static final int PACKET_INTERVAL_MS = 10;
+
+    // Records requested SO_RCVBUF values without touching a real socket
+    private static class FakeSocket extends Socket {
+        final ArrayList<Integer> requestedSizes = new ArrayList<>();
+        // Linux kernel doubles the value set
+        final int effectiveSizeFactor;
+        int size = INITIAL_SIZE;
+
+        FakeSocket(int effectiveSizeFactor) {
+            this.effectiveSizeFactor = effectiveSizeFactor;
+        }
+
+        @Override
+        public synchronized void setReceiveBufferSize(int size) {
+            requestedSizes.add(size);
+            this.size = size * effectiveSizeFactor;
+        }
+
+        @Override
+        public synchronized int getReceiveBufferSize() {
+            return size;
+        }
+    }
+
+    private long nowMs = 1000;
+
+    // Constant bitrate for the duration, returns number of resizes
+    private int receive(@NonNull ReceiveBufferSizer sizer, long bitrate, int durationMs) {
+        int packetSize = (int) (bitrate / 8 * PACKET_INTERVAL_MS / 1000);
+        int resizes = 0;
+        for (int i = 0; i < durationMs / PACKET_INTERVAL_MS; i++) {
+            if (sizer.onDataReceived(packetSize, nowMs))
+                resizes++;
+            nowMs += PACKET_INTERVAL_MS;
+        }
+        return resizes;
+    }
+
+    @Test
+    public void constantBitrate_sizedForHalfSecond() throws Exception {
+        FakeSocket socket = new FakeSocket(1);
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(socket, 4 * MB);
+        assertEquals(INITIAL_SIZE, sizer.getReceiveBufferSize());
+        // 8 Mbps, 500 KB in 500 msec rounded up to 64 KB
+        assertEquals(1, receive(sizer, 8000000, 2000));
+        assertEquals(8000000, sizer.getPeakBitrate());
+        assertEquals(1, socket.requestedSizes.size());
+        assertEquals(8 * 64 * KB, (int) socket.requestedSizes.get(0));
+        assertEquals(8 * 64 * KB, sizer.getReceiveBufferSize());
+    }
+
+    @Test
+    public void firstWindow_ignored() throws Exception {
+        FakeSocket socket = new FakeSocket(1);
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(socket, 4 * MB);
+        // Less than 2 windows of 100 msec, nothing measured yet
+        assertEquals(0, receive(sizer, 8000000, 100));
+        assertEquals(0, sizer.getPeakBitrate());
+        assertTrue(socket.requestedSizes.isEmpty());
+        assertEquals(1, receive(sizer, 8000000, 20));
+    }
+
+    @Test
+    public void burst_growsButNeverShrinks() throws Exception {
+        FakeSocket socket = new FakeSocket(1);
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(socket, 4 * MB);
+        assertEquals(1, receive(sizer, 4000000, 1000));
+        assertEquals(4 * 64 * KB, sizer.getReceiveBufferSize());
+
+        // I-frame burst of a single 100 msec window at 32 Mbps, 2 MB rounded up to 64 KB.
+        // Window measured on the first packet after it.
+        assertEquals(0, receive(sizer, 32000000, 100));
+        assertEquals(1, receive(sizer, 1000000, PACKET_INTERVAL_MS));
+        assertEquals(32000000, sizer.getPeakBitrate());
+        assertEquals(31 * 64 * KB, sizer.getReceiveBufferSize());
+
+        // Bitrate drops
+        assertEquals(0, receive(sizer, 1000000, 3000));
+        assertEquals(32000000, sizer.getPeakBitrate());
+        assertEquals(31 * 64 * KB, sizer.getReceiveBufferSize());
+        assertEquals(2, socket.requestedSizes.size());
+    }
+
+    @Test
+    public void smallIncrease_noResize() throws Exception {
+        FakeSocket socket = new FakeSocket(1);
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(socket, 4 * MB);
+        assertEquals(1, receive(sizer, 8000000, 1000));
+        // 10% more than the peak, new size within 25% of the current one
+        assertEquals(0, receive(sizer, 8800000, 1000));
+        assertEquals(8800000, sizer.getPeakBitrate());
+        assertEquals(1, socket.requestedSizes.size());
+    }
+
+    @Test
+    public void maxSize_clamped() throws Exception {
+        FakeSocket socket = new FakeSocket(1);
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(socket, MB);
+        // 80 Mbps needs 5 MB
+        assertEquals(1, receive(sizer, 80000000, 1000));
+        assertEquals(MB, (int) socket.requestedSizes.get(0));
+        // Already at max size
+        assertEquals(0, receive(sizer, 160000000, 1000));
+        assertEquals(1, socket.requestedSizes.size());
+        assertEquals(MB, sizer.getReceiveBufferSize());
+    }
+
+    @Test
+    public void effectiveSize_used() throws Exception {
+        FakeSocket socket = new FakeSocket(2);
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(socket, 4 * MB);
+        assertEquals(1, receive(sizer, 8000000, 1000));
+        assertEquals(8 * 64 * KB, (int) socket.requestedSizes.get(0));
+        assertEquals(2 * 8 * 64 * KB, sizer.getReceiveBufferSize());
+        // Doubled buffer already holds 1 sec at 8 Mbps
+        assertEquals(0, receive(sizer, 16000000, 1000));
+        assertEquals(1, socket.requestedSizes.size());
+    }
+
+}